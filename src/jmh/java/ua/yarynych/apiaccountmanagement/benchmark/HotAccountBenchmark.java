@@ -0,0 +1,116 @@
+package ua.yarynych.apiaccountmanagement.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import ua.yarynych.apiaccountmanagement.service.AccountLanes;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Deposit throughput for a Zipf-distributed set of accounts: a few accounts receive most of the traffic.
+ * <p>
+ * {@code rowLocking} models the default path: each deposit holds its account's row lock for one
+ * database round trip. {@code lanes} sends the same deposits through {@link AccountLanes}, where
+ * deposits waiting for the same account share one round trip. The round trip is simulated with
+ * {@link LockSupport#parkNanos}, so the numbers show the effect of contention, not of MySQL itself.
+ * Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(64)
+public class HotAccountBenchmark {
+
+    private static final int ACCOUNTS = 10_000;
+
+    @Param({"1.1"})
+    private double skew;
+    @Param({"100000"})
+    private long roundTripNanos;
+    @Param({"8"})
+    private int laneCount;
+
+    private double[] cumulative;
+    private ReentrantLock[] rowLocks;
+    private long[] balances;
+    private AccountLanes lanes;
+
+    @Setup
+    public void setUp() throws Exception {
+        cumulative = new double[ACCOUNTS];
+        double total = 0;
+        for (int i = 0; i < ACCOUNTS; i++) {
+            total += 1.0 / Math.pow(i + 1, skew);
+            cumulative[i] = total;
+        }
+        for (int i = 0; i < ACCOUNTS; i++) {
+            cumulative[i] /= total;
+        }
+
+        rowLocks = new ReentrantLock[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            rowLocks[i] = new ReentrantLock();
+        }
+        balances = new long[ACCOUNTS];
+
+        lanes = new AccountLanes(new SimpleMeterRegistry());
+        set(lanes, "enabled", true);
+        set(lanes, "laneCount", laneCount);
+        lanes.init();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        lanes.shutdown();
+    }
+
+    @Benchmark
+    public long rowLocking() {
+        int account = nextAccount();
+        ReentrantLock lock = rowLocks[account];
+        lock.lock();
+        try {
+            LockSupport.parkNanos(roundTripNanos);
+            return balances[account] += 100;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Benchmark
+    public long lanes() {
+        int account = nextAccount();
+        return AccountLanes.await(lanes.submitCoalescing((long) account, "deposit", 100L, this::applyDeposits));
+    }
+
+    private List<Long> applyDeposits(Long accountId, List<Long> amounts) {
+        LockSupport.parkNanos(roundTripNanos);
+        int account = accountId.intValue();
+        List<Long> results = new ArrayList<>(amounts.size());
+        for (Long amount : amounts) {
+            results.add(balances[account] += amount);
+        }
+        return results;
+    }
+
+    private int nextAccount() {
+        int index = Arrays.binarySearch(cumulative, ThreadLocalRandom.current().nextDouble());
+        return Math.min(ACCOUNTS - 1, index >= 0 ? index : -index - 1);
+    }
+
+    private static void set(Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
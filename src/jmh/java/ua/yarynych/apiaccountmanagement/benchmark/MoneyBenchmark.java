@@ -0,0 +1,103 @@
+package ua.yarynych.apiaccountmanagement.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import ua.yarynych.apiaccountmanagement.entity.CurrencyRate;
+import ua.yarynych.apiaccountmanagement.entity.enums.Currency;
+import ua.yarynych.apiaccountmanagement.service.CurrencyRates;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Balance arithmetic of one cross-currency transfer (convert into the source currency, check funds,
+ * debit, convert into the target currency, credit) with BigDecimal amounts, as TransactionsService did
+ * before balances were stored in minor units, and with long minor units.
+ * Run with {@code ./gradlew jmh}; the gc profiler reports allocation per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoneyBenchmark {
+
+    private static final int AMOUNTS = 1024;
+
+    private final BigDecimal eurToUsd = new BigDecimal("1.1725");
+    private final BigDecimal usdToUah = new BigDecimal("41.2537");
+    private CurrencyRates rates;
+
+    private final BigDecimal[] decimalAmounts = new BigDecimal[AMOUNTS];
+    private final long[] minorAmounts = new long[AMOUNTS];
+    private BigDecimal decimalFrom;
+    private BigDecimal decimalTo;
+    private long minorFrom;
+    private long minorTo;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        LocalDateTime now = LocalDateTime.now();
+        rates = CurrencyRates.of(List.of(
+                new CurrencyRate(1L, "EUR", "USD", eurToUsd, now),
+                new CurrencyRate(2L, "USD", "UAH", usdToUah, now)));
+
+        Random random = new Random(42);
+        for (int i = 0; i < AMOUNTS; i++) {
+            long cents = 1 + random.nextInt(100_000);
+            minorAmounts[i] = cents;
+            decimalAmounts[i] = BigDecimal.valueOf(cents, 2);
+        }
+
+        decimalFrom = new BigDecimal("1000000000.00");
+        decimalTo = new BigDecimal("0.00");
+        minorFrom = 100_000_000_000L;
+        minorTo = 0;
+    }
+
+    @Benchmark
+    public void bigDecimalTransfer(Blackhole blackhole) {
+        BigDecimal requested = decimalAmounts[next++ & (AMOUNTS - 1)];
+
+        BigDecimal amount = requested.multiply(eurToUsd);
+        if (decimalFrom.compareTo(amount) < 0) {
+            throw new IllegalStateException("Insufficient funds");
+        }
+        BigDecimal transferAmount = amount.multiply(usdToUah);
+
+        decimalFrom = decimalFrom.subtract(amount);
+        decimalTo = decimalTo.add(transferAmount);
+        blackhole.consume(decimalFrom);
+        blackhole.consume(decimalTo);
+
+        if (decimalFrom.signum() <= 0) {
+            setUp();
+        }
+    }
+
+    @Benchmark
+    public void minorUnitsTransfer(Blackhole blackhole) {
+        long requested = minorAmounts[next++ & (AMOUNTS - 1)];
+
+        long amount = rates.convert(requested, Currency.EUR, Currency.USD, RoundingMode.CEILING);
+        if (minorFrom < amount) {
+            throw new IllegalStateException("Insufficient funds");
+        }
+        long transferAmount = rates.convert(amount, Currency.USD, Currency.UAH, RoundingMode.FLOOR);
+
+        minorFrom -= amount;
+        minorTo = Math.addExact(minorTo, transferAmount);
+        blackhole.consume(minorFrom);
+        blackhole.consume(minorTo);
+
+        if (minorFrom <= 0) {
+            setUp();
+        }
+    }
+}
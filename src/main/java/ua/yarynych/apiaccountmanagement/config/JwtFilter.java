@@ -10,16 +10,18 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.server.ServletServerHttpRequest;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
-import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 import ua.yarynych.apiaccountmanagement.entity.exceptions.BadTokenException;
 import ua.yarynych.apiaccountmanagement.entity.auth.UserAuthDetails;
+import ua.yarynych.apiaccountmanagement.entity.auth.VerifiedToken;
 import ua.yarynych.apiaccountmanagement.service.auth.JwtService;
+import ua.yarynych.apiaccountmanagement.service.auth.SessionRegistry;
 
 import java.io.IOException;
+import java.util.Objects;
 
 @Log4j2
 @Component
@@ -30,6 +32,7 @@ public class JwtFilter extends OncePerRequestFilter {
     private String REFRESH_LINK;
 
     private final JwtService jwtService;
+    private final SessionRegistry sessionRegistry;
 
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
@@ -58,26 +61,26 @@ public class JwtFilter extends OncePerRequestFilter {
 
     private void handleToken(HttpServletRequest request, HttpServletResponse response, FilterChain chain, String token) throws IOException, ServletException {
 
-        jwtService.validateToken(token);
+        VerifiedToken verified = jwtService.verify(token);
+        request.setAttribute(VerifiedToken.REQUEST_ATTRIBUTE, verified);
 
-        switch (jwtService.extractType(token)) {
+        switch (Objects.toString(verified.getType(), "")) {
             case "access" -> {
-                UserAuthDetails userDetails = jwtService.read(token);
+                if (!sessionRegistry.isActive(verified)) {
+                    log.warn("Session is no longer active for {}", verified.getEmail());
+                    response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Session is no longer active");
+                    return;
+                }
+
+                UserAuthDetails userDetails = jwtService.read(verified);
 
                 UsernamePasswordAuthenticationToken authenticationToken =
                         new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities());
 
                 authenticationToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
 
-                log.info("Final authentication authorities: {}", authenticationToken.getAuthorities());
-
                 SecurityContextHolder.getContext().setAuthentication(authenticationToken);
-
-                Authentication auth = SecurityContextHolder.getContext().getAuthentication();
-                if (auth != null) {
-                    log.info("Current user: {}", auth.getName());
-                    log.info("User authorities: {}", auth.getAuthorities());
-                }
+                log.debug("Authenticated {} with {}", userDetails.getEmail(), userDetails.getAuthorities());
 
                 chain.doFilter(request, response);
             }
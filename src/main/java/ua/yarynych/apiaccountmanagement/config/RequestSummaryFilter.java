@@ -0,0 +1,85 @@
+package ua.yarynych.apiaccountmanagement.config;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import ua.yarynych.apiaccountmanagement.entity.auth.VerifiedToken;
+
+import java.io.IOException;
+
+import static org.apache.logging.log4j.util.Unbox.box;
+
+/**
+ * Writes one line per request (method, path, status, duration and user) instead of the
+ * several lines the filters and services used to write on every call.
+ * Requests completed asynchronously are logged when the async processing completes.
+ * The line goes to this class's logger, so it can be turned off or sampled on its own.
+ */
+@Log4j2
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class RequestSummaryFilter extends OncePerRequestFilter {
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+
+        if (!log.isInfoEnabled()) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        long started = System.nanoTime();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new SummaryListener(request, response, started));
+            } else {
+                summarize(request, response, started);
+            }
+        }
+    }
+
+    private static void summarize(HttpServletRequest request, HttpServletResponse response, long started) {
+        long elapsedMicros = (System.nanoTime() - started) / 1000;
+        int status = response.getStatus();
+        Object verified = request.getAttribute(VerifiedToken.REQUEST_ATTRIBUTE);
+        Long userId = verified instanceof VerifiedToken token ? token.getUserId() : null;
+
+        if (status >= 500) {
+            log.warn("{} {} {} {}us user={}", request.getMethod(), request.getRequestURI(), box(status), box(elapsedMicros), userId);
+        } else {
+            log.info("{} {} {} {}us user={}", request.getMethod(), request.getRequestURI(), box(status), box(elapsedMicros), userId);
+        }
+    }
+
+    private record SummaryListener(HttpServletRequest request, HttpServletResponse response, long started)
+            implements AsyncListener {
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            summarize(request, response, started);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
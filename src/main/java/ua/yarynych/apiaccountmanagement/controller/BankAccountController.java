@@ -6,16 +6,35 @@ import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ua.yarynych.apiaccountmanagement.entity.BankAccount;
-import ua.yarynych.apiaccountmanagement.entity.OperationHistory;
 import ua.yarynych.apiaccountmanagement.entity.User;
+import ua.yarynych.apiaccountmanagement.entity.auth.UserAuthDetails;
+import ua.yarynych.apiaccountmanagement.entity.dto.account.BankAccountView;
+import ua.yarynych.apiaccountmanagement.entity.dto.history.AccountRollup;
+import ua.yarynych.apiaccountmanagement.entity.dto.history.HistoryPage;
+import ua.yarynych.apiaccountmanagement.entity.dto.history.HistoryQuery;
+import ua.yarynych.apiaccountmanagement.entity.dto.ledger.LedgerRebuildReport;
 import ua.yarynych.apiaccountmanagement.entity.dto.transactions.CreateBankAccountRequest;
+import ua.yarynych.apiaccountmanagement.entity.enums.ExportFormat;
+import ua.yarynych.apiaccountmanagement.entity.enums.Operations;
 import ua.yarynych.apiaccountmanagement.service.BankAccountService;
 
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+
 @RestController
 @RequiredArgsConstructor
 @RequestMapping("/accounts")
@@ -24,52 +43,151 @@ public class BankAccountController {
 
     private final BankAccountService bankAccountService;
 
+    @Value("${history.export.timeout-ms:1800000}")
+    private long exportTimeoutMs = 1_800_000;
+
     @Operation(summary = "Create new account for user", description = "Extracts the user from token and create account for him and connection with him")
     @ApiResponse(responseCode = "200", content = { @Content(mediaType = "application/json", schema = @Schema(implementation = BankAccount.class))})
     @PostMapping("/create")
     @PreAuthorize("hasAnyRole('ROLE_ADMIN', 'ROLE_INTERNAL_USER')")
-    public ResponseEntity<?> createBankAccount(@RequestBody CreateBankAccountRequest request, @RequestHeader("Authorization") String token) {
-        return ResponseEntity.ok(bankAccountService.createBankAccount(request, token));
+    public ResponseEntity<?> createBankAccount(@RequestBody CreateBankAccountRequest request, @AuthenticationPrincipal UserAuthDetails principal) {
+        return ResponseEntity.ok(bankAccountService.createBankAccount(request, principal));
     }
 
     @Operation(summary = "Extract accounts of user", description = "Extracts the user from token and return the list of all his active accounts")
-    @ApiResponse(responseCode = "200", content = { @Content(mediaType = "application/json", array = @ArraySchema(schema = @Schema(implementation = BankAccount.class)))})
+    @ApiResponse(responseCode = "200", content = { @Content(mediaType = "application/json", array = @ArraySchema(schema = @Schema(implementation = BankAccountView.class)))})
     @GetMapping("/get")
     @PreAuthorize("hasAnyRole('ROLE_ADMIN', 'ROLE_INTERNAL_USER')")
-    public ResponseEntity<?> getUserBankAccounts(@RequestHeader("Authorization") String token) {
-        return ResponseEntity.ok(bankAccountService.getUserBankAccounts(token));
+    public ResponseEntity<?> getUserBankAccounts(@AuthenticationPrincipal UserAuthDetails principal) {
+        return ResponseEntity.ok(bankAccountService.getUserBankAccounts(principal));
     }
 
     @Operation(summary = "Extract accounts by number", description = "Extracts the account by its number")
-    @ApiResponse(responseCode = "200", content = { @Content(mediaType = "application/json", schema = @Schema(implementation = BankAccount.class))})
+    @ApiResponse(responseCode = "200", content = { @Content(mediaType = "application/json", schema = @Schema(implementation = BankAccountView.class))})
     @GetMapping("/number")
     @PreAuthorize("hasAnyRole('ROLE_ADMIN', 'ROLE_INTERNAL_USER')")
-    public ResponseEntity<?> getBankAccountsByNumber(@RequestParam Long accountNumber, @RequestHeader("Authorization") String token) {
-        return ResponseEntity.ok(bankAccountService.getBankAccountsByNumber(accountNumber, token));
+    public ResponseEntity<?> getBankAccountsByNumber(@RequestParam Long accountNumber, @AuthenticationPrincipal UserAuthDetails principal) {
+        return ResponseEntity.ok(bankAccountService.getBankAccountsByNumber(accountNumber, principal));
+    }
+
+    @Operation(summary = "Extract account balance at a moment", description = "Returns the account with the balance it had at the given time, replayed from the journal")
+    @ApiResponse(responseCode = "200", content = { @Content(mediaType = "application/json", schema = @Schema(implementation = BankAccountView.class))})
+    @GetMapping("/balance-at")
+    @PreAuthorize("hasAnyRole('ROLE_ADMIN', 'ROLE_INTERNAL_USER')")
+    public ResponseEntity<?> getBankAccountBalanceAt(@RequestParam Long accountNumber, @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime at,
+                                                     @AuthenticationPrincipal UserAuthDetails principal) {
+        return ResponseEntity.ok(bankAccountService.getBankAccountBalanceAt(accountNumber, at, principal));
     }
 
     @Operation(summary = "Close opened accounts", description = "Close account of user. Deleted its from db")
     @ApiResponse(responseCode = "200", content = { @Content(mediaType = "application/json", schema = @Schema(implementation = String.class))})
     @PostMapping("/close")
     @PreAuthorize("hasAnyRole('ROLE_ADMIN', 'ROLE_INTERNAL_USER')")
-    public ResponseEntity<?> closeBankAccountsByNumber(@RequestParam Long accountNumber, @RequestHeader("Authorization") String token) {
-        return ResponseEntity.ok(bankAccountService.closeBankAccountsByNumber(accountNumber, token));
+    public ResponseEntity<?> closeBankAccountsByNumber(@RequestParam Long accountNumber, @AuthenticationPrincipal UserAuthDetails principal) {
+        return ResponseEntity.ok(bankAccountService.closeBankAccountsByNumber(accountNumber, principal));
     }
 
     @Operation(summary = "Extract all accounts in system", description = "Extracts all opened accounts in system. For admins only")
-    @ApiResponse(responseCode = "200", content = { @Content(mediaType = "application/json", array = @ArraySchema(schema = @Schema(implementation = BankAccount.class)))})
+    @ApiResponse(responseCode = "200", content = { @Content(mediaType = "application/json", array = @ArraySchema(schema = @Schema(implementation = BankAccountView.class)))})
     @GetMapping("/all")
     @PreAuthorize("hasAnyRole('ROLE_ADMIN')")
-    public ResponseEntity<?> getAllBankAccounts(@RequestHeader("Authorization") String token) {
-        return ResponseEntity.ok(bankAccountService.getAllBankAccounts(token));
+    public ResponseEntity<?> getAllBankAccounts(@AuthenticationPrincipal UserAuthDetails principal) {
+        return ResponseEntity.ok(bankAccountService.getAllBankAccounts(principal));
+    }
+
+    @Operation(summary = "Split account balance into stripes", description = "Stores the balance of a hot account in the given number of rows so deposits do not queue on one row; 0 merges it back. For admins only")
+    @ApiResponse(responseCode = "200", content = { @Content(mediaType = "application/json", schema = @Schema(implementation = BankAccount.class))})
+    @PostMapping("/stripes")
+    @PreAuthorize("hasAnyRole('ROLE_ADMIN')")
+    public ResponseEntity<?> configureStripes(@RequestParam Long accountNumber, @RequestParam int stripes, @AuthenticationPrincipal UserAuthDetails principal) {
+        return ResponseEntity.ok(bankAccountService.configureStripes(accountNumber, stripes, principal));
+    }
+
+    @Operation(summary = "Rebuild balance snapshots", description = "Replays the journal in parallel per range of accounts and rewrites the balance snapshots. For admins only")
+    @ApiResponse(responseCode = "200", content = { @Content(mediaType = "application/json", schema = @Schema(implementation = LedgerRebuildReport.class))})
+    @PostMapping("/ledger/rebuild")
+    @PreAuthorize("hasAnyRole('ROLE_ADMIN')")
+    public ResponseEntity<?> rebuildLedger(@RequestParam(defaultValue = "4") int partitions, @AuthenticationPrincipal UserAuthDetails principal) {
+        return ResponseEntity.ok(bankAccountService.rebuildLedger(partitions, principal));
     }
 
-    @Operation(summary = "Extract all accounts transactions", description = "Extracts all transactions by account number")
-    @ApiResponse(responseCode = "200", content = { @Content(mediaType = "application/json", array = @ArraySchema(schema = @Schema(implementation = OperationHistory.class)))})
+    @Operation(summary = "Extract account transactions", description = "Extracts a page of transactions by account number, newest first. "
+            + "Pass nextCursor of a page as cursor to get the next one")
+    @ApiResponse(responseCode = "200", content = { @Content(mediaType = "application/json", schema = @Schema(implementation = HistoryPage.class))})
     @GetMapping("/operations/history")
     @PreAuthorize("hasAnyRole('ROLE_ADMIN', 'ROLE_INTERNAL_USER')")
-    public ResponseEntity<?> getAllAccountTransactions(@RequestParam Long accountNumber, @RequestHeader("Authorization") String token) {
-        return ResponseEntity.ok(bankAccountService.getHistoryOfOperationsByAccountId(accountNumber, token));
+    public ResponseEntity<?> getAllAccountTransactions(@RequestParam Long accountNumber,
+                                                       @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                       @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                                       @RequestParam(required = false) Operations type,
+                                                       @RequestParam(required = false) BigDecimal minAmount,
+                                                       @RequestParam(required = false) BigDecimal maxAmount,
+                                                       @RequestParam(required = false) String cursor,
+                                                       @RequestParam(required = false) Integer limit,
+                                                       @AuthenticationPrincipal UserAuthDetails principal) {
+        HistoryQuery query = new HistoryQuery(from, to, type, minAmount, maxAmount, cursor, limit);
+        return ResponseEntity.ok(bankAccountService.getHistoryOfOperationsByAccountId(accountNumber, query, principal));
+    }
+
+    @Operation(summary = "Extract user activity", description = "Extracts a page of transactions of all accounts of the user, newest first. "
+            + "Pass nextCursor of a page as cursor to get the next one")
+    @ApiResponse(responseCode = "200", content = { @Content(mediaType = "application/json", schema = @Schema(implementation = HistoryPage.class))})
+    @GetMapping("/operations/feed")
+    @PreAuthorize("hasAnyRole('ROLE_ADMIN', 'ROLE_INTERNAL_USER')")
+    public ResponseEntity<?> getActivityFeed(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                             @RequestParam(required = false) Operations type,
+                                             @RequestParam(required = false) String cursor,
+                                             @RequestParam(required = false) Integer limit,
+                                             @AuthenticationPrincipal UserAuthDetails principal) {
+        HistoryQuery query = new HistoryQuery(from, to, type, null, null, cursor, limit);
+        return ResponseEntity.ok(bankAccountService.getActivityFeed(query, principal));
+    }
+
+    @Operation(summary = "Daily account summary", description = "Deposits, withdrawals, number of operations and opening and closing balance "
+            + "of the account for each day with operations between from and to inclusive. Days older than history.rollups.keep-daily-months "
+            + "are only summarized by month")
+    @ApiResponse(responseCode = "200", content = { @Content(mediaType = "application/json", array = @ArraySchema(schema = @Schema(implementation = AccountRollup.class)))})
+    @GetMapping("/operations/summary/daily")
+    @PreAuthorize("hasAnyRole('ROLE_ADMIN', 'ROLE_INTERNAL_USER')")
+    public ResponseEntity<?> getDailySummary(@RequestParam Long accountNumber,
+                                             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                             @AuthenticationPrincipal UserAuthDetails principal) {
+        return ResponseEntity.ok(bankAccountService.getDailySummary(accountNumber, from, to, principal));
+    }
+
+    @Operation(summary = "Monthly account summary", description = "Deposits, withdrawals, number of operations and opening and closing balance "
+            + "of the account for each month with operations between from and to (yyyy-MM) inclusive")
+    @ApiResponse(responseCode = "200", content = { @Content(mediaType = "application/json", array = @ArraySchema(schema = @Schema(implementation = AccountRollup.class)))})
+    @GetMapping("/operations/summary/monthly")
+    @PreAuthorize("hasAnyRole('ROLE_ADMIN', 'ROLE_INTERNAL_USER')")
+    public ResponseEntity<?> getMonthlySummary(@RequestParam Long accountNumber,
+                                               @RequestParam YearMonth from,
+                                               @RequestParam YearMonth to,
+                                               @AuthenticationPrincipal UserAuthDetails principal) {
+        return ResponseEntity.ok(bankAccountService.getMonthlySummary(accountNumber, from, to, principal));
+    }
+
+    @Operation(summary = "Export account transactions", description = "Streams the whole transaction history of the account, oldest first, as gzip-compressed NDJSON or CSV")
+    @ApiResponse(responseCode = "200", content = { @Content(mediaType = "application/x-ndjson"), @Content(mediaType = "text/csv") })
+    @GetMapping("/operations/export")
+    @PreAuthorize("hasAnyRole('ROLE_ADMIN', 'ROLE_INTERNAL_USER')")
+    public WebAsyncTask<Void> exportAccountTransactions(@RequestParam Long accountNumber,
+                                                        @RequestParam(defaultValue = "NDJSON") ExportFormat format,
+                                                        @AuthenticationPrincipal UserAuthDetails principal,
+                                                        HttpServletResponse response) {
+        StreamingResponseBody body = bankAccountService.exportHistoryOfOperations(accountNumber, format, principal);
+        response.setContentType(format.getContentType());
+        response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"operations-" + accountNumber + "." + format.getExtension() + "\"");
+
+        // a long history takes far longer than the default async timeout the other endpoints rely on
+        return new WebAsyncTask<>(exportTimeoutMs, () -> {
+            body.writeTo(response.getOutputStream());
+            response.flushBuffer();
+            return null;
+        });
     }
 }
 
@@ -5,43 +5,87 @@ import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import com.fasterxml.jackson.databind.type.TypeFactory;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 import ua.yarynych.apiaccountmanagement.entity.BankAccount;
+import ua.yarynych.apiaccountmanagement.entity.auth.UserAuthDetails;
 import ua.yarynych.apiaccountmanagement.entity.dto.transactions.AccountFundsDto;
+import ua.yarynych.apiaccountmanagement.entity.dto.transactions.BatchTransferRequest;
+import ua.yarynych.apiaccountmanagement.entity.dto.transactions.BatchTransferResponse;
+import ua.yarynych.apiaccountmanagement.entity.dto.transactions.DepositReceipt;
 import ua.yarynych.apiaccountmanagement.entity.dto.transactions.FundsTransferDto;
+import ua.yarynych.apiaccountmanagement.service.IdempotencyService;
 import ua.yarynych.apiaccountmanagement.service.TransactionsService;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 @RestController
 @RequiredArgsConstructor
 @RequestMapping("/transaction")
 public class TransactionsController {
 
+    private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
     private final TransactionsService transactionsService;
+    private final IdempotencyService idempotencyService;
 
     @Operation(summary = "Make deposit to account", description = "Add taken amount to account")
     @ApiResponse(responseCode = "200", content = { @Content(mediaType = "application/json", schema = @Schema(implementation = BankAccount.class))})
+    @ApiResponse(responseCode = "202", description = "Deposit is durable in the write-ahead log and will be applied shortly",
+            content = { @Content(mediaType = "application/json", schema = @Schema(implementation = DepositReceipt.class))})
     @PostMapping("/deposit")
     @PreAuthorize("hasAnyRole('ROLE_ADMIN', 'ROLE_INTERNAL_USER')")
-    public ResponseEntity<?> depositFunds(@RequestBody AccountFundsDto accountFundsDto, @RequestHeader("Authorization") String token) {
-        return ResponseEntity.ok(transactionsService.depositFunds(accountFundsDto, token));
+    public CompletableFuture<ResponseEntity<?>> depositFunds(@RequestBody AccountFundsDto accountFundsDto, @AuthenticationPrincipal UserAuthDetails principal,
+                                                             @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        if (idempotencyKey == null && transactionsService.isDepositLogged()) {
+            return transactionsService.depositFundsLogged(accountFundsDto, principal).thenApply(receipt -> ResponseEntity.accepted().body(receipt));
+        }
+        if (idempotencyKey == null) {
+            return transactionsService.depositFundsAsync(accountFundsDto, principal).thenApply(ResponseEntity::ok);
+        }
+        return CompletableFuture.completedFuture(ResponseEntity.ok(idempotencyService.execute(idempotencyKey, principal.getId(), "deposit", accountFundsDto, BankAccount.class,
+                () -> transactionsService.depositFunds(accountFundsDto, principal))));
     }
 
     @Operation(summary = "Withdraw amount of account", description = "Take amount from account")
     @ApiResponse(responseCode = "200", content = { @Content(mediaType = "application/json", schema = @Schema(implementation = BankAccount.class))})
     @PostMapping("/withdraw")
     @PreAuthorize("hasAnyRole('ROLE_ADMIN', 'ROLE_INTERNAL_USER')")
-    public ResponseEntity<?> withdrawFunds(@RequestBody AccountFundsDto accountFundsDto, @RequestHeader("Authorization") String token) {
-        return ResponseEntity.ok(transactionsService.withdrawFunds(accountFundsDto, token));
+    public CompletableFuture<ResponseEntity<?>> withdrawFunds(@RequestBody AccountFundsDto accountFundsDto, @AuthenticationPrincipal UserAuthDetails principal,
+                                                              @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return transactionsService.withdrawFundsAsync(accountFundsDto, principal).thenApply(ResponseEntity::ok);
+        }
+        return CompletableFuture.completedFuture(ResponseEntity.ok(idempotencyService.execute(idempotencyKey, principal.getId(), "withdraw", accountFundsDto, BankAccount.class,
+                () -> transactionsService.withdrawFunds(accountFundsDto, principal))));
     }
 
     @Operation(summary = "Transfer amount", description = "Transfer amount from one account to another")
     @ApiResponse(responseCode = "200", content = { @Content(mediaType = "application/json", array = @ArraySchema(schema = @Schema(implementation = BankAccount.class)))})
     @PostMapping("/transfer")
     @PreAuthorize("hasAnyRole('ROLE_ADMIN', 'ROLE_INTERNAL_USER')")
-    public ResponseEntity<?> transferFunds(@RequestBody FundsTransferDto fundsTransferDto, @RequestHeader("Authorization") String token) {
-        return ResponseEntity.ok(transactionsService.transferFunds(fundsTransferDto, token));
+    public CompletableFuture<ResponseEntity<?>> transferFunds(@RequestBody FundsTransferDto fundsTransferDto, @AuthenticationPrincipal UserAuthDetails principal,
+                                                              @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return transactionsService.transferFundsAsync(fundsTransferDto, principal).thenApply(ResponseEntity::ok);
+        }
+        return CompletableFuture.completedFuture(ResponseEntity.ok(idempotencyService.execute(idempotencyKey, principal.getId(), "transfer", fundsTransferDto,
+                TypeFactory.defaultInstance().constructCollectionType(List.class, BankAccount.class),
+                () -> transactionsService.transferFunds(fundsTransferDto, principal))));
+    }
+
+    @Operation(summary = "Transfer amounts in batch", description = "Apply many transfers in one request. Returns a result per transfer; with atomic=true any failed transfer rolls back the whole batch")
+    @ApiResponse(responseCode = "200", content = { @Content(mediaType = "application/json", schema = @Schema(implementation = BatchTransferResponse.class))})
+    @PostMapping("/batch")
+    @PreAuthorize("hasAnyRole('ROLE_ADMIN', 'ROLE_INTERNAL_USER')")
+    public ResponseEntity<?> transferBatch(@RequestBody BatchTransferRequest batchTransferRequest, @AuthenticationPrincipal UserAuthDetails principal,
+                                           @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        return ResponseEntity.ok(idempotencyService.execute(idempotencyKey, principal.getId(), "batch", batchTransferRequest, BatchTransferResponse.class,
+                () -> transactionsService.transferBatch(batchTransferRequest, principal)));
     }
 }
@@ -1,10 +1,14 @@
 package ua.yarynych.apiaccountmanagement.entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.annotation.JsonSetter;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import ua.yarynych.apiaccountmanagement.entity.enums.Currency;
 
 import java.math.BigDecimal;
 
@@ -14,6 +18,7 @@ import java.math.BigDecimal;
 @NoArgsConstructor
 @AllArgsConstructor
 @Table(name = "bank_accounts")
+@JsonPropertyOrder({"id", "currency", "amount"})
 public class BankAccount {
 
     @Id
@@ -23,6 +28,42 @@ public class BankAccount {
     @Column(nullable = false, length = 3)
     private String currency;
 
-    @Column(nullable = false, precision = 15, scale = 2)
-    private BigDecimal amount;
+    @JsonIgnore
+    @Column(name = "amount_minor", nullable = false)
+    private long amountMinor;
+
+    @JsonIgnore
+    @Version
+    @Column(nullable = false)
+    private Long version;
+
+    /**
+     * Number of rows in {@code bank_account_stripes} holding part of the balance; 0 when not striped.
+     */
+    @JsonIgnore
+    @Column(name = "stripe_count", nullable = false)
+    private int stripeCount;
+
+    /**
+     * Balance in major units for API responses; the stored value is {@link #amountMinor}.
+     */
+    public BigDecimal getAmount() {
+        return currency == null ? null : Currency.of(currency).toMajor(amountMinor);
+    }
+
+    /**
+     * Restores the balance from a stored response (see {@code IdempotencyService}); {@code currency} is
+     * written before {@code amount}, so it is already set here.
+     */
+    @JsonSetter("amount")
+    public void setAmount(BigDecimal amount) {
+        amountMinor = amount == null ? 0 : Currency.of(currency).toMinor(amount);
+    }
+
+    /**
+     * Detached copy with a different balance, for responses that must not change the stored row.
+     */
+    public BankAccount withAmountMinor(long amountMinor) {
+        return new BankAccount(id, currency, amountMinor, version, stripeCount);
+    }
 }
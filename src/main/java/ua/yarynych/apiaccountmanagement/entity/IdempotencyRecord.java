@@ -0,0 +1,41 @@
+package ua.yarynych.apiaccountmanagement.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "idempotency_keys", indexes = {
+        @Index(name = "idx_idempotency_keys_expires_at", columnList = "expires_at")
+})
+public class IdempotencyRecord {
+    /**
+     * User id and client key, e.g. {@code 42:3f1c...}.
+     */
+    @Id
+    @Column(name = "record_key", length = 100)
+    private String recordKey;
+
+    /**
+     * SHA-256 of the operation name and request body, to detect a key reused for a different request.
+     */
+    @Column(nullable = false, length = 44)
+    private String fingerprint;
+
+    @Column(nullable = false)
+    private boolean completed;
+
+    @Column(columnDefinition = "MEDIUMTEXT")
+    private String response;
+
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+}
@@ -1,10 +1,12 @@
 package ua.yarynych.apiaccountmanagement.entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import ua.yarynych.apiaccountmanagement.entity.enums.Currency;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
@@ -15,12 +17,15 @@ import java.time.LocalDateTime;
 @NoArgsConstructor
 @AllArgsConstructor
 @Table(name = "operation_history")
+@JsonIgnoreProperties(value = "amount", allowGetters = true)
 public class OperationHistory {
+    /**
+     * Assigned by {@link ua.yarynych.apiaccountmanagement.service.HistoryIdAllocator} so rows can be inserted in batches.
+     */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
-    @Column(name = "bank_account_id", nullable = false, unique = true)
+    @Column(name = "bank_account_id", nullable = false)
     private Long bankAccountId;
 
     @Column(name = "user_id", nullable = false)
@@ -29,12 +34,22 @@ public class OperationHistory {
     @Column(name = "operation_type", nullable = false, length = 50)
     private String operationType;
 
-    @Column(nullable = false, precision = 15, scale = 2)
-    private BigDecimal amount;
+    @Column(name = "amount_minor", nullable = false)
+    private long amountMinor;
+
+    @Column(length = 3)
+    private String currency;
 
     @Column(name = "operation_date", nullable = false, columnDefinition = "TIMESTAMP DEFAULT CURRENT_TIMESTAMP")
     private LocalDateTime operationDate;
 
     @Column
     private String description;
+
+    /**
+     * Amount in major units of the account currency for API responses.
+     */
+    public BigDecimal getAmount() {
+        return currency == null ? null : Currency.of(currency).toMajor(amountMinor);
+    }
 }
@@ -39,10 +39,6 @@ public class User {
     @JsonIgnore
     private String password;
 
-    @Column
-    @JsonIgnore
-    private String token;
-
     @Enumerated(EnumType.STRING)
     @Column(nullable = false)
     private Role role;
@@ -0,0 +1,33 @@
+package ua.yarynych.apiaccountmanagement.entity.auth;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "revoked_sessions", indexes = {
+        @Index(name = "idx_revoked_sessions_revoked_at", columnList = "revoked_at"),
+        @Index(name = "idx_revoked_sessions_expires_at", columnList = "expires_at")
+})
+public class RevokedSession {
+    @Id
+    @Column(name = "session_id", length = 36)
+    private String sessionId;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "revoked_at", nullable = false)
+    private LocalDateTime revokedAt;
+
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+}
@@ -0,0 +1,33 @@
+package ua.yarynych.apiaccountmanagement.entity.auth;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Every token of the user issued up to {@code revokedAt} is rejected, on every node.
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "revoked_users", indexes = {
+        @Index(name = "idx_revoked_users_revoked_at", columnList = "revoked_at"),
+        @Index(name = "idx_revoked_users_expires_at", columnList = "expires_at")
+})
+public class RevokedUser {
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+
+    @Column(name = "revoked_at", nullable = false)
+    private LocalDateTime revokedAt;
+
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+}
@@ -1,33 +1,53 @@
 package ua.yarynych.apiaccountmanagement.entity.auth;
 
-import lombok.extern.log4j.Log4j2;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 import ua.yarynych.apiaccountmanagement.entity.User;
+import ua.yarynych.apiaccountmanagement.entity.enums.Role;
 
 import java.util.Collection;
 import java.util.List;
 
-@Log4j2
 public class UserAuthDetails extends User implements UserDetails {
     private Collection<GrantedAuthority> authorities;
+    private String sessionId;
 
     public static UserAuthDetails build(String email, String role) {
 
-        log.info("Building UserAuthDetails for email: {} with role: {}", email, role);
-
         UserAuthDetails details = new UserAuthDetails();
         details.setEmail(email);
+        details.setRole(parseRole(role));
         details.authorities = List.of(new SimpleGrantedAuthority(role));
+        return details;
+    }
 
-        log.info("Assigned authorities: {}", details.authorities);
+    /**
+     * Builds the request principal straight from verified token claims,
+     * so the services get the user id and role without loading the user row.
+     */
+    public static UserAuthDetails build(VerifiedToken verified) {
+        UserAuthDetails details = build(verified.getEmail(), verified.getRole());
+        details.setId(verified.getUserId());
+        details.sessionId = verified.getSessionId();
         return details;
     }
 
+    private static Role parseRole(String role) {
+        for (Role value : Role.values()) {
+            if (value.name().equals(role)) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
     @Override
     public Collection<? extends GrantedAuthority> getAuthorities() {
-        log.info("Returning authorities: {}", authorities);
         return authorities;
     }
 
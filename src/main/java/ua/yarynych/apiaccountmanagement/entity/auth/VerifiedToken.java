@@ -0,0 +1,53 @@
+package ua.yarynych.apiaccountmanagement.entity.auth;
+
+import io.jsonwebtoken.Claims;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Date;
+
+/**
+ * Claims of a JWT whose signature and expiry were already checked.
+ * Built once per token and shared between the filter and the services.
+ */
+@Getter
+@AllArgsConstructor
+public class VerifiedToken {
+    public static final String REQUEST_ATTRIBUTE = VerifiedToken.class.getName();
+
+    private final String email;
+    private final String role;
+    private final Long userId;
+    private final String type;
+    private final String sessionId;
+    private final long expiresAt;
+    /**
+     * {@code iat} in milliseconds, whole seconds as JWT stores it; 0 when the token has none.
+     */
+    private final long issuedAt;
+
+    public VerifiedToken(String email, String role, Long userId, String type, String sessionId, long expiresAt) {
+        this(email, role, userId, type, sessionId, expiresAt, 0);
+    }
+
+    public static VerifiedToken from(Claims claims) {
+        Object role = claims.get("role");
+        Object id = claims.get("id");
+        Date expiration = claims.getExpiration();
+        Date issuedAt = claims.getIssuedAt();
+
+        return new VerifiedToken(
+                claims.getSubject(),
+                role instanceof String ? (String) role : null,
+                id instanceof Number ? ((Number) id).longValue() : null,
+                claims.get("type", String.class),
+                claims.get("sid", String.class),
+                expiration == null ? Long.MAX_VALUE : expiration.getTime(),
+                issuedAt == null ? 0 : issuedAt.getTime()
+        );
+    }
+
+    public boolean isExpired(long now) {
+        return expiresAt <= now;
+    }
+}
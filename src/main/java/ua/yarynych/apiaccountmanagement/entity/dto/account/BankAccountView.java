@@ -0,0 +1,46 @@
+package ua.yarynych.apiaccountmanagement.entity.dto.account;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import ua.yarynych.apiaccountmanagement.entity.enums.Currency;
+
+import java.math.BigDecimal;
+
+/**
+ * Account as returned by the API, read with a constructor expression so neither the relation nor the
+ * owning {@code User} is loaded. {@code ownerId} is only filled by queries that go through the relation.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class BankAccountView {
+    private Long id;
+    private String currency;
+    @JsonIgnore
+    private long amountMinor;
+    @JsonIgnore
+    private Long version;
+    @JsonIgnore
+    private int stripeCount;
+    @JsonIgnore
+    private Long ownerId;
+
+    public BankAccountView(Long id, String currency, long amountMinor, Long version, int stripeCount) {
+        this(id, currency, amountMinor, version, stripeCount, null);
+    }
+
+    /**
+     * Balance in major units, as on {@link ua.yarynych.apiaccountmanagement.entity.BankAccount#getAmount()}.
+     */
+    public BigDecimal getAmount() {
+        return currency == null ? null : Currency.of(currency).toMajor(amountMinor);
+    }
+
+    public BankAccountView withAmountMinor(long amountMinor) {
+        return new BankAccountView(id, currency, amountMinor, version, stripeCount, ownerId);
+    }
+}
@@ -0,0 +1,26 @@
+package ua.yarynych.apiaccountmanagement.entity.dto.history;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Totals of an account over a day or a month; {@code period} is the day or the first day of the month.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class AccountRollup {
+    private LocalDate period;
+    private BigDecimal deposits;
+    private BigDecimal withdrawals;
+    private long operations;
+    private BigDecimal openingBalance;
+    private BigDecimal closingBalance;
+    private String currency;
+}
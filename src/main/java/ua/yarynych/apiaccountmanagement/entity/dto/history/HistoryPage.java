@@ -0,0 +1,21 @@
+package ua.yarynych.apiaccountmanagement.entity.dto.history;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import ua.yarynych.apiaccountmanagement.entity.OperationHistory;
+
+import java.util.List;
+
+/**
+ * Operations newest first. {@code nextCursor} is null on the last page.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class HistoryPage {
+    private List<OperationHistory> items;
+    private String nextCursor;
+}
@@ -0,0 +1,28 @@
+package ua.yarynych.apiaccountmanagement.entity.dto.history;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import ua.yarynych.apiaccountmanagement.entity.enums.Operations;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Filters for a page of operation history. {@code from} is inclusive and {@code to} exclusive; amounts are
+ * in major units of the account currency. {@code cursor} is the {@code nextCursor} of the previous page.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class HistoryQuery {
+    private LocalDateTime from;
+    private LocalDateTime to;
+    private Operations type;
+    private BigDecimal minAmount;
+    private BigDecimal maxAmount;
+    private String cursor;
+    private Integer limit;
+}
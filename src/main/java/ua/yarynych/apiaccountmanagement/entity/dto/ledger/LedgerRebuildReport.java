@@ -0,0 +1,18 @@
+package ua.yarynych.apiaccountmanagement.entity.dto.ledger;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class LedgerRebuildReport {
+    private int partitions;
+    private long accounts;
+    private long legs;
+    private long snapshots;
+    private long elapsedMs;
+}
@@ -0,0 +1,20 @@
+package ua.yarynych.apiaccountmanagement.entity.dto.transactions;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchTransferRequest {
+    private List<FundsTransferDto> transfers;
+    /**
+     * When true, one failed transfer rolls back the whole batch; otherwise failed items are skipped.
+     */
+    private boolean atomic;
+}
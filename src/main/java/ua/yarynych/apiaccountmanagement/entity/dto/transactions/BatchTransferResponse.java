@@ -0,0 +1,24 @@
+package ua.yarynych.apiaccountmanagement.entity.dto.transactions;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchTransferResponse {
+    private int applied;
+    private int rejected;
+    private boolean committed;
+    private List<BatchTransferResult> results;
+
+    public static BatchTransferResponse of(List<BatchTransferResult> results, boolean committed) {
+        int applied = (int) results.stream().filter(result -> result.getStatus() == BatchTransferResult.Status.APPLIED).count();
+        return new BatchTransferResponse(applied, results.size() - applied, committed, results);
+    }
+}
@@ -0,0 +1,30 @@
+package ua.yarynych.apiaccountmanagement.entity.dto.transactions;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchTransferResult {
+    private int index;
+    private Status status;
+    private String error;
+
+    public enum Status {
+        APPLIED,
+        REJECTED,
+        ROLLED_BACK
+    }
+
+    public static BatchTransferResult applied(int index) {
+        return new BatchTransferResult(index, Status.APPLIED, null);
+    }
+
+    public static BatchTransferResult rejected(int index, String error) {
+        return new BatchTransferResult(index, Status.REJECTED, error);
+    }
+}
@@ -0,0 +1,22 @@
+package ua.yarynych.apiaccountmanagement.entity.dto.transactions;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+
+/**
+ * Acknowledgement of a deposit that is durable in the write-ahead log and will be applied to the account shortly.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class DepositReceipt {
+    private long sequence;
+    private Long accountId;
+    private BigDecimal amount;
+    private String currency;
+}
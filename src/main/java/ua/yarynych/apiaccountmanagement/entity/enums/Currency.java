@@ -1,9 +1,56 @@
 package ua.yarynych.apiaccountmanagement.entity.enums;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Supported currencies with the number of minor-unit digits each one uses.
+ * Balances and history amounts are stored as a whole number of minor units (cents, kopiykas).
+ */
 public enum Currency {
-    UAH,
-    USD,
-    EUR;
+    UAH(2),
+    USD(2),
+    EUR(2);
+
+    private static final Currency[] VALUES = values();
+
+    private final int minorDigits;
+
+    Currency(int minorDigits) {
+        this.minorDigits = minorDigits;
+    }
+
+    public int getMinorDigits() {
+        return minorDigits;
+    }
+
+    /**
+     * Converts an API amount to minor units. Amounts with more decimal places than the currency has
+     * are rejected instead of being rounded silently.
+     */
+    public long toMinor(BigDecimal amount) {
+        try {
+            return amount.movePointRight(minorDigits).setScale(0, RoundingMode.UNNECESSARY).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Amount " + amount.toPlainString() + " cannot be represented in " + name()
+                    + " with " + minorDigits + " decimal places");
+        }
+    }
+
+    public BigDecimal toMajor(long minor) {
+        return BigDecimal.valueOf(minor, minorDigits);
+    }
+
+    public static Currency of(String value) {
+        if (value != null) {
+            for (Currency currency : VALUES) {
+                if (currency.name().equalsIgnoreCase(value)) {
+                    return currency;
+                }
+            }
+        }
+        throw new IllegalArgumentException("Invalid currency: " + value);
+    }
 
     public static boolean isValid(String value) {
         for (Currency currency : values()) {
@@ -0,0 +1,6 @@
+package ua.yarynych.apiaccountmanagement.entity.enums;
+
+public enum LockingMode {
+    PESSIMISTIC,
+    OPTIMISTIC
+}
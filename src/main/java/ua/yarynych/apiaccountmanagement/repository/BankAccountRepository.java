@@ -1,9 +1,33 @@
 package ua.yarynych.apiaccountmanagement.repository;
 
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ua.yarynych.apiaccountmanagement.entity.BankAccount;
+import ua.yarynych.apiaccountmanagement.entity.dto.account.BankAccountView;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface BankAccountRepository extends JpaRepository<BankAccount, Long> {
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select a from BankAccount a where a.id = :id")
+    Optional<BankAccount> findByIdForUpdate(@Param("id") Long id);
+
+    /**
+     * Locks all given rows with one statement; InnoDB takes the locks in primary key order.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select a from BankAccount a where a.id in :ids order by a.id")
+    List<BankAccount> findAllByIdForUpdate(@Param("ids") Collection<Long> ids);
+
+    @Query("select new ua.yarynych.apiaccountmanagement.entity.dto.account.BankAccountView(a.id, a.currency, a.amountMinor, a.version, a.stripeCount) "
+            + "from BankAccount a order by a.id")
+    List<BankAccountView> findAllViews();
 }
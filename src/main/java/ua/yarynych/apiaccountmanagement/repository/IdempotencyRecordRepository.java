@@ -0,0 +1,40 @@
+package ua.yarynych.apiaccountmanagement.repository;
+
+import jakarta.transaction.Transactional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import ua.yarynych.apiaccountmanagement.entity.IdempotencyRecord;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface IdempotencyRecordRepository extends JpaRepository<IdempotencyRecord, String> {
+
+    /**
+     * Inserts an in-progress row for the key; returns 0 when the key is already taken.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT IGNORE INTO idempotency_keys (record_key, fingerprint, completed, expires_at) "
+            + "VALUES (:recordKey, :fingerprint, false, :expiresAt)", nativeQuery = true)
+    int claim(@Param("recordKey") String recordKey, @Param("fingerprint") String fingerprint,
+              @Param("expiresAt") LocalDateTime expiresAt);
+
+    @Modifying
+    @Transactional
+    @Query("update IdempotencyRecord r set r.completed = true, r.response = :response where r.recordKey = :recordKey")
+    int complete(@Param("recordKey") String recordKey, @Param("response") String response);
+
+    @Modifying
+    @Transactional
+    @Query("delete from IdempotencyRecord r where r.recordKey = :recordKey and r.completed = false")
+    int release(@Param("recordKey") String recordKey);
+
+    @Modifying
+    @Transactional
+    @Query("delete from IdempotencyRecord r where r.expiresAt < :now")
+    int deleteExpired(@Param("now") LocalDateTime now);
+}
@@ -1,13 +1,28 @@
 package ua.yarynych.apiaccountmanagement.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ua.yarynych.apiaccountmanagement.entity.OperationHistory;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
+/**
+ * operation_history is partitioned by month on operation_date, so every query carries a date range
+ * ({@code from} inclusive, {@code to} exclusive) that lets MySQL skip the partitions outside it.
+ */
 @Repository
 public interface OperationHistoryRepository extends JpaRepository<OperationHistory, Long> {
-    List<OperationHistory> findByBankAccountId(Long bankAccountId);
-    List<OperationHistory> findByUserId(Long userId);
+
+    @Query("select h from OperationHistory h where h.bankAccountId = :accountId and h.operationDate >= :from and h.operationDate < :to "
+            + "order by h.operationDate, h.id")
+    List<OperationHistory> findByBankAccountIdInPeriod(@Param("accountId") Long bankAccountId, @Param("from") LocalDateTime from,
+                                                       @Param("to") LocalDateTime to);
+
+    @Query("select h from OperationHistory h where h.userId = :userId and h.operationDate >= :from and h.operationDate < :to "
+            + "order by h.operationDate, h.id")
+    List<OperationHistory> findByUserIdInPeriod(@Param("userId") Long userId, @Param("from") LocalDateTime from,
+                                                @Param("to") LocalDateTime to);
 }
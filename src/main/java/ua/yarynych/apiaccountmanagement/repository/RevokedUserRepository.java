@@ -0,0 +1,23 @@
+package ua.yarynych.apiaccountmanagement.repository;
+
+import jakarta.transaction.Transactional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import ua.yarynych.apiaccountmanagement.entity.auth.RevokedUser;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface RevokedUserRepository extends JpaRepository<RevokedUser, Long> {
+    List<RevokedUser> findByExpiresAtAfter(LocalDateTime now);
+    List<RevokedUser> findByRevokedAtAfterAndExpiresAtAfter(LocalDateTime revokedAfter, LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("delete from RevokedUser r where r.expiresAt < :now")
+    int deleteExpired(@Param("now") LocalDateTime now);
+}
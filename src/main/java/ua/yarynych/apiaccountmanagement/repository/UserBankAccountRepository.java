@@ -1,14 +1,37 @@
 package ua.yarynych.apiaccountmanagement.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ua.yarynych.apiaccountmanagement.entity.UserBankAccountRelation;
+import ua.yarynych.apiaccountmanagement.entity.dto.account.BankAccountView;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 @Repository
 public interface UserBankAccountRepository extends JpaRepository<UserBankAccountRelation, Long> {
-    List<UserBankAccountRelation> findByUserId(Long userId);
-    Optional<UserBankAccountRelation> findByBankAccountId(Long accountId);
-}
\ No newline at end of file
+
+    /**
+     * Accounts of the user with one join; the owner is read from the relation's foreign key.
+     */
+    @Query("select new ua.yarynych.apiaccountmanagement.entity.dto.account.BankAccountView(a.id, a.currency, a.amountMinor, a.version, a.stripeCount, r.user.id) "
+            + "from UserBankAccountRelation r join r.bankAccount a where r.user.id = :userId order by a.id")
+    List<BankAccountView> findAccountViewsByUserId(@Param("userId") Long userId);
+
+    @Query("select new ua.yarynych.apiaccountmanagement.entity.dto.account.BankAccountView(a.id, a.currency, a.amountMinor, a.version, a.stripeCount, r.user.id) "
+            + "from UserBankAccountRelation r join r.bankAccount a where a.id = :accountId")
+    Optional<BankAccountView> findAccountViewById(@Param("accountId") Long accountId);
+
+    /**
+     * Owner of the account, read from the relation alone for checks that need nothing else.
+     */
+    @Query("select r.user.id from UserBankAccountRelation r where r.bankAccount.id = :accountId")
+    Optional<Long> findOwnerId(@Param("accountId") Long accountId);
+
+    @Query("select r.bankAccount.id from UserBankAccountRelation r where r.user.id = :userId and r.bankAccount.id in :accountIds")
+    Set<Long> findOwnedAccountIds(@Param("userId") Long userId, @Param("accountIds") Collection<Long> accountIds);
+}
@@ -1,13 +1,25 @@
 package ua.yarynych.apiaccountmanagement.repository;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ua.yarynych.apiaccountmanagement.entity.User;
 
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByEmail(String email);
     void deleteById(Long userId);
+
+    @Query("select u.id as id, u.email as email from User u where u.id > :afterId order by u.id")
+    List<EmailRow> findEmailsAfter(@Param("afterId") Long afterId, Pageable page);
+
+    interface EmailRow {
+        Long getId();
+        String getEmail();
+    }
 }
@@ -0,0 +1,221 @@
+package ua.yarynych.apiaccountmanagement.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ua.yarynych.apiaccountmanagement.entity.exceptions.TooManyRequestsException;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * Optional single-writer execution for account operations. Every account is routed by id to one of a
+ * fixed number of lanes, and each lane is one thread applying its operations in submission order, so
+ * requests for a hot account queue up in memory instead of on its database row.
+ * <p>
+ * Operations of the same kind for the same account that are waiting in a lane together can be
+ * coalesced: the lane hands all of them to one batch function, which applies them in one transaction.
+ * Anything else submitted for that account in between stays a barrier, so per-account order holds.
+ * If a coalesced batch fails, its operations are retried one by one so one bad request does not fail
+ * the others. Row locks are still taken by the batch functions, so lanes change throughput, not safety.
+ */
+@Log4j2
+@Service
+@RequiredArgsConstructor
+public class AccountLanes {
+
+    private static final long POLL_MS = 100;
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${accounts.lanes.enabled:false}")
+    private boolean enabled;
+    @Value("${accounts.lanes.count:8}")
+    private int laneCount = 8;
+    @Value("${accounts.lanes.queue-capacity:10000}")
+    private int queueCapacity = 10000;
+    @Value("${accounts.lanes.max-coalesced:256}")
+    private int maxCoalesced = 256;
+
+    private Lane[] lanes;
+    private volatile boolean running;
+    private DistributionSummary coalesced;
+    private Counter rejected;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+
+        coalesced = DistributionSummary.builder("accounts.lanes.coalesced").register(meterRegistry);
+        rejected = Counter.builder("accounts.lanes.rejected").register(meterRegistry);
+
+        running = true;
+        lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(i);
+            Gauge.builder("accounts.lanes.queue.depth", lanes[i].queue, BlockingQueue::size)
+                    .tag("lane", Integer.toString(i))
+                    .register(meterRegistry);
+            lanes[i].thread.start();
+        }
+        log.info("Account operations run on {} lanes", laneCount);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        if (lanes != null) {
+            for (Lane lane : lanes) {
+                lane.thread.join(TimeUnit.SECONDS.toMillis(10));
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Runs {@code operation} on the lane of {@code accountId} after everything submitted for that lane before it.
+     */
+    public <T> CompletableFuture<T> submit(Long accountId, Supplier<T> operation) {
+        return enqueue(accountId, null, operation, (id, commands) -> Collections.singletonList(operation.get()));
+    }
+
+    /**
+     * Queues {@code command} on the lane of {@code accountId}. Waiting commands of the same {@code kind}
+     * for the same account are passed to {@code batch} together; it must return one result per command,
+     * in order.
+     */
+    public <C, T> CompletableFuture<T> submitCoalescing(Long accountId, String kind, C command,
+                                                        BiFunction<Long, List<C>, List<T>> batch) {
+        return enqueue(accountId, kind, command, batch);
+    }
+
+    /**
+     * Waits for a lane result, rethrowing the operation's own exception rather than a {@link CompletionException}.
+     */
+    public static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <C, T> CompletableFuture<T> enqueue(Long accountId, String kind, Object command,
+                                                BiFunction<Long, List<C>, List<T>> batch) {
+        if (!running) {
+            throw new IllegalStateException("Account lanes are not running");
+        }
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Task task = new Task(accountId, kind, command, (BiFunction<Long, List<Object>, List<Object>>) (BiFunction<?, ?, ?>) batch,
+                (CompletableFuture<Object>) result);
+
+        Lane lane = lanes[Math.floorMod(Long.hashCode(accountId), lanes.length)];
+        if (!lane.queue.offer(task)) {
+            rejected.increment();
+            throw new TooManyRequestsException("Account is busy, try again later");
+        }
+        return result;
+    }
+
+    private final class Lane {
+        private final BlockingQueue<Task> queue = new ArrayBlockingQueue<>(queueCapacity);
+        private final Thread thread;
+
+        Lane(int index) {
+            thread = new Thread(this::run, "account-lane-" + index);
+            thread.setDaemon(true);
+        }
+
+        private void run() {
+            List<Task> drained = new ArrayList<>(maxCoalesced);
+            while (running || !queue.isEmpty()) {
+                try {
+                    Task first = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    drained.add(first);
+                    queue.drainTo(drained, maxCoalesced - 1);
+                } catch (InterruptedException e) {
+                    running = false;
+                }
+
+                for (List<Task> group : group(drained)) {
+                    apply(group);
+                }
+                drained.clear();
+            }
+        }
+
+        /**
+         * Splits the drained tasks into per-account runs of the same kind, keeping each account's order.
+         */
+        private List<List<Task>> group(List<Task> drained) {
+            Map<Long, List<List<Task>>> byAccount = new LinkedHashMap<>();
+            for (Task task : drained) {
+                List<List<Task>> runs = byAccount.computeIfAbsent(task.accountId(), id -> new ArrayList<>());
+                List<Task> last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+                if (last != null && task.kind() != null && task.kind().equals(last.get(0).kind())) {
+                    last.add(task);
+                } else {
+                    List<Task> run = new ArrayList<>();
+                    run.add(task);
+                    runs.add(run);
+                }
+            }
+
+            List<List<Task>> groups = new ArrayList<>();
+            byAccount.values().forEach(groups::addAll);
+            return groups;
+        }
+
+        private void apply(List<Task> group) {
+            Task first = group.get(0);
+            List<Object> commands = new ArrayList<>(group.size());
+            group.forEach(task -> commands.add(task.command()));
+
+            try {
+                List<Object> results = first.batch().apply(first.accountId(), commands);
+                for (int i = 0; i < group.size(); i++) {
+                    group.get(i).result().complete(results.get(i));
+                }
+                coalesced.record(group.size());
+            } catch (RuntimeException e) {
+                if (group.size() == 1) {
+                    first.result().completeExceptionally(e);
+                    return;
+                }
+                for (Task task : group) {
+                    apply(List.of(task));
+                }
+            } catch (Error e) {
+                group.forEach(task -> task.result().completeExceptionally(e));
+                throw e;
+            }
+        }
+    }
+
+    private record Task(Long accountId, String kind, Object command,
+                        BiFunction<Long, List<Object>, List<Object>> batch, CompletableFuture<Object> result) {
+    }
+}
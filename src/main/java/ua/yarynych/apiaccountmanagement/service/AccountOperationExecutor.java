@@ -0,0 +1,201 @@
+package ua.yarynych.apiaccountmanagement.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ua.yarynych.apiaccountmanagement.entity.BankAccount;
+import ua.yarynych.apiaccountmanagement.entity.enums.LockingMode;
+import ua.yarynych.apiaccountmanagement.entity.exceptions.ConcurrentUpdateException;
+import ua.yarynych.apiaccountmanagement.entity.exceptions.DatabaseNotFoundException;
+import ua.yarynych.apiaccountmanagement.repository.BankAccountRepository;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs balance changes in their own transaction, in one of two modes chosen per deployment.
+ * <p>
+ * PESSIMISTIC: rows are locked with SELECT ... FOR UPDATE one by one in ascending id order, so two
+ * transfers over the same pair of accounts in opposite directions wait for each other instead of
+ * deadlocking. Optionally the same ordering is first applied to a fixed set of in-JVM lock stripes,
+ * so requests for a hot account queue up in this node rather than inside the database; those locks
+ * are held until the transaction has committed.
+ * <p>
+ * OPTIMISTIC: rows are read without locks and the {@code version} column is checked on commit.
+ * A conflict rolls the whole attempt back and the work is re-run on fresh rows after a jittered
+ * backoff, up to a fixed number of attempts. Cheaper for cold accounts, wasteful for hot ones.
+ */
+@Log4j2
+@Service
+@RequiredArgsConstructor
+public class AccountOperationExecutor {
+
+    private final BankAccountRepository bankAccountRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${accounts.locking.mode:PESSIMISTIC}")
+    private LockingMode mode = LockingMode.PESSIMISTIC;
+    @Value("${accounts.locking.jvm-stripes:1024}")
+    private int stripeCount = 1024;
+    @Value("${accounts.locking.jvm-wait-ms:5000}")
+    private long waitMs = 5000;
+    @Value("${accounts.locking.optimistic.max-attempts:5}")
+    private int maxAttempts = 5;
+    @Value("${accounts.locking.optimistic.backoff-base-ms:5}")
+    private long backoffBaseMs = 5;
+    @Value("${accounts.locking.optimistic.backoff-max-ms:200}")
+    private long backoffMaxMs = 200;
+
+    private ReentrantLock[] stripes;
+
+    @PostConstruct
+    public void init() {
+        stripes = new ReentrantLock[mode == LockingMode.PESSIMISTIC ? Math.max(0, stripeCount) : 0];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        log.info("Account operations use {} locking", mode);
+    }
+
+    public <T> T execute(String operation, Long accountId, Function<BankAccount, T> work) {
+        return execute(operation, List.of(accountId), accounts -> work.apply(accounts.get(accountId)));
+    }
+
+    /**
+     * Loads the given accounts and passes them, keyed by id, to {@code work} inside one transaction.
+     * In OPTIMISTIC mode {@code work} may run more than once and must not have side effects
+     * outside the transaction. {@code operation} names the endpoint in the metrics.
+     */
+    public <T> T execute(String operation, Collection<Long> accountIds, Function<Map<Long, BankAccount>, T> work) {
+        List<Long> ordered = new ArrayList<>(new TreeSet<>(accountIds));
+        meterRegistry.counter("accounts.operations", "operation", operation, "mode", mode.name()).increment();
+
+        return mode == LockingMode.OPTIMISTIC
+                ? executeOptimistic(operation, () -> load(ordered, false), work)
+                : executePessimistic(ordered, () -> load(ordered, true), work);
+    }
+
+    /**
+     * Same as {@link #execute(String, Collection, Function)} for large sets of accounts: rows are
+     * loaded with one query and ids that do not exist are simply absent from the map.
+     */
+    public <T> T executeAll(String operation, Collection<Long> accountIds, Function<Map<Long, BankAccount>, T> work) {
+        List<Long> ordered = new ArrayList<>(new TreeSet<>(accountIds));
+        meterRegistry.counter("accounts.operations", "operation", operation, "mode", mode.name()).increment();
+
+        return mode == LockingMode.OPTIMISTIC
+                ? executeOptimistic(operation, () -> loadAll(ordered, false), work)
+                : executePessimistic(ordered, () -> loadAll(ordered, true), work);
+    }
+
+    /**
+     * Reads the account without locking its row and passes it to {@code work} inside a transaction.
+     * Only for work that changes other rows (deposits into balance stripes); the account must not be modified.
+     */
+    public <T> T executeUnlocked(String operation, Long accountId, Function<BankAccount, T> work) {
+        meterRegistry.counter("accounts.operations", "operation", operation, "mode", "UNLOCKED").increment();
+
+        return transactionTemplate.execute(status -> work.apply(bankAccountRepository.findById(accountId)
+                .orElseThrow(() -> new DatabaseNotFoundException("Account not found"))));
+    }
+
+    private <T> T executePessimistic(List<Long> ordered, Supplier<Map<Long, BankAccount>> loader,
+                                     Function<Map<Long, BankAccount>, T> work) {
+        List<ReentrantLock> held = lockStripes(ordered);
+
+        try {
+            return transactionTemplate.execute(status -> work.apply(loader.get()));
+        } finally {
+            for (int i = held.size() - 1; i >= 0; i--) {
+                held.get(i).unlock();
+            }
+        }
+    }
+
+    private <T> T executeOptimistic(String operation, Supplier<Map<Long, BankAccount>> loader,
+                                    Function<Map<Long, BankAccount>, T> work) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transactionTemplate.execute(status -> work.apply(loader.get()));
+            } catch (OptimisticLockingFailureException e) {
+                meterRegistry.counter("accounts.operations.conflicts", "operation", operation).increment();
+
+                if (attempt >= maxAttempts) {
+                    meterRegistry.counter("accounts.operations.retries.exhausted", "operation", operation).increment();
+                    throw new ConcurrentUpdateException("Account was changed concurrently, try again later");
+                }
+
+                meterRegistry.counter("accounts.operations.retries", "operation", operation).increment();
+                backoff(attempt);
+            }
+        }
+    }
+
+    private Map<Long, BankAccount> load(List<Long> ordered, boolean forUpdate) {
+        Map<Long, BankAccount> accounts = new LinkedHashMap<>();
+        for (Long id : ordered) {
+            BankAccount account = (forUpdate ? bankAccountRepository.findByIdForUpdate(id) : bankAccountRepository.findById(id))
+                    .orElseThrow(() -> new DatabaseNotFoundException("Account not found"));
+            accounts.put(id, account);
+        }
+        return accounts;
+    }
+
+    private Map<Long, BankAccount> loadAll(List<Long> ordered, boolean forUpdate) {
+        Map<Long, BankAccount> accounts = new HashMap<>(ordered.size() * 2);
+        for (BankAccount account : forUpdate ? bankAccountRepository.findAllByIdForUpdate(ordered) : bankAccountRepository.findAllById(ordered)) {
+            accounts.put(account.getId(), account);
+        }
+        return accounts;
+    }
+
+    private void backoff(int attempt) {
+        long ceiling = Math.min(backoffMaxMs, backoffBaseMs << Math.min(attempt - 1, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConcurrentUpdateException("Interrupted while retrying account update");
+        }
+    }
+
+    private List<ReentrantLock> lockStripes(List<Long> orderedIds) {
+        if (stripes.length == 0) {
+            return List.of();
+        }
+
+        SortedSet<Integer> indexes = new TreeSet<>();
+        for (Long id : orderedIds) {
+            indexes.add(Math.floorMod(Long.hashCode(id), stripes.length));
+        }
+
+        List<ReentrantLock> held = new ArrayList<>(indexes.size());
+        try {
+            for (Integer index : indexes) {
+                ReentrantLock lock = stripes[index];
+                if (!lock.tryLock(waitMs, TimeUnit.MILLISECONDS)) {
+                    throw new ConcurrentUpdateException("Account is busy, try again later");
+                }
+                held.add(lock);
+            }
+            return held;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            held.forEach(ReentrantLock::unlock);
+            throw new ConcurrentUpdateException("Interrupted while waiting for account lock");
+        } catch (RuntimeException e) {
+            held.forEach(ReentrantLock::unlock);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package ua.yarynych.apiaccountmanagement.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import ua.yarynych.apiaccountmanagement.entity.OperationHistory;
+import ua.yarynych.apiaccountmanagement.entity.dto.history.AccountRollup;
+import ua.yarynych.apiaccountmanagement.entity.enums.Currency;
+import ua.yarynych.apiaccountmanagement.entity.enums.Operations;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Daily and monthly totals per account (see V12_account_rollups.sql), so statements never scan the history.
+ * <p>
+ * {@link OperationHistoryWriter} passes every batch of history rows it inserts to {@link #record(List)}, which
+ * copies them to {@code account_rollup_pending} in the same transaction. Those are distinct rows, so concurrent
+ * deposits (to different stripes of one account, say) never wait on each other for a day row. A background job
+ * takes pending rows in batches, adds them to the day rows with {@link #apply(List)} and deletes them in one
+ * transaction, so each history row is counted exactly once; statements lag the history by up to
+ * {@code history.rollups.apply-interval-ms}. A day row that does not exist yet opens with the closing balance
+ * of the account's previous row.
+ * <p>
+ * Days older than {@code history.rollups.keep-daily-months} full months are folded into one row per month,
+ * a month per transaction. Folding replaces the month row, so it is safe to repeat.
+ */
+@Log4j2
+@Service
+@RequiredArgsConstructor
+public class AccountRollups {
+
+    static final String UPSERT_DAY_SQL = "INSERT INTO account_daily_rollups "
+            + "(bank_account_id, day, deposits_minor, withdrawals_minor, operations, opening_minor, closing_minor) "
+            + "SELECT ?, ?, ?, ?, ?, previous.closing, previous.closing + ? FROM (SELECT COALESCE("
+            + "(SELECT closing_minor FROM account_daily_rollups WHERE bank_account_id = ? AND day < ? ORDER BY day DESC LIMIT 1), "
+            + "(SELECT closing_minor FROM account_monthly_rollups WHERE bank_account_id = ? AND month < ? ORDER BY month DESC LIMIT 1), "
+            + "0) AS closing) previous "
+            + "ON DUPLICATE KEY UPDATE deposits_minor = deposits_minor + VALUES(deposits_minor), "
+            + "withdrawals_minor = withdrawals_minor + VALUES(withdrawals_minor), operations = operations + VALUES(operations), "
+            + "closing_minor = closing_minor + VALUES(closing_minor) - VALUES(opening_minor)";
+    static final String RECORD_SQL = "INSERT INTO account_rollup_pending "
+            + "(history_id, bank_account_id, operation_type, amount_minor, operation_date) VALUES (?, ?, ?, ?, ?)";
+    static final String TAKE_PENDING_SQL = "SELECT history_id, bank_account_id, operation_type, amount_minor, operation_date "
+            + "FROM account_rollup_pending ORDER BY history_id LIMIT ? FOR UPDATE SKIP LOCKED";
+    static final String DELETE_PENDING_SQL = "DELETE FROM account_rollup_pending WHERE history_id = ?";
+    static final String SHIFT_SQL = "UPDATE account_daily_rollups SET opening_minor = opening_minor + ?, closing_minor = closing_minor + ? "
+            + "WHERE bank_account_id = ? AND day > ?";
+    private static final String FOLD_COLUMNS = "m.month, m.deposits, m.withdrawals, m.operations, f.opening_minor, "
+            + "f.opening_minor + m.deposits - m.withdrawals";
+    static final String COMPACT_SQL = "INSERT INTO account_monthly_rollups "
+            + "(bank_account_id, month, deposits_minor, withdrawals_minor, operations, opening_minor, closing_minor) "
+            + "SELECT m.bank_account_id, " + FOLD_COLUMNS + fold("day >= ? AND day < ?")
+            + " ON DUPLICATE KEY UPDATE deposits_minor = VALUES(deposits_minor), withdrawals_minor = VALUES(withdrawals_minor), "
+            + "operations = VALUES(operations), opening_minor = VALUES(opening_minor), closing_minor = VALUES(closing_minor)";
+    static final String DELETE_DAYS_SQL = "DELETE FROM account_daily_rollups WHERE day >= ? AND day < ?";
+    private static final String OLDEST_DAY_SQL = "SELECT MIN(day) FROM account_daily_rollups";
+    static final String DAILY_SQL = "SELECT day, deposits_minor, withdrawals_minor, operations, opening_minor, closing_minor "
+            + "FROM account_daily_rollups WHERE bank_account_id = ? AND day >= ? AND day <= ? ORDER BY day";
+    static final String MONTHLY_SQL = "SELECT month, deposits_minor, withdrawals_minor, operations, opening_minor, closing_minor "
+            + "FROM account_monthly_rollups WHERE bank_account_id = ? AND month >= ? AND month < ? ORDER BY month";
+    static final String UNFOLDED_SQL = "SELECT " + FOLD_COLUMNS + fold("bank_account_id = ? AND day >= ? AND day < ?") + " ORDER BY m.month";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${history.rollups.keep-daily-months:3}")
+    private int keepDailyMonths = 3;
+    @Value("${history.rollups.batch-size:500}")
+    private int batchSize = 500;
+
+    private TransactionTemplate readCommitted;
+
+    @PostConstruct
+    public void init() {
+        // no gap locks: taking the oldest pending rows must not block the inserts of running transactions
+        readCommitted = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        readCommitted.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+    }
+
+    /**
+     * Queues the operations for the day rows in the caller's transaction.
+     */
+    public void record(List<OperationHistory> operations) {
+        jdbcTemplate.batchUpdate(RECORD_SQL, operations, batchSize, (statement, operation) -> {
+            statement.setLong(1, operation.getId());
+            statement.setLong(2, operation.getBankAccountId());
+            statement.setString(3, operation.getOperationType());
+            statement.setLong(4, operation.getAmountMinor());
+            statement.setTimestamp(5, Timestamp.valueOf(operation.getOperationDate()));
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${history.rollups.apply-interval-ms:1000}")
+    public void applyPending() {
+        try {
+            int applied;
+            do {
+                applied = applyPendingBatch();
+            } while (applied == batchSize);
+        } catch (DataAccessException e) {
+            log.error("Adding pending operations to account day rollups failed", e);
+        }
+    }
+
+    /**
+     * Adds up to one batch of pending operations to the day rows and deletes them in the same transaction.
+     */
+    int applyPendingBatch() {
+        Integer applied = readCommitted.execute(status -> {
+            List<OperationHistory> pending = jdbcTemplate.query(TAKE_PENDING_SQL, (row, index) -> new OperationHistory(
+                    row.getLong(1), row.getLong(2), null, row.getString(3), row.getLong(4), null,
+                    row.getTimestamp(5).toLocalDateTime(), null), batchSize);
+            if (pending.isEmpty()) {
+                return 0;
+            }
+
+            apply(pending);
+            jdbcTemplate.batchUpdate(DELETE_PENDING_SQL, pending, batchSize,
+                    (statement, operation) -> statement.setLong(1, operation.getId()));
+            return pending.size();
+        });
+        if (applied != null && applied > 0) {
+            meterRegistry.counter("history.rollups.applied").increment(applied);
+        }
+        return applied == null ? 0 : applied;
+    }
+
+    /**
+     * Adds the operations to the day rows of their accounts. Rows are updated in (account, day) order so
+     * concurrent writers lock them in the same order.
+     */
+    public void apply(List<OperationHistory> operations) {
+        Map<DayKey, long[]> days = new TreeMap<>(Comparator.comparing(DayKey::accountId).thenComparing(DayKey::day));
+        for (OperationHistory operation : operations) {
+            long[] totals = days.computeIfAbsent(new DayKey(operation.getBankAccountId(), operation.getOperationDate().toLocalDate()),
+                    key -> new long[3]);
+            if (Operations.DEPOSIT.name().equals(operation.getOperationType())) {
+                totals[0] += operation.getAmountMinor();
+            } else if (Operations.WITHDRAW.name().equals(operation.getOperationType())) {
+                totals[1] += operation.getAmountMinor();
+            }
+            totals[2]++;
+        }
+
+        List<Map.Entry<DayKey, long[]>> rows = new ArrayList<>(days.entrySet());
+
+        // operations are dated when they are made, so only a batch written just after midnight can land
+        // before a day row that exists already; the balances of the days after it move with it. Shifting
+        // before the upserts moves only rows that existed before this batch: a later day created below opens
+        // with a closing balance that already includes the late operations, and must not move again
+        LocalDate today = LocalDate.now();
+        List<Map.Entry<DayKey, long[]>> late = rows.stream().filter(row -> row.getKey().day().isBefore(today)).toList();
+        if (!late.isEmpty()) {
+            jdbcTemplate.batchUpdate(SHIFT_SQL, late, batchSize, (statement, row) -> {
+                long net = row.getValue()[0] - row.getValue()[1];
+                statement.setLong(1, net);
+                statement.setLong(2, net);
+                statement.setLong(3, row.getKey().accountId());
+                statement.setDate(4, Date.valueOf(row.getKey().day()));
+            });
+        }
+
+        jdbcTemplate.batchUpdate(UPSERT_DAY_SQL, rows, batchSize, (statement, row) -> {
+            Date day = Date.valueOf(row.getKey().day());
+            long[] totals = row.getValue();
+            statement.setLong(1, row.getKey().accountId());
+            statement.setDate(2, day);
+            statement.setLong(3, totals[0]);
+            statement.setLong(4, totals[1]);
+            statement.setLong(5, totals[2]);
+            statement.setLong(6, totals[0] - totals[1]);
+            statement.setLong(7, row.getKey().accountId());
+            statement.setDate(8, day);
+            statement.setLong(9, row.getKey().accountId());
+            statement.setDate(10, day);
+        });
+
+    }
+
+    /**
+     * Day rows of the account between {@code from} and {@code to} inclusive. Days already folded into months
+     * are only available from {@link #monthly}.
+     */
+    public List<AccountRollup> daily(Long bankAccountId, Currency currency, LocalDate from, LocalDate to) {
+        return jdbcTemplate.query(DAILY_SQL, mapper(currency),
+                bankAccountId, Date.valueOf(from), Date.valueOf(to));
+    }
+
+    /**
+     * Month rows of the account between {@code from} and {@code to} inclusive: folded months as stored, the
+     * rest summed from their day rows.
+     */
+    public List<AccountRollup> monthly(Long bankAccountId, Currency currency, YearMonth from, YearMonth to) {
+        Date start = Date.valueOf(from.atDay(1));
+        Date end = Date.valueOf(to.plusMonths(1).atDay(1));
+
+        List<AccountRollup> months = new ArrayList<>(jdbcTemplate.query(MONTHLY_SQL, mapper(currency),
+                bankAccountId, start, end));
+        months.addAll(jdbcTemplate.query(UNFOLDED_SQL, mapper(currency), bankAccountId, start, end));
+        months.sort(Comparator.comparing(AccountRollup::getPeriod));
+        return months;
+    }
+
+    @Scheduled(initialDelayString = "${history.rollups.compaction-interval-ms:3600000}",
+            fixedDelayString = "${history.rollups.compaction-interval-ms:3600000}")
+    public void compact() {
+        try {
+            compact(LocalDate.now());
+        } catch (DataAccessException e) {
+            log.error("Folding account day rollups into months failed", e);
+        }
+    }
+
+    void compact(LocalDate today) {
+        LocalDate cutoff = today.withDayOfMonth(1).minusMonths(keepDailyMonths);
+        Date oldest = jdbcTemplate.queryForObject(OLDEST_DAY_SQL, Date.class);
+        if (oldest == null) {
+            return;
+        }
+
+        for (LocalDate month = oldest.toLocalDate().withDayOfMonth(1); month.isBefore(cutoff); month = month.plusMonths(1)) {
+            Date start = Date.valueOf(month);
+            Date end = Date.valueOf(month.plusMonths(1));
+            Integer folded = transactionTemplate.execute(status -> {
+                int accounts = jdbcTemplate.update(COMPACT_SQL, start, end);
+                jdbcTemplate.update(DELETE_DAYS_SQL, start, end);
+                return accounts;
+            });
+            meterRegistry.counter("history.rollups.compacted").increment();
+            log.info("Folded account day rollups of {} into months, {} rows changed", YearMonth.from(month), folded);
+        }
+    }
+
+    /**
+     * Day rows matching {@code where} summed per account and month, with the opening balance of the month's first day.
+     */
+    private static String fold(String where) {
+        return " FROM (SELECT bank_account_id, MIN(day) AS first_day, MIN(day) - INTERVAL DAYOFMONTH(MIN(day)) - 1 DAY AS month, "
+                + "SUM(deposits_minor) AS deposits, SUM(withdrawals_minor) AS withdrawals, SUM(operations) AS operations "
+                + "FROM account_daily_rollups WHERE " + where + " GROUP BY bank_account_id, YEAR(day), MONTH(day)) m "
+                + "JOIN account_daily_rollups f ON f.bank_account_id = m.bank_account_id AND f.day = m.first_day";
+    }
+
+    private static RowMapper<AccountRollup> mapper(Currency currency) {
+        return (row, index) -> new AccountRollup(row.getDate(1).toLocalDate(),
+                currency.toMajor(row.getLong(2)), currency.toMajor(row.getLong(3)), row.getLong(4),
+                currency.toMajor(row.getLong(5)), currency.toMajor(row.getLong(6)), currency.name());
+    }
+
+    private record DayKey(Long accountId, LocalDate day) {
+    }
+}
@@ -0,0 +1,227 @@
+package ua.yarynych.apiaccountmanagement.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ua.yarynych.apiaccountmanagement.entity.BankAccount;
+import ua.yarynych.apiaccountmanagement.entity.dto.account.BankAccountView;
+import ua.yarynych.apiaccountmanagement.entity.exceptions.DatabaseNotFoundException;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Split balances for accounts that receive more deposits than a single row can take.
+ * The balance of a striped account is its own {@code amount_minor} plus the sum of its rows in
+ * {@code bank_account_stripes}. A deposit adds to one random stripe with a single UPDATE and never
+ * locks the account row, so concurrent deposits only wait for each other when they pick the same stripe.
+ * <p>
+ * Debits still lock the account row and take from its own amount; only when that is short are the
+ * stripes locked, in stripe order, and folded into it. A background pass folds the stripes into the
+ * account row regularly so debits rarely have to. Which accounts are striped is cached and refreshed
+ * by the same pass; a stale entry only sends a deposit down the regular locked path, which is still correct.
+ */
+@Log4j2
+@Service
+@RequiredArgsConstructor
+public class AccountStripes {
+
+    private static final String CREDIT_SQL =
+            "UPDATE bank_account_stripes SET amount_minor = amount_minor + ? WHERE bank_account_id = ? AND stripe = ?";
+    private static final String LOCK_SQL =
+            "SELECT amount_minor FROM bank_account_stripes WHERE bank_account_id = ? ORDER BY stripe FOR UPDATE";
+    private static final String CLEAR_SQL =
+            "UPDATE bank_account_stripes SET amount_minor = 0 WHERE bank_account_id = ? AND amount_minor <> 0";
+    private static final String SUM_SQL =
+            "SELECT COALESCE(SUM(amount_minor), 0) FROM bank_account_stripes WHERE bank_account_id = ?";
+    private static final String TOTALS_SQL =
+            "SELECT a.id, a.amount_minor + COALESCE(SUM(s.amount_minor), 0) FROM bank_accounts a " +
+            "LEFT JOIN bank_account_stripes s ON s.bank_account_id = a.id WHERE a.id IN (%s) GROUP BY a.id, a.amount_minor";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final AccountOperationExecutor accountOperations;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${accounts.stripes.max-count:64}")
+    private int maxCount = 64;
+
+    private volatile Set<Long> striped = Set.of();
+
+    public boolean isStriped(Long accountId) {
+        return striped.contains(accountId);
+    }
+
+    /**
+     * Adds {@code amount} to a random stripe of the account without locking the account row.
+     * Returns false when the account has no stripes (any more) and must be credited the regular way.
+     */
+    public boolean credit(BankAccount account, long amount) {
+        int count = account.getStripeCount();
+        if (count <= 0) {
+            return false;
+        }
+
+        int stripe = ThreadLocalRandom.current().nextInt(count);
+        return jdbcTemplate.update(CREDIT_SQL, amount, account.getId(), stripe) == 1;
+    }
+
+    /**
+     * Takes {@code amount} from an account whose row is locked, borrowing from its stripes when its own
+     * amount is short. Returns false, leaving the total unchanged, when the account holds less in total.
+     */
+    public boolean tryDebit(BankAccount account, long amount) {
+        if (account.getAmountMinor() < amount && account.getStripeCount() > 0) {
+            account.setAmountMinor(Math.addExact(account.getAmountMinor(), drain(account.getId())));
+            meterRegistry.counter("accounts.stripes.borrowed").increment();
+        }
+
+        if (account.getAmountMinor() < amount) {
+            return false;
+        }
+        account.setAmountMinor(account.getAmountMinor() - amount);
+        return true;
+    }
+
+    /**
+     * Current sum of the account's stripes, for balances returned inside an operation's transaction.
+     */
+    public long stripeBalance(BankAccount account) {
+        if (account.getStripeCount() <= 0) {
+            return 0;
+        }
+
+        Long sum = jdbcTemplate.queryForObject(SUM_SQL, Long.class, account.getId());
+        return sum == null ? 0 : sum;
+    }
+
+    /**
+     * The account with its stripes added to the balance; accounts without stripes are returned as they are.
+     */
+    public BankAccount withStripes(BankAccount account) {
+        return account.getStripeCount() <= 0 ? account : account.withAmountMinor(account.getAmountMinor() + stripeBalance(account));
+    }
+
+    /**
+     * Replaces the balance of striped accounts with their total, read with one statement so the account
+     * row and its stripes come from the same snapshot. Accounts without stripes are returned unchanged.
+     */
+    public List<BankAccountView> withTotals(List<BankAccountView> accounts) {
+        List<Long> ids = accounts.stream()
+                .filter(account -> account.getStripeCount() > 0)
+                .map(BankAccountView::getId)
+                .toList();
+        if (ids.isEmpty()) {
+            return accounts;
+        }
+
+        Map<Long, Long> totals = new HashMap<>(ids.size() * 2);
+        String sql = String.format(TOTALS_SQL, String.join(",", Collections.nCopies(ids.size(), "?")));
+        jdbcTemplate.query(sql, (RowCallbackHandler) row -> totals.put(row.getLong(1), row.getLong(2)), ids.toArray());
+
+        List<BankAccountView> result = new ArrayList<>(accounts.size());
+        for (BankAccountView account : accounts) {
+            Long total = totals.get(account.getId());
+            result.add(total == null ? account : account.withAmountMinor(total));
+        }
+        return result;
+    }
+
+    /**
+     * Splits the account's balance across {@code count} stripes from now on, or stops striping it with 0.
+     * Whatever the old stripes hold is folded into the account row first, so the balance does not change.
+     */
+    public BankAccount configure(Long accountId, int count) {
+        if (count < 0 || count > maxCount) {
+            throw new IllegalArgumentException("Stripe count must be between 0 and " + maxCount);
+        }
+
+        BankAccount account = accountOperations.execute("stripes", accountId, locked -> {
+            locked.setAmountMinor(Math.addExact(locked.getAmountMinor(), lockStripes(accountId)));
+            jdbcTemplate.update("DELETE FROM bank_account_stripes WHERE bank_account_id = ?", accountId);
+
+            List<Object[]> rows = new ArrayList<>(count);
+            for (int stripe = 0; stripe < count; stripe++) {
+                rows.add(new Object[]{accountId, stripe});
+            }
+            if (!rows.isEmpty()) {
+                jdbcTemplate.batchUpdate("INSERT INTO bank_account_stripes (bank_account_id, stripe, amount_minor) VALUES (?, ?, 0)", rows);
+            }
+
+            locked.setStripeCount(count);
+            return locked;
+        });
+
+        mark(accountId, count > 0);
+        log.info("Account {} balance is split across {} stripes", accountId, count);
+        return account;
+    }
+
+    /**
+     * Folds the stripes of every striped account into its row and refreshes the set of striped accounts.
+     */
+    @Scheduled(fixedDelayString = "${accounts.stripes.rebalance-interval-ms:5000}")
+    public void rebalance() {
+        refresh();
+
+        for (Long accountId : striped) {
+            Long pending = jdbcTemplate.queryForObject(SUM_SQL, Long.class, accountId);
+            if (pending == null || pending == 0) {
+                continue;
+            }
+
+            try {
+                accountOperations.execute("stripes-rebalance", accountId, account -> {
+                    account.setAmountMinor(Math.addExact(account.getAmountMinor(), drain(accountId)));
+                    return account;
+                });
+                meterRegistry.counter("accounts.stripes.folded").increment();
+            } catch (DatabaseNotFoundException e) {
+                mark(accountId, false);
+            } catch (RuntimeException e) {
+                log.warn("Could not fold stripes of account {}", accountId, e);
+            }
+        }
+    }
+
+    private synchronized void refresh() {
+        striped = Set.copyOf(jdbcTemplate.queryForList("SELECT id FROM bank_accounts WHERE stripe_count > 0", Long.class));
+    }
+
+    private synchronized void mark(Long accountId, boolean isStriped) {
+        Set<Long> next = new HashSet<>(striped);
+        if (isStriped) {
+            next.add(accountId);
+        } else {
+            next.remove(accountId);
+        }
+        striped = Set.copyOf(next);
+    }
+
+    /**
+     * Locks the account's stripes in stripe order and returns what they hold; 0 for accounts without stripes.
+     * Call with the account row already locked.
+     */
+    public long lockStripes(Long accountId) {
+        long sum = 0;
+        for (Long amount : jdbcTemplate.queryForList(LOCK_SQL, Long.class, accountId)) {
+            sum = Math.addExact(sum, amount);
+        }
+        return sum;
+    }
+
+    /**
+     * Locks the account's stripes, empties them and returns what they held.
+     */
+    private long drain(Long accountId) {
+        long sum = lockStripes(accountId);
+        if (sum != 0) {
+            jdbcTemplate.update(CLEAR_SQL, accountId);
+        }
+        return sum;
+    }
+}
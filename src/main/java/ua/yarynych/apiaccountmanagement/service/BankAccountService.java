@@ -4,22 +4,35 @@ import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ua.yarynych.apiaccountmanagement.entity.BankAccount;
-import ua.yarynych.apiaccountmanagement.entity.OperationHistory;
-import ua.yarynych.apiaccountmanagement.entity.User;
 import ua.yarynych.apiaccountmanagement.entity.UserBankAccountRelation;
+import ua.yarynych.apiaccountmanagement.entity.auth.UserAuthDetails;
+import ua.yarynych.apiaccountmanagement.entity.dto.account.BankAccountView;
+import ua.yarynych.apiaccountmanagement.entity.dto.history.AccountRollup;
+import ua.yarynych.apiaccountmanagement.entity.dto.history.HistoryPage;
+import ua.yarynych.apiaccountmanagement.entity.dto.history.HistoryQuery;
+import ua.yarynych.apiaccountmanagement.entity.dto.ledger.LedgerRebuildReport;
 import ua.yarynych.apiaccountmanagement.entity.dto.transactions.CreateBankAccountRequest;
 import ua.yarynych.apiaccountmanagement.entity.enums.Currency;
+import ua.yarynych.apiaccountmanagement.entity.enums.ExportFormat;
 import ua.yarynych.apiaccountmanagement.entity.enums.Role;
 import ua.yarynych.apiaccountmanagement.entity.exceptions.DatabaseNotFoundException;
 import ua.yarynych.apiaccountmanagement.entity.exceptions.InappropriateRoleException;
 import ua.yarynych.apiaccountmanagement.repository.BankAccountRepository;
 import ua.yarynych.apiaccountmanagement.repository.UserBankAccountRepository;
-import ua.yarynych.apiaccountmanagement.service.auth.JwtService;
-
-import java.math.BigDecimal;
+import ua.yarynych.apiaccountmanagement.service.ledger.LedgerRebuilder;
+import ua.yarynych.apiaccountmanagement.service.ledger.LedgerSnapshots;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
 
 @Log4j2
 @Service
@@ -28,15 +41,23 @@ public class BankAccountService {
 
     private final BankAccountRepository bankAccountRepository;
     private final OperationHistoryService operationHistoryService;
+    private final OperationHistoryExporter operationHistoryExporter;
+    private final AccountRollups accountRollups;
     private final UserBankAccountRepository userBankAccountRepository;
-    private final JwtService tokenProvider;
     private final UserService userService;
+    private final AccountStripes accountStripes;
+    private final LedgerSnapshots ledgerSnapshots;
+    private final LedgerRebuilder ledgerRebuilder;
 
     public BankAccount findAccountById(Long id) {
         return bankAccountRepository.findById(id)
                 .orElseThrow(() -> new DatabaseNotFoundException("Account not found"));
     }
 
+    public boolean accountExists(Long id) {
+        return bankAccountRepository.existsById(id);
+    }
+
     private String deleteAccountById(Long accountId) {
         bankAccountRepository.deleteById(accountId);
         return "Account deleted successfully";
@@ -44,28 +65,24 @@ public class BankAccountService {
 
     @Transactional
     public BankAccount saveAccount(BankAccount account) {
-        log.info("Saving new account: {}", account.getId());
+        log.debug("Saving new account: {}", account.getId());
         return bankAccountRepository.save(account);
     }
 
     @Transactional
-    public BankAccount createBankAccount(CreateBankAccountRequest request, String token) {
-        token = token.replace("Bearer ", "");
-        String email = tokenProvider.read(token).getEmail();
-        User user = userService.findUserByEmail(email, token);
-
+    public BankAccount createBankAccount(CreateBankAccountRequest request, UserAuthDetails principal) {
         if (!Currency.isValid(request.getCurrency())) {
             throw new IllegalArgumentException("Invalid currency: " + request.getCurrency());
         }
 
         BankAccount bankAccount = new BankAccount();
-        bankAccount.setCurrency(request.getCurrency());
-        bankAccount.setAmount(BigDecimal.ZERO);
+        bankAccount.setCurrency(Currency.of(request.getCurrency()).name());
+        bankAccount.setAmountMinor(0);
 
         bankAccount = saveAccount(bankAccount);
 
         UserBankAccountRelation relation = new UserBankAccountRelation();
-        relation.setUser(user);
+        relation.setUser(userService.getUserReference(principal.getId()));
         relation.setBankAccount(bankAccount);
 
         userBankAccountRepository.save(relation);
@@ -74,72 +91,137 @@ public class BankAccountService {
     }
 
     @Transactional
-    public String closeBankAccountsByNumber(Long accountNumber, String token) {
-        token = token.replace("Bearer ", "");
-        String email = tokenProvider.read(token).getEmail();
-        User user = userService.findUserByEmail(email, token);
-
-        UserBankAccountRelation accountRelation = userBankAccountRepository.findByBankAccountId(accountNumber)
+    public String closeBankAccountsByNumber(Long accountNumber, UserAuthDetails principal) {
+        Long ownerId = userBankAccountRepository.findOwnerId(accountNumber)
                 .orElseThrow(() -> new DatabaseNotFoundException("Account not found"));
 
-        if(!accountRelation.getUser().getId().equals(user.getId()) && !Role.ROLE_ADMIN.equals(user.getRole())) {
+        if(!ownerId.equals(principal.getId()) && !Role.ROLE_ADMIN.equals(principal.getRole())) {
             throw new IllegalArgumentException("User couldn`t delete another user account details");
         }
 
         return deleteAccountById(accountNumber);
     }
 
-    public List<BankAccount> getUserBankAccounts(String token) {
-        token = token.replace("Bearer ", "");
-        String email = tokenProvider.read(token).getEmail();
-        User user = userService.findUserByEmail(email, token);
+    public List<BankAccountView> getUserBankAccounts(UserAuthDetails principal) {
+        return accountStripes.withTotals(userBankAccountRepository.findAccountViewsByUserId(principal.getId()));
+    }
+
+    public BankAccountView getBankAccountsByNumber(Long accountNumber, UserAuthDetails principal) {
+        BankAccountView account = userBankAccountRepository.findAccountViewById(accountNumber)
+                .orElseThrow(() -> new DatabaseNotFoundException("Account not found"));
 
-        List<UserBankAccountRelation> relations = userBankAccountRepository.findByUserId(user.getId());
+        if(!account.getOwnerId().equals(principal.getId()) && !Role.ROLE_ADMIN.equals(principal.getRole())) {
+            throw new IllegalArgumentException("User couldn`t see another user account details");
+        }
 
-        return relations.stream()
-                .map(UserBankAccountRelation::getBankAccount)
-                .collect(Collectors.toList());
+        return accountStripes.withTotals(List.of(account)).get(0);
     }
 
-    public BankAccount getBankAccountsByNumber(Long accountNumber, String token) {
-        token = token.replace("Bearer ", "");
-        String email = tokenProvider.read(token).getEmail();
-        User user = userService.findUserByEmail(email, token);
+    /**
+     * Balance of the account as it was at {@code at}, replayed from the journal.
+     */
+    public BankAccountView getBankAccountBalanceAt(Long accountNumber, LocalDateTime at, UserAuthDetails principal) {
+        BankAccountView account = getBankAccountsByNumber(accountNumber, principal);
+        return account.withAmountMinor(ledgerSnapshots.balanceAt(accountNumber, at));
+    }
 
-        UserBankAccountRelation accountRelation = userBankAccountRepository.findByBankAccountId(accountNumber)
-                .orElseThrow(() -> new DatabaseNotFoundException("Account not found"));
+    public LedgerRebuildReport rebuildLedger(int partitions, UserAuthDetails principal) {
+        if(!Role.ROLE_ADMIN.equals(principal.getRole())) {
+            throw new InappropriateRoleException("User with id " + principal.getId() + ", isn`t admin");
+        }
 
-        if(!accountRelation.getUser().getId().equals(user.getId()) && !Role.ROLE_ADMIN.equals(user.getRole())) {
-            throw new IllegalArgumentException("User couldn`t see another user account details");
+        return ledgerRebuilder.rebuild(partitions);
+    }
+
+    /**
+     * Splits the balance of a hot account across {@code stripes} rows so deposits stop queueing on
+     * one row, or merges it back with 0. For admins only.
+     */
+    public BankAccount configureStripes(Long accountNumber, int stripes, UserAuthDetails principal) {
+        if(!Role.ROLE_ADMIN.equals(principal.getRole())) {
+            throw new InappropriateRoleException("User with id " + principal.getId() + ", isn`t admin");
+        }
+
+        return accountStripes.withStripes(accountStripes.configure(accountNumber, stripes));
+    }
+
+    /**
+     * Returns which of the given accounts the principal may debit, in one query. Admins may debit any account.
+     */
+    public Set<Long> findOwnedAccountIds(Collection<Long> accountIds, UserAuthDetails principal) {
+        if (Role.ROLE_ADMIN.equals(principal.getRole())) {
+            return new HashSet<>(accountIds);
+        }
+        if (accountIds.isEmpty()) {
+            return Set.of();
+        }
+
+        return userBankAccountRepository.findOwnedAccountIds(principal.getId(), accountIds);
+    }
+
+    public List<BankAccountView> getAllBankAccounts(UserAuthDetails principal) {
+        if(!Role.ROLE_ADMIN.equals(principal.getRole())) {
+            throw new InappropriateRoleException("User with id " + principal.getId() + ", isn`t admin");
         }
 
-        return findAccountById(accountNumber);
+        return accountStripes.withTotals(bankAccountRepository.findAllViews());
     }
 
-    public List<BankAccount> getAllBankAccounts(String token) {
-        token = token.replace("Bearer ", "");
-        String email = tokenProvider.read(token).getEmail();
-        User user = userService.findUserByEmail(email, token);
+    public HistoryPage getHistoryOfOperationsByAccountId(Long accountNumber, HistoryQuery query, UserAuthDetails principal) {
+        BankAccountView account = historyAccount(accountNumber, principal);
+
+        return operationHistoryService.getOperationsPage(accountNumber, Currency.of(account.getCurrency()), query);
+    }
 
-        if(!Role.ROLE_ADMIN.equals(user.getRole())) {
-            throw new InappropriateRoleException("User with id " + user.getId() + ", isn`t admin");
+    /**
+     * Operations of all accounts of the principal merged into one feed, newest first.
+     */
+    public HistoryPage getActivityFeed(HistoryQuery query, UserAuthDetails principal) {
+        Map<Long, Currency> accounts = new LinkedHashMap<>();
+        for (BankAccountView account : userBankAccountRepository.findAccountViewsByUserId(principal.getId())) {
+            accounts.put(account.getId(), Currency.of(account.getCurrency()));
         }
 
-        return bankAccountRepository.findAll();
+        return operationHistoryService.getOperationsFeed(accounts, query);
     }
 
-    public List<OperationHistory> getHistoryOfOperationsByAccountId(Long accountNumber, String token) {
-        token = token.replace("Bearer ", "");
-        String email = tokenProvider.read(token).getEmail();
-        User user = userService.findUserByEmail(email, token);
+    /**
+     * Totals of the account per day, read from the rollups instead of the history.
+     */
+    public List<AccountRollup> getDailySummary(Long accountNumber, LocalDate from, LocalDate to, UserAuthDetails principal) {
+        if (from.isAfter(to)) {
+            throw new IllegalArgumentException("Period start must not be after its end");
+        }
+        BankAccountView account = historyAccount(accountNumber, principal);
 
-        UserBankAccountRelation accountRelation = userBankAccountRepository.findByBankAccountId(accountNumber)
+        return accountRollups.daily(accountNumber, Currency.of(account.getCurrency()), from, to);
+    }
+
+    public List<AccountRollup> getMonthlySummary(Long accountNumber, YearMonth from, YearMonth to, UserAuthDetails principal) {
+        if (from.isAfter(to)) {
+            throw new IllegalArgumentException("Period start must not be after its end");
+        }
+        BankAccountView account = historyAccount(accountNumber, principal);
+
+        return accountRollups.monthly(accountNumber, Currency.of(account.getCurrency()), from, to);
+    }
+
+    /**
+     * Checks access right away; the history is read and written out while the response body is streamed.
+     */
+    public StreamingResponseBody exportHistoryOfOperations(Long accountNumber, ExportFormat format, UserAuthDetails principal) {
+        historyAccount(accountNumber, principal);
+
+        return out -> operationHistoryExporter.export(accountNumber, format, out);
+    }
+
+    private BankAccountView historyAccount(Long accountNumber, UserAuthDetails principal) {
+        BankAccountView account = userBankAccountRepository.findAccountViewById(accountNumber)
                 .orElseThrow(() -> new DatabaseNotFoundException("Account not found"));
 
-        if(!accountRelation.getUser().getId().equals(user.getId()) && !Role.ROLE_ADMIN.equals(user.getRole())) {
+        if(!account.getOwnerId().equals(principal.getId()) && !Role.ROLE_ADMIN.equals(principal.getRole())) {
             throw new IllegalArgumentException("User couldn`t see another user account operation history");
         }
-
-        return operationHistoryService.getOperationsByBankAccountId(accountNumber);
+        return account;
     }
 }
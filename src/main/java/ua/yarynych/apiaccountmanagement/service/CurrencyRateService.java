@@ -1,20 +1,58 @@
 package ua.yarynych.apiaccountmanagement.service;
 
 import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import ua.yarynych.apiaccountmanagement.entity.enums.Currency;
 import ua.yarynych.apiaccountmanagement.repository.CurrencyRateRepository;
 
-import java.math.BigDecimal;
+import java.math.RoundingMode;
 
+/**
+ * Serves conversions from an in-memory {@link CurrencyRates} snapshot instead of querying
+ * currency_rates on every request. The table is read on first use and re-read periodically;
+ * a changed set of rates replaces the snapshot in one volatile write, so a conversion never
+ * sees half of an update.
+ */
+@Log4j2
 @Service
 @RequiredArgsConstructor
 public class CurrencyRateService {
 
     private final CurrencyRateRepository currencyRateRepository;
 
-    public BigDecimal convertCurrency(BigDecimal amount, String fromCurrency, String toCurrency) {
-        return currencyRateRepository.findByBaseCurrencyAndTargetCurrency(fromCurrency, toCurrency)
-                .map(rate -> amount.multiply(rate.getExchangeRate()))
-                .orElseThrow(() -> new RuntimeException("Exchange rate not found"));
+    private volatile CurrencyRates rates;
+
+    /**
+     * Converts an amount in minor units between currencies. Throws when there is no rate for the pair.
+     */
+    public long convert(long amountMinor, Currency from, Currency to, RoundingMode rounding) {
+        return rates().convert(amountMinor, from, to, rounding);
+    }
+
+    /**
+     * Current snapshot, for callers converting many amounts against the same rates.
+     */
+    public CurrencyRates rates() {
+        CurrencyRates current = rates;
+        return current != null ? current : reload();
+    }
+
+    @Scheduled(fixedDelayString = "${currency.rates.refresh-interval-ms:60000}")
+    public void refresh() {
+        reload();
+    }
+
+    public synchronized CurrencyRates reload() {
+        CurrencyRates loaded = CurrencyRates.of(currencyRateRepository.findAll());
+        CurrencyRates current = rates;
+        if (loaded.sameAs(current)) {
+            return current;
+        }
+
+        rates = loaded;
+        log.info("Loaded {} currency rates", loaded.size());
+        return loaded;
     }
 }
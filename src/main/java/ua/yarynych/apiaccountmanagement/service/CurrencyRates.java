@@ -0,0 +1,177 @@
+package ua.yarynych.apiaccountmanagement.service;
+
+import ua.yarynych.apiaccountmanagement.entity.CurrencyRate;
+import ua.yarynych.apiaccountmanagement.entity.enums.Currency;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Immutable snapshot of all exchange rates as a flat {@code from x to} array indexed by
+ * {@link Currency#ordinal()}. Rates are kept as fixed-point longs with {@value #RATE_SCALE} decimal
+ * places, so converting an amount in minor units is one multiplication and one rounded division
+ * without allocating; amounts too large for that fall back to BigDecimal.
+ */
+public final class CurrencyRates {
+
+    static final int RATE_SCALE = 8;
+
+    private static final Currency[] CURRENCIES = Currency.values();
+
+    private final BigDecimal[] rates;
+    private final long[] scaledRates;
+    private final long[] divisors;
+
+    private CurrencyRates(BigDecimal[] rates) {
+        int n = CURRENCIES.length;
+        this.rates = rates;
+        this.scaledRates = new long[rates.length];
+        this.divisors = new long[rates.length];
+
+        for (Currency from : CURRENCIES) {
+            for (Currency to : CURRENCIES) {
+                int cell = from.ordinal() * n + to.ordinal();
+                if (rates[cell] != null) {
+                    scaledRates[cell] = rates[cell].movePointRight(RATE_SCALE).setScale(0, RoundingMode.HALF_EVEN).longValueExact();
+                    divisors[cell] = pow10(RATE_SCALE - (to.getMinorDigits() - from.getMinorDigits()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds a snapshot from the rate rows. Rows for unknown currencies are ignored and
+     * when a pair appears more than once the row with the latest rate date wins.
+     */
+    public static CurrencyRates of(Iterable<CurrencyRate> rows) {
+        int n = CURRENCIES.length;
+        BigDecimal[] rates = new BigDecimal[n * n];
+        CurrencyRate[] chosen = new CurrencyRate[n * n];
+
+        for (CurrencyRate row : rows) {
+            int from = index(row.getBaseCurrency());
+            int to = index(row.getTargetCurrency());
+            if (from < 0 || to < 0 || from == to || row.getExchangeRate() == null || row.getExchangeRate().signum() <= 0) {
+                continue;
+            }
+
+            int cell = from * n + to;
+            CurrencyRate current = chosen[cell];
+            if (current == null || isNewer(row, current)) {
+                chosen[cell] = row;
+                rates[cell] = row.getExchangeRate();
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            rates[i * n + i] = BigDecimal.ONE;
+        }
+        return new CurrencyRates(rates);
+    }
+
+    public boolean hasRate(Currency from, Currency to) {
+        return scaledRates[cell(from, to)] != 0;
+    }
+
+    /**
+     * Returns the rate from one currency to another, or null when there is none.
+     */
+    public BigDecimal rate(Currency from, Currency to) {
+        return rates[cell(from, to)];
+    }
+
+    /**
+     * Converts an amount in minor units of {@code from} to minor units of {@code to},
+     * rounding the result with {@code rounding}.
+     */
+    public long convert(long amountMinor, Currency from, Currency to, RoundingMode rounding) {
+        if (from == to) {
+            return amountMinor;
+        }
+
+        int cell = cell(from, to);
+        long rate = scaledRates[cell];
+        if (rate == 0) {
+            throw new RuntimeException("Exchange rate not found");
+        }
+
+        long product;
+        try {
+            product = Math.multiplyExact(amountMinor, rate);
+        } catch (ArithmeticException overflow) {
+            return BigDecimal.valueOf(amountMinor).multiply(BigDecimal.valueOf(rate))
+                    .divide(BigDecimal.valueOf(divisors[cell]), 0, rounding)
+                    .longValueExact();
+        }
+        return divide(product, divisors[cell], rounding);
+    }
+
+    boolean sameAs(CurrencyRates other) {
+        if (other == null) {
+            return false;
+        }
+        for (int i = 0; i < rates.length; i++) {
+            BigDecimal a = rates[i];
+            BigDecimal b = other.rates[i];
+            if (a == null ? b != null : b == null || a.compareTo(b) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int size() {
+        int size = 0;
+        for (BigDecimal rate : rates) {
+            if (rate != null) {
+                size++;
+            }
+        }
+        return size - CURRENCIES.length;
+    }
+
+    /**
+     * Integer division of {@code dividend} by a positive {@code divisor} with BigDecimal rounding semantics.
+     */
+    static long divide(long dividend, long divisor, RoundingMode rounding) {
+        long quotient = dividend / divisor;
+        long remainder = dividend % divisor;
+        if (remainder == 0) {
+            return quotient;
+        }
+
+        int signum = dividend < 0 ? -1 : 1;
+        int half = Long.compare(Math.abs(remainder), divisor - Math.abs(remainder));
+        boolean awayFromZero = switch (rounding) {
+            case UP -> true;
+            case DOWN -> false;
+            case CEILING -> signum > 0;
+            case FLOOR -> signum < 0;
+            case HALF_UP -> half >= 0;
+            case HALF_DOWN -> half > 0;
+            case HALF_EVEN -> half > 0 || (half == 0 && (quotient & 1) != 0);
+            case UNNECESSARY -> throw new ArithmeticException("Rounding necessary");
+        };
+        return awayFromZero ? quotient + signum : quotient;
+    }
+
+    private static int cell(Currency from, Currency to) {
+        return from.ordinal() * CURRENCIES.length + to.ordinal();
+    }
+
+    private static long pow10(int exponent) {
+        long value = 1;
+        for (int i = 0; i < exponent; i++) {
+            value *= 10;
+        }
+        return value;
+    }
+
+    private static boolean isNewer(CurrencyRate row, CurrencyRate current) {
+        return row.getRateDate() != null && (current.getRateDate() == null || row.getRateDate().isAfter(current.getRateDate()));
+    }
+
+    private static int index(String code) {
+        return Currency.isValid(code) ? Currency.of(code).ordinal() : -1;
+    }
+}
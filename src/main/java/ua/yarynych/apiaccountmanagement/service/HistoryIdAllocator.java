@@ -0,0 +1,144 @@
+package ua.yarynych.apiaccountmanagement.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Hands out operation_history (and journal entry) ids from blocks reserved in the {@code id_sequences} table,
+ * so rows can be inserted in JDBC batches with their ids known up front instead of one AUTO_INCREMENT insert at a time.
+ * Ids of a block that is not used up are skipped after a restart.
+ * <p>
+ * Callers are inside money-moving transactions and already hold a pooled connection, so blocks are reserved
+ * on a background thread over a connection opened just for the reservation, never from the pool. The next
+ * block is requested once half of the current one is used; a caller that still runs out waits for it
+ * without holding the sequence's monitor.
+ */
+@Log4j2
+@Service
+@RequiredArgsConstructor
+public class HistoryIdAllocator {
+
+    private static final String SEQUENCE = "operation_history";
+    public static final String JOURNAL_SEQUENCE = "journal_entries";
+    static final String RESERVE_SQL = "UPDATE id_sequences SET next_val = LAST_INSERT_ID(next_val + ?) WHERE name = ?";
+
+    private final DataSourceProperties dataSourceProperties;
+
+    @Value("${history.ids.block-size:1000}")
+    private int blockSize = 1000;
+
+    private final Map<String, Sequence> sequences = new ConcurrentHashMap<>();
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private ExecutorService reserver;
+
+    @PostConstruct
+    public void init() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(dataSourceProperties.determineUrl(),
+                dataSourceProperties.determineUsername(), dataSourceProperties.determinePassword());
+        dataSource.setDriverClassName(dataSourceProperties.determineDriverClassName());
+        init(new JdbcTemplate(dataSource), new TransactionTemplate(new DataSourceTransactionManager(dataSource)));
+    }
+
+    void init(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        reserver = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "history-id-reserver");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        reserver.shutdownNow();
+    }
+
+    public long next() {
+        return next(SEQUENCE);
+    }
+
+    public long next(String name) {
+        Sequence sequence = sequences.computeIfAbsent(name, key -> new Sequence());
+        while (true) {
+            CompletableFuture<long[]> pending;
+            synchronized (sequence) {
+                if (sequence.next < sequence.limit) {
+                    if (sequence.prefetched == null && sequence.limit - sequence.next <= blockSize / 2) {
+                        sequence.prefetched = reserve(name);
+                    }
+                    return sequence.next++;
+                }
+                if (sequence.prefetched == null) {
+                    sequence.prefetched = reserve(name);
+                }
+                pending = sequence.prefetched;
+            }
+
+            long[] block = await(sequence, pending);
+            synchronized (sequence) {
+                // the first caller to get here switches blocks; the others loop and take ids from it
+                if (sequence.prefetched == pending) {
+                    sequence.prefetched = null;
+                    sequence.next = block[0];
+                    sequence.limit = block[1];
+                }
+            }
+        }
+    }
+
+    private CompletableFuture<long[]> reserve(String name) {
+        return CompletableFuture.supplyAsync(() -> {
+            Long end = transactionTemplate.execute(status -> {
+                // without a matching row LAST_INSERT_ID() is whatever the connection inserted last
+                if (jdbcTemplate.update(RESERVE_SQL, blockSize, name) != 1) {
+                    throw new IllegalStateException("Sequence " + name + " is missing from id_sequences");
+                }
+                return jdbcTemplate.queryForObject("SELECT LAST_INSERT_ID()", Long.class);
+            });
+
+            if (end == null || end <= blockSize) {
+                throw new IllegalStateException("Sequence " + name + " returned an invalid block end " + end);
+            }
+            return new long[]{end - blockSize, end};
+        }, reserver);
+    }
+
+    private static long[] await(Sequence sequence, CompletableFuture<long[]> pending) {
+        try {
+            return pending.join();
+        } catch (CompletionException e) {
+            synchronized (sequence) {
+                // let the next caller try again
+                if (sequence.prefetched == pending) {
+                    sequence.prefetched = null;
+                }
+            }
+            log.error("Could not reserve a block of ids", e.getCause());
+            throw e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static final class Sequence {
+        private long next;
+        private long limit;
+        private CompletableFuture<long[]> prefetched;
+    }
+}
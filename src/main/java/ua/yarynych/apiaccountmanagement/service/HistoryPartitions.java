@@ -0,0 +1,142 @@
+package ua.yarynych.apiaccountmanagement.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maintains the monthly range partitions of operation_history (see V11_history_partitions.sql).
+ * <p>
+ * Partitions for the next {@code history.partitions.months-ahead} months are split off the catch-all
+ * {@code p_future} partition ahead of time, so rows never pile up in it. With
+ * {@code history.partitions.retention-months} set, partitions that ended that many months ago are
+ * exchanged into a standalone {@code operation_history_archive_<yyyyMM>} table and dropped from
+ * operation_history; 0 keeps everything.
+ * <p>
+ * Several nodes may run this at once: only the one holding a MySQL named lock does anything.
+ */
+@Log4j2
+@Service
+@RequiredArgsConstructor
+public class HistoryPartitions {
+
+    static final String FUTURE = "p_future";
+    private static final String LOCK = "operation_history_partitions";
+    static final String PARTITIONS_SQL = "SELECT partition_name, "
+            + "IF(partition_description = 'MAXVALUE', NULL, DATE(FROM_UNIXTIME(partition_description))) "
+            + "FROM information_schema.partitions WHERE table_schema = DATABASE() AND table_name = 'operation_history' "
+            + "AND partition_name IS NOT NULL ORDER BY partition_ordinal_position";
+    private static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("yyyyMM");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${history.partitions.months-ahead:3}")
+    private int monthsAhead = 3;
+    @Value("${history.partitions.retention-months:0}")
+    private int retentionMonths = 0;
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "${history.partitions.maintenance-interval-ms:3600000}",
+            fixedDelayString = "${history.partitions.maintenance-interval-ms:3600000}")
+    public void maintain() {
+        try {
+            jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+                // the named lock belongs to the connection, so everything runs on this one
+                JdbcTemplate session = new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+                if (!Boolean.TRUE.equals(session.queryForObject("SELECT GET_LOCK(?, 0) = 1", Boolean.class, LOCK))) {
+                    return null;
+                }
+                try {
+                    maintain(session, LocalDate.now());
+                } finally {
+                    session.queryForObject("SELECT RELEASE_LOCK(?)", Integer.class, LOCK);
+                }
+                return null;
+            });
+        } catch (DataAccessException e) {
+            log.error("Operation history partition maintenance failed", e);
+        }
+    }
+
+    void maintain(JdbcTemplate session, LocalDate today) {
+        List<Partition> partitions = session.query(PARTITIONS_SQL, (row, index) -> {
+            Date end = row.getDate(2);
+            return new Partition(row.getString(1), end == null ? null : end.toLocalDate());
+        });
+        if (partitions.isEmpty()) {
+            log.warn("operation_history is not partitioned, run V11_history_partitions.sql");
+            return;
+        }
+
+        createAhead(session, partitions, today);
+        if (retentionMonths > 0) {
+            archive(session, partitions, today.withDayOfMonth(1).minusMonths(retentionMonths));
+        }
+    }
+
+    private void createAhead(JdbcTemplate session, List<Partition> partitions, LocalDate today) {
+        LocalDate covered = partitions.stream().map(Partition::end).filter(end -> end != null)
+                .max(LocalDate::compareTo).orElse(today.withDayOfMonth(1));
+        LocalDate horizon = today.withDayOfMonth(1).plusMonths(monthsAhead + 1L);
+
+        StringBuilder definitions = new StringBuilder();
+        List<String> created = new ArrayList<>();
+        for (LocalDate month = covered; month.isBefore(horizon); month = month.plusMonths(1)) {
+            String name = "p" + month.format(MONTH);
+            definitions.append("PARTITION ").append(name).append(" VALUES LESS THAN (UNIX_TIMESTAMP('")
+                    .append(month.plusMonths(1)).append(" 00:00:00')), ");
+            created.add(name);
+        }
+        if (created.isEmpty()) {
+            return;
+        }
+
+        session.execute("ALTER TABLE operation_history REORGANIZE PARTITION " + FUTURE + " INTO ("
+                + definitions + "PARTITION " + FUTURE + " VALUES LESS THAN MAXVALUE)");
+        meterRegistry.counter("history.partitions.created").increment(created.size());
+        log.info("Created operation_history partitions {}", created);
+    }
+
+    private void archive(JdbcTemplate session, List<Partition> partitions, LocalDate cutoff) {
+        for (Partition partition : partitions) {
+            if (partition.end() == null || partition.end().isAfter(cutoff)) {
+                continue;
+            }
+
+            String archive = "operation_history_archive_" + partition.name().substring(1).replaceFirst("^_", "");
+            try {
+                // fails if the archive table exists already, rather than swapping its rows back in
+                session.execute("CREATE TABLE " + archive + " LIKE operation_history");
+                session.execute("ALTER TABLE " + archive + " REMOVE PARTITIONING");
+                session.execute("ALTER TABLE operation_history EXCHANGE PARTITION " + partition.name() + " WITH TABLE " + archive);
+                session.execute("ALTER TABLE operation_history DROP PARTITION " + partition.name());
+                meterRegistry.counter("history.partitions.archived").increment();
+                log.info("Archived operation_history partition {} into {}", partition.name(), archive);
+            } catch (DataAccessException e) {
+                log.error("Could not archive operation_history partition {}", partition.name(), e);
+            }
+        }
+    }
+
+    /**
+     * {@code end} is the exclusive upper bound of the partition, null for {@link #FUTURE}.
+     */
+    record Partition(String name, LocalDate end) {
+    }
+}
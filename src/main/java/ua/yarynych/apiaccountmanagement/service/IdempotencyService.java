@@ -0,0 +1,226 @@
+package ua.yarynych.apiaccountmanagement.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ua.yarynych.apiaccountmanagement.entity.IdempotencyRecord;
+import ua.yarynych.apiaccountmanagement.entity.exceptions.ConcurrentUpdateException;
+import ua.yarynych.apiaccountmanagement.repository.IdempotencyRecordRepository;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Makes money-moving requests safe to retry with an {@code Idempotency-Key} header.
+ * The first successful response for a user's key is stored in {@code idempotency_keys} and replayed
+ * for later requests with the same key, without running the operation again.
+ * <p>
+ * A key is claimed with an in-progress row before the operation runs, so a duplicate arriving on
+ * another node is refused with 409 instead of executing twice; duplicates on the same node wait for
+ * the first one and get its result. The action runs in a transaction that its account operations join, and
+ * the response is stored in that same transaction, so a key is completed exactly when the money moved: a
+ * crash in between leaves neither. If the operation fails the claim is released, since its transaction
+ * rolled back and a retry is safe. Actions must therefore run on the calling thread, not through
+ * {@link AccountLanes}. Recent responses are also kept in a bounded in-memory cache so most replays do
+ * not reach the database.
+ */
+@Log4j2
+@Service
+@RequiredArgsConstructor
+public class IdempotencyService {
+
+    private static final Pattern KEY_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    private static final long SWEEP_INTERVAL_MS = 1000;
+
+    private final IdempotencyRecordRepository idempotencyRecordRepository;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${transactions.idempotency.ttl-hours:24}")
+    private long ttlHours = 24;
+    @Value("${transactions.idempotency.cache.max-size:10000}")
+    private int cacheMaxSize = 10000;
+    @Value("${transactions.idempotency.cache.ttl-ms:600000}")
+    private long cacheTtlMs = 600000;
+    @Value("${transactions.idempotency.wait-ms:10000}")
+    private long waitMs = 10000;
+
+    private final ConcurrentHashMap<String, CachedResponse> cache = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, InFlight> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong();
+
+    public <T> T execute(String key, Long userId, String operation, Object request, Class<T> responseType, Supplier<T> action) {
+        return execute(key, userId, operation, request, objectMapper.constructType(responseType), action);
+    }
+
+    /**
+     * Runs {@code action} once per user and key and returns its response, replaying the stored
+     * response for repeated keys. Without a key the action simply runs.
+     */
+    public <T> T execute(String key, Long userId, String operation, Object request, JavaType responseType, Supplier<T> action) {
+        if (key == null) {
+            return action.get();
+        }
+        if (!KEY_PATTERN.matcher(key).matches()) {
+            throw new IllegalArgumentException("Idempotency-Key must be 1-64 characters of letters, digits, '-' or '_'");
+        }
+
+        String recordKey = userId + ":" + key;
+        String fingerprint = fingerprint(operation, request);
+
+        CachedResponse cached = cache.get(recordKey);
+        if (cached != null && cached.expiresAt() > System.currentTimeMillis()) {
+            checkFingerprint(cached.fingerprint(), fingerprint);
+            return read(cached.body(), responseType);
+        }
+
+        InFlight current = new InFlight(fingerprint, new CompletableFuture<>());
+        InFlight running = inFlight.putIfAbsent(recordKey, current);
+        if (running != null) {
+            checkFingerprint(running.fingerprint(), fingerprint);
+            return read(await(running.result()), responseType);
+        }
+
+        try {
+            String body = executeOnce(recordKey, fingerprint, action);
+            current.result().complete(body);
+            return read(body, responseType);
+        } catch (RuntimeException e) {
+            current.result().completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(recordKey, current);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${transactions.idempotency.cleanup-interval-ms:3600000}")
+    public void cleanup() {
+        int removed = idempotencyRecordRepository.deleteExpired(LocalDateTime.now());
+        if (removed > 0) {
+            log.info("Removed {} expired idempotency keys", removed);
+        }
+    }
+
+    private String executeOnce(String recordKey, String fingerprint, Supplier<?> action) {
+        IdempotencyRecord stored = idempotencyRecordRepository.findById(recordKey).orElse(null);
+        if (stored == null && idempotencyRecordRepository.claim(recordKey, fingerprint, LocalDateTime.now().plusHours(ttlHours)) == 0) {
+            stored = idempotencyRecordRepository.findById(recordKey).orElse(null);
+        }
+
+        if (stored != null) {
+            checkFingerprint(stored.getFingerprint(), fingerprint);
+            if (!stored.isCompleted()) {
+                throw new ConcurrentUpdateException("A request with this Idempotency-Key is still in progress");
+            }
+            remember(recordKey, fingerprint, stored.getResponse());
+            return stored.getResponse();
+        }
+
+        String body;
+        try {
+            body = transactionTemplate.execute(status -> {
+                Object response = action.get();
+                // write the account rows first so the stored response carries their new versions
+                status.flush();
+                String written = write(response);
+                idempotencyRecordRepository.complete(recordKey, written);
+                return written;
+            });
+        } catch (OptimisticLockingFailureException e) {
+            // the account operation cannot retry inside this transaction; the client can, with the same key
+            idempotencyRecordRepository.release(recordKey);
+            throw new ConcurrentUpdateException("Account was changed concurrently, try again later");
+        } catch (RuntimeException e) {
+            idempotencyRecordRepository.release(recordKey);
+            throw e;
+        }
+
+        remember(recordKey, fingerprint, body);
+        return body;
+    }
+
+    private String await(CompletableFuture<String> running) {
+        try {
+            return running.get(waitMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new ConcurrentUpdateException("A request with this Idempotency-Key is still in progress");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConcurrentUpdateException("Interrupted while waiting for the original request");
+        }
+    }
+
+    private void remember(String recordKey, String fingerprint, String body) {
+        if (cacheMaxSize <= 0) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (cache.size() >= cacheMaxSize) {
+            long last = lastSweep.get();
+            if (now - last >= SWEEP_INTERVAL_MS && lastSweep.compareAndSet(last, now)) {
+                cache.values().removeIf(entry -> entry.expiresAt() <= now);
+            }
+            if (cache.size() >= cacheMaxSize) {
+                return;
+            }
+        }
+
+        cache.put(recordKey, new CachedResponse(fingerprint, body, now + cacheTtlMs));
+    }
+
+    private static void checkFingerprint(String stored, String actual) {
+        if (!stored.equals(actual)) {
+            throw new IllegalArgumentException("Idempotency-Key was already used for a different request");
+        }
+    }
+
+    private String fingerprint(String operation, Object request) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(operation.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            return Base64.getEncoder().encodeToString(digest.digest(objectMapper.writeValueAsBytes(request)));
+        } catch (NoSuchAlgorithmException | JsonProcessingException e) {
+            throw new IllegalStateException("Cannot fingerprint request", e);
+        }
+    }
+
+    private String write(Object response) {
+        try {
+            return objectMapper.writeValueAsString(response);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot store response", e);
+        }
+    }
+
+    private <T> T read(String body, JavaType responseType) {
+        try {
+            return objectMapper.readValue(body, responseType);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot read stored response", e);
+        }
+    }
+
+    private record CachedResponse(String fingerprint, String body, long expiresAt) {
+    }
+
+    private record InFlight(String fingerprint, CompletableFuture<String> result) {
+    }
+}
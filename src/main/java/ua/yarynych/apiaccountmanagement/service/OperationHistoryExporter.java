@@ -0,0 +1,130 @@
+package ua.yarynych.apiaccountmanagement.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import ua.yarynych.apiaccountmanagement.entity.OperationHistory;
+import ua.yarynych.apiaccountmanagement.entity.enums.ExportFormat;
+import ua.yarynych.apiaccountmanagement.service.archive.HistoryArchive;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the whole history of an account as gzip-compressed NDJSON or CSV while reading it.
+ * <p>
+ * Rows are streamed from the database with {@code history.export.fetch-size} (the MySQL driver streams
+ * row by row with {@link Integer#MIN_VALUE}) and each one is written before the next is read, so memory
+ * does not grow with the history. The query runs outside a transaction as a plain consistent read and
+ * takes no locks on operation_history. Archived months come first, straight from {@link HistoryArchive}.
+ */
+@Log4j2
+@Service
+@RequiredArgsConstructor
+public class OperationHistoryExporter {
+
+    private static final String EXPORT_SQL = "SELECT id, bank_account_id, user_id, operation_type, amount_minor, currency, "
+            + "operation_date, description FROM operation_history WHERE bank_account_id = ? AND operation_date >= ? ORDER BY operation_date, id";
+    private static final LocalDateTime BEGINNING = LocalDateTime.of(1970, 1, 2, 0, 0);
+    private static final String FORMULA_PREFIXES = "=+-@\t\r";
+    private static final String CSV_HEADER = "id,bankAccountId,userId,operationType,amount,currency,operationDate,description\n";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final HistoryArchive historyArchive;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${history.export.fetch-size:-2147483648}")
+    private int fetchSize = Integer.MIN_VALUE;
+    @Value("${history.export.buffer-bytes:65536}")
+    private int bufferBytes = 65536;
+
+    /**
+     * Writes the export to {@code out} and returns the number of operations written. {@code out} is left open.
+     */
+    public long export(Long bankAccountId, ExportFormat format, OutputStream out) throws IOException {
+        long started = System.currentTimeMillis();
+        GZIPOutputStream gzip = new GZIPOutputStream(out, bufferBytes);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(gzip, StandardCharsets.UTF_8), bufferBytes);
+        if (format == ExportFormat.CSV) {
+            writer.write(CSV_HEADER);
+        }
+
+        long[] written = {0};
+        Consumer<OperationHistory> write = operation -> {
+            try {
+                writer.write(format == ExportFormat.CSV ? csv(operation) : objectMapper.writeValueAsString(operation));
+                writer.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            written[0]++;
+        };
+        LocalDateTime archivedUntil = historyArchive.archivedUntil();
+        Timestamp since = Timestamp.valueOf(archivedUntil == null ? BEGINNING : archivedUntil);
+        try {
+            if (archivedUntil != null) {
+                historyArchive.forEach(bankAccountId, archivedUntil, write);
+            }
+            jdbcTemplate.query(connection -> {
+                PreparedStatement statement = connection.prepareStatement(EXPORT_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                statement.setFetchSize(fetchSize);
+                statement.setLong(1, bankAccountId);
+                statement.setTimestamp(2, since);
+                return statement;
+            }, (RowCallbackHandler) row -> write.accept(OperationHistoryService.ROW_MAPPER.mapRow(row, 0)));
+        } catch (UncheckedIOException e) {
+            // the client went away; the statement is closed and the connection returned by now
+            throw e.getCause();
+        }
+
+        writer.flush();
+        gzip.finish();
+        out.flush();
+
+        meterRegistry.counter("history.export.rows", "format", format.name()).increment(written[0]);
+        log.info("Exported {} operations of account {} as {} in {} ms", written[0], bankAccountId, format, System.currentTimeMillis() - started);
+        return written[0];
+    }
+
+    static String csv(OperationHistory operation) {
+        BigDecimal amount = operation.getAmount();
+        return operation.getId() + ","
+                + operation.getBankAccountId() + ","
+                + (operation.getUserId() == null ? "" : operation.getUserId()) + ","
+                + csvField(operation.getOperationType()) + ","
+                + (amount == null ? "" : amount.toPlainString()) + ","
+                + csvField(operation.getCurrency()) + ","
+                + operation.getOperationDate() + ","
+                + csvField(operation.getDescription());
+    }
+
+    /**
+     * Quotes the value when needed. Text starting with a character a spreadsheet reads as a formula gets
+     * a leading apostrophe, so an opened export never evaluates a description.
+     */
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (!value.isEmpty() && FORMULA_PREFIXES.indexOf(value.charAt(0)) >= 0) {
+            value = "'" + value;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
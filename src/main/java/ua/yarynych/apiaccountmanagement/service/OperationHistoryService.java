@@ -1,33 +1,296 @@
 package ua.yarynych.apiaccountmanagement.service;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Service;
 import ua.yarynych.apiaccountmanagement.entity.OperationHistory;
+import ua.yarynych.apiaccountmanagement.entity.dto.history.HistoryPage;
+import ua.yarynych.apiaccountmanagement.entity.dto.history.HistoryQuery;
+import ua.yarynych.apiaccountmanagement.entity.enums.Currency;
 import ua.yarynych.apiaccountmanagement.repository.OperationHistoryRepository;
+import ua.yarynych.apiaccountmanagement.service.archive.HistoryArchive;
 
-import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 
 @Service
 @RequiredArgsConstructor
 public class OperationHistoryService {
 
+    static final String PAGE_SQL = "SELECT h.id, h.bank_account_id, h.user_id, h.operation_type, h.amount_minor, h.currency, "
+            + "h.operation_date, h.description FROM operation_history h JOIN (SELECT id FROM operation_history WHERE %s "
+            + "ORDER BY operation_date DESC, id DESC LIMIT ?) page ON page.id = h.id ORDER BY h.operation_date DESC, h.id DESC";
+
+    private static final String FIRST_DATE_SQL = "SELECT MIN(operation_date) FROM operation_history WHERE bank_account_id = ?";
+
+    public static final RowMapper<OperationHistory> ROW_MAPPER = (row, index) -> new OperationHistory(
+            row.getLong(1), row.getLong(2), row.getObject(3, Long.class), row.getString(4), row.getLong(5),
+            row.getString(6), row.getTimestamp(7).toLocalDateTime(), row.getString(8));
+
     private final OperationHistoryRepository operationHistoryRepository;
+    private final OperationHistoryWriter operationHistoryWriter;
+    private final JdbcTemplate jdbcTemplate;
+    private final HistoryArchive historyArchive;
+
+    @Value("${history.page.default-size:50}")
+    private int defaultPageSize = 50;
+    @Value("${history.page.max-size:500}")
+    private int maxPageSize = 500;
+    @Value("${history.page.window-months:3}")
+    private int windowMonths = 3;
+
+    public OperationHistory saveOperation(Long bankAccountId, Long userId, String operationType, long amountMinor, Currency currency, String description) {
+        return operationHistoryWriter.write(operation(bankAccountId, userId, operationType, amountMinor, currency, description));
+    }
+
+    /**
+     * Writes many operations with the caller's transaction, see {@link OperationHistoryWriter}.
+     */
+    public void saveOperations(List<OperationHistory> operations) {
+        operationHistoryWriter.write(operations);
+    }
 
-    public OperationHistory saveOperation(Long bankAccountId, Long userId, String operationType, BigDecimal amount, String description) {
+    public static OperationHistory operation(Long bankAccountId, Long userId, String operationType, long amountMinor, Currency currency, String description) {
         OperationHistory operation = new OperationHistory();
         operation.setBankAccountId(bankAccountId);
         operation.setUserId(userId);
         operation.setOperationType(operationType);
-        operation.setAmount(amount);
+        operation.setAmountMinor(amountMinor);
+        operation.setCurrency(currency.name());
         operation.setOperationDate(LocalDateTime.now());
         operation.setDescription(description);
+        return operation;
+    }
+
+    /**
+     * One page of the account's operations, newest first, continuing after {@link HistoryQuery#getCursor()}.
+     * <p>
+     * Pages are found by seeking in the (bank_account_id, operation_date, id, operation_type, amount_minor)
+     * index to the cursor instead of skipping an offset, so every page costs the same however deep it is.
+     * Filters are checked in the same index and only the ids of the page are looked up in the table.
+     * <p>
+     * operation_history is partitioned by month, so the page is read from windows of
+     * {@code history.page.window-months} going back in time, each bounded on both sides, until it is full
+     * or reaches {@code from} (by default the account's first operation). Months before
+     * {@link HistoryArchive#archivedUntil()} are read from the archive once the windows reach them.
+     */
+    public HistoryPage getOperationsPage(Long bankAccountId, Currency currency, HistoryQuery query) {
+        int limit = query.getLimit() == null ? defaultPageSize : query.getLimit();
+        if (limit < 1) {
+            throw new IllegalArgumentException("Page size must be greater than zero");
+        }
+        limit = Math.min(limit, maxPageSize);
+
+        HistoryArchive.Filter filter = new HistoryArchive.Filter(query.getType() == null ? null : query.getType().name(),
+                query.getMinAmount() == null ? null : currency.toMinor(query.getMinAmount()),
+                query.getMaxAmount() == null ? null : currency.toMinor(query.getMaxAmount()));
+        StringBuilder filters = new StringBuilder();
+        List<Object> filterArgs = new ArrayList<>();
+        if (filter.operationType() != null) {
+            filters.append(" AND operation_type = ?");
+            filterArgs.add(filter.operationType());
+        }
+        if (filter.minAmountMinor() != null) {
+            filters.append(" AND amount_minor >= ?");
+            filterArgs.add(filter.minAmountMinor());
+        }
+        if (filter.maxAmountMinor() != null) {
+            filters.append(" AND amount_minor <= ?");
+            filterArgs.add(filter.maxAmountMinor());
+        }
+
+        Cursor cursor = query.getCursor() == null ? null : Cursor.decode(query.getCursor());
+        LocalDateTime lower = query.getFrom() != null ? query.getFrom() : firstOperationDate(bankAccountId);
+        if (lower == null) {
+            return new HistoryPage(List.of(), null);
+        }
+
+        LocalDateTime archivedUntil = historyArchive.archivedUntil();
+        List<OperationHistory> items = new ArrayList<>();
+        LocalDateTime windowEnd = cursor != null ? cursor.operationDate() : query.getTo();
+        LocalDateTime reference = windowEnd != null ? windowEnd : LocalDateTime.now();
+        boolean firstWindow = true;
+        while (items.size() <= limit) {
+            if (archivedUntil != null && windowEnd != null && !windowEnd.isAfter(archivedUntil)) {
+                Long beforeId = cursor != null && firstWindow ? cursor.id() : null;
+                items.addAll(historyArchive.read(bankAccountId, lower, windowEnd, beforeId, filter, limit + 1 - items.size()));
+                break;
+            }
+
+            LocalDateTime windowStart = reference.minusMonths(windowMonths);
+            if (windowStart.isBefore(lower)) {
+                windowStart = lower;
+            }
+            if (archivedUntil != null && windowStart.isBefore(archivedUntil)) {
+                windowStart = archivedUntil;
+            }
+
+            StringBuilder where = new StringBuilder("bank_account_id = ? AND operation_date >= ?");
+            List<Object> args = new ArrayList<>();
+            args.add(bankAccountId);
+            args.add(Timestamp.valueOf(windowStart));
+            if (cursor != null && firstWindow) {
+                // (operation_date, id) < (?, ?) written out so MySQL can use it as an index range
+                where.append(" AND operation_date <= ? AND (operation_date < ? OR id < ?)");
+                args.add(Timestamp.valueOf(cursor.operationDate()));
+                args.add(Timestamp.valueOf(cursor.operationDate()));
+                args.add(cursor.id());
+            } else if (windowEnd != null) {
+                where.append(" AND operation_date < ?");
+                args.add(Timestamp.valueOf(windowEnd));
+            }
+            where.append(filters);
+            args.addAll(filterArgs);
+            args.add(limit + 1 - items.size());
+
+            items.addAll(jdbcTemplate.query(String.format(PAGE_SQL, where), ROW_MAPPER, args.toArray()));
+            if (!windowStart.isAfter(lower)) {
+                break;
+            }
+            windowEnd = windowStart;
+            reference = windowStart;
+            firstWindow = false;
+        }
 
-        return operationHistoryRepository.save(operation);
+        if (items.size() <= limit) {
+            return new HistoryPage(items, null);
+        }
+
+        List<OperationHistory> page = new ArrayList<>(items.subList(0, limit));
+        OperationHistory last = page.get(limit - 1);
+        return new HistoryPage(page, new Cursor(last.getOperationDate(), last.getId()).encode());
+    }
+
+    /**
+     * One page of the operations of several accounts, newest first, continuing after {@link HistoryQuery#getCursor()}.
+     * <p>
+     * Every account is read a chunk at a time through {@link #getOperationsPage}, starting at the cursor, and the
+     * accounts are merged with a heap ordered by their next operation. A chunk is the page size split between
+     * the accounts, and an account is read further only when the merge has used up its chunk, so a page reads
+     * about {@code limit} rows plus one chunk per account however long the histories are. Ids are unique across
+     * accounts, so the (operation_date, id) of the last operation is the position in the merged feed as well.
+     */
+    public HistoryPage getOperationsFeed(Map<Long, Currency> accounts, HistoryQuery query) {
+        int limit = query.getLimit() == null ? defaultPageSize : query.getLimit();
+        if (limit < 1) {
+            throw new IllegalArgumentException("Page size must be greater than zero");
+        }
+        limit = Math.min(limit, maxPageSize);
+        if (query.getCursor() != null) {
+            Cursor.decode(query.getCursor());
+        }
+        if (accounts.isEmpty()) {
+            return new HistoryPage(List.of(), null);
+        }
+
+        int chunk = Math.max(1, (limit + accounts.size() - 1) / accounts.size());
+        PriorityQueue<FeedSource> heap = new PriorityQueue<>(Comparator
+                .comparing((FeedSource source) -> source.head().getOperationDate())
+                .thenComparing(source -> source.head().getId())
+                .reversed());
+        accounts.forEach((accountId, currency) -> {
+            FeedSource source = new FeedSource(accountId, currency, query, chunk);
+            if (source.fill()) {
+                heap.add(source);
+            }
+        });
+
+        List<OperationHistory> items = new ArrayList<>(limit);
+        while (items.size() < limit && !heap.isEmpty()) {
+            FeedSource source = heap.poll();
+            items.add(source.buffer.poll());
+            if (source.fill()) {
+                heap.add(source);
+            }
+        }
+
+        if (heap.isEmpty()) {
+            return new HistoryPage(items, null);
+        }
+        OperationHistory last = items.get(items.size() - 1);
+        return new HistoryPage(items, new Cursor(last.getOperationDate(), last.getId()).encode());
     }
 
-    public List<OperationHistory> getOperationsByBankAccountId(Long bankAccountId) {
-        return operationHistoryRepository.findByBankAccountId(bankAccountId);
+    /**
+     * Operations of one account in the feed, read a chunk at a time.
+     */
+    private final class FeedSource {
+        private final Long accountId;
+        private final Currency currency;
+        private final HistoryQuery query;
+        private final int chunk;
+        private final Deque<OperationHistory> buffer = new ArrayDeque<>();
+        private String cursor;
+        private boolean exhausted;
+
+        private FeedSource(Long accountId, Currency currency, HistoryQuery query, int chunk) {
+            this.accountId = accountId;
+            this.currency = currency;
+            this.query = query;
+            this.chunk = chunk;
+            this.cursor = query.getCursor();
+        }
+
+        /**
+         * Reads the next chunk when the buffer is used up; false once the account has nothing more.
+         */
+        boolean fill() {
+            if (buffer.isEmpty() && !exhausted) {
+                HistoryPage page = getOperationsPage(accountId, currency, new HistoryQuery(query.getFrom(), query.getTo(),
+                        query.getType(), query.getMinAmount(), query.getMaxAmount(), cursor, chunk));
+                buffer.addAll(page.getItems());
+                cursor = page.getNextCursor();
+                exhausted = cursor == null;
+            }
+            return !buffer.isEmpty();
+        }
+
+        OperationHistory head() {
+            return buffer.peek();
+        }
+    }
+
+    /**
+     * One index lookup per partition, unless the account has archived operations.
+     */
+    private LocalDateTime firstOperationDate(Long bankAccountId) {
+        LocalDateTime archived = historyArchive.firstOperationDate(bankAccountId);
+        if (archived != null) {
+            return archived;
+        }
+        Timestamp first = jdbcTemplate.queryForObject(FIRST_DATE_SQL, Timestamp.class, bankAccountId);
+        return first == null ? null : first.toLocalDateTime();
+    }
+
+    /**
+     * Position after the last operation of a page, opaque to clients.
+     */
+    record Cursor(LocalDateTime operationDate, long id) {
+
+        String encode() {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString((operationDate + "/" + id).getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Cursor decode(String value) {
+            try {
+                String decoded = new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8);
+                int separator = decoded.lastIndexOf('/');
+                return new Cursor(LocalDateTime.parse(decoded.substring(0, separator)), Long.parseLong(decoded.substring(separator + 1)));
+            } catch (IllegalArgumentException | DateTimeParseException | IndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+        }
     }
 }
@@ -0,0 +1,239 @@
+package ua.yarynych.apiaccountmanagement.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ua.yarynych.apiaccountmanagement.entity.OperationHistory;
+import ua.yarynych.apiaccountmanagement.entity.enums.HistoryDurability;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes operation_history rows in multi-row JDBC batches instead of one INSERT per operation.
+ * Ids come from {@link HistoryIdAllocator}, so they are known before the insert and rows can be batched.
+ * <p>
+ * Rows written inside a transaction are collected until it commits, in one of two modes:
+ * <p>
+ * DURABLE: the rows are inserted as one batch just before the commit, in the same transaction, so the
+ * caller returns only after its history is written and history never disagrees with the balances.
+ * <p>
+ * RELAXED: the rows are handed to a bounded queue after the commit. A single writer thread drains it and
+ * inserts whatever has accumulated once a batch is full or the flush interval has passed. History of the
+ * last few milliseconds is lost if the node dies; when the queue is full the caller inserts its own rows in a
+ * new transaction, as the one that just committed is still bound to the thread.
+ * <p>
+ * Rows written outside a transaction are inserted immediately.
+ * <p>
+ * The mode is chosen per node with {@code history.writer.mode}, not per row: every history row describes a
+ * balance change, so there is no class of rows that could safely be relaxed on its own. DURABLE rows are
+ * grouped per transaction only. Grouping them across transactions would mean inserting them after the
+ * balances commit, and history could then disagree with the balances; the queue is used by RELAXED only.
+ * <p>
+ * Every inserted batch is queued for the account day totals by {@link AccountRollups} in the same transaction.
+ */
+@Log4j2
+@Service
+@RequiredArgsConstructor
+public class OperationHistoryWriter {
+
+    private static final String INSERT_SQL = "INSERT INTO operation_history "
+            + "(id, bank_account_id, user_id, operation_type, amount_minor, currency, operation_date, description) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final HistoryIdAllocator historyIdAllocator;
+    private final AccountRollups accountRollups;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${history.writer.mode:DURABLE}")
+    private HistoryDurability mode = HistoryDurability.DURABLE;
+    @Value("${history.writer.batch-size:500}")
+    private int batchSize = 500;
+    @Value("${history.writer.flush-interval-ms:20}")
+    private long flushIntervalMs = 20;
+    @Value("${history.writer.queue-capacity:50000}")
+    private int queueCapacity = 50000;
+
+    private BlockingQueue<OperationHistory> queue;
+    private TransactionTemplate requiresNew;
+    private Thread writer;
+    private volatile boolean running;
+    private DistributionSummary flushSize;
+    private Timer flushLatency;
+    private Counter failedRows;
+    private Counter overflows;
+
+    @PostConstruct
+    public void init() {
+        flushSize = DistributionSummary.builder("history.flush.size").tag("mode", mode.name()).register(meterRegistry);
+        flushLatency = Timer.builder("history.flush.latency").tag("mode", mode.name()).register(meterRegistry);
+        failedRows = Counter.builder("history.flush.failed").baseUnit("rows").register(meterRegistry);
+        overflows = Counter.builder("history.queue.overflow").register(meterRegistry);
+
+        if (mode == HistoryDurability.RELAXED) {
+            requiresNew = new TransactionTemplate(transactionTemplate.getTransactionManager());
+            requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            queue = new ArrayBlockingQueue<>(queueCapacity);
+            Gauge.builder("history.queue.depth", queue, BlockingQueue::size).register(meterRegistry);
+
+            running = true;
+            writer = new Thread(this::drain, "history-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+        log.info("Operation history is written in {} mode", mode);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        if (writer != null) {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    public OperationHistory write(OperationHistory operation) {
+        write(List.of(operation));
+        return operation;
+    }
+
+    /**
+     * Assigns ids to the operations and schedules them to be inserted when the current transaction commits,
+     * or inserts them right away when there is no transaction.
+     */
+    public void write(List<OperationHistory> operations) {
+        for (OperationHistory operation : operations) {
+            operation.setId(historyIdAllocator.next());
+        }
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            flush(operations);
+            return;
+        }
+
+        PendingRows pending = (PendingRows) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            pending = new PendingRows();
+            TransactionSynchronizationManager.bindResource(this, pending);
+            TransactionSynchronizationManager.registerSynchronization(pending);
+        }
+        pending.rows.addAll(operations);
+    }
+
+    int queued() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    private void flush(List<OperationHistory> rows) {
+        long started = System.nanoTime();
+        jdbcTemplate.batchUpdate(INSERT_SQL, rows, batchSize, (statement, operation) -> {
+            statement.setLong(1, operation.getId());
+            statement.setLong(2, operation.getBankAccountId());
+            statement.setObject(3, operation.getUserId());
+            statement.setString(4, operation.getOperationType());
+            statement.setLong(5, operation.getAmountMinor());
+            statement.setString(6, operation.getCurrency());
+            statement.setTimestamp(7, Timestamp.valueOf(operation.getOperationDate()));
+            statement.setString(8, operation.getDescription());
+        });
+        accountRollups.record(rows);
+        flushLatency.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        flushSize.record(rows.size());
+    }
+
+    private void flushInTransaction(TransactionTemplate template, List<OperationHistory> rows) {
+        try {
+            template.executeWithoutResult(status -> flush(rows));
+        } catch (RuntimeException e) {
+            failedRows.increment(rows.size());
+            log.error("Lost {} operation history rows, ids {}..{}", rows.size(),
+                    rows.get(0).getId(), rows.get(rows.size() - 1).getId(), e);
+        }
+    }
+
+    private void enqueue(List<OperationHistory> rows) {
+        for (int i = 0; i < rows.size(); i++) {
+            if (!queue.offer(rows.get(i))) {
+                overflows.increment();
+                // called from afterCommit: joining the finished transaction would never commit these rows
+                flushInTransaction(requiresNew, rows.subList(i, rows.size()));
+                return;
+            }
+        }
+    }
+
+    private void drain() {
+        List<OperationHistory> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                OperationHistory first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    OperationHistory next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            }
+
+            if (!batch.isEmpty()) {
+                flushInTransaction(transactionTemplate, batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private final class PendingRows implements TransactionSynchronization {
+        private final List<OperationHistory> rows = new ArrayList<>();
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            if (mode == HistoryDurability.DURABLE) {
+                flush(rows);
+            }
+        }
+
+        @Override
+        public void afterCommit() {
+            if (mode == HistoryDurability.RELAXED) {
+                enqueue(rows);
+            }
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(OperationHistoryWriter.this);
+        }
+    }
+}
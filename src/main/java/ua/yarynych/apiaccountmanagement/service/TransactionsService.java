@@ -1,133 +1,445 @@
 package ua.yarynych.apiaccountmanagement.service;
 
-import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import ua.yarynych.apiaccountmanagement.entity.BankAccount;
-import ua.yarynych.apiaccountmanagement.entity.User;
-import ua.yarynych.apiaccountmanagement.entity.dto.transactions.AccountFundsDto;
-import ua.yarynych.apiaccountmanagement.entity.dto.transactions.FundsTransferDto;
+import ua.yarynych.apiaccountmanagement.entity.OperationHistory;
+import ua.yarynych.apiaccountmanagement.entity.auth.UserAuthDetails;
+import ua.yarynych.apiaccountmanagement.entity.dto.transactions.*;
+import ua.yarynych.apiaccountmanagement.entity.enums.Currency;
 import ua.yarynych.apiaccountmanagement.entity.enums.Operations;
-import ua.yarynych.apiaccountmanagement.service.auth.JwtService;
+import ua.yarynych.apiaccountmanagement.entity.exceptions.DatabaseNotFoundException;
+import ua.yarynych.apiaccountmanagement.service.ledger.JournalEntry;
+import ua.yarynych.apiaccountmanagement.service.ledger.LedgerJournal;
+import ua.yarynych.apiaccountmanagement.service.wal.WalRecord;
+import ua.yarynych.apiaccountmanagement.service.wal.WriteAheadLog;
 
 import java.math.BigDecimal;
-import java.util.ArrayList;
-import java.util.List;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * Balance changes go through {@link AccountOperationExecutor}, which owns the transaction
+ * and holds the account row locks until it commits. Deposits into striped accounts are the exception:
+ * they go to one of the account's {@link AccountStripes} without locking the account row.
+ * Every change is also appended to the {@link LedgerJournal} as one balanced entry in the same transaction.
+ * <p>
+ * With the {@link WriteAheadLog} enabled, deposits can instead be acknowledged from the local log and applied
+ * later; debits first wait for logged deposits to their accounts to be applied.
+ */
 @Service
 @RequiredArgsConstructor
 public class TransactionsService {
 
-    private final UserService userService;
-    private final JwtService tokenProvider;
+    /**
+     * Amounts converted into the account being debited are rounded up and amounts converted into the
+     * account being credited are rounded down, so conversion never creates money.
+     */
+    private static final RoundingMode DEBIT_ROUNDING = RoundingMode.CEILING;
+    private static final RoundingMode CREDIT_ROUNDING = RoundingMode.FLOOR;
+
     private final BankAccountService bankAccountService;
     private final CurrencyRateService currencyRateService;
     private final OperationHistoryService operationHistoryService;
+    private final AccountOperationExecutor accountOperations;
+    private final AccountLanes accountLanes;
+    private final AccountStripes accountStripes;
+    private final LedgerJournal ledgerJournal;
+    private final WriteAheadLog writeAheadLog;
 
-    @Transactional
-    public BankAccount depositFunds(AccountFundsDto deposit, String token) {
-        token = token.replace("Bearer ", "");
-        String email = tokenProvider.read(token).getEmail();
-        User user = userService.findUserByEmail(email, token);
+    @Value("${transactions.batch.max-size:5000}")
+    private int maxBatchSize = 5000;
 
-        BigDecimal amount = deposit.getAmount();
+    public BankAccount depositFunds(AccountFundsDto deposit, UserAuthDetails principal) {
+        long requested = toMinor(deposit.getAmount(), deposit.getCurrency(), "Deposit amount must be greater than zero");
+        Currency currency = Currency.of(deposit.getCurrency());
 
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
-            throw new IllegalArgumentException("Deposit amount must be greater than zero");
+        if (accountStripes.isStriped(deposit.getAccountId())) {
+            BankAccount credited = depositToStripe(deposit, requested, currency, principal);
+            if (credited != null) {
+                return credited;
+            }
         }
 
-        BankAccount account = bankAccountService.findAccountById(deposit.getAccountId());
+        return accountOperations.execute("deposit", deposit.getAccountId(), account -> {
+            Currency accountCurrency = Currency.of(account.getCurrency());
+            long amount = requested;
 
-        if(!deposit.getCurrency().equals(account.getCurrency())) {
-            amount = currencyRateService.convertCurrency(amount, deposit.getCurrency(), account.getCurrency());
-        }
+            if (currency != accountCurrency) {
+                amount = currencyRateService.convert(amount, currency, accountCurrency, CREDIT_ROUNDING);
+            }
+
+            account.setAmountMinor(Math.addExact(account.getAmountMinor(), amount));
+            operationHistoryService.saveOperation(account.getId(), principal.getId(), Operations.DEPOSIT.name(), amount, accountCurrency, deposit.getDescription());
+            ledgerJournal.append(JournalEntry.of(Operations.DEPOSIT, principal.getId(), deposit.getDescription())
+                    .cash(currency, -requested)
+                    .post(account.getId(), accountCurrency, amount));
+            return accountStripes.withStripes(bankAccountService.saveAccount(account));
+        });
+    }
+
+    /**
+     * Returns null when the account turned out not to be striped any more, without having changed anything.
+     */
+    private BankAccount depositToStripe(AccountFundsDto deposit, long requested, Currency currency, UserAuthDetails principal) {
+        return accountOperations.executeUnlocked("deposit", deposit.getAccountId(), account -> {
+            Currency accountCurrency = Currency.of(account.getCurrency());
+            long amount = requested;
 
-        account.setAmount(account.getAmount().add(amount));
-        operationHistoryService.saveOperation(account.getId(), user.getId(), Operations.DEPOSIT.name(), amount, deposit.getDescription());
-        return bankAccountService.saveAccount(account);
+            if (currency != accountCurrency) {
+                amount = currencyRateService.convert(amount, currency, accountCurrency, CREDIT_ROUNDING);
+            }
+
+            if (!accountStripes.credit(account, amount)) {
+                return null;
+            }
+            operationHistoryService.saveOperation(account.getId(), principal.getId(), Operations.DEPOSIT.name(), amount, accountCurrency, deposit.getDescription());
+            ledgerJournal.append(JournalEntry.of(Operations.DEPOSIT, principal.getId(), deposit.getDescription())
+                    .cash(currency, -requested)
+                    .post(account.getId(), accountCurrency, amount));
+            return accountStripes.withStripes(account);
+        });
     }
 
-    @Transactional
-    public BankAccount withdrawFunds(AccountFundsDto deposit, String token) {
-        token = token.replace("Bearer ", "");
-        String email = tokenProvider.read(token).getEmail();
-        User user = userService.findUserByEmail(email, token);
+    public BankAccount withdrawFunds(AccountFundsDto deposit, UserAuthDetails principal) {
+        long requested = toMinor(deposit.getAmount(), deposit.getCurrency(), "Withdrawal amount must be greater than zero");
+        Currency currency = Currency.of(deposit.getCurrency());
+        writeAheadLog.awaitApplied(List.of(deposit.getAccountId()));
+
+        return accountOperations.execute("withdraw", deposit.getAccountId(), account -> {
+            Currency accountCurrency = Currency.of(account.getCurrency());
+            long amount = requested;
+
+            if (currency != accountCurrency) {
+                amount = currencyRateService.convert(amount, currency, accountCurrency, DEBIT_ROUNDING);
+            }
+
+            if (!accountStripes.tryDebit(account, amount)) {
+                throw new IllegalStateException("Insufficient funds");
+            }
+
+            operationHistoryService.saveOperation(account.getId(), principal.getId(), Operations.WITHDRAW.name(), amount, accountCurrency, deposit.getDescription());
+            ledgerJournal.append(JournalEntry.of(Operations.WITHDRAW, principal.getId(), deposit.getDescription())
+                    .post(account.getId(), accountCurrency, -amount)
+                    .cash(currency, requested));
+            return accountStripes.withStripes(bankAccountService.saveAccount(account));
+        });
+    }
+
+    public List<BankAccount> transferFunds(FundsTransferDto fundsTransferDto, UserAuthDetails principal) {
+        long requested = toMinor(fundsTransferDto.getAmount(), fundsTransferDto.getCurrency(), "Transfer amount must be greater than zero");
+        Currency currency = Currency.of(fundsTransferDto.getCurrency());
+
+        Long fromId = fundsTransferDto.getFromAccountId();
+        Long toId = fundsTransferDto.getToAccountId();
+        writeAheadLog.awaitApplied(List.of(fromId, toId));
 
-        BigDecimal amount = deposit.getAmount();
+        return accountOperations.execute("transfer", List.of(fromId, toId), locked -> {
+            BankAccount fromAccount = locked.get(fromId);
+            BankAccount toAccount = locked.get(toId);
+            Currency fromCurrency = Currency.of(fromAccount.getCurrency());
+            Currency toCurrency = Currency.of(toAccount.getCurrency());
+            long amount = requested;
 
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
-            throw new IllegalArgumentException("Withdrawal amount must be greater than zero");
+            if (currency != fromCurrency) {
+                amount = currencyRateService.convert(amount, currency, fromCurrency, DEBIT_ROUNDING);
+            }
+
+            if (!accountStripes.tryDebit(fromAccount, amount)) {
+                throw new IllegalStateException("Insufficient funds");
+            }
+
+            long transferAmount = amount;
+            if (fromCurrency != toCurrency) {
+                transferAmount = currencyRateService.convert(amount, fromCurrency, toCurrency, CREDIT_ROUNDING);
+            }
+
+            toAccount.setAmountMinor(Math.addExact(toAccount.getAmountMinor(), transferAmount));
+
+            List<BankAccount> accounts = new ArrayList<>();
+            accounts.add(accountStripes.withStripes(bankAccountService.saveAccount(fromAccount)));
+            accounts.add(accountStripes.withStripes(bankAccountService.saveAccount(toAccount)));
+
+            operationHistoryService.saveOperation(fromAccount.getId(), principal.getId(), Operations.WITHDRAW.name(), amount, fromCurrency, fundsTransferDto.getDescription());
+            operationHistoryService.saveOperation(toAccount.getId(), principal.getId(), Operations.DEPOSIT.name(), transferAmount, toCurrency, fundsTransferDto.getDescription());
+            ledgerJournal.append(JournalEntry.of(Operations.TRANSACTION, principal.getId(), fundsTransferDto.getDescription())
+                    .post(fromAccount.getId(), fromCurrency, -amount)
+                    .post(toAccount.getId(), toCurrency, transferAmount));
+            return accounts;
+        });
+    }
+
+    /**
+     * Deposits through the account's lane when lanes are enabled, otherwise like {@link #depositFunds}.
+     * Deposits waiting in the lane for the same account are applied together: one locked row update and
+     * one history batch for the group. Each caller gets the balance as it was right after its own deposit.
+     */
+    public CompletableFuture<BankAccount> depositFundsAsync(AccountFundsDto deposit, UserAuthDetails principal) {
+        if (!accountLanes.isEnabled()) {
+            return CompletableFuture.completedFuture(depositFunds(deposit, principal));
         }
 
-        BankAccount account = bankAccountService.findAccountById(deposit.getAccountId());
+        long requested = toMinor(deposit.getAmount(), deposit.getCurrency(), "Deposit amount must be greater than zero");
+        PendingDeposit pending = new PendingDeposit(requested, Currency.of(deposit.getCurrency()), principal.getId(), deposit.getDescription());
+        return accountLanes.submitCoalescing(deposit.getAccountId(), "deposit", pending, this::applyDeposits);
+    }
+
+    public boolean isDepositLogged() {
+        return writeAheadLog.isEnabled();
+    }
+
+    /**
+     * Acknowledges the deposit once it is durable in the {@link WriteAheadLog}, without touching the account
+     * row. The balance changes when {@link #applyLoggedDeposits} applies the record, normally within milliseconds.
+     */
+    public CompletableFuture<DepositReceipt> depositFundsLogged(AccountFundsDto deposit, UserAuthDetails principal) {
+        long requested = toMinor(deposit.getAmount(), deposit.getCurrency(), "Deposit amount must be greater than zero");
+        Currency currency = Currency.of(deposit.getCurrency());
+        if (deposit.getAccountId() == null || !bankAccountService.accountExists(deposit.getAccountId())) {
+            throw new DatabaseNotFoundException("Account not found");
+        }
+
+        return writeAheadLog.append(deposit.getAccountId(), principal.getId(), requested, currency, deposit.getDescription())
+                .thenApply(record -> new DepositReceipt(record.sequence(), record.accountId(), deposit.getAmount(), currency.name()));
+    }
+
+    /**
+     * Applies logged deposits in one transaction and runs {@code inSameTransaction} before it commits.
+     */
+    public void applyLoggedDeposits(List<WalRecord> records, Runnable inSameTransaction) {
+        Set<Long> accountIds = new HashSet<>();
+        records.forEach(record -> accountIds.add(record.accountId()));
 
-        if(!deposit.getCurrency().equals(account.getCurrency())) {
-            amount = currencyRateService.convertCurrency(amount, deposit.getCurrency(), account.getCurrency());
+        accountOperations.executeAll("wal-deposit", accountIds, accounts -> {
+            List<OperationHistory> history = new ArrayList<>(records.size());
+            List<JournalEntry> entries = new ArrayList<>(records.size());
+
+            for (WalRecord record : records) {
+                BankAccount account = accounts.get(record.accountId());
+                if (account == null) {
+                    throw new DatabaseNotFoundException("Account not found");
+                }
+                Currency accountCurrency = Currency.of(account.getCurrency());
+                long amount = record.amountMinor();
+                if (record.currency() != accountCurrency) {
+                    amount = currencyRateService.convert(amount, record.currency(), accountCurrency, CREDIT_ROUNDING);
+                }
+
+                account.setAmountMinor(Math.addExact(account.getAmountMinor(), amount));
+                OperationHistory operation = OperationHistoryService.operation(account.getId(), record.userId(), Operations.DEPOSIT.name(), amount, accountCurrency, record.description());
+                operation.setOperationDate(LocalDateTime.ofInstant(Instant.ofEpochMilli(record.createdAtMillis()), ZoneId.systemDefault()));
+                history.add(operation);
+                entries.add(JournalEntry.of(Operations.DEPOSIT, record.userId(), record.description())
+                        .cash(record.currency(), -record.amountMinor())
+                        .post(account.getId(), accountCurrency, amount));
+            }
+
+            operationHistoryService.saveOperations(history);
+            ledgerJournal.append(entries);
+            inSameTransaction.run();
+            return null;
+        });
+    }
+
+    public CompletableFuture<BankAccount> withdrawFundsAsync(AccountFundsDto withdrawal, UserAuthDetails principal) {
+        if (!accountLanes.isEnabled()) {
+            return CompletableFuture.completedFuture(withdrawFunds(withdrawal, principal));
         }
+        return accountLanes.submit(withdrawal.getAccountId(), () -> withdrawFunds(withdrawal, principal));
+    }
 
-        if (account.getAmount().compareTo(amount) < 0) {
-            throw new IllegalStateException("Insufficient funds");
+    /**
+     * Runs on the lane of the source account; the target account is still protected by its row lock.
+     */
+    public CompletableFuture<List<BankAccount>> transferFundsAsync(FundsTransferDto fundsTransferDto, UserAuthDetails principal) {
+        if (!accountLanes.isEnabled()) {
+            return CompletableFuture.completedFuture(transferFunds(fundsTransferDto, principal));
         }
+        return accountLanes.submit(fundsTransferDto.getFromAccountId(), () -> transferFunds(fundsTransferDto, principal));
+    }
+
+    /**
+     * The per-deposit results are copied from the account after the transaction, because its version is
+     * only incremented when the update is flushed at commit.
+     */
+    private List<BankAccount> applyDeposits(Long accountId, List<PendingDeposit> deposits) {
+        long[] balances = new long[deposits.size()];
+        BankAccount updated = accountOperations.execute("deposit", accountId, account -> {
+            Currency accountCurrency = Currency.of(account.getCurrency());
+            List<OperationHistory> history = new ArrayList<>(deposits.size());
+            List<JournalEntry> entries = new ArrayList<>(deposits.size());
+            long balance = account.getAmountMinor();
+            long stripes = accountStripes.stripeBalance(account);
+
+            for (int i = 0; i < deposits.size(); i++) {
+                PendingDeposit deposit = deposits.get(i);
+                long amount = deposit.amountMinor();
+                if (deposit.currency() != accountCurrency) {
+                    amount = currencyRateService.convert(amount, deposit.currency(), accountCurrency, CREDIT_ROUNDING);
+                }
 
-        account.setAmount(account.getAmount().subtract(amount));
-        operationHistoryService.saveOperation(account.getId(), user.getId(), Operations.WITHDRAW.name(), amount, deposit.getDescription());
-        return bankAccountService.saveAccount(account);
+                balance = Math.addExact(balance, amount);
+                history.add(OperationHistoryService.operation(accountId, deposit.userId(), Operations.DEPOSIT.name(), amount, accountCurrency, deposit.description()));
+                entries.add(JournalEntry.of(Operations.DEPOSIT, deposit.userId(), deposit.description())
+                        .cash(deposit.currency(), -deposit.amountMinor())
+                        .post(accountId, accountCurrency, amount));
+                balances[i] = balance + stripes;
+            }
+
+            account.setAmountMinor(balance);
+            operationHistoryService.saveOperations(history);
+            ledgerJournal.append(entries);
+            bankAccountService.saveAccount(account);
+            return account;
+        });
+
+        List<BankAccount> results = new ArrayList<>(balances.length);
+        for (long balance : balances) {
+            results.add(updated.withAmountMinor(balance));
+        }
+        return results;
     }
 
-    @Transactional
-    public List<BankAccount> transferFunds(FundsTransferDto fundsTransferDto, String token) {
-        token = token.replace("Bearer ", "");
-        String email = tokenProvider.read(token).getEmail();
-        User user = userService.findUserByEmail(email, token);
+    /**
+     * Applies many transfers in one transaction. Ownership of the debited accounts is checked with one
+     * query, all accounts are locked with one query, balances are changed in memory (one UPDATE per
+     * account at commit) and the history rows are written with JDBC batches.
+     * Invalid transfers are reported per item; with {@code atomic} the first one rolls everything back.
+     */
+    public BatchTransferResponse transferBatch(BatchTransferRequest request, UserAuthDetails principal) {
+        List<FundsTransferDto> transfers = request.getTransfers() == null ? List.of() : request.getTransfers();
+        if (transfers.isEmpty()) {
+            throw new IllegalArgumentException("Batch must contain at least one transfer");
+        }
+        if (transfers.size() > maxBatchSize) {
+            throw new IllegalArgumentException("Batch is limited to " + maxBatchSize + " transfers");
+        }
 
-        if (fundsTransferDto.getAmount() == null || fundsTransferDto.getAmount().compareTo(BigDecimal.ZERO) <= 0) {
-            throw new IllegalArgumentException("Transfer amount must be greater than zero");
+        Set<Long> sourceIds = new HashSet<>();
+        Set<Long> accountIds = new HashSet<>();
+        for (FundsTransferDto transfer : transfers) {
+            if (transfer.getFromAccountId() != null) {
+                sourceIds.add(transfer.getFromAccountId());
+                accountIds.add(transfer.getFromAccountId());
+            }
+            if (transfer.getToAccountId() != null) {
+                accountIds.add(transfer.getToAccountId());
+            }
         }
-        BigDecimal amount = fundsTransferDto.getAmount();
 
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
-            throw new IllegalArgumentException("Transfer amount must be greater than zero");
+        Set<Long> owned = bankAccountService.findOwnedAccountIds(sourceIds, principal);
+        CurrencyRates rates = currencyRateService.rates();
+        writeAheadLog.awaitApplied(accountIds);
+
+        try {
+            return accountOperations.executeAll("batch", accountIds, accounts -> {
+                List<BatchTransferResult> results = new ArrayList<>(transfers.size());
+                List<OperationHistory> history = new ArrayList<>(transfers.size() * 2);
+                List<JournalEntry> entries = new ArrayList<>(transfers.size());
+
+                for (int i = 0; i < transfers.size(); i++) {
+                    String error = applyTransfer(transfers.get(i), accounts, owned, rates, principal, history, entries);
+                    if (error == null) {
+                        results.add(BatchTransferResult.applied(i));
+                    } else if (request.isAtomic()) {
+                        throw new BatchAbortedException(rolledBack(transfers.size(), i, error));
+                    } else {
+                        results.add(BatchTransferResult.rejected(i, error));
+                    }
+                }
+
+                operationHistoryService.saveOperations(history);
+                ledgerJournal.append(entries);
+                return BatchTransferResponse.of(results, true);
+            });
+        } catch (BatchAbortedException e) {
+            return e.response;
         }
+    }
 
-        BankAccount fromAccount = bankAccountService.findAccountById(fundsTransferDto.getFromAccountId());
-        BankAccount toAccount = bankAccountService.findAccountById(fundsTransferDto.getToAccountId());
+    private String applyTransfer(FundsTransferDto transfer, Map<Long, BankAccount> accounts, Set<Long> owned,
+                                 CurrencyRates rates, UserAuthDetails principal, List<OperationHistory> history,
+                                 List<JournalEntry> entries) {
+        if (transfer.getAmount() == null || transfer.getAmount().signum() <= 0) {
+            return "Transfer amount must be greater than zero";
+        }
+        if (!Currency.isValid(transfer.getCurrency())) {
+            return "Invalid currency: " + transfer.getCurrency();
+        }
 
+        BankAccount fromAccount = accounts.get(transfer.getFromAccountId());
+        BankAccount toAccount = accounts.get(transfer.getToAccountId());
         if (fromAccount == null || toAccount == null) {
-            throw new IllegalStateException("One of the accounts does not exist.");
+            return "One of the accounts does not exist.";
+        }
+        if (!owned.contains(fromAccount.getId())) {
+            return "User couldn`t transfer from another user account";
         }
 
-        fromAccount.setAmount(fromAccount.getAmount() == null ? BigDecimal.ZERO : fromAccount.getAmount());
-        toAccount.setAmount(toAccount.getAmount() == null ? BigDecimal.ZERO : toAccount.getAmount());
+        Currency currency = Currency.of(transfer.getCurrency());
+        Currency fromCurrency = Currency.of(fromAccount.getCurrency());
+        Currency toCurrency = Currency.of(toAccount.getCurrency());
+        if (!rates.hasRate(currency, fromCurrency) || !rates.hasRate(fromCurrency, toCurrency)) {
+            return "Exchange rate not found";
+        }
 
-        if (!fundsTransferDto.getCurrency().equals(fromAccount.getCurrency())) {
-            BigDecimal convertedAmount = currencyRateService.convertCurrency(amount, fundsTransferDto.getCurrency(), fromAccount.getCurrency());
-            if (convertedAmount == null) {
-                throw new IllegalStateException("Currency conversion failed.");
-            }
-            amount = convertedAmount;
+        long requested;
+        try {
+            requested = currency.toMinor(transfer.getAmount());
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
         }
 
-        if (fromAccount.getAmount().compareTo(amount) < 0) {
-            throw new IllegalStateException("Insufficient funds");
+        long amount = rates.convert(requested, currency, fromCurrency, DEBIT_ROUNDING);
+        long transferAmount = rates.convert(amount, fromCurrency, toCurrency, CREDIT_ROUNDING);
+        if (!accountStripes.tryDebit(fromAccount, amount)) {
+            return "Insufficient funds";
         }
 
-        BigDecimal transferAmount = amount;
-        if (!fromAccount.getCurrency().equals(toAccount.getCurrency())) {
-            transferAmount = currencyRateService.convertCurrency(amount, fromAccount.getCurrency(), toAccount.getCurrency());
-            if (transferAmount == null) {
-                throw new IllegalStateException("Currency conversion failed.");
-            }
+        toAccount.setAmountMinor(Math.addExact(toAccount.getAmountMinor(), transferAmount));
+
+        history.add(OperationHistoryService.operation(fromAccount.getId(), principal.getId(), Operations.WITHDRAW.name(), amount, fromCurrency, transfer.getDescription()));
+        history.add(OperationHistoryService.operation(toAccount.getId(), principal.getId(), Operations.DEPOSIT.name(), transferAmount, toCurrency, transfer.getDescription()));
+        entries.add(JournalEntry.of(Operations.TRANSACTION, principal.getId(), transfer.getDescription())
+                .post(fromAccount.getId(), fromCurrency, -amount)
+                .post(toAccount.getId(), toCurrency, transferAmount));
+        return null;
+    }
+
+    private static long toMinor(BigDecimal amount, String currency, String nonPositiveMessage) {
+        if (amount == null || amount.signum() <= 0) {
+            throw new IllegalArgumentException(nonPositiveMessage);
         }
+        return Currency.of(currency).toMinor(amount);
+    }
 
-        fromAccount.setAmount(fromAccount.getAmount().subtract(amount));
-        toAccount.setAmount(toAccount.getAmount().add(transferAmount));
+    private static BatchTransferResponse rolledBack(int size, int failedIndex, String error) {
+        List<BatchTransferResult> results = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            results.add(i == failedIndex
+                    ? BatchTransferResult.rejected(i, error)
+                    : new BatchTransferResult(i, BatchTransferResult.Status.ROLLED_BACK, null));
+        }
+        return BatchTransferResponse.of(results, false);
+    }
+
+    private record PendingDeposit(long amountMinor, Currency currency, Long userId, String description) {
+    }
 
-        List<BankAccount> accounts = new ArrayList<>();
-        accounts.add(bankAccountService.saveAccount(fromAccount));
-        accounts.add(bankAccountService.saveAccount(toAccount));
+    /**
+     * Thrown out of the batch transaction to roll it back while still returning per-item results.
+     */
+    private static class BatchAbortedException extends RuntimeException {
+        private final transient BatchTransferResponse response;
 
-        operationHistoryService.saveOperation(fromAccount.getId(), user.getId(), Operations.WITHDRAW.name(), amount, fundsTransferDto.getDescription());
-        operationHistoryService.saveOperation(toAccount.getId(), user.getId(), Operations.DEPOSIT.name(), transferAmount, fundsTransferDto.getDescription());
-        return accounts;
+        BatchAbortedException(BatchTransferResponse response) {
+            super(null, null, false, false);
+            this.response = response;
+        }
     }
 }
@@ -0,0 +1,228 @@
+package ua.yarynych.apiaccountmanagement.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ua.yarynych.apiaccountmanagement.repository.UserRepository;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter over the registered emails, so lookups for unknown emails (duplicate checks on
+ * registration, logins with random credentials) are answered without a query.
+ * Emails are lower-cased because the users table compares them case-insensitively.
+ * A filter cannot forget an email; deleted users and growth past the configured size are handled
+ * by rebuilding the filter from the table in the background and swapping it in.
+ * Until the first build finishes every email is reported as possibly registered.
+ */
+@Log4j2
+@Service
+@RequiredArgsConstructor
+public class UserEmailIndex {
+
+    private static final int PAGE_SIZE = 5000;
+    private static final double STALE_FRACTION = 0.1;
+
+    private final UserRepository userRepository;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${users.email-index.enabled:true}")
+    private boolean enabled = true;
+    @Value("${users.email-index.expected-insertions:1000000}")
+    private long expectedInsertions = 1_000_000;
+    @Value("${users.email-index.false-positive-rate:0.01}")
+    private double falsePositiveRate = 0.01;
+
+    private volatile Filter current;
+    private volatile Filter building;
+    private final AtomicLong removed = new AtomicLong();
+    private Counter absent;
+    private Counter present;
+    private Counter falsePositives;
+
+    @PostConstruct
+    public void init() {
+        absent = Counter.builder("users.email-index.lookups").tag("result", "absent").register(meterRegistry);
+        present = Counter.builder("users.email-index.lookups").tag("result", "present").register(meterRegistry);
+        falsePositives = Counter.builder("users.email-index.lookups").tag("result", "false-positive").register(meterRegistry);
+        Gauge.builder("users.email-index.entries", this, index -> index.current == null ? 0 : index.current.count.get())
+                .register(meterRegistry);
+        Gauge.builder("users.email-index.bytes", this, index -> index.current == null ? 0 : index.current.bits.length() * 8L)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("users.email-index.false-positive-rate.configured", this, index -> index.falsePositiveRate)
+                .register(meterRegistry);
+        Gauge.builder("users.email-index.false-positive-rate.estimated", this,
+                        index -> index.current == null ? 1.0 : index.current.estimatedFalsePositiveRate())
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns false only if no user with this email exists.
+     */
+    public boolean mightContain(String email) {
+        Filter filter = current;
+        if (filter == null || email == null) {
+            return true;
+        }
+
+        boolean result = filter.mightContain(normalize(email));
+        (result ? present : absent).increment();
+        return result;
+    }
+
+    /**
+     * Records that a lookup the filter let through found nothing in the database.
+     */
+    public void recordMiss() {
+        falsePositives.increment();
+    }
+
+    public void add(String email) {
+        if (email == null) {
+            return;
+        }
+
+        String normalized = normalize(email);
+        Filter filter = current;
+        Filter next = building;
+        if (filter != null) {
+            filter.put(normalized);
+        }
+        if (next != null) {
+            next.put(normalized);
+        }
+    }
+
+    public void markRemoved() {
+        removed.incrementAndGet();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warm() {
+        if (enabled) {
+            rebuild(expectedInsertions);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${users.email-index.maintenance-interval-ms:600000}")
+    public void maintain() {
+        Filter filter = current;
+        if (filter == null) {
+            return;
+        }
+
+        long count = filter.count.get();
+        boolean overfilled = count > filter.capacity;
+        boolean stale = removed.get() > Math.max(1, count * STALE_FRACTION);
+        if (overfilled || stale) {
+            rebuild(Math.max(expectedInsertions, count * 2));
+        }
+    }
+
+    private synchronized void rebuild(long capacity) {
+        long started = System.currentTimeMillis();
+        long removedBefore = removed.get();
+        Filter next = new Filter(capacity, falsePositiveRate);
+        building = next;
+
+        long lastId = 0;
+        List<UserRepository.EmailRow> page;
+        do {
+            page = userRepository.findEmailsAfter(lastId, PageRequest.of(0, PAGE_SIZE));
+            for (UserRepository.EmailRow row : page) {
+                next.put(normalize(row.getEmail()));
+                lastId = row.getId();
+            }
+        } while (page.size() == PAGE_SIZE);
+
+        current = next;
+        building = null;
+        removed.addAndGet(-removedBefore);
+
+        log.info("Email index built with {} entries, {} KiB, in {} ms",
+                next.count.get(), next.bits.length() / 128, System.currentTimeMillis() - started);
+    }
+
+    private static String normalize(String email) {
+        return email.toLowerCase(Locale.ROOT);
+    }
+
+    static final class Filter {
+        private final AtomicLongArray bits;
+        private final long bitCount;
+        private final int hashCount;
+        private final long capacity;
+        private final AtomicLong count = new AtomicLong();
+
+        Filter(long capacity, double falsePositiveRate) {
+            long n = Math.max(1, capacity);
+            long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            int words = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (m + 63) >>> 6));
+
+            this.bits = new AtomicLongArray(words);
+            this.bitCount = (long) words << 6;
+            this.hashCount = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+            this.capacity = n;
+        }
+
+        boolean mightContain(String value) {
+            long h1 = hash(value);
+            long h2 = mix(h1);
+            for (int i = 0; i < hashCount; i++) {
+                long bit = Math.floorMod(h1 + i * h2, bitCount);
+                if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void put(String value) {
+            long h1 = hash(value);
+            long h2 = mix(h1);
+            boolean changed = false;
+            for (int i = 0; i < hashCount; i++) {
+                long bit = Math.floorMod(h1 + i * h2, bitCount);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long old = bits.getAndAccumulate(word, mask, (value1, value2) -> value1 | value2);
+                changed |= (old & mask) == 0;
+            }
+            if (changed) {
+                count.incrementAndGet();
+            }
+        }
+
+        double estimatedFalsePositiveRate() {
+            return Math.pow(1 - Math.exp(-(double) hashCount * count.get() / bitCount), hashCount);
+        }
+
+        private static long hash(String value) {
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < value.length(); i++) {
+                hash ^= value.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            return mix(hash);
+        }
+
+        private static long mix(long z) {
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            return z ^ (z >>> 31);
+        }
+    }
+}
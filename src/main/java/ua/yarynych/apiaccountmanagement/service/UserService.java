@@ -5,11 +5,14 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import ua.yarynych.apiaccountmanagement.entity.*;
+import ua.yarynych.apiaccountmanagement.entity.auth.UserAuthDetails;
 import ua.yarynych.apiaccountmanagement.entity.dto.user.UserUpdateRequest;
 import ua.yarynych.apiaccountmanagement.entity.exceptions.DatabaseNotFoundException;
 import ua.yarynych.apiaccountmanagement.repository.UserRepository;
-import ua.yarynych.apiaccountmanagement.service.auth.JwtService;
+import ua.yarynych.apiaccountmanagement.service.auth.SessionRegistry;
 
 import java.util.List;
 
@@ -19,19 +22,17 @@ import java.util.List;
 public class UserService {
 
     private final UserRepository userRepository;
-    private final JwtService tokenProvider;
-
-    public List<User> getAllUsers(String token) {
-        log.info("Fetching all users from the repository");
-
-        if(!validateUserAuthStatus(token)) {
-            throw new BadCredentialsException("Differences between saved and taken tokens");
-        }
+    private final SessionRegistry sessionRegistry;
+    private final UserEmailIndex emailIndex;
 
+    public List<User> getAllUsers() {
+        log.debug("Fetching all users from the repository");
         return userRepository.findAll();
     }
 
-    private User findByEmail(String email) {
+    public User findUserByEmail(String email) {
+        log.debug("Searching for user with email: {}", email);
+
         return userRepository.findByEmail(email)
                 .orElseThrow(() -> {
                     log.error("User with email {} not found", email);
@@ -39,70 +40,85 @@ public class UserService {
                 });
     }
 
-    public User findUserByEmail(String email, String token) {
-        log.info("Searching for user with email: {}", email);
-
-        if(!validateUserAuthStatus(token)) {
-            throw new BadCredentialsException("Differences between saved and taken tokens");
-        }
+    public User findUserById(Long id) {
+        log.debug("Fetching user with id: {}", id);
 
-        return findByEmail(email);
+        return userRepository.findById(id)
+                .orElseThrow(() -> new DatabaseNotFoundException("User not found"));
     }
 
-    public User findUserById(Long id, String token) {
-        log.info("Fetching user with id: {}", id);
-
-        if(!validateUserAuthStatus(token)) {
-            throw new BadCredentialsException("Differences between saved and taken tokens");
+    public User findUserByEmailForAuthorization(String email) {
+        if (!emailIndex.mightContain(email)) {
+            return null;
         }
 
-        return userRepository.findById(id)
-                .orElseThrow(() -> new DatabaseNotFoundException("User not found"));
+        User user = userRepository.findByEmail(email).orElse(null);
+        if (user == null) {
+            emailIndex.recordMiss();
+        }
+        return user;
     }
 
-    public User findUserByEmailForAuthorization(String email) {
-        return userRepository.findByEmail(email).orElse(null);
+    /**
+     * Returns a lazy reference to the user row for building associations without selecting it.
+     */
+    public User getUserReference(Long id) {
+        return userRepository.getReferenceById(id);
     }
 
     public void saveUser(User user) {
-        log.info("Saving new user: {}", user.getEmail());
+        log.debug("Saving new user: {}", user.getEmail());
         userRepository.save(user);
+        afterCommit(() -> emailIndex.add(user.getEmail()));
     }
 
-    public String deleteUserById(Long userId, String token) {
+    public String deleteUserById(Long userId) {
         log.info("Deleting user with id: {}", userId);
 
-        if(!validateUserAuthStatus(token)) {
-            throw new BadCredentialsException("Differences between saved and taken tokens");
-        }
-
         userRepository.deleteById(userId);
+        sessionRegistry.revokeUser(userId);
+        emailIndex.markRemoved();
         return "User deleted successfully";
     }
 
     @Transactional
-    public User updateUser(UserUpdateRequest updateRequest, String token) {
-        token = token.replace("Bearer ", "");
-        String userEmail = tokenProvider.read(token).getEmail();
-        User userToUpdate = findUserByEmail(userEmail, token);
+    public User updateUser(UserUpdateRequest updateRequest, UserAuthDetails principal) {
+        User userToUpdate = findUserById(principal.getId());
 
         if (updateRequest.getFirstName() != null) userToUpdate.setFirstName(updateRequest.getFirstName());
         if (updateRequest.getSecondName() != null) userToUpdate.setSecondName(updateRequest.getSecondName());
-        if (updateRequest.getEmail() != null) userToUpdate.setEmail(updateRequest.getEmail());
+        if (updateRequest.getEmail() != null) {
+            String email = updateRequest.getEmail();
+            userToUpdate.setEmail(email);
+            afterCommit(() -> {
+                emailIndex.add(email);
+                emailIndex.markRemoved();
+            });
+        }
         if (updateRequest.getPhone() != null) userToUpdate.setPhone(updateRequest.getPhone());
 
-        log.info("Saving updated user: {}", userToUpdate.getEmail());
+        log.debug("Saving updated user: {}", userToUpdate.getEmail());
         userRepository.save(userToUpdate);
 
         return userToUpdate;
     }
 
-    public Boolean validateUserAuthStatus(String token) {
-        token = token.replace("Bearer ", "");
-        String email = tokenProvider.read(token).getEmail();
-        User user = findByEmail(email);
+    /**
+     * Runs an email index update once the row it describes is committed. Adding an email earlier would
+     * leave it behind after a rollback and let a concurrent rebuild, which reads only committed rows,
+     * swap in a filter without it.
+     */
+    private void afterCommit(Runnable indexUpdate) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            indexUpdate.run();
+            return;
+        }
 
-        return token.equals(user.getToken());
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                indexUpdate.run();
+            }
+        });
     }
 }
-
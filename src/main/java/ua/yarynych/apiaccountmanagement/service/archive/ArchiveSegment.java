@@ -0,0 +1,432 @@
+package ua.yarynych.apiaccountmanagement.service.archive;
+
+import ua.yarynych.apiaccountmanagement.entity.OperationHistory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * One month of operation history in an immutable file, mapped into memory and read one account at a time.
+ * <p>
+ * The operations of an account are one deflate-compressed block of columns, ordered by (operation_date, id):
+ * ids, times (epoch microseconds) and amounts as zigzag varint deltas, user ids as varints, and operation
+ * type, currency and description as codes into a dictionary kept at the start of each column. A directory
+ * at the end of the file lists, per account, where its block is with its number of rows and min/max time
+ * and amount; the header holds the time bounds of the whole file. Lookups that fall outside the bounds
+ * inflate nothing.
+ * <p>
+ * Layout: {@code [header][blocks][directory]}, header = {@code [int magic][int accounts][long rows]
+ * [long min time][long max time][long directory offset]}. Files are written under a temporary name and
+ * renamed once complete, so a file with the final name is always whole.
+ */
+final class ArchiveSegment {
+
+    static final String SUFFIX = ".ohs";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final DateTimeFormatter NAME = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final int MAGIC = 0x4F485331;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 8 + 8;
+    private static final int ENTRY_BYTES = 8 + 8 + 4 + 4 + 4 + 8 + 8 + 8 + 8;
+
+    private final Path path;
+    private final YearMonth month;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long rows;
+    private final long minTime;
+    private final long maxTime;
+    private final long[] accountIds;
+    private final Entry[] entries;
+
+    private ArchiveSegment(Path path, YearMonth month, FileChannel channel, MappedByteBuffer buffer, long rows,
+                           long minTime, long maxTime, Entry[] entries) {
+        this.path = path;
+        this.month = month;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.rows = rows;
+        this.minTime = minTime;
+        this.maxTime = maxTime;
+        this.entries = entries;
+        this.accountIds = Arrays.stream(entries).mapToLong(Entry::accountId).toArray();
+    }
+
+    static ArchiveSegment open(Path path) {
+        YearMonth month = month(path);
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IllegalStateException("Not an operation history archive segment: " + path);
+            }
+            int accounts = buffer.getInt(4);
+            long directory = buffer.getLong(32);
+            Entry[] entries = new Entry[accounts];
+            for (int i = 0; i < accounts; i++) {
+                int at = (int) directory + i * ENTRY_BYTES;
+                entries[i] = new Entry(buffer.getLong(at), buffer.getLong(at + 8), buffer.getInt(at + 16), buffer.getInt(at + 20),
+                        buffer.getInt(at + 24), buffer.getLong(at + 28), buffer.getLong(at + 36), buffer.getLong(at + 44), buffer.getLong(at + 52));
+            }
+            return new ArchiveSegment(path, month, channel, buffer, buffer.getLong(8), buffer.getLong(16), buffer.getLong(24), entries);
+        } catch (IOException e) {
+            closeQuietly(channel);
+            throw new UncheckedIOException("Could not open archive segment " + path, e);
+        } catch (RuntimeException e) {
+            closeQuietly(channel);
+            throw e;
+        }
+    }
+
+    YearMonth month() {
+        return month;
+    }
+
+    long rows() {
+        return rows;
+    }
+
+    boolean overlaps(LocalDateTime from, LocalDateTime before) {
+        return rows > 0 && maxTime >= micros(from) && minTime < micros(before);
+    }
+
+    /**
+     * Directory entry of the account, or null when the account has no operations in this month.
+     */
+    Entry entry(long accountId) {
+        int index = Arrays.binarySearch(accountIds, accountId);
+        return index < 0 ? null : entries[index];
+    }
+
+    /**
+     * The account's operations ordered by (operation_date, id).
+     */
+    List<OperationHistory> read(Entry entry) {
+        byte[] raw = new byte[entry.rawLength()];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(buffer.slice((int) entry.offset(), entry.length()));
+            int read = 0;
+            while (read < raw.length && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, read, raw.length - read);
+                if (inflated == 0 && inflater.needsInput()) {
+                    break;
+                }
+                read += inflated;
+            }
+            if (read != raw.length) {
+                throw new IllegalStateException("Truncated block of account " + entry.accountId() + " in " + path);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt block of account " + entry.accountId() + " in " + path, e);
+        } finally {
+            inflater.end();
+        }
+        return decode(entry.accountId(), entry.rows(), ByteBuffer.wrap(raw));
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close archive segment " + path, e);
+        }
+    }
+
+    static List<Path> list(Path directory) {
+        try (var files = Files.list(directory)) {
+            return new ArrayList<>(files.filter(file -> file.getFileName().toString().endsWith(SUFFIX)).sorted().toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not list archive segments in " + directory, e);
+        }
+    }
+
+    static YearMonth month(Path path) {
+        String name = path.getFileName().toString();
+        return YearMonth.parse(name.substring(0, name.length() - SUFFIX.length()), NAME);
+    }
+
+    static Writer writer(Path directory, YearMonth month) {
+        return new Writer(directory.resolve(month.format(NAME) + SUFFIX));
+    }
+
+    static long micros(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000 + time.getNano() / 1_000;
+    }
+
+    static LocalDateTime time(long micros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000), (int) Math.floorMod(micros, 1_000_000) * 1_000, ZoneOffset.UTC);
+    }
+
+    private static List<OperationHistory> decode(long accountId, int count, ByteBuffer in) {
+        long[] ids = deltas(in, count);
+        long[] times = deltas(in, count);
+        long[] amounts = deltas(in, count);
+        long[] users = new long[count];
+        for (int i = 0; i < count; i++) {
+            users[i] = readVarLong(in);
+        }
+        String[] types = dictionaryColumn(in, count);
+        String[] currencies = dictionaryColumn(in, count);
+        String[] descriptions = dictionaryColumn(in, count);
+
+        List<OperationHistory> operations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            operations.add(new OperationHistory(ids[i], accountId, users[i] == 0 ? null : users[i] - 1, types[i], amounts[i],
+                    currencies[i], time(times[i]), descriptions[i]));
+        }
+        return operations;
+    }
+
+    private static long[] deltas(ByteBuffer in, int count) {
+        long[] values = new long[count];
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            long value = readVarLong(in);
+            previous += (value >>> 1) ^ -(value & 1);
+            values[i] = previous;
+        }
+        return values;
+    }
+
+    private static String[] dictionaryColumn(ByteBuffer in, int count) {
+        String[] dictionary = new String[(int) readVarLong(in)];
+        for (int i = 0; i < dictionary.length; i++) {
+            byte[] bytes = new byte[(int) readVarLong(in)];
+            in.get(bytes);
+            dictionary[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++) {
+            int code = (int) readVarLong(in);
+            values[i] = code == 0 ? null : dictionary[code - 1];
+        }
+        return values;
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // already failing
+            }
+        }
+    }
+
+    /**
+     * Block of one account: {@code offset} and {@code length} of the compressed bytes, {@code rawLength} once inflated.
+     */
+    record Entry(long accountId, long offset, int length, int rawLength, int rows, long minTime, long maxTime,
+                 long minAmount, long maxAmount) {
+    }
+
+    /**
+     * Writes a segment from operations ordered by (bank_account_id, operation_date, id).
+     */
+    static final class Writer implements AutoCloseable {
+
+        private final Path target;
+        private final Path temporary;
+        private final FileChannel channel;
+        private final List<Entry> entries = new ArrayList<>();
+        private final List<OperationHistory> block = new ArrayList<>();
+        private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        private long position = HEADER_BYTES;
+        private long rows;
+        private long minTime = Long.MAX_VALUE;
+        private long maxTime = Long.MIN_VALUE;
+        private boolean finished;
+
+        private Writer(Path target) {
+            this.target = target;
+            this.temporary = target.resolveSibling(target.getFileName() + TEMPORARY_SUFFIX);
+            try {
+                this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not create archive segment " + temporary, e);
+            }
+        }
+
+        void add(OperationHistory operation) {
+            if (!block.isEmpty() && !block.get(0).getBankAccountId().equals(operation.getBankAccountId())) {
+                flushBlock();
+            }
+            block.add(operation);
+        }
+
+        long rows() {
+            return rows + block.size();
+        }
+
+        /**
+         * Writes the directory and header, syncs the file and gives it its final name.
+         */
+        Path finish() {
+            flushBlock();
+            ByteBuffer directory = ByteBuffer.allocate(entries.size() * ENTRY_BYTES);
+            for (Entry entry : entries) {
+                directory.putLong(entry.accountId()).putLong(entry.offset()).putInt(entry.length()).putInt(entry.rawLength())
+                        .putInt(entry.rows()).putLong(entry.minTime()).putLong(entry.maxTime())
+                        .putLong(entry.minAmount()).putLong(entry.maxAmount());
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(entries.size()).putLong(rows)
+                    .putLong(minTime).putLong(maxTime).putLong(position);
+            try {
+                write(directory.flip(), position);
+                write(header.flip(), 0);
+                channel.force(true);
+                channel.close();
+                Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write archive segment " + target, e);
+            }
+            finished = true;
+            return target;
+        }
+
+        @Override
+        public void close() {
+            deflater.end();
+            if (!finished) {
+                closeQuietly(channel);
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Could not delete unfinished archive segment " + temporary, e);
+                }
+            }
+        }
+
+        private void flushBlock() {
+            if (block.isEmpty()) {
+                return;
+            }
+
+            int count = block.size();
+            ByteArrayOutputStream raw = new ByteArrayOutputStream(count * 16);
+            long blockMinAmount = Long.MAX_VALUE;
+            long blockMaxAmount = Long.MIN_VALUE;
+            long previousId = 0;
+            for (OperationHistory operation : block) {
+                previousId = writeDelta(raw, operation.getId(), previousId);
+            }
+            long previousTime = 0;
+            for (OperationHistory operation : block) {
+                previousTime = writeDelta(raw, micros(operation.getOperationDate()), previousTime);
+            }
+            long previousAmount = 0;
+            for (OperationHistory operation : block) {
+                previousAmount = writeDelta(raw, operation.getAmountMinor(), previousAmount);
+                blockMinAmount = Math.min(blockMinAmount, operation.getAmountMinor());
+                blockMaxAmount = Math.max(blockMaxAmount, operation.getAmountMinor());
+            }
+            for (OperationHistory operation : block) {
+                writeVarLong(raw, operation.getUserId() == null ? 0 : operation.getUserId() + 1);
+            }
+            writeDictionaryColumn(raw, block.stream().map(OperationHistory::getOperationType).toList());
+            writeDictionaryColumn(raw, block.stream().map(OperationHistory::getCurrency).toList());
+            writeDictionaryColumn(raw, block.stream().map(OperationHistory::getDescription).toList());
+
+            byte[] compressed = compress(raw.toByteArray());
+            long blockMinTime = micros(block.get(0).getOperationDate());
+            long blockMaxTime = micros(block.get(count - 1).getOperationDate());
+            try {
+                write(ByteBuffer.wrap(compressed), position);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write archive segment " + temporary, e);
+            }
+            entries.add(new Entry(block.get(0).getBankAccountId(), position, compressed.length, raw.size(), count,
+                    blockMinTime, blockMaxTime, blockMinAmount, blockMaxAmount));
+
+            position += compressed.length;
+            rows += count;
+            minTime = Math.min(minTime, blockMinTime);
+            maxTime = Math.max(maxTime, blockMaxTime);
+            block.clear();
+        }
+
+        private byte[] compress(byte[] raw) {
+            deflater.reset();
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 64);
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return out.toByteArray();
+        }
+
+        private void write(ByteBuffer bytes, long at) throws IOException {
+            while (bytes.hasRemaining()) {
+                at += channel.write(bytes, at);
+            }
+        }
+
+        private static long writeDelta(ByteArrayOutputStream out, long value, long previous) {
+            long delta = value - previous;
+            writeVarLong(out, (delta << 1) ^ (delta >> 63));
+            return value;
+        }
+
+        private static void writeDictionaryColumn(ByteArrayOutputStream out, List<String> values) {
+            Map<String, Integer> dictionary = new LinkedHashMap<>();
+            for (String value : values) {
+                if (value != null) {
+                    dictionary.putIfAbsent(value, dictionary.size() + 1);
+                }
+            }
+            writeVarLong(out, dictionary.size());
+            for (String value : dictionary.keySet()) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                writeVarLong(out, bytes.length);
+                out.writeBytes(bytes);
+            }
+            for (String value : values) {
+                writeVarLong(out, value == null ? 0 : dictionary.get(value));
+            }
+        }
+    }
+}
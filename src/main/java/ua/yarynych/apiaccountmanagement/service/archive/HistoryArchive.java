@@ -0,0 +1,277 @@
+package ua.yarynych.apiaccountmanagement.service.archive;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ua.yarynych.apiaccountmanagement.entity.OperationHistory;
+import ua.yarynych.apiaccountmanagement.service.OperationHistoryService;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+
+/**
+ * Cold tier of operation history: months older than {@code history.archive.after-months} are moved out of
+ * MySQL into one {@link ArchiveSegment} file per month in {@code history.archive.directory}.
+ * <p>
+ * Months are archived oldest first, so every month before {@link #archivedUntil()} is in the archive and
+ * readers take those months from the segments and the rest from the database. The rows of a month are
+ * deleted from the database on the run after its segment was written, which gives other nodes one
+ * {@code history.archive.interval-ms} to pick the segment up; the directory has to be shared between nodes.
+ * Only the node holding a MySQL named lock archives.
+ * <p>
+ * Segments are read whether or not archiving is enabled, so turning it off does not hide archived months.
+ */
+@Log4j2
+@Service
+@RequiredArgsConstructor
+public class HistoryArchive {
+
+    private static final String LOCK = "operation_history_archive";
+    private static final String OLDEST_SQL = "SELECT MIN(operation_date) FROM operation_history WHERE operation_date < ?";
+    static final String MONTH_SQL = "SELECT id, bank_account_id, user_id, operation_type, amount_minor, currency, operation_date, description "
+            + "FROM operation_history WHERE operation_date >= ? AND operation_date < ? ORDER BY bank_account_id, operation_date, id";
+    static final String DELETE_SQL = "DELETE FROM operation_history WHERE operation_date >= ? AND operation_date < ? LIMIT ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${history.archive.enabled:false}")
+    private boolean enabled = false;
+    @Value("${history.archive.directory:history-archive}")
+    private String directory = "history-archive";
+    @Value("${history.archive.after-months:18}")
+    private int afterMonths = 18;
+    @Value("${history.archive.delete-batch-size:5000}")
+    private int deleteBatchSize = 5000;
+    @Value("${history.archive.fetch-size:-2147483648}")
+    private int fetchSize = Integer.MIN_VALUE;
+
+    private final NavigableMap<YearMonth, ArchiveSegment> segments = new ConcurrentSkipListMap<>();
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            try {
+                Files.createDirectories(Paths.get(directory));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not create history archive directory " + directory, e);
+            }
+        }
+        load();
+        log.info("History archive holds {} months, archiving is {}", segments.size(), enabled ? "enabled" : "disabled");
+    }
+
+    @PreDestroy
+    public void close() {
+        segments.values().forEach(ArchiveSegment::close);
+        segments.clear();
+    }
+
+    /**
+     * Start of the first month still in the database, or null when nothing is archived.
+     */
+    public LocalDateTime archivedUntil() {
+        Map.Entry<YearMonth, ArchiveSegment> last = segments.lastEntry();
+        return last == null ? null : last.getKey().plusMonths(1).atDay(1).atStartOfDay();
+    }
+
+    /**
+     * Time of the account's oldest archived operation, or null.
+     */
+    public LocalDateTime firstOperationDate(Long bankAccountId) {
+        for (ArchiveSegment segment : segments.values()) {
+            ArchiveSegment.Entry entry = segment.entry(bankAccountId);
+            if (entry != null) {
+                return ArchiveSegment.time(entry.minTime());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Up to {@code limit} archived operations of the account from {@code from} up to {@code before}, newest first.
+     * With {@code beforeId} operations at {@code before} itself are included when their id is lower, as when
+     * seeking past a page cursor.
+     */
+    public List<OperationHistory> read(Long bankAccountId, LocalDateTime from, LocalDateTime before, Long beforeId, Filter filter, int limit) {
+        List<OperationHistory> operations = new ArrayList<>();
+        LocalDateTime upper = beforeId == null ? before : before.plusNanos(1000);
+        for (ArchiveSegment segment : segments.headMap(YearMonth.from(before), true).descendingMap().values()) {
+            if (!segment.month().plusMonths(1).atDay(1).atStartOfDay().isAfter(from)) {
+                break;
+            }
+            ArchiveSegment.Entry entry = segment.entry(bankAccountId);
+            if (entry == null || !segment.overlaps(from, upper) || !filter.mayMatch(entry)
+                    || ArchiveSegment.time(entry.maxTime()).isBefore(from) || !ArchiveSegment.time(entry.minTime()).isBefore(upper)) {
+                continue;
+            }
+
+            List<OperationHistory> rows = segment.read(entry);
+            for (int i = rows.size() - 1; i >= 0; i--) {
+                OperationHistory operation = rows.get(i);
+                LocalDateTime date = operation.getOperationDate();
+                if (date.isAfter(before) || date.equals(before) && (beforeId == null || operation.getId() >= beforeId)) {
+                    continue;
+                }
+                if (date.isBefore(from)) {
+                    break;
+                }
+                if (filter.matches(operation)) {
+                    operations.add(operation);
+                    if (operations.size() == limit) {
+                        return operations;
+                    }
+                }
+            }
+        }
+        return operations;
+    }
+
+    /**
+     * Every archived operation of the account before {@code before}, a month boundary, oldest first.
+     */
+    public void forEach(Long bankAccountId, LocalDateTime before, Consumer<OperationHistory> action) {
+        for (ArchiveSegment segment : segments.headMap(YearMonth.from(before), false).values()) {
+            ArchiveSegment.Entry entry = segment.entry(bankAccountId);
+            if (entry != null) {
+                segment.read(entry).forEach(action);
+            }
+        }
+    }
+
+    @Scheduled(initialDelayString = "${history.archive.interval-ms:3600000}", fixedDelayString = "${history.archive.interval-ms:3600000}")
+    public void archive() {
+        load();
+        if (!enabled) {
+            return;
+        }
+
+        try {
+            jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+                // the named lock belongs to the connection, so everything runs on this one
+                JdbcTemplate session = new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+                if (!Boolean.TRUE.equals(session.queryForObject("SELECT GET_LOCK(?, 0) = 1", Boolean.class, LOCK))) {
+                    return null;
+                }
+                try {
+                    archive(session, LocalDate.now());
+                } finally {
+                    session.queryForObject("SELECT RELEASE_LOCK(?)", Integer.class, LOCK);
+                }
+                return null;
+            });
+        } catch (DataAccessException | UncheckedIOException e) {
+            log.error("Archiving operation history failed", e);
+        }
+    }
+
+    void archive(JdbcTemplate session, LocalDate today) {
+        LocalDateTime cutoff = today.withDayOfMonth(1).minusMonths(afterMonths).atStartOfDay();
+        Timestamp oldest = session.queryForObject(OLDEST_SQL, Timestamp.class, Timestamp.valueOf(cutoff));
+        if (oldest == null) {
+            return;
+        }
+
+        for (YearMonth month = YearMonth.from(oldest.toLocalDateTime()); month.atDay(1).atStartOfDay().isBefore(cutoff); month = month.plusMonths(1)) {
+            if (segments.containsKey(month)) {
+                delete(session, month);
+            } else {
+                write(session, month);
+            }
+        }
+    }
+
+    private void write(JdbcTemplate session, YearMonth month) {
+        long started = System.currentTimeMillis();
+        Timestamp start = Timestamp.valueOf(month.atDay(1).atStartOfDay());
+        Timestamp end = Timestamp.valueOf(month.plusMonths(1).atDay(1).atStartOfDay());
+
+        Path path;
+        long rows;
+        try (ArchiveSegment.Writer writer = ArchiveSegment.writer(Paths.get(directory), month)) {
+            session.query(connection -> {
+                PreparedStatement statement = connection.prepareStatement(MONTH_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                statement.setFetchSize(fetchSize);
+                statement.setTimestamp(1, start);
+                statement.setTimestamp(2, end);
+                return statement;
+            }, (RowCallbackHandler) row -> writer.add(OperationHistoryService.ROW_MAPPER.mapRow(row, 0)));
+            rows = writer.rows();
+            path = writer.finish();
+        }
+
+        segments.put(month, ArchiveSegment.open(path));
+        meterRegistry.counter("history.archive.rows").increment(rows);
+        log.info("Archived {} operations of {} into {} in {} ms", rows, month, path, System.currentTimeMillis() - started);
+    }
+
+    private void delete(JdbcTemplate session, YearMonth month) {
+        Timestamp start = Timestamp.valueOf(month.atDay(1).atStartOfDay());
+        Timestamp end = Timestamp.valueOf(month.plusMonths(1).atDay(1).atStartOfDay());
+        long deleted = 0;
+        int batch;
+        do {
+            batch = session.update(DELETE_SQL, start, end, deleteBatchSize);
+            deleted += batch;
+        } while (batch == deleteBatchSize);
+        meterRegistry.counter("history.archive.deleted").increment(deleted);
+        log.info("Deleted {} archived operations of {} from the database", deleted, month);
+    }
+
+    private void load() {
+        Path root = Paths.get(directory);
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        for (Path path : ArchiveSegment.list(root)) {
+            if (!segments.containsKey(ArchiveSegment.month(path))) {
+                ArchiveSegment segment = ArchiveSegment.open(path);
+                segments.put(segment.month(), segment);
+            }
+        }
+    }
+
+    /**
+     * Filters of a history query, in minor units; null matches anything.
+     */
+    public record Filter(String operationType, Long minAmountMinor, Long maxAmountMinor) {
+
+        public static final Filter NONE = new Filter(null, null, null);
+
+        boolean matches(OperationHistory operation) {
+            return (operationType == null || operationType.equals(operation.getOperationType()))
+                    && (minAmountMinor == null || operation.getAmountMinor() >= minAmountMinor)
+                    && (maxAmountMinor == null || operation.getAmountMinor() <= maxAmountMinor);
+        }
+
+        boolean mayMatch(ArchiveSegment.Entry entry) {
+            return (minAmountMinor == null || entry.maxAmount() >= minAmountMinor)
+                    && (maxAmountMinor == null || entry.minAmount() <= maxAmountMinor);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package ua.yarynych.apiaccountmanagement.service.auth;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ua.yarynych.apiaccountmanagement.entity.exceptions.TooManyRequestsException;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets for the login and registration endpoints, one per client address, one per email
+ * and one shared by everybody. Every bucket is a single {@link AtomicLong} holding the time at which
+ * it will be full again (GCRA), so an allowed request costs a map lookup and one CAS.
+ * A bucket whose refill time has passed is indistinguishable from a new one and is evicted;
+ * when a stripe is still full, the remaining keys of that stripe share one overflow bucket.
+ */
+@Log4j2
+@Service
+@RequiredArgsConstructor
+public class AuthRateLimiter {
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${auth.rate-limit.key.burst:5}")
+    private int keyBurst = 5;
+    @Value("${auth.rate-limit.key.per-minute:10}")
+    private int keyPerMinute = 10;
+    @Value("${auth.rate-limit.global.burst:200}")
+    private int globalBurst = 200;
+    @Value("${auth.rate-limit.global.per-second:100}")
+    private int globalPerSecond = 100;
+    @Value("${auth.rate-limit.stripes:64}")
+    private int stripeCount = 64;
+    @Value("${auth.rate-limit.max-keys:1000000}")
+    private int maxKeys = 1_000_000;
+
+    private Rate keyRate;
+    private Rate globalRate;
+    private Stripe[] stripes;
+    private final AtomicLong global = new AtomicLong(System.nanoTime());
+    private Counter rejectedByAddress;
+    private Counter rejectedByEmail;
+    private Counter rejectedGlobally;
+
+    @PostConstruct
+    public void init() {
+        keyRate = new Rate(TimeUnit.MINUTES.toNanos(1) / keyPerMinute, keyBurst);
+        globalRate = new Rate(TimeUnit.SECONDS.toNanos(1) / globalPerSecond, globalBurst);
+
+        int stripeCapacity = Math.max(1, maxKeys / stripeCount);
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(stripeCapacity);
+        }
+
+        rejectedByAddress = Counter.builder("auth.rate-limit.rejected").tag("scope", "address").register(meterRegistry);
+        rejectedByEmail = Counter.builder("auth.rate-limit.rejected").tag("scope", "email").register(meterRegistry);
+        rejectedGlobally = Counter.builder("auth.rate-limit.rejected").tag("scope", "global").register(meterRegistry);
+        Gauge.builder("auth.rate-limit.keys", this, AuthRateLimiter::size).register(meterRegistry);
+    }
+
+    /**
+     * Takes one token from the address, email and global buckets, in that order.
+     * Throws {@link TooManyRequestsException} on the first bucket that is empty.
+     */
+    public void acquire(String clientAddress, String email) {
+        long now = System.nanoTime();
+
+        if (clientAddress != null && !keyRate.tryAcquire(bucket("ip:" + clientAddress, now), now)) {
+            rejectedByAddress.increment();
+            throw new TooManyRequestsException("Too many authentication attempts from this address, try again later");
+        }
+
+        if (email != null && !keyRate.tryAcquire(bucket("email:" + email.toLowerCase(Locale.ROOT), now), now)) {
+            rejectedByEmail.increment();
+            throw new TooManyRequestsException("Too many authentication attempts for this account, try again later");
+        }
+
+        if (!globalRate.tryAcquire(global, now)) {
+            rejectedGlobally.increment();
+            throw new TooManyRequestsException("Too many authentication requests, try again later");
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${auth.rate-limit.eviction-interval-ms:60000}")
+    public void evictIdle() {
+        long now = System.nanoTime();
+        int evicted = 0;
+        for (Stripe stripe : stripes) {
+            evicted += stripe.evictIdle(now);
+        }
+
+        if (evicted > 0) {
+            log.debug("Evicted {} idle rate limit buckets", evicted);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.buckets.size();
+        }
+        return size;
+    }
+
+    private AtomicLong bucket(String key, long now) {
+        int hash = key.hashCode();
+        Stripe stripe = stripes[((hash ^ (hash >>> 16)) & 0x7fffffff) % stripeCount];
+        return stripe.bucket(key, now);
+    }
+
+    private record Rate(long intervalNanos, long toleranceNanos) {
+
+        Rate(long intervalNanos, int burst) {
+            this(intervalNanos, intervalNanos * burst);
+        }
+
+        boolean tryAcquire(AtomicLong bucket, long now) {
+            while (true) {
+                long fullAt = bucket.get();
+                long next = Math.max(fullAt, now) + intervalNanos;
+                if (next - now > toleranceNanos) {
+                    return false;
+                }
+                if (bucket.compareAndSet(fullAt, next)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private static final class Stripe {
+        private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+        private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+        private final AtomicLong overflow = new AtomicLong(System.nanoTime());
+        private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+        private final int capacity;
+
+        Stripe(int capacity) {
+            this.capacity = capacity;
+        }
+
+        AtomicLong bucket(String key, long now) {
+            AtomicLong bucket = buckets.get(key);
+            if (bucket != null) {
+                return bucket;
+            }
+
+            if (buckets.size() >= capacity && !sweep(now)) {
+                return overflow;
+            }
+            return buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+        }
+
+        private boolean sweep(long now) {
+            long last = lastSweep.get();
+            if (now - last < SWEEP_INTERVAL_NANOS || !lastSweep.compareAndSet(last, now)) {
+                return false;
+            }
+            return evictIdle(now) > 0;
+        }
+
+        int evictIdle(long now) {
+            int before = buckets.size();
+            buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+            return before - buckets.size();
+        }
+    }
+}
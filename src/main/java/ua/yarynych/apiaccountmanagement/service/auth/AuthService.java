@@ -2,10 +2,13 @@ package ua.yarynych.apiaccountmanagement.service.auth;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
 import org.springframework.security.authentication.BadCredentialsException;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import ua.yarynych.apiaccountmanagement.entity.*;
+import ua.yarynych.apiaccountmanagement.entity.auth.UserAuthDetails;
+import ua.yarynych.apiaccountmanagement.entity.auth.VerifiedToken;
 import ua.yarynych.apiaccountmanagement.entity.dto.auth.AuthResponse;
 import ua.yarynych.apiaccountmanagement.entity.dto.auth.LoginRequest;
 import ua.yarynych.apiaccountmanagement.entity.dto.auth.LogoutRequest;
@@ -13,6 +16,13 @@ import ua.yarynych.apiaccountmanagement.entity.dto.auth.RegistrationRequest;
 import ua.yarynych.apiaccountmanagement.entity.exceptions.BadTokenException;
 import ua.yarynych.apiaccountmanagement.service.UserService;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Password checks run on the hashing pool; everything after them (user lookup, save, token issuing) is
+ * handed to the application task executor so the small hashing pool never waits on the database.
+ */
 @Log4j2
 @Service
 @RequiredArgsConstructor
@@ -20,45 +30,56 @@ public class AuthService {
 
     private final UserService userService;
     private final JwtService tokenProvider;
-    private final PasswordEncoder encoder;
+    private final SessionRegistry sessionRegistry;
+    private final PasswordHashingService passwordHashing;
+    private final AuthRateLimiter rateLimiter;
+    @Qualifier(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME)
+    private final Executor completionExecutor;
 
 
-    public AuthResponse login(LoginRequest request) {
+    public CompletableFuture<AuthResponse> login(LoginRequest request, String clientAddress) {
+        rateLimiter.acquire(clientAddress, request.getEmail());
         User user = userService.findUserByEmailForAuthorization(request.getEmail());
 
         if(user == null) {
             throw new BadCredentialsException("Bad credentials: no user with this email");
         }
 
-        if (!encoder.matches(request.getPassword(), user.getPassword())) {
-            throw new BadCredentialsException("Bad credentials: incorrect password");
-        }
+        return passwordHashing.matches(request.getPassword(), user.getPassword())
+                .thenApplyAsync(matches -> {
+                    if (!matches) {
+                        throw new BadCredentialsException("Bad credentials: incorrect password");
+                    }
 
-        AuthResponse response = tokenProvider.token(user);
-        user.setToken(response.getAccessToken().getToken());
-        userService.saveUser(user);
+                    AuthResponse response = openSession(user);
 
-        log.info("Login user with email: {}", response.getEmail());
-        return response;
+                    log.debug("Login user with email: {}", response.getEmail());
+                    return response;
+                }, completionExecutor);
     }
 
 
-    public AuthResponse registration(RegistrationRequest request) {
+    public CompletableFuture<AuthResponse> registration(RegistrationRequest request, String clientAddress) {
+        rateLimiter.acquire(clientAddress, request.getEmail());
         if (null != userService.findUserByEmailForAuthorization(request.getEmail())) {
             throw new BadCredentialsException("User already exists");
         }
 
-        if (null != request.getPassword()) {
-            request.setPassword(encoder.encode(request.getPassword()));
-        }
+        CompletableFuture<String> password = null != request.getPassword()
+                ? passwordHashing.encode(request.getPassword())
+                : CompletableFuture.completedFuture(null);
 
-        User user = User.build(request);
-        AuthResponse response = tokenProvider.token(user);
-        user.setToken(response.getAccessToken().getToken());
-        userService.saveUser(user);
+        return password.thenApplyAsync(encoded -> {
+            request.setPassword(encoded);
 
-        log.info("Registration user with email: {}", response.getEmail());
-        return response;
+            User user = User.build(request);
+            userService.saveUser(user);
+
+            AuthResponse response = openSession(user);
+
+            log.info("Registration user with email: {}", response.getEmail());
+            return response;
+        }, completionExecutor);
     }
 
 
@@ -68,33 +89,39 @@ public class AuthService {
         }
 
         String token = refreshToken.substring(7);
-        tokenProvider.validateToken(token);
+        VerifiedToken verified = tokenProvider.verify(token);
 
-        User owner = userService.findUserByEmail(tokenProvider.read(token).getEmail(), token);
+        if (!"refresh".equals(verified.getType())) {
+            throw new BadTokenException("Refresh token expected");
+        }
 
-        if(owner.getToken() == null) {
+        if(!sessionRegistry.isActive(verified)) {
             throw new BadCredentialsException("You need authorize first");
         }
 
-        AuthResponse response = tokenProvider.token(owner);
-        owner.setToken(response.getAccessToken().getToken());
-        userService.saveUser(owner);
+        User owner = userService.findUserById(verified.getUserId());
+
+        sessionRegistry.revoke(verified.getSessionId(), owner.getId());
+        AuthResponse response = openSession(owner);
 
-        log.info("Refresh token user with email: {}", response.getEmail());
+        log.debug("Refresh token user with email: {}", response.getEmail());
         return response;
     }
 
 
-    public AuthResponse logout(String token) {
-        token = token.replace("Bearer ", "");
-        String email = tokenProvider.read(token).getEmail();
-        User user = userService.findUserByEmail(email, token);
+    public AuthResponse logout(UserAuthDetails principal) {
+        User user = userService.findUserById(principal.getId());
 
         log.info("Logout by user {}", user);
-        user.setToken(null);
-        userService.saveUser(user);
+        sessionRegistry.revoke(principal.getSessionId(), user.getId());
 
         return AuthResponse.logout(user);
     }
-}
 
+    private AuthResponse openSession(User user) {
+        String sessionId = SessionRegistry.newSessionId();
+        AuthResponse response = tokenProvider.token(user, sessionId);
+        sessionRegistry.open(sessionId, user.getId(), response.getRefreshToken().getExpiresAt());
+        return response;
+    }
+}
@@ -2,15 +2,18 @@ package ua.yarynych.apiaccountmanagement.service.auth;
 
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import ua.yarynych.apiaccountmanagement.entity.*;
 import ua.yarynych.apiaccountmanagement.entity.auth.Token;
 import ua.yarynych.apiaccountmanagement.entity.auth.UserAuthDetails;
+import ua.yarynych.apiaccountmanagement.entity.auth.VerifiedToken;
 import ua.yarynych.apiaccountmanagement.entity.dto.auth.AuthResponse;
 import ua.yarynych.apiaccountmanagement.entity.exceptions.BadTokenException;
 
+import java.security.Key;
 import java.util.Date;
 import java.util.HashMap;
 
@@ -25,32 +28,50 @@ public class JwtService {
     private long refreshValidity;
     @Value("${jwt.token.ttl_ms.reset}")
     private long resetValidity;
+    @Value("${jwt.token.cache.max-size:10000}")
+    private int verifiedCacheMaxSize = 10000;
+
+    private Key signingKey;
+    private JwtParser parser;
+    private VerifiedTokenCache verifiedTokens;
+
+    @PostConstruct
+    public void init() {
+        signingKey = Keys.hmacShaKeyFor(jwtSecret.getBytes());
+        parser = Jwts.parserBuilder().setSigningKey(signingKey).build();
+        verifiedTokens = new VerifiedTokenCache(verifiedCacheMaxSize);
+    }
 
     public AuthResponse token(User user) {
+        return token(user, SessionRegistry.newSessionId());
+    }
+
+    public AuthResponse token(User user, String sessionId) {
         long accessExpiresAt = System.currentTimeMillis() + accessValidity;
         long refreshExpiresAt = System.currentTimeMillis() + refreshValidity;
 
-        String access = generateToken(user, accessExpiresAt, "access");
-        String refresh = generateToken(user, refreshExpiresAt, "refresh");
+        String access = generateToken(user, sessionId, accessExpiresAt, "access");
+        String refresh = generateToken(user, sessionId, refreshExpiresAt, "refresh");
 
         return new AuthResponse(user.getId(), user.getEmail(), user.getPhone(), user.getFirstName(),
                 user.getSecondName(), user.getRole(), user.getCreatedAt(),
                 Token.from(access, accessExpiresAt), Token.from(refresh, refreshExpiresAt));
     }
 
-    private String generateToken(User user, long expiresAt, String type) {
+    private String generateToken(User user, String sessionId, long expiresAt, String type) {
         try {
             HashMap<String, Object> claims = new HashMap<>();
             claims.put("type", type);
             claims.put("id", user.getId());
             claims.put("role", user.getRole());
+            claims.put("sid", sessionId);
 
             return Jwts.builder()
                     .setClaims(claims)
                     .setSubject(user.getEmail())
                     .setIssuedAt(new Date(System.currentTimeMillis()))
                     .setExpiration(new Date(expiresAt))
-                    .signWith(Keys.hmacShaKeyFor(jwtSecret.getBytes()), SignatureAlgorithm.HS512)
+                    .signWith(signingKey, SignatureAlgorithm.HS512)
                     .compact();
         } catch (Exception e) {
             log.error("Error generating token for user {}: {}", user.getEmail(), e.getMessage());
@@ -60,47 +81,53 @@ public class JwtService {
 
     public Claims extractClaim(String token) {
         try {
-            return Jwts.parserBuilder()
-                    .setSigningKey(Keys.hmacShaKeyFor(jwtSecret.getBytes()))
-                    .build()
-                    .parseClaimsJws(token)
-                    .getBody();
+            return parser.parseClaimsJws(token).getBody();
         } catch (Exception e) {
             log.error("Error extracting claims from token: {}", e.getMessage());
             throw new BadTokenException("Error extracting claims");
         }
     }
 
+    /**
+     * Verifies the token signature and expiry once and caches the resulting claims
+     * until the token expires, so repeated calls for the same token skip parsing.
+     */
+    public VerifiedToken verify(String token) {
+        String digest = VerifiedTokenCache.digest(token);
+        VerifiedToken cached = verifiedTokens.get(digest);
+        if (cached != null) {
+            return cached;
+        }
+
+        VerifiedToken verified = VerifiedToken.from(parseVerified(token));
+        verifiedTokens.put(digest, verified);
+        return verified;
+    }
+
     public UserAuthDetails read(String token) {
-        Claims claims = this.extractClaim(token);
-        String email = claims.getSubject();
-        Object o = claims.get("role");
+        return read(verify(token));
+    }
 
-        if (o == null) {
-            log.warn("Token does not contain 'role' field.");
+    public UserAuthDetails read(VerifiedToken verified) {
+        if (verified.getRole() == null) {
+            log.warn("Token does not contain valid 'role' field.");
             throw new BadTokenException("Invalid token data");
         }
 
-        if (o instanceof String) {
-            return UserAuthDetails.build(email, (String) o);
-        } else {
-            log.warn("Unknown class {}", o.getClass().getSimpleName());
-            throw new BadTokenException("Invalid token data");
-        }
+        return UserAuthDetails.build(verified);
     }
 
     public String extractType(String token) {
-        try {
-            return extractClaim(token).get("type", String.class);
-        } catch (Exception e) {
-            log.error("Error extracting type from token: {}", e.getMessage());
-            throw new BadTokenException("Error extracting token type");
-        }
+        return verify(token).getType();
     }
 
     public void validateToken(String token) {
+        verify(token);
+    }
+
+    private Claims parseVerified(String token) {
         try {
-            Jwts.parserBuilder().setSigningKey(Keys.hmacShaKeyFor(jwtSecret.getBytes())).build().parseClaimsJws(token);
+            return parser.parseClaimsJws(token).getBody();
         } catch (ExpiredJwtException expEx) {
             throw new BadTokenException("Token expired");
         } catch (UnsupportedJwtException unsEx) {
@@ -115,4 +142,3 @@ public class JwtService {
         }
     }
 }
-
@@ -0,0 +1,92 @@
+package ua.yarynych.apiaccountmanagement.service.auth;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+import ua.yarynych.apiaccountmanagement.entity.exceptions.TooManyRequestsException;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs BCrypt hashing on a dedicated, size-capped pool so a burst of logins cannot pin the
+ * servlet threads. When the pool and its queue are full, requests are rejected straight away with 429.
+ */
+@Log4j2
+@Service
+@RequiredArgsConstructor
+public class PasswordHashingService {
+
+    private final PasswordEncoder encoder;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${security.password.hashing.pool-size:0}")
+    private int poolSize;
+    @Value("${security.password.hashing.queue-capacity:64}")
+    private int queueCapacity = 64;
+
+    private ThreadPoolExecutor executor;
+    private Timer matchTimer;
+    private Timer encodeTimer;
+    private Timer queueWaitTimer;
+    private Counter rejected;
+
+    @PostConstruct
+    public void init() {
+        int threads = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        AtomicInteger counter = new AtomicInteger();
+
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "password-hashing-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+
+        matchTimer = Timer.builder("auth.password.hash").tag("operation", "match").register(meterRegistry);
+        encodeTimer = Timer.builder("auth.password.hash").tag("operation", "encode").register(meterRegistry);
+        queueWaitTimer = Timer.builder("auth.password.queue.wait").register(meterRegistry);
+        rejected = Counter.builder("auth.password.rejected").register(meterRegistry);
+        Gauge.builder("auth.password.queue.depth", executor, pool -> pool.getQueue().size()).register(meterRegistry);
+        Gauge.builder("auth.password.active", executor, ThreadPoolExecutor::getActiveCount).register(meterRegistry);
+
+        log.info("Password hashing pool started with {} threads and queue of {}", threads, queueCapacity);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public CompletableFuture<Boolean> matches(String rawPassword, String encodedPassword) {
+        return submit(matchTimer, () -> encoder.matches(rawPassword, encodedPassword));
+    }
+
+    public CompletableFuture<String> encode(String rawPassword) {
+        return submit(encodeTimer, () -> encoder.encode(rawPassword));
+    }
+
+    private <T> CompletableFuture<T> submit(Timer timer, Supplier<T> work) {
+        long queuedAt = System.nanoTime();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                queueWaitTimer.record(System.nanoTime() - queuedAt, TimeUnit.NANOSECONDS);
+                return timer.record(work);
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new TooManyRequestsException("Too many authentication requests, try again later");
+        }
+    }
+}
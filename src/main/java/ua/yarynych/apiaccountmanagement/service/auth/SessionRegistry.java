@@ -0,0 +1,163 @@
+package ua.yarynych.apiaccountmanagement.service.auth;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ua.yarynych.apiaccountmanagement.entity.auth.RevokedSession;
+import ua.yarynych.apiaccountmanagement.entity.auth.RevokedUser;
+import ua.yarynych.apiaccountmanagement.entity.auth.VerifiedToken;
+import ua.yarynych.apiaccountmanagement.repository.RevokedSessionRepository;
+import ua.yarynych.apiaccountmanagement.repository.RevokedUserRepository;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of login sessions in memory so checking a token is a hash lookup instead of a users query.
+ * A session lives as long as its refresh token. Only revocations are persisted; every node loads them
+ * at startup and polls for revocations made by other nodes.
+ * <p>
+ * Revoking a user, as when it is deleted, rejects every token issued to it up to that moment. Tokens carry
+ * {@code iat} in whole seconds, so a token issued in the same second as the revocation is rejected too.
+ */
+@Log4j2
+@Service
+@RequiredArgsConstructor
+public class SessionRegistry {
+
+    private static final long SYNC_OVERLAP_SECONDS = 60;
+
+    private final RevokedSessionRepository revokedSessionRepository;
+    private final RevokedUserRepository revokedUserRepository;
+
+    @Value("${jwt.token.ttl_ms.refresh}")
+    private long refreshValidity;
+
+    private final Map<String, Session> active = new ConcurrentHashMap<>();
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+    private final Map<Long, UserRevocation> revokedUsers = new ConcurrentHashMap<>();
+    private volatile LocalDateTime lastSync = LocalDateTime.now();
+
+    public static String newSessionId() {
+        return UUID.randomUUID().toString();
+    }
+
+    public void open(String sessionId, Long userId, long expiresAt) {
+        active.put(sessionId, new Session(userId, expiresAt));
+    }
+
+    public boolean isActive(VerifiedToken token) {
+        String sessionId = token.getSessionId();
+        if (sessionId == null || revoked.containsKey(sessionId)) {
+            return false;
+        }
+        UserRevocation userRevocation = token.getUserId() == null ? null : revokedUsers.get(token.getUserId());
+        if (userRevocation != null && token.getIssuedAt() <= userRevocation.revokedAt()) {
+            return false;
+        }
+
+        if (!active.containsKey(sessionId)) {
+            active.put(sessionId, new Session(token.getUserId(), token.getExpiresAt()));
+        }
+        return true;
+    }
+
+    public void revoke(String sessionId, Long userId) {
+        if (sessionId == null) {
+            return;
+        }
+
+        long expiresAt = System.currentTimeMillis() + refreshValidity;
+        revoked.put(sessionId, expiresAt);
+        active.remove(sessionId);
+
+        revokedSessionRepository.save(new RevokedSession(sessionId, userId, LocalDateTime.now(), toDateTime(expiresAt)));
+        log.info("Revoked session {} of user {}", sessionId, userId);
+    }
+
+    /**
+     * Rejects every token issued to the user so far, including sessions this node has never seen.
+     */
+    public void revokeUser(Long userId) {
+        long revokedAt = System.currentTimeMillis();
+        long expiresAt = revokedAt + refreshValidity;
+        revokedUsers.put(userId, new UserRevocation(revokedAt, expiresAt));
+        active.values().removeIf(session -> userId.equals(session.userId()));
+
+        revokedUserRepository.save(new RevokedUser(userId, toDateTime(revokedAt), toDateTime(expiresAt)));
+        log.info("Revoked all sessions of user {}", userId);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        LocalDateTime now = LocalDateTime.now();
+        List<RevokedSession> sessions = revokedSessionRepository.findByExpiresAtAfter(now);
+        sessions.forEach(this::remember);
+        List<RevokedUser> users = revokedUserRepository.findByExpiresAtAfter(now);
+        users.forEach(this::remember);
+        lastSync = now;
+        log.info("Session registry rebuilt with {} revoked sessions and {} revoked users", sessions.size(), users.size());
+    }
+
+    @Scheduled(fixedDelayString = "${auth.sessions.sync-interval-ms:5000}")
+    public void sync() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime since = lastSync.minusSeconds(SYNC_OVERLAP_SECONDS);
+        revokedSessionRepository.findByRevokedAtAfterAndExpiresAtAfter(since, now).forEach(this::remember);
+        revokedUserRepository.findByRevokedAtAfterAndExpiresAtAfter(since, now).forEach(this::remember);
+        lastSync = now;
+
+        long nowMs = System.currentTimeMillis();
+        active.values().removeIf(session -> session.expiresAt() <= nowMs);
+        revoked.values().removeIf(expiresAt -> expiresAt <= nowMs);
+        revokedUsers.values().removeIf(revocation -> revocation.expiresAt() <= nowMs);
+    }
+
+    @Scheduled(fixedDelayString = "${auth.sessions.cleanup-interval-ms:3600000}")
+    public void cleanup() {
+        LocalDateTime now = LocalDateTime.now();
+        int removed = revokedSessionRepository.deleteExpired(now) + revokedUserRepository.deleteExpired(now);
+        if (removed > 0) {
+            log.info("Removed {} expired session revocations", removed);
+        }
+    }
+
+    public int activeCount() {
+        return active.size();
+    }
+
+    private void remember(RevokedSession session) {
+        revoked.put(session.getSessionId(), session.getExpiresAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        active.remove(session.getSessionId());
+    }
+
+    private void remember(RevokedUser user) {
+        long revokedAt = toEpochMillis(user.getRevokedAt());
+        revokedUsers.merge(user.getUserId(), new UserRevocation(revokedAt, toEpochMillis(user.getExpiresAt())),
+                (known, loaded) -> known.revokedAt() >= loaded.revokedAt() ? known : loaded);
+        active.values().removeIf(session -> user.getUserId().equals(session.userId()));
+    }
+
+    private static long toEpochMillis(LocalDateTime dateTime) {
+        return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime toDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    private record Session(Long userId, long expiresAt) {
+    }
+
+    private record UserRevocation(long revokedAt, long expiresAt) {
+    }
+}
@@ -0,0 +1,78 @@
+package ua.yarynych.apiaccountmanagement.service.auth;
+
+import ua.yarynych.apiaccountmanagement.entity.auth.VerifiedToken;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of verified tokens keyed by the SHA-256 digest of the raw token.
+ * Entries are dropped as soon as the token expires; when the cache is full,
+ * expired entries are swept and new tokens are simply not cached until there is room.
+ */
+public class VerifiedTokenCache {
+
+    private static final long SWEEP_INTERVAL_MS = 1000;
+
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    });
+
+    private final ConcurrentHashMap<String, VerifiedToken> entries = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong();
+    private final int maxSize;
+
+    public VerifiedTokenCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public static String digest(String token) {
+        byte[] hash = SHA_256.get().digest(token.getBytes(StandardCharsets.US_ASCII));
+        return Base64.getEncoder().encodeToString(hash);
+    }
+
+    public VerifiedToken get(String digest) {
+        VerifiedToken token = entries.get(digest);
+        if (token != null && token.isExpired(System.currentTimeMillis())) {
+            entries.remove(digest, token);
+            return null;
+        }
+        return token;
+    }
+
+    public void put(String digest, VerifiedToken token) {
+        if (maxSize <= 0 || token.getExpiresAt() == Long.MAX_VALUE) {
+            return;
+        }
+
+        if (entries.size() >= maxSize) {
+            sweepExpired();
+            if (entries.size() >= maxSize) {
+                return;
+            }
+        }
+
+        entries.put(digest, token);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void sweepExpired() {
+        long now = System.currentTimeMillis();
+        long last = lastSweep.get();
+        if (now - last < SWEEP_INTERVAL_MS || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        entries.values().removeIf(token -> token.isExpired(now));
+    }
+}
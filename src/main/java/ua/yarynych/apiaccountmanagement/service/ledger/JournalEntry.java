@@ -0,0 +1,80 @@
+package ua.yarynych.apiaccountmanagement.service.ledger;
+
+import lombok.Getter;
+import ua.yarynych.apiaccountmanagement.entity.enums.Currency;
+import ua.yarynych.apiaccountmanagement.entity.enums.Operations;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One business operation in the journal: a deposit, a withdrawal or a transfer, with its legs.
+ * Legs of an entry must sum to zero in every currency. When an entry moves money between currencies,
+ * {@link #balanced()} adds one {@link JournalLeg#FX} leg per currency to take in what one side pays
+ * and pay out what the other side receives.
+ */
+@Getter
+public class JournalEntry {
+
+    private final Operations type;
+    private final Long userId;
+    private final String description;
+    private final LocalDateTime createdAt;
+    private final List<JournalLeg> legs = new ArrayList<>(4);
+
+    private JournalEntry(Operations type, Long userId, String description, LocalDateTime createdAt) {
+        this.type = type;
+        this.userId = userId;
+        this.description = description;
+        this.createdAt = createdAt;
+    }
+
+    public static JournalEntry of(Operations type, Long userId, String description) {
+        return new JournalEntry(type, userId, description, LocalDateTime.now());
+    }
+
+    /**
+     * Posts {@code amountMinor} to a customer account: positive for credits, negative for debits.
+     */
+    public JournalEntry post(Long accountId, Currency currency, long amountMinor) {
+        legs.add(new JournalLeg(accountId, null, currency, amountMinor));
+        return this;
+    }
+
+    /**
+     * Posts money coming in (negative) or going out (positive) of the bank.
+     */
+    public JournalEntry cash(Currency currency, long amountMinor) {
+        legs.add(new JournalLeg(null, JournalLeg.CASH, currency, amountMinor));
+        return this;
+    }
+
+    /**
+     * Returns the legs with any exchange legs added, or throws if the entry does not balance.
+     */
+    public List<JournalLeg> balanced() {
+        Map<Currency, Long> totals = new EnumMap<>(Currency.class);
+        for (JournalLeg leg : legs) {
+            totals.merge(leg.currency(), leg.amountMinor(), Math::addExact);
+        }
+        totals.values().removeIf(total -> total == 0);
+        if (totals.isEmpty()) {
+            return Collections.unmodifiableList(legs);
+        }
+
+        boolean takesIn = totals.values().stream().anyMatch(total -> total < 0);
+        boolean paysOut = totals.values().stream().anyMatch(total -> total > 0);
+        if (!takesIn || !paysOut) {
+            throw new IllegalStateException("Journal entry " + type + " is not balanced: " + totals);
+        }
+
+        List<JournalLeg> withExchange = new ArrayList<>(legs.size() + totals.size());
+        withExchange.addAll(legs);
+        totals.forEach((currency, total) -> withExchange.add(new JournalLeg(null, JournalLeg.FX, currency, -total)));
+        return withExchange;
+    }
+}
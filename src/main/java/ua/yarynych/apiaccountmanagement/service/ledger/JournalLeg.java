@@ -0,0 +1,21 @@
+package ua.yarynych.apiaccountmanagement.service.ledger;
+
+import ua.yarynych.apiaccountmanagement.entity.enums.Currency;
+
+/**
+ * One side of a journal entry. A leg is posted either to a customer account ({@code accountId}) or to
+ * one of the bank's clearing accounts ({@code clearing}). A positive amount increases the balance of
+ * the account it is posted to.
+ */
+public record JournalLeg(Long accountId, String clearing, Currency currency, long amountMinor) {
+
+    /**
+     * Money entering or leaving the bank through deposits and withdrawals.
+     */
+    public static final String CASH = "CASH";
+
+    /**
+     * Currency exchange: takes one currency in and pays another out within the same entry.
+     */
+    public static final String FX = "FX";
+}
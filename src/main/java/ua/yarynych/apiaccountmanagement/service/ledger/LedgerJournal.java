@@ -0,0 +1,144 @@
+package ua.yarynych.apiaccountmanagement.service.ledger;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManager;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ua.yarynych.apiaccountmanagement.service.HistoryIdAllocator;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only double-entry journal. Every balance change is recorded as one entry in
+ * {@code journal_entries} with balanced legs in {@code journal_legs}; rows are only ever inserted.
+ * The balance on {@code bank_accounts} is a projection of the journal that is kept up to date in the
+ * same transaction, and {@link LedgerSnapshots} checks it against the journal.
+ * <p>
+ * Entries are inserted in JDBC batches just before the transaction commits, after the account rows
+ * have been flushed. Leg ids are AUTO_INCREMENT and are assigned while the account's row or one of its
+ * stripes is still locked. Deposits to different stripes of one account hold different locks and can
+ * commit out of id order, so leg ids only follow commit order once the account row and all its stripes
+ * are locked: a snapshot boundary has to be taken under those locks (see {@link LedgerSnapshots#snapshot}
+ * and {@link LedgerRebuilder}). Outside a transaction entries are inserted immediately.
+ */
+@Service
+@RequiredArgsConstructor
+public class LedgerJournal {
+
+    private static final String ENTRY_SQL =
+            "INSERT INTO journal_entries (id, entry_type, user_id, description, created_at) VALUES (?, ?, ?, ?, ?)";
+    private static final String LEG_SQL = "INSERT INTO journal_legs "
+            + "(entry_id, leg, account_id, clearing, currency, amount_minor, created_at) VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final HistoryIdAllocator idAllocator;
+    private final EntityManager entityManager;
+    private final LedgerSnapshots ledgerSnapshots;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${ledger.journal.batch-size:500}")
+    private int batchSize = 500;
+
+    public void append(JournalEntry entry) {
+        append(List.of(entry));
+    }
+
+    /**
+     * Checks that every entry balances and schedules it to be inserted when the current transaction
+     * commits, or inserts it right away when there is no transaction.
+     */
+    public void append(List<JournalEntry> entries) {
+        List<Row> rows = new ArrayList<>(entries.size());
+        for (JournalEntry entry : entries) {
+            List<JournalLeg> legs = entry.balanced();
+            rows.add(new Row(idAllocator.next(HistoryIdAllocator.JOURNAL_SEQUENCE), entry, legs));
+        }
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            flush(rows);
+            counted(rows);
+            return;
+        }
+
+        PendingEntries pending = (PendingEntries) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            pending = new PendingEntries();
+            TransactionSynchronizationManager.bindResource(this, pending);
+            TransactionSynchronizationManager.registerSynchronization(pending);
+        }
+        pending.rows.addAll(rows);
+    }
+
+    private void flush(List<Row> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        List<LegRow> legs = new ArrayList<>(rows.size() * 2);
+        for (Row row : rows) {
+            for (int i = 0; i < row.legs().size(); i++) {
+                legs.add(new LegRow(row, i, row.legs().get(i)));
+            }
+        }
+
+        jdbcTemplate.batchUpdate(ENTRY_SQL, rows, batchSize, (statement, row) -> {
+            statement.setLong(1, row.id());
+            statement.setString(2, row.entry().getType().name());
+            statement.setObject(3, row.entry().getUserId());
+            statement.setString(4, row.entry().getDescription());
+            statement.setTimestamp(5, Timestamp.valueOf(row.entry().getCreatedAt()));
+        });
+        jdbcTemplate.batchUpdate(LEG_SQL, legs, batchSize, (statement, leg) -> {
+            statement.setLong(1, leg.entry().id());
+            statement.setInt(2, leg.index());
+            statement.setObject(3, leg.leg().accountId());
+            statement.setString(4, leg.leg().clearing());
+            statement.setString(5, leg.leg().currency().name());
+            statement.setLong(6, leg.leg().amountMinor());
+            statement.setTimestamp(7, Timestamp.valueOf(leg.entry().entry().getCreatedAt()));
+        });
+        meterRegistry.counter("ledger.journal.entries").increment(rows.size());
+    }
+
+    private void counted(List<Row> rows) {
+        for (Row row : rows) {
+            for (JournalLeg leg : row.legs()) {
+                if (leg.accountId() != null) {
+                    ledgerSnapshots.recordLeg(leg.accountId());
+                }
+            }
+        }
+    }
+
+    private record Row(long id, JournalEntry entry, List<JournalLeg> legs) {
+    }
+
+    private record LegRow(Row entry, int index, JournalLeg leg) {
+    }
+
+    private final class PendingEntries implements TransactionSynchronization {
+        private final List<Row> rows = new ArrayList<>();
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            entityManager.flush();
+            flush(rows);
+        }
+
+        @Override
+        public void afterCommit() {
+            counted(rows);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(LedgerJournal.this);
+        }
+    }
+}
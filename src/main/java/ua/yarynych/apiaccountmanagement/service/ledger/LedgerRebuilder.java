@@ -0,0 +1,205 @@
+package ua.yarynych.apiaccountmanagement.service.ledger;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ua.yarynych.apiaccountmanagement.entity.dto.ledger.LedgerRebuildReport;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Recomputes the balance snapshots from the journal. The range of account ids that have legs is split
+ * into partitions that are replayed in parallel, each by one thread streaming its legs in (account, leg)
+ * order. Every account starts from its opening snapshot (the balance it had when the journal was
+ * introduced) and gets a snapshot every {@code ledger.snapshots.every-legs} legs and one after its last leg.
+ * <p>
+ * Writers keep running during a rebuild. Deposits to different stripes of a striped account can commit out
+ * of leg id order, so a partition first locks its account rows and stripes for a moment and reads the
+ * highest leg id: with every writer on those accounts finished, every leg up to that boundary is committed
+ * and any later one gets a higher id. Only legs up to the boundary are replayed, so the snapshots written
+ * never skip a leg. Snapshots taken after the boundary are left alone.
+ */
+@Log4j2
+@Service
+@RequiredArgsConstructor
+public class LedgerRebuilder {
+
+    private static final String RANGE_SQL = "SELECT MIN(account_id), MAX(account_id) FROM journal_legs WHERE account_id IS NOT NULL";
+    private static final String OPENING_SQL =
+            "SELECT account_id, balance_minor FROM account_snapshots WHERE last_leg_id = 0 AND account_id BETWEEN ? AND ?";
+    static final String LOCK_ACCOUNTS_SQL = "SELECT id FROM bank_accounts WHERE id BETWEEN ? AND ? ORDER BY id FOR UPDATE";
+    static final String LOCK_STRIPES_SQL = "SELECT bank_account_id FROM bank_account_stripes WHERE bank_account_id BETWEEN ? AND ? "
+            + "ORDER BY bank_account_id, stripe FOR UPDATE";
+    static final String BOUNDARY_SQL = "SELECT COALESCE(MAX(id), 0) FROM journal_legs WHERE account_id BETWEEN ? AND ?";
+    private static final String LEGS_SQL = "SELECT id, account_id, amount_minor, created_at FROM journal_legs "
+            + "WHERE account_id BETWEEN ? AND ? AND id <= ? ORDER BY account_id, id";
+    private static final String DELETE_SQL =
+            "DELETE FROM account_snapshots WHERE account_id BETWEEN ? AND ? AND last_leg_id > 0 AND last_leg_id <= ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${ledger.snapshots.every-legs:1000}")
+    private int everyLegs = 1000;
+    @Value("${ledger.rebuild.fetch-size:-2147483648}")
+    private int fetchSize = Integer.MIN_VALUE;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public LedgerRebuildReport rebuild(int partitions) {
+        if (partitions < 1 || partitions > 64) {
+            throw new IllegalArgumentException("Partitions must be between 1 and 64");
+        }
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("A ledger rebuild is already running");
+        }
+
+        long started = System.currentTimeMillis();
+        ExecutorService workers = Executors.newFixedThreadPool(partitions, runnable -> {
+            Thread thread = new Thread(runnable, "ledger-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            long[] range = jdbcTemplate.queryForObject(RANGE_SQL, (row, index) -> new long[]{row.getLong(1), row.getLong(2)});
+            if (range == null || range[1] == 0) {
+                return new LedgerRebuildReport(partitions, 0, 0, 0, System.currentTimeMillis() - started);
+            }
+
+            long span = range[1] - range[0] + 1;
+            long step = Math.max(1, (span + partitions - 1) / partitions);
+            List<Future<Partition>> futures = new ArrayList<>(partitions);
+            for (long from = range[0]; from <= range[1]; from += step) {
+                long first = from;
+                long last = Math.min(range[1], from + step - 1);
+                futures.add(workers.submit(() -> replay(first, last)));
+            }
+
+            LedgerRebuildReport report = new LedgerRebuildReport(partitions, 0, 0, 0, 0);
+            for (Future<Partition> future : futures) {
+                Partition partition = future.get();
+                report.setAccounts(report.getAccounts() + partition.accounts());
+                report.setLegs(report.getLegs() + partition.legs());
+                report.setSnapshots(report.getSnapshots() + partition.snapshots());
+            }
+            report.setElapsedMs(System.currentTimeMillis() - started);
+
+            log.info("Ledger rebuilt: {} accounts, {} legs, {} snapshots in {} ms over {} partitions",
+                    report.getAccounts(), report.getLegs(), report.getSnapshots(), report.getElapsedMs(), partitions);
+            return report;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while rebuilding the ledger", e);
+        } finally {
+            workers.shutdownNow();
+            running.set(false);
+        }
+    }
+
+    /**
+     * Replays the legs of accounts {@code first..last} and replaces their snapshots.
+     */
+    Partition replay(long first, long last) {
+        long boundary = boundary(first, last);
+        Map<Long, Long> opening = new HashMap<>();
+        jdbcTemplate.query(OPENING_SQL, (RowCallbackHandler) row -> opening.put(row.getLong(1), row.getLong(2)), first, last);
+
+        Fold fold = new Fold(opening, everyLegs);
+        JdbcTemplate streaming = new JdbcTemplate(jdbcTemplate.getDataSource());
+        streaming.setFetchSize(fetchSize);
+        streaming.query(LEGS_SQL, (RowCallbackHandler) row ->
+                fold.accept(row.getLong(1), row.getLong(2), row.getLong(3), row.getTimestamp(4)), first, last, boundary);
+        fold.finish();
+
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.update(DELETE_SQL, first, last, fold.maxLegId);
+            jdbcTemplate.batchUpdate(LedgerSnapshots.INSERT_SQL, fold.snapshots);
+        });
+        return new Partition(fold.accounts, fold.legs, fold.snapshots.size());
+    }
+
+    /**
+     * Highest leg id of accounts {@code first..last} such that every leg of theirs up to it is committed.
+     * Read with the account rows and stripes locked, in the order writers lock them, and released at once.
+     */
+    long boundary(long first, long last) {
+        Long boundary = transactionTemplate.execute(status -> {
+            jdbcTemplate.queryForList(LOCK_ACCOUNTS_SQL, Long.class, first, last);
+            jdbcTemplate.queryForList(LOCK_STRIPES_SQL, Long.class, first, last);
+            return jdbcTemplate.queryForObject(BOUNDARY_SQL, Long.class, first, last);
+        });
+        return boundary == null ? 0 : boundary;
+    }
+
+    record Partition(long accounts, long legs, long snapshots) {
+    }
+
+    /**
+     * Running balances over legs sorted by account and leg id.
+     */
+    static final class Fold {
+        private final Map<Long, Long> opening;
+        private final int everyLegs;
+        private final List<Object[]> snapshots = new ArrayList<>();
+
+        private Long accountId;
+        private long balance;
+        private long sinceSnapshot;
+        private long lastLegId;
+        private Timestamp lastCreatedAt;
+        private long accounts;
+        private long legs;
+        private long maxLegId;
+
+        Fold(Map<Long, Long> opening, int everyLegs) {
+            this.opening = opening;
+            this.everyLegs = everyLegs;
+        }
+
+        void accept(long legId, long account, long amountMinor, Timestamp createdAt) {
+            if (accountId == null || accountId != account) {
+                finish();
+                accountId = account;
+                balance = opening.getOrDefault(account, 0L);
+                accounts++;
+            }
+
+            balance = Math.addExact(balance, amountMinor);
+            lastLegId = legId;
+            lastCreatedAt = createdAt;
+            maxLegId = Math.max(maxLegId, legId);
+            legs++;
+            if (++sinceSnapshot >= everyLegs) {
+                emit();
+            }
+        }
+
+        void finish() {
+            if (accountId != null && sinceSnapshot > 0) {
+                emit();
+            }
+        }
+
+        List<Object[]> snapshots() {
+            return snapshots;
+        }
+
+        private void emit() {
+            snapshots.add(new Object[]{accountId, lastLegId, balance, lastCreatedAt});
+            sinceSnapshot = 0;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package ua.yarynych.apiaccountmanagement.service.ledger;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ua.yarynych.apiaccountmanagement.entity.BankAccount;
+import ua.yarynych.apiaccountmanagement.entity.exceptions.DatabaseNotFoundException;
+import ua.yarynych.apiaccountmanagement.repository.BankAccountRepository;
+import ua.yarynych.apiaccountmanagement.service.AccountStripes;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Balance snapshots over the journal. A snapshot row holds an account's balance after every leg up to
+ * {@code last_leg_id}, so the balance at any moment is the latest snapshot before it plus a replay of
+ * the few legs that follow. Each node counts the legs it appends per account and snapshots an account
+ * once it has seen {@code ledger.snapshots.every-legs} legs for it.
+ * <p>
+ * A snapshot is taken with the account row and its stripes locked, so no operation on the account is in
+ * flight and the journal can be compared with the balance on {@code bank_accounts}; a difference is logged
+ * and counted but not corrected.
+ */
+@Log4j2
+@Service
+@RequiredArgsConstructor
+public class LedgerSnapshots {
+
+    private static final String LATEST_SQL =
+            "SELECT last_leg_id, balance_minor FROM account_snapshots WHERE account_id = ? ORDER BY last_leg_id DESC LIMIT 1";
+    private static final String LATEST_BEFORE_SQL =
+            "SELECT last_leg_id, balance_minor FROM account_snapshots WHERE account_id = ? AND as_of <= ? ORDER BY last_leg_id DESC LIMIT 1";
+    private static final String TAIL_SQL =
+            "SELECT COALESCE(MAX(id), 0), COALESCE(SUM(amount_minor), 0), MAX(created_at) FROM journal_legs WHERE account_id = ? AND id > ?";
+    private static final String REPLAY_SQL =
+            "SELECT COALESCE(SUM(amount_minor), 0) FROM journal_legs WHERE account_id = ? AND id > ? AND created_at <= ?";
+    static final String INSERT_SQL = "INSERT INTO account_snapshots (account_id, last_leg_id, balance_minor, as_of) VALUES (?, ?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE balance_minor = VALUES(balance_minor), as_of = VALUES(as_of)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final BankAccountRepository bankAccountRepository;
+    private final AccountStripes accountStripes;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${ledger.snapshots.every-legs:1000}")
+    private int everyLegs = 1000;
+    @Value("${ledger.snapshots.max-tracked-accounts:100000}")
+    private int maxTrackedAccounts = 100000;
+
+    private final Map<Long, AtomicInteger> legsSinceSnapshot = new ConcurrentHashMap<>();
+
+    void recordLeg(Long accountId) {
+        AtomicInteger count = legsSinceSnapshot.get(accountId);
+        if (count == null) {
+            if (legsSinceSnapshot.size() >= maxTrackedAccounts) {
+                return;
+            }
+            count = legsSinceSnapshot.computeIfAbsent(accountId, id -> new AtomicInteger());
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Balance of the account as of {@code at}: the latest snapshot taken before it plus the legs after it.
+     */
+    public long balanceAt(Long accountId, LocalDateTime at) {
+        Timestamp until = Timestamp.valueOf(at);
+        Snapshot from = latest(LATEST_BEFORE_SQL, accountId, until);
+
+        Long replayed = jdbcTemplate.queryForObject(REPLAY_SQL, Long.class, accountId, from.lastLegId(), until);
+        return Math.addExact(from.balanceMinor(), replayed == null ? 0 : replayed);
+    }
+
+    @Scheduled(fixedDelayString = "${ledger.snapshots.interval-ms:60000}")
+    public void snapshotDue() {
+        List<Long> due = new ArrayList<>();
+        legsSinceSnapshot.forEach((accountId, count) -> {
+            if (count.get() >= everyLegs) {
+                due.add(accountId);
+            }
+        });
+
+        for (Long accountId : due) {
+            legsSinceSnapshot.remove(accountId);
+            try {
+                snapshot(accountId);
+            } catch (DatabaseNotFoundException e) {
+                log.debug("Account {} was closed before its snapshot", accountId);
+            } catch (RuntimeException e) {
+                log.warn("Could not snapshot account {}", accountId, e);
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot covering every leg of the account so far and checks it against the stored balance.
+     * Returns false when there was nothing new to cover.
+     */
+    public boolean snapshot(Long accountId) {
+        return Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            BankAccount account = bankAccountRepository.findByIdForUpdate(accountId)
+                    .orElseThrow(() -> new DatabaseNotFoundException("Account not found"));
+            long stripes = accountStripes.lockStripes(accountId);
+
+            Snapshot from = latest(LATEST_SQL, accountId);
+            Tail tail = jdbcTemplate.queryForObject(TAIL_SQL,
+                    (row, index) -> new Tail(row.getLong(1), row.getLong(2), row.getTimestamp(3)), accountId, from.lastLegId());
+            if (tail == null || tail.lastLegId() == 0) {
+                return false;
+            }
+
+            long balance = Math.addExact(from.balanceMinor(), tail.sumMinor());
+            long projected = Math.addExact(account.getAmountMinor(), stripes);
+            if (balance != projected) {
+                meterRegistry.counter("ledger.projection.mismatch").increment();
+                log.warn("Account {} balance {} differs from its journal balance {} at leg {}", accountId, projected, balance, tail.lastLegId());
+            }
+
+            jdbcTemplate.update(INSERT_SQL, accountId, tail.lastLegId(), balance, tail.lastCreatedAt());
+            meterRegistry.counter("ledger.snapshots.taken").increment();
+            return true;
+        }));
+    }
+
+    private Snapshot latest(String sql, Object... args) {
+        List<Snapshot> found = jdbcTemplate.query(sql, (row, index) -> new Snapshot(row.getLong(1), row.getLong(2)), args);
+        return found.isEmpty() ? new Snapshot(0, 0) : found.get(0);
+    }
+
+    private record Snapshot(long lastLegId, long balanceMinor) {
+    }
+
+    private record Tail(long lastLegId, long sumMinor, Timestamp lastCreatedAt) {
+    }
+}
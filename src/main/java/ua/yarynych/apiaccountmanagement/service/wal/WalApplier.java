@@ -0,0 +1,154 @@
+package ua.yarynych.apiaccountmanagement.service.wal;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import ua.yarynych.apiaccountmanagement.entity.exceptions.DatabaseNotFoundException;
+import ua.yarynych.apiaccountmanagement.service.TransactionsService;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Applies logged deposits to the database in log order, a batch per transaction. The highest applied
+ * sequence is stored in {@code wal_applied} in the same transaction, so records replayed after a restart
+ * are applied exactly once.
+ * <p>
+ * A deposit whose account was deleted can never be applied; it is logged and skipped. Every other
+ * failure, such as a busy account or the database being unreachable, is retried until it succeeds,
+ * because the deposit has already been acknowledged.
+ */
+@Log4j2
+@Service
+@RequiredArgsConstructor
+public class WalApplier {
+
+    private static final String READ_SQL = "SELECT last_sequence FROM wal_applied WHERE node_id = ?";
+    static final String MARK_SQL = "INSERT INTO wal_applied (node_id, last_sequence) VALUES (?, ?) "
+            + "ON DUPLICATE KEY UPDATE last_sequence = GREATEST(last_sequence, VALUES(last_sequence))";
+
+    private final WriteAheadLog writeAheadLog;
+    private final TransactionsService transactionsService;
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${transactions.wal.node-id:local}")
+    private String nodeId = "local";
+    @Value("${transactions.wal.apply-batch-size:500}")
+    private int batchSize = 500;
+    @Value("${transactions.wal.retry-interval-ms:1000}")
+    private long retryIntervalMs = 1000;
+
+    private Thread applier;
+    private volatile boolean running;
+    private Counter appliedRecords;
+    private Counter skippedRecords;
+    private Counter retries;
+
+    /**
+     * Replays what earlier runs left in the log, then starts applying new records.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!writeAheadLog.isEnabled()) {
+            return;
+        }
+
+        appliedRecords = meterRegistry.counter("wal.apply.records");
+        skippedRecords = meterRegistry.counter("wal.apply.skipped");
+        retries = meterRegistry.counter("wal.apply.retries");
+        running = true;
+
+        Long stored = jdbcTemplate.query(READ_SQL, row -> row.next() ? row.getLong(1) : 0L, nodeId);
+        long alreadyApplied = stored == null ? 0 : stored;
+        List<WalRecord> recovered = writeAheadLog.recovered();
+        writeAheadLog.applied(alreadyApplied, accountIds(recovered));
+
+        List<WalRecord> replay = recovered.stream().filter(record -> record.sequence() > alreadyApplied).toList();
+        for (int from = 0; from < replay.size(); from += batchSize) {
+            apply(replay.subList(from, Math.min(replay.size(), from + batchSize)));
+        }
+        if (!replay.isEmpty()) {
+            log.info("Replayed {} deposits from the write-ahead log", replay.size());
+        }
+
+        applier = new Thread(this::run, "wal-applier");
+        applier.setDaemon(true);
+        applier.start();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        if (applier != null) {
+            applier.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                List<WalRecord> batch = writeAheadLog.takeDurable(batchSize, 100);
+                if (!batch.isEmpty()) {
+                    apply(batch);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (CancellationException e) {
+            // what is left in the log is replayed on the next start
+        }
+    }
+
+    void apply(List<WalRecord> batch) {
+        long last = batch.get(batch.size() - 1).sequence();
+        while (true) {
+            if (!running) {
+                throw new CancellationException("Write-ahead log applier stopped");
+            }
+            try {
+                transactionsService.applyLoggedDeposits(batch, () -> jdbcTemplate.update(MARK_SQL, nodeId, last));
+                appliedRecords.increment(batch.size());
+                break;
+            } catch (DatabaseNotFoundException e) {
+                if (batch.size() > 1) {
+                    // the transaction was rolled back: apply one by one to find the deposit that fails
+                    batch.forEach(record -> apply(List.of(record)));
+                    return;
+                }
+                log.error("Skipping logged deposit {} that cannot be applied", batch.get(0), e);
+                skippedRecords.increment();
+                jdbcTemplate.update(MARK_SQL, nodeId, last);
+                break;
+            } catch (RuntimeException e) {
+                log.warn("Could not apply {} logged deposits, retrying in {} ms", batch.size(), retryIntervalMs, e);
+                retries.increment();
+                sleep();
+            }
+        }
+        writeAheadLog.applied(last, accountIds(batch));
+    }
+
+    private void sleep() {
+        try {
+            Thread.sleep(retryIntervalMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Write-ahead log applier interrupted");
+        }
+    }
+
+    private static Set<Long> accountIds(List<WalRecord> records) {
+        return records.stream().map(WalRecord::accountId).collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,94 @@
+package ua.yarynych.apiaccountmanagement.service.wal;
+
+import ua.yarynych.apiaccountmanagement.entity.enums.Currency;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32C;
+
+/**
+ * A deposit acknowledged from the write-ahead log and not necessarily applied to the database yet.
+ * <p>
+ * On disk a record is {@code [int length][int crc32c][body]}, where the checksum covers the body.
+ * A zero length marks the end of the written part of a segment.
+ */
+public record WalRecord(long sequence, long accountId, Long userId, long amountMinor, Currency currency,
+                        String description, long createdAtMillis) {
+
+    static final int HEADER_BYTES = 8;
+    private static final int FIXED_BODY_BYTES = 8 + 8 + 8 + 8 + 1 + 8 + 2;
+
+    int size() {
+        return HEADER_BYTES + FIXED_BODY_BYTES + descriptionBytes().length;
+    }
+
+    /**
+     * Writes the record at the buffer's position. The length goes in last, so a record whose write was
+     * torn is either invisible or fails its checksum.
+     */
+    void writeTo(ByteBuffer buffer) {
+        byte[] text = descriptionBytes();
+        int start = buffer.position();
+        int bodyStart = start + HEADER_BYTES;
+
+        buffer.position(bodyStart);
+        buffer.putLong(sequence);
+        buffer.putLong(accountId);
+        buffer.putLong(userId == null ? -1 : userId);
+        buffer.putLong(amountMinor);
+        buffer.put((byte) currency.ordinal());
+        buffer.putLong(createdAtMillis);
+        buffer.putShort((short) (description == null ? -1 : text.length));
+        buffer.put(text);
+        int end = buffer.position();
+
+        buffer.putInt(start + 4, checksum(buffer, bodyStart, end - bodyStart));
+        buffer.putInt(start, end - bodyStart);
+    }
+
+    /**
+     * Reads the record at the buffer's position and moves past it, or returns null at the end of the
+     * written part of the segment or at a record that did not survive intact.
+     */
+    static WalRecord readFrom(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_BYTES) {
+            return null;
+        }
+        int start = buffer.position();
+        int length = buffer.getInt(start);
+        if (length < FIXED_BODY_BYTES || length > buffer.remaining() - HEADER_BYTES) {
+            return null;
+        }
+        int bodyStart = start + HEADER_BYTES;
+        if (buffer.getInt(start + 4) != checksum(buffer, bodyStart, length)) {
+            return null;
+        }
+
+        buffer.position(bodyStart);
+        long sequence = buffer.getLong();
+        long accountId = buffer.getLong();
+        long userId = buffer.getLong();
+        long amountMinor = buffer.getLong();
+        Currency currency = Currency.values()[buffer.get()];
+        long createdAtMillis = buffer.getLong();
+        short textLength = buffer.getShort();
+        String description = null;
+        if (textLength >= 0) {
+            byte[] text = new byte[textLength];
+            buffer.get(text);
+            description = new String(text, StandardCharsets.UTF_8);
+        }
+        buffer.position(bodyStart + length);
+        return new WalRecord(sequence, accountId, userId < 0 ? null : userId, amountMinor, currency, description, createdAtMillis);
+    }
+
+    private byte[] descriptionBytes() {
+        return description == null ? new byte[0] : description.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int checksum(ByteBuffer buffer, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(offset, length));
+        return (int) crc.getValue();
+    }
+}
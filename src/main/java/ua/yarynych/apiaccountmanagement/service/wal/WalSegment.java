@@ -0,0 +1,119 @@
+package ua.yarynych.apiaccountmanagement.service.wal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One fixed-size segment file of the write-ahead log, mapped into memory. Records are appended by a single
+ * writer thread and become durable when {@link #force()} returns. Segment files are named after the
+ * sequence of their first record so they sort in log order.
+ */
+final class WalSegment {
+
+    static final String SUFFIX = ".wal";
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long firstSequence;
+    private volatile long lastSequence;
+
+    private WalSegment(Path path, FileChannel channel, MappedByteBuffer buffer, long firstSequence) {
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.firstSequence = firstSequence;
+        this.lastSequence = firstSequence - 1;
+    }
+
+    static WalSegment create(Path directory, long firstSequence, int sizeBytes) {
+        return open(directory.resolve(String.format("%020d%s", firstSequence, SUFFIX)), firstSequence, sizeBytes);
+    }
+
+    /**
+     * Maps an existing segment and reads back every intact record, leaving the segment positioned after
+     * the last one.
+     */
+    static WalSegment recover(Path path, int sizeBytes, List<WalRecord> into) {
+        String name = path.getFileName().toString();
+        WalSegment segment = open(path, Long.parseLong(name.substring(0, name.length() - SUFFIX.length())), sizeBytes);
+        WalRecord record;
+        while ((record = WalRecord.readFrom(segment.buffer)) != null) {
+            into.add(record);
+            segment.lastSequence = record.sequence();
+        }
+        return segment;
+    }
+
+    private static WalSegment open(Path path, long firstSequence, int sizeBytes) {
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long size = Math.max(sizeBytes, channel.size());
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new WalSegment(path, channel, buffer, firstSequence);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open write-ahead log segment " + path, e);
+        }
+    }
+
+    /**
+     * Returns false, without writing anything, when the record does not fit.
+     */
+    boolean append(WalRecord record) {
+        // keep room for the zero length that ends the segment
+        if (buffer.remaining() < record.size() + 4) {
+            return false;
+        }
+        record.writeTo(buffer);
+        lastSequence = record.sequence();
+        return true;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    boolean isEmpty() {
+        return lastSequence < firstSequence;
+    }
+
+    long firstSequence() {
+        return firstSequence;
+    }
+
+    long lastSequence() {
+        return lastSequence;
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close write-ahead log segment " + path, e);
+        }
+    }
+
+    void delete() {
+        close();
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not delete write-ahead log segment " + path, e);
+        }
+    }
+
+    static List<Path> list(Path directory) {
+        try (var files = Files.list(directory)) {
+            return new ArrayList<>(files.filter(file -> file.getFileName().toString().endsWith(SUFFIX)).sorted().toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not list write-ahead log segments in " + directory, e);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package ua.yarynych.apiaccountmanagement.service.wal;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ua.yarynych.apiaccountmanagement.entity.enums.Currency;
+import ua.yarynych.apiaccountmanagement.entity.exceptions.ConcurrentUpdateException;
+import ua.yarynych.apiaccountmanagement.entity.exceptions.TooManyRequestsException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Local write-ahead log for deposits. A deposit is acknowledged once its record is in a memory-mapped
+ * segment file and the segment has been forced to disk; {@link WalApplier} writes it to MySQL afterwards.
+ * <p>
+ * One writer thread takes whatever has been appended since its last pass, writes it and forces the segment
+ * once for the whole group, so callers share the cost of the fsync. When a segment is full the writer forces
+ * it and continues in a new one. Segments are deleted once every record in them has been applied.
+ * <p>
+ * Only deposits go through the log: they cannot fail for lack of funds, so they can be acknowledged before
+ * the balance is known. Debits call {@link #awaitApplied} first, so they see every acknowledged deposit to
+ * their accounts.
+ */
+@Log4j2
+@Service
+@RequiredArgsConstructor
+public class WriteAheadLog {
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${transactions.wal.enabled:false}")
+    private boolean enabled;
+    @Value("${transactions.wal.directory:wal}")
+    private String directory = "wal";
+    @Value("${transactions.wal.segment-bytes:67108864}")
+    private int segmentBytes = 64 * 1024 * 1024;
+    @Value("${transactions.wal.queue-capacity:10000}")
+    private int queueCapacity = 10000;
+    @Value("${transactions.wal.max-group:512}")
+    private int maxGroup = 512;
+    @Value("${transactions.wal.apply-wait-ms:5000}")
+    private long applyWaitMs = 5000;
+
+    private final Deque<WalSegment> segments = new ArrayDeque<>();
+    private final BlockingQueue<WalRecord> durable = new LinkedBlockingQueue<>();
+    private final Map<Long, Long> pendingByAccount = new ConcurrentHashMap<>();
+    private final Object appliedMonitor = new Object();
+
+    private BlockingQueue<Append> appends;
+    private Path path;
+    private WalSegment active;
+    private List<WalRecord> recovered = List.of();
+    private long nextSequence;
+    private volatile long durableSequence;
+    private long appliedSequence;
+    private Thread writer;
+    private volatile boolean running;
+    private DistributionSummary groupSize;
+    private Timer forceLatency;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+
+        path = Path.of(directory);
+        Files.createDirectories(path);
+
+        List<WalRecord> records = new ArrayList<>();
+        long last = 0;
+        for (Path file : WalSegment.list(path)) {
+            WalSegment segment = WalSegment.recover(file, segmentBytes, records);
+            // an empty segment is named after the sequence it would have started at: once everything before
+            // it is applied and deleted, it is all that keeps sequences from starting over at 1 and falling
+            // below the last applied sequence stored in the database
+            last = Math.max(last, segment.lastSequence());
+            if (segment.isEmpty()) {
+                segment.delete();
+            } else {
+                segments.add(segment);
+            }
+        }
+        for (WalRecord record : records) {
+            pendingByAccount.merge(record.accountId(), record.sequence(), Math::max);
+        }
+        recovered = records;
+        durableSequence = last;
+        nextSequence = last + 1;
+        active = WalSegment.create(path, nextSequence, segmentBytes);
+        segments.add(active);
+
+        appends = new ArrayBlockingQueue<>(queueCapacity);
+        groupSize = DistributionSummary.builder("wal.group.size").register(meterRegistry);
+        forceLatency = Timer.builder("wal.force.latency").register(meterRegistry);
+        Gauge.builder("wal.queue.depth", appends, BlockingQueue::size).register(meterRegistry);
+        Gauge.builder("wal.apply.lag", durable, BlockingQueue::size).register(meterRegistry);
+
+        running = true;
+        writer = new Thread(this::write, "wal-writer");
+        writer.setDaemon(true);
+        writer.start();
+        log.info("Write-ahead log opened in {} with {} unapplied records from earlier runs", path.toAbsolutePath(), records.size());
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+        synchronized (segments) {
+            segments.forEach(WalSegment::close);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Appends a deposit and returns a future that completes once it is on disk.
+     */
+    public CompletableFuture<WalRecord> append(long accountId, Long userId, long amountMinor, Currency currency, String description) {
+        if (!running) {
+            throw new IllegalStateException("Write-ahead log is not running");
+        }
+        if (description != null && description.getBytes(StandardCharsets.UTF_8).length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Description is too long");
+        }
+
+        Append append;
+        synchronized (this) {
+            WalRecord record = new WalRecord(nextSequence, accountId, userId, amountMinor, currency, description, System.currentTimeMillis());
+            append = new Append(record, new CompletableFuture<>());
+            if (!appends.offer(append)) {
+                throw new TooManyRequestsException("Too many deposits waiting to be logged, try again later");
+            }
+            nextSequence++;
+            pendingByAccount.merge(accountId, record.sequence(), Math::max);
+        }
+        return append.future();
+    }
+
+    /**
+     * Waits until every acknowledged deposit to the given accounts has been applied to the database.
+     */
+    public void awaitApplied(Collection<Long> accountIds) {
+        if (!enabled) {
+            return;
+        }
+
+        long target = 0;
+        for (Long accountId : accountIds) {
+            target = Math.max(target, pendingByAccount.getOrDefault(accountId, 0L));
+        }
+        // deposits that are not on disk yet have not been acknowledged, so nobody can expect to see them
+        target = Math.min(target, durableSequence);
+        if (target == 0) {
+            return;
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(applyWaitMs);
+        synchronized (appliedMonitor) {
+            while (appliedSequence < target) {
+                long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (left <= 0) {
+                    throw new ConcurrentUpdateException("Deposits to the account are still being applied, try again later");
+                }
+                try {
+                    appliedMonitor.wait(left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for deposits to be applied", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records left by earlier runs, in log order. Some of them may already have been applied.
+     */
+    List<WalRecord> recovered() {
+        return recovered;
+    }
+
+    /**
+     * Takes up to {@code max} records that are on disk and waiting to be applied, in log order.
+     */
+    List<WalRecord> takeDurable(int max, long timeoutMs) throws InterruptedException {
+        WalRecord first = durable.poll(timeoutMs, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return List.of();
+        }
+        List<WalRecord> records = new ArrayList<>(Math.min(max, durable.size() + 1));
+        records.add(first);
+        durable.drainTo(records, max - 1);
+        return records;
+    }
+
+    /**
+     * Marks every record up to {@code sequence} as applied and deletes the segments that hold nothing else.
+     */
+    void applied(long sequence, Collection<Long> accountIds) {
+        synchronized (appliedMonitor) {
+            appliedSequence = Math.max(appliedSequence, sequence);
+            appliedMonitor.notifyAll();
+        }
+        for (Long accountId : accountIds) {
+            pendingByAccount.computeIfPresent(accountId, (id, pending) -> pending <= sequence ? null : pending);
+        }
+
+        synchronized (segments) {
+            // the last segment is the one being written
+            while (segments.size() > 1 && segments.peekFirst().lastSequence() <= sequence) {
+                segments.pollFirst().delete();
+            }
+        }
+    }
+
+    private void write() {
+        List<Append> group = new ArrayList<>(maxGroup);
+        while (running || !appends.isEmpty()) {
+            try {
+                Append first = appends.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                appends.drainTo(group, maxGroup - 1);
+                writeGroup(group);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                // the segment can no longer be trusted: stop taking deposits rather than acknowledge them
+                log.error("Write-ahead log failed, logged deposits are disabled until restart", e);
+                running = false;
+                group.forEach(append -> append.future().completeExceptionally(e));
+                appends.forEach(append -> append.future().completeExceptionally(e));
+                appends.clear();
+                return;
+            }
+            group.clear();
+        }
+    }
+
+    private void writeGroup(List<Append> group) {
+        long started = System.nanoTime();
+        for (Append append : group) {
+            if (!active.append(append.record())) {
+                rotate(append.record().sequence());
+                if (!active.append(append.record())) {
+                    throw new IllegalStateException("Record " + append.record().sequence() + " does not fit in a segment");
+                }
+            }
+        }
+        active.force();
+        forceLatency.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        groupSize.record(group.size());
+
+        durableSequence = group.get(group.size() - 1).record().sequence();
+        for (Append append : group) {
+            durable.add(append.record());
+            append.future().complete(append.record());
+        }
+    }
+
+    private void rotate(long firstSequence) {
+        active.force();
+        WalSegment next = WalSegment.create(path, firstSequence, segmentBytes);
+        synchronized (segments) {
+            segments.add(next);
+        }
+        active = next;
+    }
+
+    private record Append(WalRecord record, CompletableFuture<WalRecord> future) {
+    }
+}
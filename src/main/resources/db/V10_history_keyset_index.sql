@@ -0,0 +1,6 @@
+USE api_bank_db;
+
+-- Serves history pages: seek by account and (operation_date, id), filter by type and amount without
+-- touching the table rows, which are only read for the ids of the page.
+CREATE INDEX idx_operation_history_account_date
+    ON operation_history (bank_account_id, operation_date, id, operation_type, amount_minor);
@@ -0,0 +1,29 @@
+USE api_bank_db;
+
+-- Partitions operation_history by month of operation_date. Everything up to the end of the current month
+-- goes to p_initial; HistoryPartitions splits p_future into monthly partitions ahead of time and
+-- archives old ones when history.partitions.retention-months is set.
+
+-- A unique index on bank_account_id allowed one operation per account and cannot exist on a partitioned table.
+SET @unique_index = (SELECT index_name FROM information_schema.statistics
+                     WHERE table_schema = DATABASE() AND table_name = 'operation_history'
+                       AND column_name = 'bank_account_id' AND non_unique = 0 AND index_name <> 'PRIMARY' LIMIT 1);
+SET @sql = IF(@unique_index IS NULL, 'DO 0', CONCAT('ALTER TABLE operation_history DROP INDEX ', @unique_index));
+PREPARE statement FROM @sql;
+EXECUTE statement;
+DEALLOCATE PREPARE statement;
+
+-- Every unique key of a partitioned table must contain the partitioning column.
+ALTER TABLE operation_history
+    MODIFY id BIGINT NOT NULL,
+    MODIFY operation_date TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    DROP PRIMARY KEY,
+    ADD PRIMARY KEY (id, operation_date);
+
+SET @next_month = DATE_FORMAT(CURRENT_DATE + INTERVAL 1 MONTH, '%Y-%m-01 00:00:00');
+SET @sql = CONCAT('ALTER TABLE operation_history PARTITION BY RANGE (UNIX_TIMESTAMP(operation_date)) (',
+                  'PARTITION p_initial VALUES LESS THAN (UNIX_TIMESTAMP(''', @next_month, ''')), ',
+                  'PARTITION p_future VALUES LESS THAN MAXVALUE)');
+PREPARE statement FROM @sql;
+EXECUTE statement;
+DEALLOCATE PREPARE statement;
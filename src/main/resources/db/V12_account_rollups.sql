@@ -0,0 +1,40 @@
+USE api_bank_db;
+
+-- Per-account totals by day, kept up to date by OperationHistoryWriter, and by month for days folded by
+-- AccountRollups. Balances are in minor units of the account currency; days without operations have no row.
+
+CREATE TABLE IF NOT EXISTS account_daily_rollups (
+    bank_account_id BIGINT NOT NULL,
+    day DATE NOT NULL,
+    deposits_minor BIGINT NOT NULL,
+    withdrawals_minor BIGINT NOT NULL,
+    operations INT NOT NULL,
+    opening_minor BIGINT NOT NULL,
+    closing_minor BIGINT NOT NULL,
+    PRIMARY KEY (bank_account_id, day)
+);
+
+CREATE TABLE IF NOT EXISTS account_monthly_rollups (
+    bank_account_id BIGINT NOT NULL,
+    month DATE NOT NULL,
+    deposits_minor BIGINT NOT NULL,
+    withdrawals_minor BIGINT NOT NULL,
+    operations INT NOT NULL,
+    opening_minor BIGINT NOT NULL,
+    closing_minor BIGINT NOT NULL,
+    PRIMARY KEY (bank_account_id, month)
+);
+
+-- Days from before the rollups existed. Accounts open with a zero balance, so the running sum of the
+-- history is the balance; run this before starting the application on the new version.
+INSERT INTO account_daily_rollups (bank_account_id, day, deposits_minor, withdrawals_minor, operations, opening_minor, closing_minor)
+SELECT bank_account_id, day, deposits, withdrawals, operations,
+       SUM(deposits - withdrawals) OVER running - (deposits - withdrawals),
+       SUM(deposits - withdrawals) OVER running
+FROM (SELECT bank_account_id, DATE(operation_date) AS day,
+             SUM(IF(operation_type = 'DEPOSIT', amount_minor, 0)) AS deposits,
+             SUM(IF(operation_type = 'WITHDRAW', amount_minor, 0)) AS withdrawals,
+             COUNT(*) AS operations
+      FROM operation_history
+      GROUP BY bank_account_id, DATE(operation_date)) days
+WINDOW running AS (PARTITION BY bank_account_id ORDER BY day ROWS UNBOUNDED PRECEDING);
@@ -0,0 +1,5 @@
+USE api_bank_db;
+
+-- HistoryArchive finds the oldest month still in the database and reads and deletes operation history one
+-- month at a time across all accounts.
+CREATE INDEX idx_operation_history_date ON operation_history (operation_date);
@@ -0,0 +1,11 @@
+USE api_bank_db;
+
+-- Users whose every token issued up to revoked_at is invalid, such as deleted users. Kept until the
+-- longest-lived token issued before the revocation has expired.
+CREATE TABLE IF NOT EXISTS revoked_users (
+    user_id BIGINT PRIMARY KEY,
+    revoked_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    expires_at TIMESTAMP NOT NULL,
+    INDEX idx_revoked_users_revoked_at (revoked_at),
+    INDEX idx_revoked_users_expires_at (expires_at)
+);
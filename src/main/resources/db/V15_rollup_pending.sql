@@ -0,0 +1,12 @@
+USE api_bank_db;
+
+-- History rows not yet added to account_daily_rollups. Written with the history, in the same transaction,
+-- and deleted by AccountRollups in the transaction that adds them, so every row is counted exactly once
+-- without the money transaction ever touching a shared day row.
+CREATE TABLE IF NOT EXISTS account_rollup_pending (
+    history_id BIGINT PRIMARY KEY,
+    bank_account_id BIGINT NOT NULL,
+    operation_type VARCHAR(50) NOT NULL,
+    amount_minor BIGINT NOT NULL,
+    operation_date TIMESTAMP NOT NULL
+);
@@ -0,0 +1,12 @@
+USE api_bank_db;
+
+ALTER TABLE users DROP COLUMN token;
+
+CREATE TABLE IF NOT EXISTS revoked_sessions (
+    session_id VARCHAR(36) PRIMARY KEY,
+    user_id INT NOT NULL,
+    revoked_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    expires_at TIMESTAMP NOT NULL,
+    INDEX idx_revoked_sessions_revoked_at (revoked_at),
+    INDEX idx_revoked_sessions_expires_at (expires_at)
+);
\ No newline at end of file
@@ -0,0 +1,3 @@
+USE api_bank_db;
+
+ALTER TABLE bank_accounts ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
@@ -0,0 +1,10 @@
+USE api_bank_db;
+
+CREATE TABLE IF NOT EXISTS idempotency_keys (
+    record_key VARCHAR(100) PRIMARY KEY,
+    fingerprint CHAR(44) NOT NULL,
+    completed BOOLEAN NOT NULL DEFAULT FALSE,
+    response MEDIUMTEXT,
+    expires_at TIMESTAMP NOT NULL,
+    INDEX idx_idempotency_keys_expires_at (expires_at)
+);
@@ -0,0 +1,9 @@
+USE api_bank_db;
+
+CREATE TABLE IF NOT EXISTS id_sequences (
+    name VARCHAR(64) PRIMARY KEY,
+    next_val BIGINT NOT NULL
+);
+
+INSERT INTO id_sequences (name, next_val)
+SELECT 'operation_history', COALESCE(MAX(id), 0) + 1 FROM operation_history;
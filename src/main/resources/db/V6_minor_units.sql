@@ -0,0 +1,14 @@
+USE api_bank_db;
+
+-- Every supported currency has two minor digits, so minor units are amount * 100.
+
+ALTER TABLE bank_accounts ADD COLUMN amount_minor BIGINT NOT NULL DEFAULT 0;
+UPDATE bank_accounts SET amount_minor = ROUND(amount * 100);
+ALTER TABLE bank_accounts DROP COLUMN amount;
+
+ALTER TABLE operation_history
+    ADD COLUMN amount_minor BIGINT NOT NULL DEFAULT 0,
+    ADD COLUMN currency VARCHAR(3) NULL;
+UPDATE operation_history SET amount_minor = ROUND(amount * 100);
+UPDATE operation_history h JOIN bank_accounts a ON a.id = h.bank_account_id SET h.currency = a.currency;
+ALTER TABLE operation_history DROP COLUMN amount;
@@ -0,0 +1,13 @@
+USE api_bank_db;
+
+-- A striped account's balance is bank_accounts.amount_minor plus the sum of its stripes.
+
+ALTER TABLE bank_accounts ADD COLUMN stripe_count INT NOT NULL DEFAULT 0;
+
+CREATE TABLE IF NOT EXISTS bank_account_stripes (
+    bank_account_id INT NOT NULL,
+    stripe INT NOT NULL,
+    amount_minor BIGINT NOT NULL DEFAULT 0,
+    PRIMARY KEY (bank_account_id, stripe),
+    FOREIGN KEY (bank_account_id) REFERENCES bank_accounts(id) ON DELETE CASCADE
+);
@@ -0,0 +1,40 @@
+USE api_bank_db;
+
+-- Append-only double-entry journal. Legs of an entry sum to zero per currency; a leg is posted either
+-- to a customer account or to a clearing account (CASH, FX).
+
+CREATE TABLE IF NOT EXISTS journal_entries (
+    id BIGINT PRIMARY KEY,
+    entry_type VARCHAR(16) NOT NULL,
+    user_id INT NULL,
+    description TEXT,
+    created_at DATETIME(6) NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS journal_legs (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    entry_id BIGINT NOT NULL,
+    leg SMALLINT NOT NULL,
+    account_id INT NULL,
+    clearing VARCHAR(8) NULL,
+    currency VARCHAR(3) NOT NULL,
+    amount_minor BIGINT NOT NULL,
+    created_at DATETIME(6) NOT NULL,
+    UNIQUE KEY uk_journal_legs_entry (entry_id, leg),
+    KEY idx_journal_legs_account (account_id, id)
+);
+
+CREATE TABLE IF NOT EXISTS account_snapshots (
+    account_id INT NOT NULL,
+    last_leg_id BIGINT NOT NULL,
+    balance_minor BIGINT NOT NULL,
+    as_of DATETIME(6) NOT NULL,
+    PRIMARY KEY (account_id, last_leg_id)
+);
+
+INSERT INTO id_sequences (name, next_val) VALUES ('journal_entries', 1);
+
+-- Opening snapshots: balances from before the journal existed.
+INSERT INTO account_snapshots (account_id, last_leg_id, balance_minor, as_of)
+SELECT a.id, 0, a.amount_minor + COALESCE((SELECT SUM(s.amount_minor) FROM bank_account_stripes s WHERE s.bank_account_id = a.id), 0), NOW(6)
+FROM bank_accounts a;
@@ -0,0 +1,6 @@
+USE api_bank_db;
+
+CREATE TABLE IF NOT EXISTS wal_applied (
+    node_id VARCHAR(64) PRIMARY KEY,
+    last_sequence BIGINT NOT NULL
+);
@@ -0,0 +1,141 @@
+package ua.yarynych.apiaccountmanagement.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import ua.yarynych.apiaccountmanagement.entity.exceptions.TooManyRequestsException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.BiFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AccountLanesTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private AccountLanes lanes;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        lanes = new AccountLanes(meterRegistry);
+        ReflectionTestUtils.setField(lanes, "enabled", true);
+        ReflectionTestUtils.setField(lanes, "laneCount", 2);
+        ReflectionTestUtils.setField(lanes, "queueCapacity", 100);
+        lanes.init();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        lanes.shutdown();
+    }
+
+    @Test
+    void testWaitingDepositsForSameAccountAreCoalescedInOrder() throws Exception {
+        CountDownLatch blocked = blockLane(2L);
+        List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            results.add(lanes.submitCoalescing(2L, "deposit", i, (accountId, commands) -> {
+                batches.add(List.copyOf(commands));
+                return commands.stream().map(amount -> amount * 10).toList();
+            }));
+        }
+        blocked.countDown();
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals((i + 1) * 10, results.get(i).get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(List.of(List.of(1, 2, 3, 4, 5)), batches);
+        assertEquals(5.0, meterRegistry.get("accounts.lanes.coalesced").summary().max());
+    }
+
+    @Test
+    void testOtherOperationsOnAccountAreBarriers() throws Exception {
+        CountDownLatch blocked = blockLane(2L);
+        List<String> applied = new CopyOnWriteArrayList<>();
+
+        CompletableFuture<String> first = lanes.submitCoalescing(2L, "deposit", "d1", record(applied));
+        CompletableFuture<String> withdrawal = lanes.submit(2L, () -> {
+            applied.add("[w]");
+            return "w";
+        });
+        CompletableFuture<String> second = lanes.submitCoalescing(2L, "deposit", "d2", record(applied));
+        CompletableFuture<String> third = lanes.submitCoalescing(2L, "deposit", "d3", record(applied));
+        blocked.countDown();
+
+        CompletableFuture.allOf(first, withdrawal, second, third).get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("[d1]", "[w]", "[d2, d3]"), applied);
+    }
+
+    @Test
+    void testFailedBatchIsRetriedOneByOne() throws Exception {
+        CountDownLatch blocked = blockLane(2L);
+
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int amount : new int[]{1, -1, 3}) {
+            results.add(lanes.submitCoalescing(2L, "deposit", amount, (accountId, commands) -> {
+                if (commands.contains(-1)) {
+                    throw new IllegalArgumentException("Deposit amount must be greater than zero");
+                }
+                return commands;
+            }));
+        }
+        blocked.countDown();
+
+        assertEquals(1, results.get(0).get(5, TimeUnit.SECONDS));
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> results.get(1).get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalArgumentException.class, failure.getCause());
+        assertEquals(3, results.get(2).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testAwaitRethrowsOperationException() {
+        CompletableFuture<Object> failed = lanes.submit(1L, () -> {
+            throw new IllegalStateException("Insufficient funds");
+        });
+
+        IllegalStateException thrown = assertThrows(IllegalStateException.class, () -> AccountLanes.await(failed));
+        assertEquals("Insufficient funds", thrown.getMessage());
+    }
+
+    @Test
+    void testFullLaneRejectsWithTooManyRequests() throws Exception {
+        ReflectionTestUtils.setField(lanes, "queueCapacity", 1);
+        lanes.shutdown();
+        lanes.init();
+        CountDownLatch blocked = blockLane(2L);
+
+        lanes.submit(2L, () -> "queued");
+        assertThrows(TooManyRequestsException.class, () -> lanes.submit(2L, () -> "rejected"));
+        blocked.countDown();
+    }
+
+    private CountDownLatch blockLane(Long accountId) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        lanes.submit(accountId, () -> {
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return release;
+    }
+
+    private static BiFunction<Long, List<String>, List<String>> record(List<String> applied) {
+        return (accountId, commands) -> {
+            applied.add(commands.toString());
+            return commands;
+        };
+    }
+}
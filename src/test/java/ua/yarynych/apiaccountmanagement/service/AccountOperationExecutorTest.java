@@ -0,0 +1,205 @@
+package ua.yarynych.apiaccountmanagement.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import ua.yarynych.apiaccountmanagement.entity.BankAccount;
+import ua.yarynych.apiaccountmanagement.entity.enums.LockingMode;
+import ua.yarynych.apiaccountmanagement.entity.exceptions.ConcurrentUpdateException;
+import ua.yarynych.apiaccountmanagement.entity.exceptions.DatabaseNotFoundException;
+import ua.yarynych.apiaccountmanagement.repository.BankAccountRepository;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+class AccountOperationExecutorTest {
+
+    private BankAccountRepository bankAccountRepository;
+    private TransactionTemplate transactionTemplate;
+    private SimpleMeterRegistry meterRegistry;
+    private AccountOperationExecutor executor;
+    private final Map<Long, BankAccount> table = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        bankAccountRepository = mock(BankAccountRepository.class, withSettings().stubOnly());
+        transactionTemplate = mock(TransactionTemplate.class, withSettings().stubOnly());
+        meterRegistry = new SimpleMeterRegistry();
+
+        when(bankAccountRepository.findByIdForUpdate(anyLong()))
+                .thenAnswer(invocation -> Optional.ofNullable(table.get(invocation.<Long>getArgument(0))));
+        when(transactionTemplate.execute(any()))
+                .thenAnswer(invocation -> invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+
+        executor = new AccountOperationExecutor(bankAccountRepository, transactionTemplate, meterRegistry);
+        ReflectionTestUtils.setField(executor, "stripeCount", 16);
+        executor.init();
+
+        for (long id = 1; id <= 4; id++) {
+            table.put(id, account(id, 1000));
+        }
+    }
+
+    @Test
+    void testRowsAreLockedInAscendingIdOrder() {
+        BankAccountRepository ordered = mock(BankAccountRepository.class);
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        when(ordered.findByIdForUpdate(anyLong()))
+                .thenAnswer(invocation -> Optional.of(account(invocation.getArgument(0), 0)));
+        when(transactionTemplate.execute(any()))
+                .thenAnswer(invocation -> invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        AccountOperationExecutor orderedExecutor = new AccountOperationExecutor(ordered, transactionTemplate, new SimpleMeterRegistry());
+        orderedExecutor.init();
+
+        Map<Long, BankAccount> locked = orderedExecutor.execute("test", List.of(3L, 1L, 2L, 1L), accounts -> accounts);
+
+        InOrder inOrder = inOrder(ordered);
+        inOrder.verify(ordered).findByIdForUpdate(1L);
+        inOrder.verify(ordered).findByIdForUpdate(2L);
+        inOrder.verify(ordered).findByIdForUpdate(3L);
+        assertEquals(List.of(1L, 2L, 3L), new ArrayList<>(locked.keySet()));
+    }
+
+    @Test
+    void testMissingAccountReleasesLocks() {
+        assertThrows(DatabaseNotFoundException.class, () -> executor.execute("test", List.of(1L, 99L), accounts -> accounts));
+
+        assertTimeoutPreemptively(Duration.ofSeconds(1), () -> executor.execute("test", List.of(1L, 2L), accounts -> accounts));
+    }
+
+    @Test
+    void testOpposingTransfersDoNotLoseUpdatesOrDeadlock() {
+        int threads = 8;
+        int transfersPerThread = 2000;
+
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                long seed = t;
+                futures.add(pool.submit(() -> {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < transfersPerThread; i++) {
+                        long from = 1 + random.nextInt(4);
+                        long to = 1 + (from + random.nextInt(3)) % 4;
+                        executor.execute("transfer", List.of(from, to), accounts -> {
+                            BankAccount source = accounts.get(from);
+                            BankAccount target = accounts.get(to);
+                            long sourceBalance = source.getAmountMinor();
+                            long targetBalance = target.getAmountMinor();
+                            Thread.yield();
+                            source.setAmountMinor(sourceBalance - 1);
+                            target.setAmountMinor(targetBalance + 1);
+                            return null;
+                        });
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            pool.shutdown();
+        });
+
+        long total = table.values().stream().mapToLong(BankAccount::getAmountMinor).sum();
+        assertEquals(4000L, total);
+    }
+
+    @Test
+    void testBusyAccountIsReportedAsConcurrentUpdate() throws Exception {
+        ReflectionTestUtils.setField(executor, "waitMs", 10L);
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        Future<?> holder = pool.submit(() -> executor.execute("test", 1L, account -> {
+            locked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }));
+
+        try {
+            assertTrue(locked.await(5, TimeUnit.SECONDS));
+            assertThrows(ConcurrentUpdateException.class, () -> executor.execute("test", 1L, account -> account));
+        } finally {
+            release.countDown();
+            holder.get();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testExecuteAllLocksRowsWithOneQueryAndSkipsMissing() {
+        when(bankAccountRepository.findAllByIdForUpdate(List.of(1L, 2L, 99L)))
+                .thenReturn(List.of(table.get(1L), table.get(2L)));
+
+        Map<Long, BankAccount> locked = executor.executeAll("batch", Set.of(99L, 2L, 1L), accounts -> accounts);
+
+        assertEquals(Set.of(1L, 2L), locked.keySet());
+    }
+
+    @Test
+    void testOptimisticModeRetriesOnConflict() {
+        useOptimisticMode();
+        when(bankAccountRepository.findById(anyLong()))
+                .thenAnswer(invocation -> Optional.ofNullable(table.get(invocation.<Long>getArgument(0))));
+        int[] calls = {0};
+        when(transactionTemplate.execute(any())).thenAnswer(invocation -> {
+            Object result = invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null);
+            if (++calls[0] < 3) {
+                throw new ObjectOptimisticLockingFailureException(BankAccount.class, 1L);
+            }
+            return result;
+        });
+
+        BankAccount account = executor.execute("deposit", 1L, locked -> locked);
+
+        assertEquals(1L, account.getId());
+        assertEquals(3, calls[0]);
+        assertEquals(2.0, meterRegistry.get("accounts.operations.conflicts").tag("operation", "deposit").counter().count());
+        assertEquals(2.0, meterRegistry.get("accounts.operations.retries").tag("operation", "deposit").counter().count());
+        verify(bankAccountRepository, never()).findByIdForUpdate(anyLong());
+    }
+
+    @Test
+    void testOptimisticModeGivesUpAfterRetryBudget() {
+        useOptimisticMode();
+        when(transactionTemplate.execute(any())).thenThrow(new ObjectOptimisticLockingFailureException(BankAccount.class, 1L));
+
+        assertThrows(ConcurrentUpdateException.class, () -> executor.execute("withdraw", 1L, locked -> locked));
+        assertEquals(3.0, meterRegistry.get("accounts.operations.conflicts").tag("operation", "withdraw").counter().count());
+        assertEquals(1.0, meterRegistry.get("accounts.operations.retries.exhausted").tag("operation", "withdraw").counter().count());
+    }
+
+    private void useOptimisticMode() {
+        bankAccountRepository = mock(BankAccountRepository.class);
+        transactionTemplate = mock(TransactionTemplate.class);
+        executor = new AccountOperationExecutor(bankAccountRepository, transactionTemplate, meterRegistry);
+        ReflectionTestUtils.setField(executor, "mode", LockingMode.OPTIMISTIC);
+        ReflectionTestUtils.setField(executor, "maxAttempts", 3);
+        ReflectionTestUtils.setField(executor, "backoffBaseMs", 1L);
+        executor.init();
+    }
+
+    private static BankAccount account(Long id, int amount) {
+        BankAccount account = new BankAccount();
+        account.setId(id);
+        account.setCurrency("USD");
+        account.setAmountMinor(amount);
+        return account;
+    }
+}
@@ -0,0 +1,144 @@
+package ua.yarynych.apiaccountmanagement.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import ua.yarynych.apiaccountmanagement.entity.OperationHistory;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class AccountRollupsTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private AccountRollups accountRollups;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<Object>>getArgument(0).doInTransaction(mock(TransactionStatus.class)));
+        accountRollups = new AccountRollups(jdbcTemplate, transactionTemplate, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(accountRollups, "readCommitted", transactionTemplate);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testApplyUpsertsOneRowPerAccountAndDay() throws Exception {
+        LocalDateTime now = LocalDateTime.now();
+        accountRollups.apply(List.of(
+                operation(2L, "DEPOSIT", 500L, now),
+                operation(1L, "WITHDRAW", 200L, now),
+                operation(2L, "WITHDRAW", 100L, now),
+                operation(1L, "DEPOSIT", 1000L, now)));
+
+        ArgumentCaptor<Collection<Object>> rows = ArgumentCaptor.forClass(Collection.class);
+        ArgumentCaptor<ParameterizedPreparedStatementSetter<Object>> setter = ArgumentCaptor.forClass(ParameterizedPreparedStatementSetter.class);
+        verify(jdbcTemplate).batchUpdate(eq(AccountRollups.UPSERT_DAY_SQL), rows.capture(), anyInt(), setter.capture());
+        verify(jdbcTemplate, never()).batchUpdate(eq(AccountRollups.SHIFT_SQL), any(Collection.class), anyInt(), any(ParameterizedPreparedStatementSetter.class));
+        assertEquals(2, rows.getValue().size());
+
+        PreparedStatement statement = mock(PreparedStatement.class);
+        setter.getValue().setValues(statement, rows.getValue().iterator().next());
+        verify(statement).setLong(1, 1L);
+        verify(statement).setDate(2, Date.valueOf(now.toLocalDate()));
+        verify(statement).setLong(3, 1000L);
+        verify(statement).setLong(4, 200L);
+        verify(statement).setLong(5, 2L);
+        verify(statement).setLong(6, 800L);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testApplyShiftsLaterDaysForOperationsOfPastDay() {
+        LocalDateTime yesterday = LocalDateTime.now().minusDays(1);
+
+        accountRollups.apply(List.of(operation(1L, "DEPOSIT", 1000L, yesterday)));
+
+        verify(jdbcTemplate).batchUpdate(eq(AccountRollups.SHIFT_SQL), argThat((Collection<Object> rows) -> rows.size() == 1), anyInt(),
+                any(ParameterizedPreparedStatementSetter.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testApplyShiftsBeforeUpsertingSoDaysCreatedInTheBatchMoveOnce() {
+        LocalDateTime now = LocalDateTime.now();
+
+        accountRollups.apply(List.of(
+                operation(1L, "DEPOSIT", 1000L, now.minusDays(1)),
+                operation(1L, "DEPOSIT", 300L, now)));
+
+        // today's row, if created here, opens with yesterday's closing that already includes the late 1000:
+        // the shift has to run first so it cannot add the 1000 a second time
+        ArgumentCaptor<Collection<Object>> shifted = ArgumentCaptor.forClass(Collection.class);
+        InOrder inOrder = inOrder(jdbcTemplate);
+        inOrder.verify(jdbcTemplate).batchUpdate(eq(AccountRollups.SHIFT_SQL), shifted.capture(), anyInt(), any(ParameterizedPreparedStatementSetter.class));
+        inOrder.verify(jdbcTemplate).batchUpdate(eq(AccountRollups.UPSERT_DAY_SQL), argThat((Collection<Object> rows) -> rows.size() == 2), anyInt(),
+                any(ParameterizedPreparedStatementSetter.class));
+        assertEquals(1, shifted.getValue().size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testPendingOperationsAreAddedAndDeletedInOneTransaction() {
+        LocalDateTime now = LocalDateTime.now();
+        OperationHistory first = operation(1L, "DEPOSIT", 1000L, now);
+        OperationHistory second = operation(1L, "DEPOSIT", 300L, now);
+        first.setId(10L);
+        second.setId(11L);
+        when(jdbcTemplate.query(eq(AccountRollups.TAKE_PENDING_SQL), any(RowMapper.class), eq(500))).thenReturn(List.of(first, second));
+
+        assertEquals(2, accountRollups.applyPendingBatch());
+
+        InOrder inOrder = inOrder(jdbcTemplate);
+        inOrder.verify(jdbcTemplate).batchUpdate(eq(AccountRollups.UPSERT_DAY_SQL), argThat((Collection<Object> rows) -> rows.size() == 1), anyInt(),
+                any(ParameterizedPreparedStatementSetter.class));
+        inOrder.verify(jdbcTemplate).batchUpdate(eq(AccountRollups.DELETE_PENDING_SQL), eq(List.of(first, second)), anyInt(),
+                any(ParameterizedPreparedStatementSetter.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testNoPendingOperationsTouchNoDayRow() {
+        when(jdbcTemplate.query(eq(AccountRollups.TAKE_PENDING_SQL), any(RowMapper.class), eq(500))).thenReturn(List.of());
+
+        assertEquals(0, accountRollups.applyPendingBatch());
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), any(Collection.class), anyInt(), any(ParameterizedPreparedStatementSetter.class));
+    }
+
+    @Test
+    void testCompactKeepsDaysOfRecentMonths() {
+        when(jdbcTemplate.queryForObject(startsWith("SELECT MIN(day)"), eq(Date.class))).thenReturn(Date.valueOf(LocalDate.of(2024, 11, 20)));
+
+        accountRollups.compact(LocalDate.of(2025, 3, 15));
+
+        Date november = Date.valueOf(LocalDate.of(2024, 11, 1));
+        Date december = Date.valueOf(LocalDate.of(2024, 12, 1));
+        verify(jdbcTemplate).update(AccountRollups.COMPACT_SQL, november, december);
+        verify(jdbcTemplate).update(AccountRollups.DELETE_DAYS_SQL, november, december);
+        verify(jdbcTemplate, times(2)).update(anyString(), any(Object[].class));
+    }
+
+    private static OperationHistory operation(Long accountId, String type, long amountMinor, LocalDateTime date) {
+        return new OperationHistory(null, accountId, 7L, type, amountMinor, "USD", date, null);
+    }
+}
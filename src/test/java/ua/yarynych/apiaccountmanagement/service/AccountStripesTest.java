@@ -0,0 +1,155 @@
+package ua.yarynych.apiaccountmanagement.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import ua.yarynych.apiaccountmanagement.entity.BankAccount;
+import ua.yarynych.apiaccountmanagement.entity.dto.account.BankAccountView;
+
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class AccountStripesTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private AccountOperationExecutor accountOperations;
+    private SimpleMeterRegistry meterRegistry;
+    private AccountStripes stripes;
+    private BankAccount account;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        accountOperations = mock(AccountOperationExecutor.class);
+        meterRegistry = new SimpleMeterRegistry();
+        stripes = new AccountStripes(jdbcTemplate, accountOperations, meterRegistry);
+
+        account = new BankAccount(7L, "USD", 100L, 0L, 2);
+        when(accountOperations.execute(anyString(), eq(7L), any(Function.class)))
+                .thenAnswer(invocation -> ((Function<BankAccount, ?>) invocation.getArgument(2)).apply(account));
+    }
+
+    @Test
+    void testCreditUpdatesOneStripeWithinRange() {
+        when(jdbcTemplate.update(contains("amount_minor + ?"), eq(500L), eq(7L), anyInt())).thenReturn(1);
+
+        assertTrue(stripes.credit(account, 500L));
+
+        verify(jdbcTemplate).update(contains("amount_minor + ?"), eq(500L), eq(7L), intThat(stripe -> stripe >= 0 && stripe < 2));
+        assertEquals(100L, account.getAmountMinor());
+    }
+
+    @Test
+    void testCreditRefusesAccountWithoutStripes() {
+        account.setStripeCount(0);
+
+        assertFalse(stripes.credit(account, 500L));
+
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    void testCreditRefusesWhenStripeRowsAreGone() {
+        when(jdbcTemplate.update(contains("amount_minor + ?"), eq(500L), eq(7L), anyInt())).thenReturn(0);
+
+        assertFalse(stripes.credit(account, 500L));
+    }
+
+    @Test
+    void testDebitCoveredByAccountRowDoesNotTouchStripes() {
+        assertTrue(stripes.tryDebit(account, 60L));
+
+        assertEquals(40L, account.getAmountMinor());
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    void testDebitBorrowsFromStripesWhenAccountRowIsShort() {
+        when(jdbcTemplate.queryForList(contains("FOR UPDATE"), eq(Long.class), eq(7L))).thenReturn(List.of(50L, 70L));
+
+        assertTrue(stripes.tryDebit(account, 150L));
+
+        assertEquals(70L, account.getAmountMinor());
+        verify(jdbcTemplate).update(contains("SET amount_minor = 0"), eq(7L));
+        assertEquals(1.0, meterRegistry.get("accounts.stripes.borrowed").counter().count());
+    }
+
+    @Test
+    void testDebitAboveTotalIsRefusedWithoutChangingTotal() {
+        when(jdbcTemplate.queryForList(contains("FOR UPDATE"), eq(Long.class), eq(7L))).thenReturn(List.of(50L, 70L));
+
+        assertFalse(stripes.tryDebit(account, 300L));
+
+        assertEquals(220L, account.getAmountMinor());
+    }
+
+    @Test
+    void testTotalsReplaceOnlyStripedBalances() throws Exception {
+        BankAccountView striped = new BankAccountView(7L, "USD", 100L, 0L, 2);
+        BankAccountView plain = new BankAccountView(8L, "USD", 30L, 0L, 0);
+        ResultSet row = mock(ResultSet.class);
+        when(row.getLong(1)).thenReturn(7L);
+        when(row.getLong(2)).thenReturn(900L);
+        doAnswer(invocation -> {
+            invocation.<RowCallbackHandler>getArgument(1).processRow(row);
+            return null;
+        }).when(jdbcTemplate).query(contains("IN (?)"), any(RowCallbackHandler.class), eq(7L));
+
+        List<BankAccountView> result = stripes.withTotals(List.of(striped, plain));
+
+        assertEquals(900L, result.get(0).getAmountMinor());
+        assertEquals(100L, striped.getAmountMinor());
+        assertSame(plain, result.get(1));
+    }
+
+    @Test
+    void testConfigureFoldsOldStripesAndCreatesNewOnes() {
+        when(jdbcTemplate.queryForList(contains("FOR UPDATE"), eq(Long.class), eq(7L))).thenReturn(List.of(50L, 70L));
+
+        BankAccount result = stripes.configure(7L, 4);
+
+        assertEquals(220L, result.getAmountMinor());
+        assertEquals(4, result.getStripeCount());
+        assertTrue(stripes.isStriped(7L));
+        verify(jdbcTemplate).update(startsWith("DELETE FROM bank_account_stripes"), eq(7L));
+        verify(jdbcTemplate).batchUpdate(startsWith("INSERT INTO bank_account_stripes"), argThat((List<Object[]> rows) -> rows.size() == 4));
+    }
+
+    @Test
+    void testConfigureZeroStopsStriping() {
+        stripes.configure(7L, 3);
+        stripes.configure(7L, 0);
+
+        assertEquals(0, account.getStripeCount());
+        assertFalse(stripes.isStriped(7L));
+    }
+
+    @Test
+    void testConfigureRejectsTooManyStripes() {
+        assertThrows(IllegalArgumentException.class, () -> stripes.configure(7L, 1000));
+
+        verifyNoInteractions(accountOperations);
+    }
+
+    @Test
+    void testRebalanceFoldsOnlyAccountsWithPendingStripes() {
+        when(jdbcTemplate.queryForList(startsWith("SELECT id FROM bank_accounts"), eq(Long.class))).thenReturn(List.of(7L, 8L));
+        when(jdbcTemplate.queryForObject(startsWith("SELECT COALESCE"), eq(Long.class), eq(7L))).thenReturn(120L);
+        when(jdbcTemplate.queryForObject(startsWith("SELECT COALESCE"), eq(Long.class), eq(8L))).thenReturn(0L);
+        when(jdbcTemplate.queryForList(contains("FOR UPDATE"), eq(Long.class), eq(7L))).thenReturn(List.of(50L, 70L));
+
+        stripes.rebalance();
+
+        assertEquals(220L, account.getAmountMinor());
+        verify(accountOperations, never()).execute(anyString(), eq(8L), any(Function.class));
+        assertEquals(1.0, meterRegistry.get("accounts.stripes.folded").counter().count());
+    }
+}
@@ -4,23 +4,35 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ua.yarynych.apiaccountmanagement.entity.BankAccount;
 import ua.yarynych.apiaccountmanagement.entity.OperationHistory;
 import ua.yarynych.apiaccountmanagement.entity.User;
 import ua.yarynych.apiaccountmanagement.entity.UserBankAccountRelation;
 import ua.yarynych.apiaccountmanagement.entity.auth.UserAuthDetails;
+import ua.yarynych.apiaccountmanagement.entity.dto.account.BankAccountView;
+import ua.yarynych.apiaccountmanagement.entity.dto.history.AccountRollup;
+import ua.yarynych.apiaccountmanagement.entity.dto.history.HistoryPage;
+import ua.yarynych.apiaccountmanagement.entity.dto.history.HistoryQuery;
 import ua.yarynych.apiaccountmanagement.entity.dto.transactions.CreateBankAccountRequest;
+import ua.yarynych.apiaccountmanagement.entity.enums.Currency;
+import ua.yarynych.apiaccountmanagement.entity.enums.ExportFormat;
 import ua.yarynych.apiaccountmanagement.entity.enums.Role;
 import ua.yarynych.apiaccountmanagement.entity.exceptions.DatabaseNotFoundException;
 import ua.yarynych.apiaccountmanagement.entity.exceptions.InappropriateRoleException;
 import ua.yarynych.apiaccountmanagement.repository.BankAccountRepository;
 import ua.yarynych.apiaccountmanagement.repository.UserBankAccountRepository;
-import ua.yarynych.apiaccountmanagement.service.auth.JwtService;
+import ua.yarynych.apiaccountmanagement.service.ledger.LedgerRebuilder;
+import ua.yarynych.apiaccountmanagement.service.ledger.LedgerSnapshots;
 
-import java.math.BigDecimal;
+import java.io.ByteArrayOutputStream;
+import java.time.YearMonth;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -35,14 +47,26 @@ class BankAccountServiceTest {
     private OperationHistoryService operationHistoryService;
 
     @Mock
-    private UserBankAccountRepository userBankAccountRepository;
+    private OperationHistoryExporter operationHistoryExporter;
 
     @Mock
-    private JwtService tokenProvider;
+    private AccountRollups accountRollups;
+
+    @Mock
+    private UserBankAccountRepository userBankAccountRepository;
 
     @Mock
     private UserService userService;
 
+    @Spy
+    private AccountStripes accountStripes = new AccountStripes(null, null, null);
+
+    @Mock
+    private LedgerSnapshots ledgerSnapshots;
+
+    @Mock
+    private LedgerRebuilder ledgerRebuilder;
+
     @InjectMocks
     private BankAccountService bankAccountService;
 
@@ -83,52 +107,47 @@ class BankAccountServiceTest {
         verify(bankAccountRepository, times(1)).save(bankAccount);
     }
 
+    private UserAuthDetails principal(Long id, String email, Role role) {
+        UserAuthDetails principal = UserAuthDetails.build(email, role.name());
+        principal.setId(id);
+        return principal;
+    }
+
     @Test
     void testCreateBankAccountSuccess() {
-        String token = "Bearer testToken";
         String email = "user@example.com";
 
         User user = new User();
+        user.setId(1L);
         user.setEmail(email);
 
         CreateBankAccountRequest request = new CreateBankAccountRequest();
         request.setCurrency("USD");
 
-        when(tokenProvider.read(anyString())).thenReturn(UserAuthDetails.build(email, Role.ROLE_INTERNAL_USER.name()));
-        when(userService.findUserByEmail(anyString(), anyString())).thenReturn(user);
+        when(userService.getUserReference(1L)).thenReturn(user);
         when(bankAccountRepository.save(any(BankAccount.class))).thenAnswer(invocation -> invocation.getArgument(0));
         when(userBankAccountRepository.save(any(UserBankAccountRelation.class))).thenReturn(new UserBankAccountRelation());
 
-        BankAccount result = bankAccountService.createBankAccount(request, token);
+        BankAccount result = bankAccountService.createBankAccount(request, principal(1L, email, Role.ROLE_INTERNAL_USER));
 
         assertNotNull(result);
         assertEquals("USD", result.getCurrency());
-        assertEquals(BigDecimal.ZERO, result.getAmount());
+        assertEquals(0L, result.getAmountMinor());
 
-        verify(userService, times(1)).findUserByEmail(email, token.replace("Bearer ", ""));
+        verify(userService, times(1)).getUserReference(1L);
         verify(bankAccountRepository, times(1)).save(any(BankAccount.class));
         verify(userBankAccountRepository, times(1)).save(any(UserBankAccountRelation.class));
     }
 
     @Test
     void testCloseBankAccountsByNumberSuccess() {
-        String token = "Bearer testToken";
         Long accountNumber = 1L;
         String email = "user@example.com";
 
-        User user = new User();
-        user.setId(2L);
-        user.setEmail(email);
-
-        UserBankAccountRelation relation = new UserBankAccountRelation();
-        relation.setUser(user);
-
-        when(tokenProvider.read(anyString())).thenReturn(UserAuthDetails.build(email, Role.ROLE_INTERNAL_USER.name()));
-        when(userService.findUserByEmail(anyString(), anyString())).thenReturn(user);
-        when(userBankAccountRepository.findByBankAccountId(accountNumber)).thenReturn(Optional.of(relation));
+        when(userBankAccountRepository.findOwnerId(accountNumber)).thenReturn(Optional.of(2L));
         doNothing().when(bankAccountRepository).deleteById(accountNumber);
 
-        String result = bankAccountService.closeBankAccountsByNumber(accountNumber, token);
+        String result = bankAccountService.closeBankAccountsByNumber(accountNumber, principal(2L, email, Role.ROLE_INTERNAL_USER));
 
         assertEquals("Account deleted successfully", result);
 
@@ -137,98 +156,159 @@ class BankAccountServiceTest {
 
     @Test
     void testGetUserBankAccountsSuccess() {
-        String token = "Bearer testToken";
         String email = "user@example.com";
 
-        User user = new User();
-        user.setId(1L);
-        user.setEmail(email);
-
-        UserBankAccountRelation relation1 = new UserBankAccountRelation();
-        UserBankAccountRelation relation2 = new UserBankAccountRelation();
-        relation1.setBankAccount(new BankAccount());
-        relation2.setBankAccount(new BankAccount());
+        when(userBankAccountRepository.findAccountViewsByUserId(1L)).thenReturn(List.of(
+                new BankAccountView(10L, "USD", 100L, 0L, 0, 1L), new BankAccountView(11L, "EUR", 0L, 0L, 0, 1L)));
 
-        when(tokenProvider.read(anyString())).thenReturn(UserAuthDetails.build(email, Role.ROLE_INTERNAL_USER.name()));
-        when(userService.findUserByEmail(anyString(), anyString())).thenReturn(user);
-        when(userBankAccountRepository.findByUserId(user.getId())).thenReturn(List.of(relation1, relation2));
-
-        List<BankAccount> result = bankAccountService.getUserBankAccounts(token);
+        List<BankAccountView> result = bankAccountService.getUserBankAccounts(principal(1L, email, Role.ROLE_INTERNAL_USER));
 
         assertNotNull(result);
         assertEquals(2, result.size());
 
-        verify(userBankAccountRepository, times(1)).findByUserId(user.getId());
+        verify(userBankAccountRepository, times(1)).findAccountViewsByUserId(1L);
+    }
+
+    @Test
+    void testGetBankAccountsByNumberChecksOwnerFromTheSameQuery() {
+        when(userBankAccountRepository.findAccountViewById(10L)).thenReturn(Optional.of(new BankAccountView(10L, "USD", 100L, 0L, 0, 1L)));
+
+        assertEquals(10L, bankAccountService.getBankAccountsByNumber(10L, principal(1L, "user@example.com", Role.ROLE_INTERNAL_USER)).getId());
+        assertThrows(IllegalArgumentException.class,
+                () -> bankAccountService.getBankAccountsByNumber(10L, principal(2L, "other@example.com", Role.ROLE_INTERNAL_USER)));
+        verify(bankAccountRepository, never()).findById(any());
     }
 
     @Test
     void testGetAllBankAccountsSuccessAdmin() {
-        String token = "Bearer testToken";
         String email = "admin@example.com";
 
-        User adminUser = new User();
-        adminUser.setRole(Role.ROLE_ADMIN);
-        adminUser.setEmail(email);
-
-        BankAccount bankAccount1 = new BankAccount();
-        BankAccount bankAccount2 = new BankAccount();
+        BankAccountView bankAccount1 = new BankAccountView();
+        BankAccountView bankAccount2 = new BankAccountView();
 
-        when(tokenProvider.read(anyString())).thenReturn(UserAuthDetails.build(email, Role.ROLE_INTERNAL_USER.name()));
-        when(userService.findUserByEmail(anyString(), anyString())).thenReturn(adminUser);
-        when(bankAccountRepository.findAll()).thenReturn(List.of(bankAccount1, bankAccount2));
+        when(bankAccountRepository.findAllViews()).thenReturn(List.of(bankAccount1, bankAccount2));
 
-        List<BankAccount> result = bankAccountService.getAllBankAccounts(token);
+        List<BankAccountView> result = bankAccountService.getAllBankAccounts(principal(3L, email, Role.ROLE_ADMIN));
 
         assertNotNull(result);
         assertEquals(2, result.size());
 
-        verify(bankAccountRepository, times(1)).findAll();
+        verify(bankAccountRepository, times(1)).findAllViews();
     }
 
     @Test
-    void testGetAllBankAccountsFailNonAdmin() {
-        String token = "Bearer testToken";
-        String email = "user@example.com";
+    void testConfigureStripesFailNonAdmin() {
+        assertThrows(InappropriateRoleException.class,
+                () -> bankAccountService.configureStripes(1L, 8, principal(3L, "user@example.com", Role.ROLE_INTERNAL_USER)));
+
+        verify(accountStripes, never()).configure(any(), anyInt());
+    }
 
-        User normalUser = new User();
-        normalUser.setRole(Role.ROLE_INTERNAL_USER);
-        normalUser.setEmail(email);
+    @Test
+    void testRebuildLedgerFailNonAdmin() {
+        assertThrows(InappropriateRoleException.class,
+                () -> bankAccountService.rebuildLedger(4, principal(3L, "user@example.com", Role.ROLE_INTERNAL_USER)));
+
+        verifyNoInteractions(ledgerRebuilder);
+    }
 
-        when(tokenProvider.read(anyString())).thenReturn(UserAuthDetails.build(email, Role.ROLE_INTERNAL_USER.name()));
-        when(userService.findUserByEmail(anyString(), anyString())).thenReturn(normalUser);
+    @Test
+    void testGetAllBankAccountsFailNonAdmin() {
+        String email = "user@example.com";
 
-        assertThrows(InappropriateRoleException.class, () -> bankAccountService.getAllBankAccounts(token));
+        assertThrows(InappropriateRoleException.class, () -> bankAccountService.getAllBankAccounts(principal(3L, email, Role.ROLE_INTERNAL_USER)));
 
-        verify(bankAccountRepository, never()).findAll();
+        verify(bankAccountRepository, never()).findAllViews();
     }
 
     @Test
     void testGetHistoryOfOperationsByAccountIdSuccess() {
-        String token = "Bearer testToken";
         Long accountNumber = 1L;
         String email = "user@example.com";
 
-        User user = new User();
-        user.setId(1L);
-        user.setEmail(email);
-
-        UserBankAccountRelation relation = new UserBankAccountRelation();
-        relation.setUser(user);
+        BankAccountView account = new BankAccountView(accountNumber, "EUR", 0L, 0L, 0, 1L);
 
         OperationHistory operation1 = new OperationHistory();
         OperationHistory operation2 = new OperationHistory();
+        HistoryQuery query = new HistoryQuery();
 
-        when(tokenProvider.read(anyString())).thenReturn(UserAuthDetails.build(email, Role.ROLE_INTERNAL_USER.name()));
-        when(userService.findUserByEmail(anyString(), anyString())).thenReturn(user);
-        when(userBankAccountRepository.findByBankAccountId(accountNumber)).thenReturn(Optional.of(relation));
-        when(operationHistoryService.getOperationsByBankAccountId(accountNumber)).thenReturn(List.of(operation1, operation2));
+        when(userBankAccountRepository.findAccountViewById(accountNumber)).thenReturn(Optional.of(account));
+        when(operationHistoryService.getOperationsPage(accountNumber, Currency.EUR, query)).thenReturn(new HistoryPage(List.of(operation1, operation2), null));
 
-        List<OperationHistory> result = bankAccountService.getHistoryOfOperationsByAccountId(accountNumber, token);
+        HistoryPage result = bankAccountService.getHistoryOfOperationsByAccountId(accountNumber, query, principal(1L, email, Role.ROLE_INTERNAL_USER));
 
         assertNotNull(result);
-        assertEquals(2, result.size());
+        assertEquals(2, result.getItems().size());
 
-        verify(operationHistoryService, times(1)).getOperationsByBankAccountId(accountNumber);
+        verify(operationHistoryService, times(1)).getOperationsPage(accountNumber, Currency.EUR, query);
     }
-}
 
+    @Test
+    void testGetHistoryOfOperationsByAccountIdFailForAnotherUser() {
+        when(userBankAccountRepository.findAccountViewById(1L)).thenReturn(Optional.of(new BankAccountView(1L, "USD", 0L, 0L, 0, 2L)));
+
+        assertThrows(IllegalArgumentException.class, () -> bankAccountService.getHistoryOfOperationsByAccountId(1L, new HistoryQuery(),
+                principal(1L, "user@example.com", Role.ROLE_INTERNAL_USER)));
+        verifyNoInteractions(operationHistoryService);
+    }
+
+    @Test
+    void testExportHistoryChecksAccessBeforeStreaming() throws Exception {
+        when(userBankAccountRepository.findAccountViewById(1L)).thenReturn(Optional.of(new BankAccountView(1L, "USD", 0L, 0L, 0, 1L)));
+
+        assertThrows(IllegalArgumentException.class, () -> bankAccountService.exportHistoryOfOperations(1L, ExportFormat.CSV,
+                principal(2L, "other@example.com", Role.ROLE_INTERNAL_USER)));
+
+        StreamingResponseBody body = bankAccountService.exportHistoryOfOperations(1L, ExportFormat.CSV,
+                principal(1L, "user@example.com", Role.ROLE_INTERNAL_USER));
+        verifyNoInteractions(operationHistoryExporter);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+        verify(operationHistoryExporter).export(1L, ExportFormat.CSV, out);
+    }
+
+    @Test
+    void testGetMonthlySummaryReadsRollupsInAccountCurrency() {
+        YearMonth from = YearMonth.of(2025, 1);
+        YearMonth to = YearMonth.of(2025, 3);
+        List<AccountRollup> months = List.of(new AccountRollup());
+        when(userBankAccountRepository.findAccountViewById(1L)).thenReturn(Optional.of(new BankAccountView(1L, "UAH", 0L, 0L, 0, 1L)));
+        when(accountRollups.monthly(1L, Currency.UAH, from, to)).thenReturn(months);
+
+        assertSame(months, bankAccountService.getMonthlySummary(1L, from, to, principal(1L, "user@example.com", Role.ROLE_INTERNAL_USER)));
+        assertThrows(IllegalArgumentException.class, () -> bankAccountService.getMonthlySummary(1L, to, from,
+                principal(1L, "user@example.com", Role.ROLE_INTERNAL_USER)));
+    }
+
+    @Test
+    void testGetActivityFeedMergesAllAccountsOfUser() {
+        HistoryQuery query = new HistoryQuery();
+        HistoryPage page = new HistoryPage(List.of(), null);
+        when(userBankAccountRepository.findAccountViewsByUserId(1L)).thenReturn(List.of(
+                new BankAccountView(10L, "USD", 0L, 0L, 0, 1L), new BankAccountView(20L, "UAH", 0L, 0L, 0, 1L)));
+        when(operationHistoryService.getOperationsFeed(Map.of(10L, Currency.USD, 20L, Currency.UAH), query)).thenReturn(page);
+
+        assertSame(page, bankAccountService.getActivityFeed(query, principal(1L, "user@example.com", Role.ROLE_INTERNAL_USER)));
+    }
+
+    @Test
+    void testFindOwnedAccountIdsUsesOneQuery() {
+        UserAuthDetails user = principal(1L, "user@example.com", Role.ROLE_INTERNAL_USER);
+        when(userBankAccountRepository.findOwnedAccountIds(1L, List.of(10L, 20L))).thenReturn(Set.of(10L));
+
+        Set<Long> owned = bankAccountService.findOwnedAccountIds(List.of(10L, 20L), user);
+
+        assertEquals(Set.of(10L), owned);
+    }
+
+    @Test
+    void testFindOwnedAccountIdsAdminOwnsEverything() {
+        UserAuthDetails admin = principal(1L, "admin@example.com", Role.ROLE_ADMIN);
+
+        Set<Long> owned = bankAccountService.findOwnedAccountIds(List.of(10L, 20L), admin);
+
+        assertEquals(Set.of(10L, 20L), owned);
+        verifyNoInteractions(userBankAccountRepository);
+    }
+}
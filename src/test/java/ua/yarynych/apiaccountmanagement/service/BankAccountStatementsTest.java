@@ -0,0 +1,148 @@
+package ua.yarynych.apiaccountmanagement.service;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import ua.yarynych.apiaccountmanagement.entity.BankAccount;
+import ua.yarynych.apiaccountmanagement.entity.User;
+import ua.yarynych.apiaccountmanagement.entity.UserBankAccountRelation;
+import ua.yarynych.apiaccountmanagement.entity.auth.UserAuthDetails;
+import ua.yarynych.apiaccountmanagement.entity.dto.account.BankAccountView;
+import ua.yarynych.apiaccountmanagement.entity.dto.history.HistoryQuery;
+import ua.yarynych.apiaccountmanagement.entity.enums.Role;
+import ua.yarynych.apiaccountmanagement.service.ledger.LedgerRebuilder;
+import ua.yarynych.apiaccountmanagement.service.ledger.LedgerSnapshots;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.when;
+
+/**
+ * Counts the statements the account endpoints issue against a real schema, so a query that starts
+ * loading relations or owners one by one again fails here instead of in production.
+ */
+@DataJpaTest(properties = {
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@Import(BankAccountService.class)
+class BankAccountStatementsTest {
+
+    private static final int ACCOUNTS = 5;
+
+    @Autowired
+    private BankAccountService bankAccountService;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @MockBean
+    private OperationHistoryService operationHistoryService;
+
+    @MockBean
+    private OperationHistoryExporter operationHistoryExporter;
+
+    @MockBean
+    private AccountRollups accountRollups;
+
+    @MockBean
+    private UserService userService;
+
+    @MockBean
+    private AccountStripes accountStripes;
+
+    @MockBean
+    private LedgerSnapshots ledgerSnapshots;
+
+    @MockBean
+    private LedgerRebuilder ledgerRebuilder;
+
+    private Statistics statistics;
+    private UserAuthDetails owner;
+    private Long accountId;
+
+    @BeforeEach
+    void setUp() {
+        when(accountStripes.withTotals(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        User user = entityManager.persist(User.builder()
+                .firstName("Ivan").secondName("Franko").phone("+380000000001").email("user@example.com")
+                .password("secret").role(Role.ROLE_INTERNAL_USER).build());
+        for (int i = 0; i < ACCOUNTS; i++) {
+            BankAccount account = entityManager.persist(new BankAccount(null, "USD", 100L * i, null, 0));
+            entityManager.persist(new UserBankAccountRelation(null, user, account));
+            accountId = account.getId();
+        }
+        entityManager.flush();
+        entityManager.clear();
+
+        owner = UserAuthDetails.build(user.getEmail(), Role.ROLE_INTERNAL_USER.name());
+        owner.setId(user.getId());
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @Test
+    void testListingAccountsIsOneStatement() {
+        List<BankAccountView> accounts = bankAccountService.getUserBankAccounts(owner);
+
+        assertEquals(ACCOUNTS, accounts.size());
+        assertStatements(1);
+    }
+
+    @Test
+    void testAccountLookupWithOwnerCheckIsOneStatement() {
+        assertEquals(accountId, bankAccountService.getBankAccountsByNumber(accountId, owner).getId());
+        assertStatements(1);
+    }
+
+    @Test
+    void testHistoryOwnerCheckIsOneStatement() {
+        bankAccountService.getHistoryOfOperationsByAccountId(accountId, new HistoryQuery(), owner);
+        assertStatements(1);
+    }
+
+    @Test
+    void testActivityFeedAccountsAreOneStatement() {
+        bankAccountService.getActivityFeed(new HistoryQuery(), owner);
+        assertStatements(1);
+    }
+
+    @Test
+    void testAdminListingIsOneStatement() {
+        UserAuthDetails admin = UserAuthDetails.build("admin@example.com", Role.ROLE_ADMIN.name());
+        admin.setId(-1L);
+
+        assertEquals(ACCOUNTS, bankAccountService.getAllBankAccounts(admin).size());
+        assertStatements(1);
+    }
+
+    @Test
+    void testRelationDoesNotLoadUserOrAccount() {
+        UserBankAccountRelation relation = entityManager.getEntityManager()
+                .createQuery("select r from UserBankAccountRelation r", UserBankAccountRelation.class)
+                .setMaxResults(1)
+                .getSingleResult();
+
+        assertEquals(owner.getId(), relation.getUser().getId());
+        assertEquals(1, statistics.getPrepareStatementCount(), "statements issued");
+        assertEquals(1, statistics.getEntityLoadCount(), "entities loaded");
+    }
+
+    private void assertStatements(int expected) {
+        assertEquals(expected, statistics.getPrepareStatementCount(), "statements issued");
+        assertEquals(0, statistics.getEntityLoadCount(), "entities loaded");
+    }
+}
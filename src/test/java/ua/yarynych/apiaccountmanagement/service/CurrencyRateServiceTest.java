@@ -6,14 +6,17 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import ua.yarynych.apiaccountmanagement.entity.CurrencyRate;
+import ua.yarynych.apiaccountmanagement.entity.enums.Currency;
 import ua.yarynych.apiaccountmanagement.repository.CurrencyRateRepository;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.time.LocalDateTime;
-import java.util.Optional;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
-import static org.mockito.Mockito.when;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class CurrencyRateServiceTest {
@@ -26,30 +29,108 @@ class CurrencyRateServiceTest {
 
     @Test
     void testConvertCurrencySuccess() {
-        BigDecimal amount = new BigDecimal("100");
-        String fromCurrency = "USD";
-        String toCurrency = "EUR";
         BigDecimal exchangeRate = new BigDecimal("0.85");
-        CurrencyRate currencyRate = new CurrencyRate(1L, fromCurrency, toCurrency, exchangeRate, LocalDateTime.now());
+        CurrencyRate currencyRate = new CurrencyRate(1L, "USD", "EUR", exchangeRate, LocalDateTime.now());
 
-        when(currencyRateRepository.findByBaseCurrencyAndTargetCurrency(fromCurrency, toCurrency))
-                .thenReturn(Optional.of(currencyRate));
+        when(currencyRateRepository.findAll()).thenReturn(List.of(currencyRate));
 
-        BigDecimal result = currencyRateService.convertCurrency(amount, fromCurrency, toCurrency);
+        long result = currencyRateService.convert(10000L, Currency.USD, Currency.EUR, RoundingMode.HALF_EVEN);
 
-        assertNotNull(result);
-        assertEquals(new BigDecimal("85.00"), result);
+        assertEquals(8500L, result);
     }
 
     @Test
     void testConvertCurrency_RateNotFound() {
-        when(currencyRateRepository.findByBaseCurrencyAndTargetCurrency("USD", "JPY"))
-                .thenReturn(Optional.empty());
+        when(currencyRateRepository.findAll()).thenReturn(List.of());
 
         Exception exception = assertThrows(RuntimeException.class, () ->
-                currencyRateService.convertCurrency(new BigDecimal("100"), "USD", "JPY")
+                currencyRateService.convert(10000L, Currency.USD, Currency.UAH, RoundingMode.HALF_EVEN)
         );
 
         assertEquals("Exchange rate not found", exception.getMessage());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testConversionsAreServedFromMemory() {
+        when(currencyRateRepository.findAll()).thenReturn(List.of(
+                new CurrencyRate(1L, "USD", "EUR", new BigDecimal("0.85"), LocalDateTime.now()),
+                new CurrencyRate(2L, "EUR", "USD", new BigDecimal("1.17"), LocalDateTime.now())));
+
+        currencyRateService.convert(10000L, Currency.USD, Currency.EUR, RoundingMode.HALF_EVEN);
+        currencyRateService.convert(10000L, Currency.EUR, Currency.USD, RoundingMode.HALF_EVEN);
+        currencyRateService.convert(10000L, Currency.USD, Currency.EUR, RoundingMode.HALF_EVEN);
+
+        verify(currencyRateRepository, times(1)).findAll();
+        verify(currencyRateRepository, never()).findByBaseCurrencyAndTargetCurrency(any(), any());
+    }
+
+    @Test
+    void testReloadSwapsSnapshotOnlyWhenRatesChange() {
+        when(currencyRateRepository.findAll())
+                .thenReturn(List.of(new CurrencyRate(1L, "USD", "EUR", new BigDecimal("0.85"), LocalDateTime.now())))
+                .thenReturn(List.of(new CurrencyRate(1L, "USD", "EUR", new BigDecimal("0.8500"), LocalDateTime.now())))
+                .thenReturn(List.of(new CurrencyRate(1L, "USD", "EUR", new BigDecimal("0.90"), LocalDateTime.now())));
+
+        CurrencyRates first = currencyRateService.rates();
+        currencyRateService.refresh();
+        assertSame(first, currencyRateService.rates());
+
+        currencyRateService.refresh();
+        assertNotSame(first, currencyRateService.rates());
+        assertEquals(9000L, currencyRateService.convert(10000L, Currency.USD, Currency.EUR, RoundingMode.HALF_EVEN));
+        assertEquals(8500L, first.convert(10000L, Currency.USD, Currency.EUR, RoundingMode.HALF_EVEN));
+    }
+
+    @Test
+    void testSnapshotKeepsLatestRateAndConvertsSameCurrencyAsIs() {
+        LocalDateTime now = LocalDateTime.now();
+        CurrencyRates rates = CurrencyRates.of(List.of(
+                new CurrencyRate(1L, "USD", "UAH", new BigDecimal("41.00"), now),
+                new CurrencyRate(2L, "USD", "UAH", new BigDecimal("40.00"), now.minusDays(1)),
+                new CurrencyRate(3L, "USD", "JPY", new BigDecimal("150.00"), now)));
+
+        assertEquals(new BigDecimal("41.00"), rates.rate(Currency.USD, Currency.UAH));
+        assertEquals(1234L, rates.convert(1234L, Currency.EUR, Currency.EUR, RoundingMode.UNNECESSARY));
+        assertNull(rates.rate(Currency.UAH, Currency.USD));
+        assertFalse(rates.hasRate(Currency.UAH, Currency.USD));
+    }
+
+    @Test
+    void testConversionRoundsWithRequestedMode() {
+        CurrencyRates rates = CurrencyRates.of(List.of(
+                new CurrencyRate(1L, "EUR", "USD", new BigDecimal("1.1725"), LocalDateTime.now())));
+
+        // 0.99 EUR * 1.1725 = 1.160775 USD
+        assertEquals(116L, rates.convert(99L, Currency.EUR, Currency.USD, RoundingMode.FLOOR));
+        assertEquals(117L, rates.convert(99L, Currency.EUR, Currency.USD, RoundingMode.CEILING));
+        assertEquals(116L, rates.convert(99L, Currency.EUR, Currency.USD, RoundingMode.HALF_EVEN));
+        assertEquals(-117L, rates.convert(-99L, Currency.EUR, Currency.USD, RoundingMode.FLOOR));
+        assertThrows(ArithmeticException.class, () -> rates.convert(99L, Currency.EUR, Currency.USD, RoundingMode.UNNECESSARY));
+    }
+
+    @Test
+    void testDivideMatchesBigDecimalRounding() {
+        long[] dividends = {0, 5, 15, 25, -5, -15, -25, 149, 150, 151, -149, -150, -151, 1_000_000_007L};
+        for (RoundingMode mode : RoundingMode.values()) {
+            if (mode == RoundingMode.UNNECESSARY) {
+                continue;
+            }
+            for (long dividend : dividends) {
+                for (long divisor : new long[]{10, 100}) {
+                    long expected = BigDecimal.valueOf(dividend).divide(BigDecimal.valueOf(divisor), 0, mode).longValueExact();
+                    assertEquals(expected, CurrencyRates.divide(dividend, divisor, mode), dividend + "/" + divisor + " " + mode);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testLargeAmountsFallBackToExactArithmetic() {
+        CurrencyRates rates = CurrencyRates.of(List.of(
+                new CurrencyRate(1L, "USD", "UAH", new BigDecimal("41.2537"), LocalDateTime.now())));
+        long amount = 9_000_000_000_000_000L / 41;
+
+        long expected = BigDecimal.valueOf(amount).multiply(new BigDecimal("41.2537")).setScale(0, RoundingMode.FLOOR).longValueExact();
+        assertEquals(expected, rates.convert(amount, Currency.USD, Currency.UAH, RoundingMode.FLOOR));
+    }
+}
@@ -0,0 +1,66 @@
+package ua.yarynych.apiaccountmanagement.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class HistoryIdAllocatorTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private HistoryIdAllocator allocator;
+    private final List<String> reservingThreads = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        when(transactionTemplate.execute(any())).thenAnswer(invocation -> {
+            reservingThreads.add(Thread.currentThread().getName());
+            return invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(mock(TransactionStatus.class));
+        });
+
+        allocator = new HistoryIdAllocator(null);
+        ReflectionTestUtils.setField(allocator, "blockSize", 4);
+        allocator.init(jdbcTemplate, transactionTemplate);
+    }
+
+    @AfterEach
+    void tearDown() {
+        allocator.shutdown();
+    }
+
+    @Test
+    void testIdsComeFromConsecutiveBlocksReservedOffTheCallerThread() {
+        when(jdbcTemplate.update(HistoryIdAllocator.RESERVE_SQL, 4, "operation_history")).thenReturn(1);
+        when(jdbcTemplate.queryForObject("SELECT LAST_INSERT_ID()", Long.class)).thenReturn(5L, 9L);
+
+        List<Long> ids = LongStream.range(0, 6).mapToObj(i -> allocator.next()).toList();
+
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L), ids);
+        assertEquals(List.of("history-id-reserver", "history-id-reserver"), reservingThreads);
+    }
+
+    @Test
+    void testMissingSequenceRowFailsWithoutReadingLastInsertId() {
+        when(jdbcTemplate.update(HistoryIdAllocator.RESERVE_SQL, 4, "operation_history")).thenReturn(0, 1);
+        when(jdbcTemplate.queryForObject("SELECT LAST_INSERT_ID()", Long.class)).thenReturn(5L);
+
+        assertThrows(IllegalStateException.class, () -> allocator.next());
+        verify(jdbcTemplate, never()).queryForObject("SELECT LAST_INSERT_ID()", Long.class);
+
+        assertEquals(1L, allocator.next());
+    }
+}
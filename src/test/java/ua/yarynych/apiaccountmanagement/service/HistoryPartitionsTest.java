@@ -0,0 +1,82 @@
+package ua.yarynych.apiaccountmanagement.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+import ua.yarynych.apiaccountmanagement.service.HistoryPartitions.Partition;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class HistoryPartitionsTest {
+
+    private static final LocalDate TODAY = LocalDate.of(2025, 3, 15);
+
+    private JdbcTemplate session;
+    private SimpleMeterRegistry meterRegistry;
+    private HistoryPartitions historyPartitions;
+
+    @BeforeEach
+    void setUp() {
+        session = mock(JdbcTemplate.class);
+        meterRegistry = new SimpleMeterRegistry();
+        historyPartitions = new HistoryPartitions(mock(JdbcTemplate.class), meterRegistry);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testSplitsMonthsAheadOffFuturePartition() {
+        when(session.query(eq(HistoryPartitions.PARTITIONS_SQL), any(RowMapper.class))).thenReturn(List.of(
+                new Partition("p_initial", LocalDate.of(2025, 4, 1)),
+                new Partition(HistoryPartitions.FUTURE, null)));
+
+        historyPartitions.maintain(session, TODAY);
+
+        verify(session).execute("ALTER TABLE operation_history REORGANIZE PARTITION p_future INTO ("
+                + "PARTITION p202504 VALUES LESS THAN (UNIX_TIMESTAMP('2025-05-01 00:00:00')), "
+                + "PARTITION p202505 VALUES LESS THAN (UNIX_TIMESTAMP('2025-06-01 00:00:00')), "
+                + "PARTITION p202506 VALUES LESS THAN (UNIX_TIMESTAMP('2025-07-01 00:00:00')), "
+                + "PARTITION p_future VALUES LESS THAN MAXVALUE)");
+        assertEquals(3, meterRegistry.counter("history.partitions.created").count());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testArchivesPartitionsPastRetention() {
+        ReflectionTestUtils.setField(historyPartitions, "retentionMonths", 1);
+        when(session.query(eq(HistoryPartitions.PARTITIONS_SQL), any(RowMapper.class))).thenReturn(List.of(
+                new Partition("p202501", LocalDate.of(2025, 2, 1)),
+                new Partition("p202502", LocalDate.of(2025, 3, 1)),
+                new Partition("p202503", LocalDate.of(2025, 4, 1)),
+                new Partition("p202506", LocalDate.of(2025, 7, 1)),
+                new Partition(HistoryPartitions.FUTURE, null)));
+
+        historyPartitions.maintain(session, TODAY);
+
+        InOrder inOrder = inOrder(session);
+        inOrder.verify(session).execute("CREATE TABLE operation_history_archive_202501 LIKE operation_history");
+        inOrder.verify(session).execute("ALTER TABLE operation_history_archive_202501 REMOVE PARTITIONING");
+        inOrder.verify(session).execute("ALTER TABLE operation_history EXCHANGE PARTITION p202501 WITH TABLE operation_history_archive_202501");
+        inOrder.verify(session).execute("ALTER TABLE operation_history DROP PARTITION p202501");
+        verify(session, times(4)).execute(anyString());
+        assertEquals(1, meterRegistry.counter("history.partitions.archived").count());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testDoesNothingWhenTableIsNotPartitioned() {
+        when(session.query(eq(HistoryPartitions.PARTITIONS_SQL), any(RowMapper.class))).thenReturn(List.of());
+
+        historyPartitions.maintain(session, TODAY);
+
+        verify(session, never()).execute(anyString());
+    }
+}
@@ -0,0 +1,244 @@
+package ua.yarynych.apiaccountmanagement.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import ua.yarynych.apiaccountmanagement.entity.BankAccount;
+import ua.yarynych.apiaccountmanagement.entity.IdempotencyRecord;
+import ua.yarynych.apiaccountmanagement.entity.dto.transactions.AccountFundsDto;
+import ua.yarynych.apiaccountmanagement.entity.enums.Currency;
+import ua.yarynych.apiaccountmanagement.entity.exceptions.ConcurrentUpdateException;
+import ua.yarynych.apiaccountmanagement.repository.IdempotencyRecordRepository;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class IdempotencyServiceTest {
+
+    private static final Long USER_ID = 1L;
+    private static final String KEY = "retry-123";
+
+    @Mock
+    private IdempotencyRecordRepository idempotencyRecordRepository;
+    @Mock
+    private TransactionTemplate transactionTemplate;
+    @Mock
+    private TransactionStatus transactionStatus;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicBoolean inTransaction = new AtomicBoolean();
+    private IdempotencyService idempotencyService;
+    private AccountFundsDto deposit;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(transactionTemplate.execute(any())).thenAnswer(invocation -> {
+            inTransaction.set(true);
+            try {
+                return invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(transactionStatus);
+            } finally {
+                inTransaction.set(false);
+            }
+        });
+        idempotencyService = new IdempotencyService(idempotencyRecordRepository, objectMapper, transactionTemplate);
+        deposit = new AccountFundsDto(100L, new BigDecimal("200"), "USD", "Deposit");
+    }
+
+    @Test
+    void testWithoutKeyActionRuns() {
+        BankAccount result = idempotencyService.execute(null, USER_ID, "deposit", deposit, BankAccount.class, () -> account(100L, "1200"));
+
+        assertEquals(new BigDecimal("1200.00"), result.getAmount());
+        verifyNoInteractions(idempotencyRecordRepository);
+    }
+
+    @Test
+    void testFirstRequestRunsAndReplayIsServedFromCache() {
+        when(idempotencyRecordRepository.findById("1:" + KEY)).thenReturn(Optional.empty());
+        when(idempotencyRecordRepository.claim(eq("1:" + KEY), anyString(), any())).thenReturn(1);
+        AtomicInteger runs = new AtomicInteger();
+
+        BankAccount first = idempotencyService.execute(KEY, USER_ID, "deposit", deposit, BankAccount.class, () -> {
+            runs.incrementAndGet();
+            return account(100L, "1200");
+        });
+        BankAccount replay = idempotencyService.execute(KEY, USER_ID, "deposit", deposit, BankAccount.class, () -> {
+            runs.incrementAndGet();
+            return account(100L, "1400");
+        });
+
+        assertEquals(1, runs.get());
+        assertEquals(new BigDecimal("1200.00"), first.getAmount());
+        assertEquals(new BigDecimal("1200.00"), replay.getAmount());
+        verify(idempotencyRecordRepository, times(1)).complete(eq("1:" + KEY), anyString());
+        verify(idempotencyRecordRepository, times(1)).findById("1:" + KEY);
+    }
+
+    @Test
+    void testStoredResponseIsReplayedWithoutRunning() throws Exception {
+        String fingerprint = storedFingerprint();
+        IdempotencyRecord stored = new IdempotencyRecord("1:" + KEY, fingerprint, true,
+                objectMapper.writeValueAsString(account(100L, "1200")), LocalDateTime.now().plusHours(1));
+        when(idempotencyRecordRepository.findById("1:" + KEY)).thenReturn(Optional.of(stored));
+
+        BankAccount replay = idempotencyService.execute(KEY, USER_ID, "deposit", deposit, BankAccount.class, () -> fail("must not run"));
+
+        assertEquals(new BigDecimal("1200.00"), replay.getAmount());
+        verify(idempotencyRecordRepository, never()).claim(anyString(), anyString(), any());
+    }
+
+    @Test
+    void testStoredResponseKeepsTheApiShapeOfTheAccount() {
+        when(idempotencyRecordRepository.findById("1:" + KEY)).thenReturn(Optional.empty());
+        when(idempotencyRecordRepository.claim(eq("1:" + KEY), anyString(), any())).thenReturn(1);
+        BankAccount account = account(100L, "1200");
+        account.setVersion(7L);
+        account.setStripeCount(4);
+
+        idempotencyService.execute(KEY, USER_ID, "deposit", deposit, BankAccount.class, () -> account);
+
+        ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
+        verify(idempotencyRecordRepository).complete(eq("1:" + KEY), body.capture());
+        assertEquals("{\"id\":100,\"currency\":\"USD\",\"amount\":1200.00}", body.getValue());
+    }
+
+    @Test
+    void testKeyInProgressElsewhereIsRejected() {
+        IdempotencyRecord claimed = new IdempotencyRecord("1:" + KEY, storedFingerprint(), false, null, LocalDateTime.now().plusHours(1));
+        when(idempotencyRecordRepository.findById("1:" + KEY))
+                .thenReturn(Optional.empty())
+                .thenReturn(Optional.of(claimed));
+        when(idempotencyRecordRepository.claim(eq("1:" + KEY), anyString(), any())).thenReturn(0);
+
+        assertThrows(ConcurrentUpdateException.class,
+                () -> idempotencyService.execute(KEY, USER_ID, "deposit", deposit, BankAccount.class, () -> fail("must not run")));
+    }
+
+    @Test
+    void testKeyReusedForDifferentRequestIsRejected() {
+        IdempotencyRecord stored = new IdempotencyRecord("1:" + KEY, "other", true, "{}", LocalDateTime.now().plusHours(1));
+        when(idempotencyRecordRepository.findById("1:" + KEY)).thenReturn(Optional.of(stored));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> idempotencyService.execute(KEY, USER_ID, "deposit", deposit, BankAccount.class, () -> fail("must not run")));
+    }
+
+    @Test
+    void testFailedActionReleasesClaim() {
+        when(idempotencyRecordRepository.findById("1:" + KEY)).thenReturn(Optional.empty());
+        when(idempotencyRecordRepository.claim(eq("1:" + KEY), anyString(), any())).thenReturn(1);
+
+        assertThrows(IllegalStateException.class, () -> idempotencyService.execute(KEY, USER_ID, "deposit", deposit, BankAccount.class, () -> {
+            throw new IllegalStateException("Insufficient funds");
+        }));
+
+        verify(idempotencyRecordRepository, times(1)).release("1:" + KEY);
+        verify(idempotencyRecordRepository, never()).complete(anyString(), anyString());
+    }
+
+    @Test
+    void testKeyIsCompletedInTheTransactionOfTheOperation() {
+        when(idempotencyRecordRepository.findById("1:" + KEY)).thenReturn(Optional.empty());
+        when(idempotencyRecordRepository.claim(eq("1:" + KEY), anyString(), any())).thenReturn(1);
+        AtomicBoolean ranInTransaction = new AtomicBoolean();
+        AtomicBoolean completedInTransaction = new AtomicBoolean();
+        when(idempotencyRecordRepository.complete(eq("1:" + KEY), anyString())).thenAnswer(invocation -> {
+            completedInTransaction.set(inTransaction.get());
+            return 1;
+        });
+
+        idempotencyService.execute(KEY, USER_ID, "deposit", deposit, BankAccount.class, () -> {
+            ranInTransaction.set(inTransaction.get());
+            return account(100L, "1200");
+        });
+
+        assertTrue(ranInTransaction.get());
+        assertTrue(completedInTransaction.get());
+        verify(transactionStatus).flush();
+        verify(idempotencyRecordRepository, never()).release(anyString());
+    }
+
+    @Test
+    void testConflictAtFlushReleasesClaimAsConcurrentUpdate() {
+        when(idempotencyRecordRepository.findById("1:" + KEY)).thenReturn(Optional.empty());
+        when(idempotencyRecordRepository.claim(eq("1:" + KEY), anyString(), any())).thenReturn(1);
+        doThrow(new ObjectOptimisticLockingFailureException(BankAccount.class, 100L)).when(transactionStatus).flush();
+
+        assertThrows(ConcurrentUpdateException.class,
+                () -> idempotencyService.execute(KEY, USER_ID, "deposit", deposit, BankAccount.class, () -> account(100L, "1200")));
+
+        verify(idempotencyRecordRepository, times(1)).release("1:" + KEY);
+        verify(idempotencyRecordRepository, never()).complete(anyString(), anyString());
+    }
+
+    @Test
+    void testConcurrentDuplicatesRunOnce() throws Exception {
+        when(idempotencyRecordRepository.findById("1:" + KEY)).thenReturn(Optional.empty());
+        when(idempotencyRecordRepository.claim(eq("1:" + KEY), anyString(), any())).thenReturn(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        Future<BankAccount> first = pool.submit(() -> idempotencyService.execute(KEY, USER_ID, "deposit", deposit, BankAccount.class, () -> {
+            runs.incrementAndGet();
+            started.countDown();
+            await(release);
+            return account(100L, "1200");
+        }));
+        started.await();
+        Future<BankAccount> duplicate = pool.submit(() -> idempotencyService.execute(KEY, USER_ID, "deposit", deposit, BankAccount.class, () -> {
+            runs.incrementAndGet();
+            return account(100L, "1400");
+        }));
+        release.countDown();
+
+        assertEquals(new BigDecimal("1200.00"), first.get(5, TimeUnit.SECONDS).getAmount());
+        assertEquals(new BigDecimal("1200.00"), duplicate.get(5, TimeUnit.SECONDS).getAmount());
+        assertEquals(1, runs.get());
+        pool.shutdown();
+    }
+
+    private String storedFingerprint() {
+        when(idempotencyRecordRepository.findById("1:probe")).thenReturn(Optional.empty());
+        when(idempotencyRecordRepository.claim(eq("1:probe"), anyString(), any())).thenReturn(1);
+        idempotencyService.execute("probe", USER_ID, "deposit", deposit, BankAccount.class, () -> account(1L, "0"));
+
+        ArgumentCaptor<String> fingerprint = ArgumentCaptor.forClass(String.class);
+        verify(idempotencyRecordRepository).claim(eq("1:probe"), fingerprint.capture(), any());
+        return fingerprint.getValue();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static BankAccount account(Long id, String amount) {
+        BankAccount account = new BankAccount();
+        account.setId(id);
+        account.setCurrency("USD");
+        account.setAmountMinor(Currency.USD.toMinor(new BigDecimal(amount)));
+        return account;
+    }
+}
@@ -0,0 +1,141 @@
+package ua.yarynych.apiaccountmanagement.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import ua.yarynych.apiaccountmanagement.entity.OperationHistory;
+import ua.yarynych.apiaccountmanagement.entity.enums.ExportFormat;
+import ua.yarynych.apiaccountmanagement.service.archive.HistoryArchive;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class OperationHistoryExporterTest {
+
+    private static final LocalDateTime DATE = LocalDateTime.of(2025, 3, 1, 12, 0);
+
+    private JdbcTemplate jdbcTemplate;
+    private HistoryArchive historyArchive;
+    private OperationHistoryExporter exporter;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        historyArchive = mock(HistoryArchive.class);
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        exporter = new OperationHistoryExporter(jdbcTemplate, objectMapper, historyArchive, new SimpleMeterRegistry());
+
+        ResultSet row = mock(ResultSet.class);
+        when(row.getLong(1)).thenReturn(1L, 2L);
+        when(row.getLong(2)).thenReturn(7L);
+        when(row.getObject(3, Long.class)).thenReturn(3L).thenReturn(null);
+        when(row.getString(4)).thenReturn("DEPOSIT", "WITHDRAW");
+        when(row.getLong(5)).thenReturn(12345L, 500L);
+        when(row.getString(6)).thenReturn("USD");
+        when(row.getTimestamp(7)).thenReturn(Timestamp.valueOf(DATE));
+        when(row.getString(8)).thenReturn("Salary, March").thenReturn(null);
+        doAnswer(invocation -> {
+            RowCallbackHandler handler = invocation.getArgument(1);
+            handler.processRow(row);
+            handler.processRow(row);
+            return null;
+        }).when(jdbcTemplate).query(any(PreparedStatementCreator.class), any(RowCallbackHandler.class));
+    }
+
+    @Test
+    void testCsvExportIsCompressedAndEscaped() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertEquals(2, exporter.export(7L, ExportFormat.CSV, out));
+
+        assertEquals(List.of(
+                "id,bankAccountId,userId,operationType,amount,currency,operationDate,description",
+                "1,7,3,DEPOSIT,123.45,USD,2025-03-01T12:00,\"Salary, March\"",
+                "2,7,,WITHDRAW,5.00,USD,2025-03-01T12:00,"), gunzip(out));
+    }
+
+    @Test
+    void testNdjsonExportWritesOneObjectPerLine() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        exporter.export(7L, ExportFormat.NDJSON, out);
+
+        List<String> lines = gunzip(out);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).startsWith("{") && lines.get(0).contains("\"amount\":123.45"));
+        assertTrue(lines.get(1).contains("\"operationType\":\"WITHDRAW\""));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testArchivedOperationsComeFirst() throws Exception {
+        LocalDateTime archivedUntil = LocalDateTime.of(2024, 1, 1, 0, 0);
+        when(historyArchive.archivedUntil()).thenReturn(archivedUntil);
+        doAnswer(invocation -> {
+            invocation.<Consumer<OperationHistory>>getArgument(2)
+                    .accept(new OperationHistory(0L, 7L, 3L, "DEPOSIT", 100L, "USD", archivedUntil.minusDays(1), null));
+            return null;
+        }).when(historyArchive).forEach(eq(7L), eq(archivedUntil), any());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertEquals(3, exporter.export(7L, ExportFormat.CSV, out));
+
+        List<String> lines = gunzip(out);
+        assertEquals("0,7,3,DEPOSIT,1.00,USD,2023-12-31T00:00,", lines.get(1));
+        assertTrue(lines.get(2).startsWith("1,7,3,DEPOSIT"));
+    }
+
+    @Test
+    void testBrokenOutputSurfacesAsIOException() {
+        OutputStream broken = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+
+        assertThrows(IOException.class, () -> exporter.export(7L, ExportFormat.CSV, broken));
+    }
+
+    @Test
+    void testCsvDoublesQuotesInsideQuotedFields() {
+        OperationHistory operation = new OperationHistory(5L, 7L, null, "DEPOSIT", 100L, "EUR", DATE, "He said \"hi\"");
+
+        assertEquals("5,7,,DEPOSIT,1.00,EUR,2025-03-01T12:00,\"He said \"\"hi\"\"\"", OperationHistoryExporter.csv(operation));
+    }
+
+    @Test
+    void testCsvNeutralizesFormulas() {
+        OperationHistory formula = new OperationHistory(5L, 7L, null, "DEPOSIT", 100L, "EUR", DATE, "=HYPERLINK(\"x\")");
+        OperationHistory command = new OperationHistory(6L, 7L, null, "DEPOSIT", -100L, "EUR", DATE, "@SUM(A1)");
+
+        assertEquals("5,7,,DEPOSIT,1.00,EUR,2025-03-01T12:00,\"'=HYPERLINK(\"\"x\"\")\"", OperationHistoryExporter.csv(formula));
+        assertEquals("6,7,,DEPOSIT,-1.00,EUR,2025-03-01T12:00,'@SUM(A1)", OperationHistoryExporter.csv(command));
+    }
+
+    private static List<String> gunzip(ByteArrayOutputStream out) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8).lines().toList();
+        }
+    }
+}
@@ -5,16 +5,26 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
 import ua.yarynych.apiaccountmanagement.entity.OperationHistory;
+import ua.yarynych.apiaccountmanagement.entity.dto.history.HistoryPage;
+import ua.yarynych.apiaccountmanagement.entity.dto.history.HistoryQuery;
+import ua.yarynych.apiaccountmanagement.entity.enums.Currency;
+import ua.yarynych.apiaccountmanagement.entity.enums.Operations;
 import ua.yarynych.apiaccountmanagement.repository.OperationHistoryRepository;
 import ua.yarynych.apiaccountmanagement.service.OperationHistoryService;
+import ua.yarynych.apiaccountmanagement.service.archive.HistoryArchive;
 
 import java.math.BigDecimal;
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.LongStream;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
@@ -24,6 +34,15 @@ class OperationHistoryServiceTest {
     @Mock
     private OperationHistoryRepository operationHistoryRepository;
 
+    @Mock
+    private OperationHistoryWriter operationHistoryWriter;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private HistoryArchive historyArchive;
+
     @InjectMocks
     private OperationHistoryService operationHistoryService;
 
@@ -32,45 +51,189 @@ class OperationHistoryServiceTest {
         Long bankAccountId = 1L;
         Long userId = 2L;
         String operationType = "Deposit";
-        BigDecimal amount = new BigDecimal("1000.00");
+        long amountMinor = 100000L;
         String description = "Salary";
 
         OperationHistory operation = new OperationHistory();
         operation.setBankAccountId(bankAccountId);
         operation.setUserId(userId);
         operation.setOperationType(operationType);
-        operation.setAmount(amount);
+        operation.setAmountMinor(amountMinor);
+        operation.setCurrency(Currency.USD.name());
         operation.setOperationDate(LocalDateTime.now());
         operation.setDescription(description);
 
-        when(operationHistoryRepository.save(any(OperationHistory.class)))
+        when(operationHistoryWriter.write(any(OperationHistory.class)))
                 .thenReturn(operation);
 
-        OperationHistory result = operationHistoryService.saveOperation(bankAccountId, userId, operationType, amount, description);
+        OperationHistory result = operationHistoryService.saveOperation(bankAccountId, userId, operationType, amountMinor, Currency.USD, description);
 
         assertNotNull(result);
         assertEquals(bankAccountId, result.getBankAccountId());
         assertEquals(userId, result.getUserId());
         assertEquals(operationType, result.getOperationType());
-        assertEquals(amount, result.getAmount());
+        assertEquals(amountMinor, result.getAmountMinor());
+        assertEquals(new BigDecimal("1000.00"), result.getAmount());
         assertEquals(description, result.getDescription());
 
-        verify(operationHistoryRepository, times(1)).save(any(OperationHistory.class));
+        verify(operationHistoryWriter, times(1)).write(any(OperationHistory.class));
+        verify(operationHistoryRepository, never()).save(any(OperationHistory.class));
     }
 
     @Test
-    void testGetOperationsByBankAccountId_Success() {
-        Long bankAccountId = 1L;
-        List<OperationHistory> operations = List.of(new OperationHistory(), new OperationHistory());
+    @SuppressWarnings("unchecked")
+    void testGetOperationsPageReturnsCursorWhenMoreRowsExist() {
+        LocalDateTime date = LocalDateTime.now().minusDays(1).withNano(0);
+        when(jdbcTemplate.queryForObject(startsWith("SELECT MIN(operation_date)"), eq(Timestamp.class), eq(1L)))
+                .thenReturn(Timestamp.valueOf(date));
+        when(jdbcTemplate.query(startsWith("SELECT h.id"), any(RowMapper.class), eq(1L), eq(Timestamp.valueOf(date)), eq(3)))
+                .thenReturn(LongStream.of(9, 8, 7).mapToObj(id -> history(id, date)).toList());
+
+        HistoryPage page = operationHistoryService.getOperationsPage(1L, Currency.USD, new HistoryQuery(null, null, null, null, null, null, 2));
+
+        assertEquals(2, page.getItems().size());
+        assertEquals(new OperationHistoryService.Cursor(date, 8L), OperationHistoryService.Cursor.decode(page.getNextCursor()));
+    }
 
-        when(operationHistoryRepository.findByBankAccountId(bankAccountId))
-                .thenReturn(operations);
+    @Test
+    @SuppressWarnings("unchecked")
+    void testGetOperationsPageSeeksPastCursorWithFilters() {
+        LocalDateTime date = LocalDateTime.of(2025, 3, 1, 12, 0);
+        LocalDateTime from = LocalDateTime.of(2025, 1, 1, 0, 0);
+        String cursor = new OperationHistoryService.Cursor(date, 8L).encode();
+        when(jdbcTemplate.query(
+                eq(String.format(OperationHistoryService.PAGE_SQL, "bank_account_id = ? AND operation_date >= ? "
+                        + "AND operation_date <= ? AND (operation_date < ? OR id < ?) AND operation_type = ? AND amount_minor >= ?")),
+                any(RowMapper.class),
+                eq(1L), eq(Timestamp.valueOf(from)), eq(Timestamp.valueOf(date)), eq(Timestamp.valueOf(date)), eq(8L), eq("DEPOSIT"), eq(1050L), eq(51)))
+                .thenReturn(List.of(history(7L, date)));
+
+        HistoryPage page = operationHistoryService.getOperationsPage(1L, Currency.USD,
+                new HistoryQuery(from, null, Operations.DEPOSIT, new BigDecimal("10.50"), null, cursor, null));
+
+        assertEquals(1, page.getItems().size());
+        assertNull(page.getNextCursor());
+        verify(jdbcTemplate, never()).queryForObject(anyString(), eq(Timestamp.class), any(Object[].class));
+    }
 
-        List<OperationHistory> result = operationHistoryService.getOperationsByBankAccountId(bankAccountId);
+    @Test
+    @SuppressWarnings("unchecked")
+    void testGetOperationsPageWalksBackOneWindowAtATime() {
+        LocalDateTime from = LocalDateTime.of(2024, 1, 1, 0, 0);
+        LocalDateTime to = LocalDateTime.of(2025, 1, 1, 0, 0);
+        LocalDateTime october = LocalDateTime.of(2024, 10, 1, 0, 0);
+        LocalDateTime july = LocalDateTime.of(2024, 7, 1, 0, 0);
+        String sql = String.format(OperationHistoryService.PAGE_SQL, "bank_account_id = ? AND operation_date >= ? AND operation_date < ?");
+        when(jdbcTemplate.query(eq(sql), any(RowMapper.class), eq(1L), eq(Timestamp.valueOf(october)), eq(Timestamp.valueOf(to)), eq(3)))
+                .thenReturn(List.of(history(9L, october.plusDays(5))));
+        when(jdbcTemplate.query(eq(sql), any(RowMapper.class), eq(1L), eq(Timestamp.valueOf(july)), eq(Timestamp.valueOf(october)), eq(2)))
+                .thenReturn(List.of(history(8L, july.plusDays(9)), history(7L, july.plusDays(2))));
+
+        HistoryPage page = operationHistoryService.getOperationsPage(1L, Currency.USD, new HistoryQuery(from, to, null, null, null, null, 2));
+
+        assertEquals(List.of(9L, 8L), page.getItems().stream().map(OperationHistory::getId).toList());
+        assertEquals(new OperationHistoryService.Cursor(july.plusDays(9), 8L), OperationHistoryService.Cursor.decode(page.getNextCursor()));
+        verify(jdbcTemplate, times(2)).query(anyString(), any(RowMapper.class), any(Object[].class));
+    }
 
-        assertNotNull(result);
-        assertEquals(2, result.size());
+    @Test
+    @SuppressWarnings("unchecked")
+    void testGetOperationsPageContinuesInArchiveBeforeArchivedMonths() {
+        LocalDateTime from = LocalDateTime.of(2024, 1, 1, 0, 0);
+        LocalDateTime to = LocalDateTime.of(2024, 9, 1, 0, 0);
+        LocalDateTime july = LocalDateTime.of(2024, 7, 1, 0, 0);
+        when(historyArchive.archivedUntil()).thenReturn(july);
+        when(jdbcTemplate.query(
+                eq(String.format(OperationHistoryService.PAGE_SQL, "bank_account_id = ? AND operation_date >= ? AND operation_date < ?")),
+                any(RowMapper.class), eq(1L), eq(Timestamp.valueOf(july)), eq(Timestamp.valueOf(to)), eq(3)))
+                .thenReturn(List.of(history(9L, july.plusDays(3))));
+        when(historyArchive.read(eq(1L), eq(from), eq(july), isNull(), any(HistoryArchive.Filter.class), eq(2)))
+                .thenReturn(List.of(history(8L, july.minusDays(1)), history(7L, july.minusDays(2))));
+
+        HistoryPage page = operationHistoryService.getOperationsPage(1L, Currency.USD, new HistoryQuery(from, to, null, null, null, null, 2));
+
+        assertEquals(List.of(9L, 8L), page.getItems().stream().map(OperationHistory::getId).toList());
+        assertEquals(new OperationHistoryService.Cursor(july.minusDays(1), 8L), OperationHistoryService.Cursor.decode(page.getNextCursor()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testGetOperationsPageOfAccountWithoutOperationsSkipsPageQuery() {
+        when(jdbcTemplate.queryForObject(anyString(), eq(Timestamp.class), eq(1L))).thenReturn(null);
+
+        HistoryPage page = operationHistoryService.getOperationsPage(1L, Currency.USD, new HistoryQuery(null, null, null, null, null, null, null));
+
+        assertTrue(page.getItems().isEmpty());
+        assertNull(page.getNextCursor());
+        verify(jdbcTemplate, never()).query(anyString(), any(RowMapper.class), any(Object[].class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testGetOperationsPageCapsPageSize() {
+        LocalDateTime from = LocalDateTime.now().minusDays(1).withNano(0);
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class), eq(1L), eq(Timestamp.valueOf(from)), eq(501))).thenReturn(List.of());
+
+        HistoryPage page = operationHistoryService.getOperationsPage(1L, Currency.USD, new HistoryQuery(from, null, null, null, null, null, 100000));
+
+        assertTrue(page.getItems().isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testGetOperationsFeedMergesAccountsNewestFirst() {
+        LocalDateTime from = LocalDateTime.now().minusDays(1).withNano(0);
+        LocalDateTime base = from.plusHours(1);
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class), eq(1L), eq(Timestamp.valueOf(from)), eq(3)))
+                .thenReturn(List.of(history(15L, 1L, base.plusMinutes(5)), history(13L, 1L, base.plusMinutes(3)), history(11L, 1L, base.plusMinutes(1))));
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class), eq(2L), eq(Timestamp.valueOf(from)), eq(3)))
+                .thenReturn(List.of(history(24L, 2L, base.plusMinutes(4)), history(22L, 2L, base.plusMinutes(2))));
+        Timestamp seek = Timestamp.valueOf(base.plusMinutes(3));
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class), eq(1L), eq(Timestamp.valueOf(from)), eq(seek), eq(seek), eq(13L), eq(3)))
+                .thenReturn(List.of(history(11L, 1L, base.plusMinutes(1))));
+        Map<Long, Currency> accounts = new LinkedHashMap<>();
+        accounts.put(1L, Currency.USD);
+        accounts.put(2L, Currency.EUR);
+
+        HistoryPage page = operationHistoryService.getOperationsFeed(accounts, new HistoryQuery(from, null, null, null, null, null, 3));
+
+        assertEquals(List.of(15L, 24L, 13L), page.getItems().stream().map(OperationHistory::getId).toList());
+        assertEquals(new OperationHistoryService.Cursor(base.plusMinutes(3), 13L), OperationHistoryService.Cursor.decode(page.getNextCursor()));
+        verify(jdbcTemplate, times(3)).query(anyString(), any(RowMapper.class), any(Object[].class));
+    }
+
+    @Test
+    void testGetOperationsFeedOfUserWithoutAccountsIsEmpty() {
+        HistoryPage page = operationHistoryService.getOperationsFeed(Map.of(), new HistoryQuery());
+
+        assertTrue(page.getItems().isEmpty());
+        assertNull(page.getNextCursor());
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    void testGetOperationsPageRejectsInvalidCursor() {
+        assertThrows(IllegalArgumentException.class, () -> operationHistoryService.getOperationsPage(1L, Currency.USD,
+                new HistoryQuery(null, null, null, null, null, "not a cursor", null)));
+    }
+
+    private static OperationHistory history(long id, LocalDateTime date) {
+        return history(id, 1L, date);
+    }
+
+    private static OperationHistory history(long id, long accountId, LocalDateTime date) {
+        return new OperationHistory(id, accountId, 2L, "DEPOSIT", 100L, "USD", date, null);
+    }
+
+    @Test
+    void testSaveOperationsGoesToWriter() {
+        List<OperationHistory> operations = List.of(
+                OperationHistoryService.operation(1L, 2L, "WITHDRAW", 1000L, Currency.USD, "Payroll"),
+                OperationHistoryService.operation(3L, 2L, "DEPOSIT", 1000L, Currency.USD, "Payroll"));
+
+        operationHistoryService.saveOperations(operations);
 
-        verify(operationHistoryRepository, times(1)).findByBankAccountId(bankAccountId);
+        verify(operationHistoryWriter, times(1)).write(operations);
+        verify(operationHistoryRepository, never()).save(any(OperationHistory.class));
     }
 }
@@ -0,0 +1,172 @@
+package ua.yarynych.apiaccountmanagement.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ua.yarynych.apiaccountmanagement.entity.OperationHistory;
+import ua.yarynych.apiaccountmanagement.entity.enums.Currency;
+import ua.yarynych.apiaccountmanagement.entity.enums.HistoryDurability;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.*;
+
+class OperationHistoryWriterTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private PlatformTransactionManager transactionManager;
+    private HistoryIdAllocator historyIdAllocator;
+    private AccountRollups accountRollups;
+    private SimpleMeterRegistry meterRegistry;
+    private OperationHistoryWriter writer;
+    private final List<List<Long>> flushedIds = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        transactionTemplate = mock(TransactionTemplate.class);
+        transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionTemplate.getTransactionManager()).thenReturn(transactionManager);
+        historyIdAllocator = mock(HistoryIdAllocator.class);
+        accountRollups = mock(AccountRollups.class);
+        meterRegistry = new SimpleMeterRegistry();
+
+        AtomicLong ids = new AtomicLong(100);
+        when(historyIdAllocator.next()).thenAnswer(invocation -> ids.getAndIncrement());
+        when(jdbcTemplate.batchUpdate(startsWith("INSERT INTO operation_history"), any(Collection.class), anyInt(), any(ParameterizedPreparedStatementSetter.class)))
+                .thenAnswer(invocation -> {
+                    Collection<OperationHistory> rows = invocation.getArgument(1);
+                    flushedIds.add(rows.stream().map(OperationHistory::getId).toList());
+                    return new int[0][];
+                });
+        doAnswer(invocation -> {
+            invocation.<Consumer<TransactionStatus>>getArgument(0).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        writer.shutdown();
+    }
+
+    @Test
+    void testWithoutTransactionRowsAreInsertedImmediately() {
+        writer = writer(HistoryDurability.DURABLE);
+
+        OperationHistory saved = writer.write(operation(1L));
+
+        assertEquals(100L, saved.getId());
+        assertEquals(List.of(List.of(100L)), flushedIds);
+    }
+
+    @Test
+    void testDurableModeInsertsAllRowsOfTransactionInOneBatchBeforeCommit() {
+        writer = writer(HistoryDurability.DURABLE);
+        TransactionSynchronizationManager.initSynchronization();
+
+        writer.write(operation(1L));
+        writer.write(List.of(operation(2L), operation(3L)));
+        assertTrue(flushedIds.isEmpty());
+
+        TransactionSynchronizationManager.getSynchronizations().forEach(sync -> sync.beforeCommit(false));
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        TransactionSynchronizationManager.getSynchronizations().forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+
+        assertEquals(List.of(List.of(100L, 101L, 102L)), flushedIds);
+        verify(accountRollups).record(argThat(rows -> rows.size() == 3));
+        // the day rows are shared by every deposit to the account; they are updated later, off this transaction
+        verify(accountRollups, never()).apply(any());
+        assertEquals(3.0, meterRegistry.get("history.flush.size").summary().totalAmount());
+        assertNull(TransactionSynchronizationManager.getResource(writer));
+    }
+
+    @Test
+    void testRolledBackTransactionWritesNothing() {
+        writer = writer(HistoryDurability.RELAXED);
+        TransactionSynchronizationManager.initSynchronization();
+
+        writer.write(operation(1L));
+        TransactionSynchronizationManager.getSynchronizations().forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+
+        assertEquals(0, writer.queued());
+        assertTrue(flushedIds.isEmpty());
+    }
+
+    @Test
+    void testRelaxedModeGroupsCommittedTransactionsIntoBatches() {
+        writer = writer(HistoryDurability.RELAXED);
+        ReflectionTestUtils.setField(writer, "flushIntervalMs", 200L);
+
+        for (long account = 1; account <= 5; account++) {
+            TransactionSynchronizationManager.initSynchronization();
+            writer.write(operation(account));
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+            TransactionSynchronizationManager.getSynchronizations().forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertTimeoutPreemptively(Duration.ofSeconds(2), () -> {
+            while (flushedIds.stream().mapToInt(List::size).sum() < 5) {
+                Thread.sleep(10);
+            }
+        });
+        assertTrue(flushedIds.size() < 5, "rows of several transactions share a batch");
+    }
+
+    @Test
+    void testRelaxedModeFallsBackToCallerWhenQueueIsFull() throws InterruptedException {
+        writer = writer(HistoryDurability.RELAXED);
+        writer.shutdown();
+        ReflectionTestUtils.setField(writer, "queue", new ArrayBlockingQueue<OperationHistory>(1));
+        TransactionSynchronizationManager.initSynchronization();
+
+        writer.write(List.of(operation(1L), operation(2L), operation(3L)));
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+
+        assertEquals(1, writer.queued());
+        assertEquals(List.of(List.of(101L, 102L)), flushedIds);
+        assertEquals(1.0, meterRegistry.get("history.queue.overflow").counter().count());
+        verify(transactionManager).getTransaction(argThat(definition ->
+                definition.getPropagationBehavior() == TransactionDefinition.PROPAGATION_REQUIRES_NEW));
+        verify(transactionManager).commit(any());
+        verify(transactionTemplate, never()).executeWithoutResult(any());
+    }
+
+    private OperationHistoryWriter writer(HistoryDurability mode) {
+        OperationHistoryWriter writer = new OperationHistoryWriter(jdbcTemplate, transactionTemplate, historyIdAllocator, accountRollups, meterRegistry);
+        ReflectionTestUtils.setField(writer, "mode", mode);
+        ReflectionTestUtils.setField(writer, "batchSize", 10);
+        writer.init();
+        return writer;
+    }
+
+    private static OperationHistory operation(Long accountId) {
+        return OperationHistoryService.operation(accountId, 7L, "DEPOSIT", 1000L, Currency.USD, "test");
+    }
+}
@@ -3,19 +3,45 @@ package ua.yarynych.apiaccountmanagement.service;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import ua.yarynych.apiaccountmanagement.entity.BankAccount;
-import ua.yarynych.apiaccountmanagement.entity.User;
+import ua.yarynych.apiaccountmanagement.entity.OperationHistory;
+import ua.yarynych.apiaccountmanagement.entity.CurrencyRate;
 import ua.yarynych.apiaccountmanagement.entity.auth.UserAuthDetails;
+import org.springframework.test.util.ReflectionTestUtils;
 import ua.yarynych.apiaccountmanagement.entity.dto.transactions.AccountFundsDto;
+import ua.yarynych.apiaccountmanagement.entity.dto.transactions.BatchTransferRequest;
+import ua.yarynych.apiaccountmanagement.entity.dto.transactions.BatchTransferResponse;
+import ua.yarynych.apiaccountmanagement.entity.dto.transactions.BatchTransferResult;
+import ua.yarynych.apiaccountmanagement.entity.dto.transactions.DepositReceipt;
 import ua.yarynych.apiaccountmanagement.entity.dto.transactions.FundsTransferDto;
+import ua.yarynych.apiaccountmanagement.entity.enums.Currency;
 import ua.yarynych.apiaccountmanagement.entity.enums.Role;
-import ua.yarynych.apiaccountmanagement.service.auth.JwtService;
+import ua.yarynych.apiaccountmanagement.entity.exceptions.DatabaseNotFoundException;
+import ua.yarynych.apiaccountmanagement.service.ledger.JournalEntry;
+import ua.yarynych.apiaccountmanagement.service.ledger.JournalLeg;
+import ua.yarynych.apiaccountmanagement.service.ledger.LedgerJournal;
+import ua.yarynych.apiaccountmanagement.service.wal.WalRecord;
+import ua.yarynych.apiaccountmanagement.service.wal.WriteAheadLog;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -27,124 +53,127 @@ class TransactionsServiceTest {
     private TransactionsService transactionsService;
 
     @Mock
-    private UserService userService;
+    private BankAccountService bankAccountService;
 
     @Mock
-    private JwtService tokenProvider;
+    private CurrencyRateService currencyRateService;
 
     @Mock
-    private BankAccountService bankAccountService;
+    private OperationHistoryService operationHistoryService;
 
     @Mock
-    private CurrencyRateService currencyRateService;
+    private AccountOperationExecutor accountOperations;
 
     @Mock
-    private OperationHistoryService operationHistoryService;
+    private AccountLanes accountLanes;
+
+    @Mock
+    private LedgerJournal ledgerJournal;
+
+    @Mock
+    private WriteAheadLog writeAheadLog;
+
+    @Spy
+    private AccountStripes accountStripes = new AccountStripes(null, null, null);
 
-    private static final String TOKEN = "Bearer validToken";
     private static final String EMAIL = "user@example.com";
     private static final Long USER_ID = 1L;
     private static final Long ACCOUNT_ID = 100L;
     private static final Long ACCOUNT_ID_2 = 200L;
 
-    private User user;
+    private UserAuthDetails principal;
     private BankAccount account;
     private BankAccount account2;
 
     @BeforeEach
     void setUp() {
-        user = new User();
-        user.setId(USER_ID);
-        user.setEmail(EMAIL);
+        principal = UserAuthDetails.build(EMAIL, Role.ROLE_INTERNAL_USER.name());
+        principal.setId(USER_ID);
 
         account = new BankAccount();
         account.setId(ACCOUNT_ID);
         account.setCurrency("USD");
-        account.setAmount(new BigDecimal(1000));
+        account.setAmountMinor(100000L);
 
         account2 = new BankAccount();
         account2.setId(ACCOUNT_ID_2);
         account2.setCurrency("EUR");
-        account2.setAmount(new BigDecimal(500));
-
-        when(tokenProvider.read(anyString())).thenReturn(UserAuthDetails.build(EMAIL, Role.ROLE_INTERNAL_USER.name()));
-        when(userService.findUserByEmail(eq(EMAIL), anyString())).thenReturn(user);
+        account2.setAmountMinor(50000L);
     }
 
     @Test
     void depositFundsShouldIncreaseBalance() {
         AccountFundsDto deposit = new AccountFundsDto(ACCOUNT_ID, new BigDecimal("200"), "USD", "Deposit test");
 
-        when(bankAccountService.findAccountById(ACCOUNT_ID)).thenReturn(account);
+        givenLockedAccounts(account);
         when(bankAccountService.saveAccount(any(BankAccount.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
-        BankAccount updatedAccount = transactionsService.depositFunds(deposit, TOKEN);
+        BankAccount updatedAccount = transactionsService.depositFunds(deposit, principal);
 
-        assertEquals(new BigDecimal("1200"), updatedAccount.getAmount());
-        verify(operationHistoryService).saveOperation(eq(ACCOUNT_ID), eq(USER_ID), eq("DEPOSIT"), eq(new BigDecimal("200")), eq("Deposit test"));
+        assertEquals(120000L, updatedAccount.getAmountMinor());
+        verify(operationHistoryService).saveOperation(eq(ACCOUNT_ID), eq(USER_ID), eq("DEPOSIT"), eq(20000L), eq(Currency.USD), eq("Deposit test"));
     }
 
     @Test
     void depositFundsShouldConvertCurrencyAndIncreaseBalance() {
         AccountFundsDto deposit = new AccountFundsDto(ACCOUNT_ID, new BigDecimal("100"), "EUR", "Deposit in EUR");
 
-        when(bankAccountService.findAccountById(ACCOUNT_ID)).thenReturn(account);
-        when(currencyRateService.convertCurrency(new BigDecimal("100"), "EUR", "USD")).thenReturn(new BigDecimal("110"));
+        givenLockedAccounts(account);
+        when(currencyRateService.convert(10000L, Currency.EUR, Currency.USD, RoundingMode.FLOOR)).thenReturn(11000L);
         when(bankAccountService.saveAccount(any(BankAccount.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
-        BankAccount updatedAccount = transactionsService.depositFunds(deposit, TOKEN);
+        BankAccount updatedAccount = transactionsService.depositFunds(deposit, principal);
 
-        assertEquals(new BigDecimal("1110"), updatedAccount.getAmount());
-        verify(operationHistoryService).saveOperation(eq(ACCOUNT_ID), eq(USER_ID), eq("DEPOSIT"), eq(new BigDecimal("110")), eq("Deposit in EUR"));
+        assertEquals(111000L, updatedAccount.getAmountMinor());
+        verify(operationHistoryService).saveOperation(eq(ACCOUNT_ID), eq(USER_ID), eq("DEPOSIT"), eq(11000L), eq(Currency.USD), eq("Deposit in EUR"));
     }
 
     @Test
     void withdrawFundsShouldDecreaseBalance() {
         AccountFundsDto withdrawal = new AccountFundsDto(ACCOUNT_ID, new BigDecimal("300"), "USD", "Withdraw test");
 
-        when(bankAccountService.findAccountById(ACCOUNT_ID)).thenReturn(account);
+        givenLockedAccounts(account);
         when(bankAccountService.saveAccount(any(BankAccount.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
-        BankAccount updatedAccount = transactionsService.withdrawFunds(withdrawal, TOKEN);
+        BankAccount updatedAccount = transactionsService.withdrawFunds(withdrawal, principal);
 
-        assertEquals(new BigDecimal("700"), updatedAccount.getAmount());
-        verify(operationHistoryService).saveOperation(eq(ACCOUNT_ID), eq(USER_ID), eq("WITHDRAW"), eq(new BigDecimal("300")), eq("Withdraw test"));
+        assertEquals(70000L, updatedAccount.getAmountMinor());
+        verify(operationHistoryService).saveOperation(eq(ACCOUNT_ID), eq(USER_ID), eq("WITHDRAW"), eq(30000L), eq(Currency.USD), eq("Withdraw test"));
     }
 
     @Test
     void withdrawFunds_ShouldThrowException_WhenInsufficientFunds() {
         AccountFundsDto withdrawal = new AccountFundsDto(ACCOUNT_ID, new BigDecimal("2000"), "USD", "Withdraw test");
 
-        when(bankAccountService.findAccountById(ACCOUNT_ID)).thenReturn(account);
+        givenLockedAccounts(account);
 
-        assertThrows(IllegalStateException.class, () -> transactionsService.withdrawFunds(withdrawal, TOKEN));
+        assertThrows(IllegalStateException.class, () -> transactionsService.withdrawFunds(withdrawal, principal));
     }
 
     @Test
     void transferFundsShouldTransferCorrectAmountBetweenAccounts() {
-        account.setAmount(new BigDecimal("1000"));
-        account2.setAmount(new BigDecimal("500"));
+        account.setAmountMinor(100000L);
+        account2.setAmountMinor(50000L);
 
         FundsTransferDto transfer = new FundsTransferDto(
                 ACCOUNT_ID, ACCOUNT_ID_2, new BigDecimal("100"), "USD", "Transfer test"
         );
 
-        when(bankAccountService.findAccountById(ACCOUNT_ID)).thenReturn(account);
-        when(bankAccountService.findAccountById(ACCOUNT_ID_2)).thenReturn(account2);
-        when(currencyRateService.convertCurrency(any(), any(), any())).thenReturn(new BigDecimal("100"));
+        givenLockedAccounts(account, account2);
+        when(currencyRateService.convert(anyLong(), any(), any(), any())).thenReturn(10000L);
         when(bankAccountService.saveAccount(any(BankAccount.class)))
                 .thenAnswer(invocation -> invocation.getArgument(0));
 
-        List<BankAccount> updatedAccounts = transactionsService.transferFunds(transfer, TOKEN);
+        List<BankAccount> updatedAccounts = transactionsService.transferFunds(transfer, principal);
 
-        assertEquals(new BigDecimal("900"), updatedAccounts.get(0).getAmount()); // 1000 - 100
-        assertEquals(new BigDecimal("600"), updatedAccounts.get(1).getAmount()); // 500 + 100
+        assertEquals(90000L, updatedAccounts.get(0).getAmountMinor()); // 1000 - 100
+        assertEquals(60000L, updatedAccounts.get(1).getAmountMinor()); // 500 + 100
 
         verify(operationHistoryService).saveOperation(
-                eq(ACCOUNT_ID), eq(USER_ID), eq("WITHDRAW"), eq(new BigDecimal("100")), eq("Transfer test")
+                eq(ACCOUNT_ID), eq(USER_ID), eq("WITHDRAW"), eq(10000L), eq(Currency.USD), eq("Transfer test")
         );
         verify(operationHistoryService).saveOperation(
-                eq(ACCOUNT_ID_2), eq(USER_ID), eq("DEPOSIT"), eq(new BigDecimal("100")), eq("Transfer test")
+                eq(ACCOUNT_ID_2), eq(USER_ID), eq("DEPOSIT"), eq(10000L), eq(Currency.EUR), eq("Transfer test")
         );
     }
 
@@ -152,26 +181,283 @@ class TransactionsServiceTest {
     void transferFundsShouldConvertCurrencyDuringTransfer() {
         FundsTransferDto transfer = new FundsTransferDto(ACCOUNT_ID, ACCOUNT_ID_2, new BigDecimal("100"), "USD", "Transfer test");
 
-        when(bankAccountService.findAccountById(ACCOUNT_ID)).thenReturn(account);
-        when(bankAccountService.findAccountById(ACCOUNT_ID_2)).thenReturn(account2);
-        when(currencyRateService.convertCurrency(new BigDecimal("100"), "USD", "EUR")).thenReturn(new BigDecimal("90"));
+        givenLockedAccounts(account, account2);
+        when(currencyRateService.convert(10000L, Currency.USD, Currency.EUR, RoundingMode.FLOOR)).thenReturn(9000L);
         when(bankAccountService.saveAccount(any(BankAccount.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
-        List<BankAccount> updatedAccounts = transactionsService.transferFunds(transfer, TOKEN);
+        List<BankAccount> updatedAccounts = transactionsService.transferFunds(transfer, principal);
 
-        assertEquals(new BigDecimal("900"), updatedAccounts.get(0).getAmount());
-        assertEquals(new BigDecimal("590"), updatedAccounts.get(1).getAmount());
+        assertEquals(90000L, updatedAccounts.get(0).getAmountMinor());
+        assertEquals(59000L, updatedAccounts.get(1).getAmountMinor());
 
-        verify(operationHistoryService).saveOperation(eq(ACCOUNT_ID), eq(USER_ID), eq("WITHDRAW"), eq(new BigDecimal("100")), eq("Transfer test"));
-        verify(operationHistoryService).saveOperation(eq(ACCOUNT_ID_2), eq(USER_ID), eq("DEPOSIT"), eq(new BigDecimal("90")), eq("Transfer test"));
+        verify(operationHistoryService).saveOperation(eq(ACCOUNT_ID), eq(USER_ID), eq("WITHDRAW"), eq(10000L), eq(Currency.USD), eq("Transfer test"));
+        verify(operationHistoryService).saveOperation(eq(ACCOUNT_ID_2), eq(USER_ID), eq("DEPOSIT"), eq(9000L), eq(Currency.EUR), eq("Transfer test"));
+    }
+
+    @Test
+    void transferFundsShouldAppendOneBalancedJournalEntry() {
+        FundsTransferDto transfer = new FundsTransferDto(ACCOUNT_ID, ACCOUNT_ID_2, new BigDecimal("100"), "USD", "Transfer test");
+
+        givenLockedAccounts(account, account2);
+        when(currencyRateService.convert(10000L, Currency.USD, Currency.EUR, RoundingMode.FLOOR)).thenReturn(9000L);
+        when(bankAccountService.saveAccount(any(BankAccount.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        transactionsService.transferFunds(transfer, principal);
+
+        ArgumentCaptor<JournalEntry> entry = ArgumentCaptor.forClass(JournalEntry.class);
+        verify(ledgerJournal, times(1)).append(entry.capture());
+        assertEquals(List.of(
+                new JournalLeg(ACCOUNT_ID, null, Currency.USD, -10000L),
+                new JournalLeg(ACCOUNT_ID_2, null, Currency.EUR, 9000L),
+                new JournalLeg(null, JournalLeg.FX, Currency.USD, 10000L),
+                new JournalLeg(null, JournalLeg.FX, Currency.EUR, -9000L)), entry.getValue().balanced());
     }
 
     @Test
     void transferFundsShouldThrowException_WhenInsufficientFunds() {
         FundsTransferDto transfer = new FundsTransferDto(ACCOUNT_ID, ACCOUNT_ID_2, new BigDecimal("2000"), "USD", "Transfer test");
 
-        when(bankAccountService.findAccountById(ACCOUNT_ID)).thenReturn(account);
+        givenLockedAccounts(account, account2);
+
+        assertThrows(IllegalStateException.class, () -> transactionsService.transferFunds(transfer, principal));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void depositFundsAsyncShouldApplyCoalescedDepositsWithOneRowUpdate() {
+        givenLockedAccounts(account);
+        when(accountLanes.isEnabled()).thenReturn(true);
+        when(currencyRateService.convert(10000L, Currency.EUR, Currency.USD, RoundingMode.FLOOR)).thenReturn(11000L);
+
+        List<Object> pending = new ArrayList<>();
+        List<BiFunction<Long, List<Object>, List<BankAccount>>> batches = new ArrayList<>();
+        when(accountLanes.submitCoalescing(eq(ACCOUNT_ID), eq("deposit"), any(), any(BiFunction.class)))
+                .thenAnswer(invocation -> {
+                    pending.add(invocation.getArgument(2));
+                    batches.add(invocation.getArgument(3));
+                    return new CompletableFuture<>();
+                });
+
+        transactionsService.depositFundsAsync(new AccountFundsDto(ACCOUNT_ID, new BigDecimal("200"), "USD", "First"), principal);
+        transactionsService.depositFundsAsync(new AccountFundsDto(ACCOUNT_ID, new BigDecimal("100"), "EUR", "Second"), principal);
+
+        List<BankAccount> results = batches.get(0).apply(ACCOUNT_ID, pending);
+
+        assertEquals(120000L, results.get(0).getAmountMinor());
+        assertEquals(131000L, results.get(1).getAmountMinor());
+        assertEquals(131000L, account.getAmountMinor());
+        verify(accountOperations, times(1)).execute(eq("deposit"), eq(ACCOUNT_ID), any(Function.class));
+        verify(bankAccountService, times(1)).saveAccount(account);
+        verify(operationHistoryService).saveOperations(argThat(operations -> operations.size() == 2
+                && operations.get(1).getAmountMinor() == 11000L && "USD".equals(operations.get(1).getCurrency())));
+        verify(operationHistoryService, never()).saveOperation(any(), any(), any(), anyLong(), any(), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void coalescedDepositsShouldReturnTheVersionWrittenAtCommit() {
+        account.setVersion(3L);
+        when(accountLanes.isEnabled()).thenReturn(true);
+        when(accountOperations.execute(eq("deposit"), eq(ACCOUNT_ID), any(Function.class))).thenAnswer(invocation -> {
+            Object result = ((Function<BankAccount, ?>) invocation.getArgument(2)).apply(account);
+            account.setVersion(account.getVersion() + 1);
+            return result;
+        });
+
+        List<Object> pending = new ArrayList<>();
+        List<BiFunction<Long, List<Object>, List<BankAccount>>> batches = new ArrayList<>();
+        when(accountLanes.submitCoalescing(eq(ACCOUNT_ID), eq("deposit"), any(), any(BiFunction.class)))
+                .thenAnswer(invocation -> {
+                    pending.add(invocation.getArgument(2));
+                    batches.add(invocation.getArgument(3));
+                    return new CompletableFuture<>();
+                });
+
+        transactionsService.depositFundsAsync(new AccountFundsDto(ACCOUNT_ID, new BigDecimal("200"), "USD", "First"), principal);
+        transactionsService.depositFundsAsync(new AccountFundsDto(ACCOUNT_ID, new BigDecimal("100"), "USD", "Second"), principal);
+
+        List<BankAccount> results = batches.get(0).apply(ACCOUNT_ID, pending);
+
+        assertEquals(List.of(120000L, 130000L), results.stream().map(BankAccount::getAmountMinor).toList());
+        assertTrue(results.stream().allMatch(result -> result.getVersion() == 4L));
+    }
+
+    @Test
+    void depositFundsAsyncWithoutLanesShouldDepositImmediately() throws Exception {
+        givenLockedAccounts(account);
+        when(bankAccountService.saveAccount(any(BankAccount.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        CompletableFuture<BankAccount> result = transactionsService.depositFundsAsync(
+                new AccountFundsDto(ACCOUNT_ID, new BigDecimal("200"), "USD", "Deposit test"), principal);
+
+        assertTrue(result.isDone());
+        assertEquals(120000L, result.get().getAmountMinor());
+        verify(accountLanes, never()).submitCoalescing(any(), any(), any(), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void depositToStripedAccountShouldCreditStripeWithoutLockingRow() {
+        account.setStripeCount(4);
+        doReturn(true).when(accountStripes).isStriped(ACCOUNT_ID);
+        doReturn(true).when(accountStripes).credit(account, 20000L);
+        doReturn(5000L).when(accountStripes).stripeBalance(account);
+        when(accountOperations.executeUnlocked(eq("deposit"), eq(ACCOUNT_ID), any(Function.class)))
+                .thenAnswer(invocation -> ((Function<BankAccount, ?>) invocation.getArgument(2)).apply(account));
+
+        BankAccount result = transactionsService.depositFunds(new AccountFundsDto(ACCOUNT_ID, new BigDecimal("200"), "USD", "Hot"), principal);
+
+        assertEquals(105000L, result.getAmountMinor());
+        assertEquals(100000L, account.getAmountMinor());
+        verify(accountOperations, never()).execute(anyString(), anyLong(), any(Function.class));
+        verify(bankAccountService, never()).saveAccount(any());
+        verify(operationHistoryService).saveOperation(eq(ACCOUNT_ID), eq(USER_ID), eq("DEPOSIT"), eq(20000L), eq(Currency.USD), eq("Hot"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void depositShouldFallBackToRowLockWhenStripesAreGone() {
+        givenLockedAccounts(account);
+        doReturn(true).when(accountStripes).isStriped(ACCOUNT_ID);
+        when(accountOperations.executeUnlocked(eq("deposit"), eq(ACCOUNT_ID), any(Function.class)))
+                .thenAnswer(invocation -> ((Function<BankAccount, ?>) invocation.getArgument(2)).apply(account));
+        when(bankAccountService.saveAccount(any(BankAccount.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        BankAccount result = transactionsService.depositFunds(new AccountFundsDto(ACCOUNT_ID, new BigDecimal("200"), "USD", "Hot"), principal);
+
+        assertEquals(120000L, result.getAmountMinor());
+        verify(operationHistoryService, times(1)).saveOperation(any(), any(), any(), anyLong(), any(), any());
+    }
+
+    @Test
+    void depositFundsLoggedShouldAcknowledgeWithoutTouchingAccount() throws Exception {
+        when(bankAccountService.accountExists(ACCOUNT_ID)).thenReturn(true);
+        when(writeAheadLog.append(ACCOUNT_ID, USER_ID, 20000L, Currency.USD, "Logged"))
+                .thenReturn(CompletableFuture.completedFuture(new WalRecord(42L, ACCOUNT_ID, USER_ID, 20000L, Currency.USD, "Logged", 0L)));
+
+        DepositReceipt receipt = transactionsService.depositFundsLogged(
+                new AccountFundsDto(ACCOUNT_ID, new BigDecimal("200"), "USD", "Logged"), principal).get();
 
-        assertThrows(IllegalStateException.class, () -> transactionsService.transferFunds(transfer, TOKEN));
+        assertEquals(42L, receipt.getSequence());
+        assertEquals(ACCOUNT_ID, receipt.getAccountId());
+        verifyNoInteractions(accountOperations, operationHistoryService, ledgerJournal);
+    }
+
+    @Test
+    void depositFundsLoggedShouldRejectUnknownAccount() {
+        when(bankAccountService.accountExists(ACCOUNT_ID)).thenReturn(false);
+
+        assertThrows(DatabaseNotFoundException.class, () -> transactionsService.depositFundsLogged(
+                new AccountFundsDto(ACCOUNT_ID, new BigDecimal("200"), "USD", "Logged"), principal));
+        verifyNoInteractions(writeAheadLog);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void applyLoggedDepositsShouldCreditAccountsInOneTransaction() {
+        givenLockedAccounts(account, account2);
+        when(currencyRateService.convert(10000L, Currency.USD, Currency.EUR, RoundingMode.FLOOR)).thenReturn(9000L);
+        Runnable marker = mock(Runnable.class);
+
+        transactionsService.applyLoggedDeposits(List.of(
+                new WalRecord(1L, ACCOUNT_ID, USER_ID, 20000L, Currency.USD, "First", 0L),
+                new WalRecord(2L, ACCOUNT_ID, USER_ID, 5000L, Currency.USD, "Second", 0L),
+                new WalRecord(3L, ACCOUNT_ID_2, USER_ID, 10000L, Currency.USD, "Third", 0L)), marker);
+
+        assertEquals(125000L, account.getAmountMinor());
+        assertEquals(59000L, account2.getAmountMinor());
+        ArgumentCaptor<List<OperationHistory>> history = ArgumentCaptor.forClass(List.class);
+        verify(operationHistoryService).saveOperations(history.capture());
+        assertEquals(3, history.getValue().size());
+        verify(ledgerJournal).append(anyList());
+        verify(marker).run();
+        verify(accountOperations).executeAll(eq("wal-deposit"), eq(Set.of(ACCOUNT_ID, ACCOUNT_ID_2)), any(Function.class));
+    }
+
+    @Test
+    void withdrawFundsShouldWaitForLoggedDeposits() {
+        givenLockedAccounts(account);
+        when(bankAccountService.saveAccount(any(BankAccount.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        transactionsService.withdrawFunds(new AccountFundsDto(ACCOUNT_ID, new BigDecimal("10"), "USD", "Cash"), principal);
+
+        InOrder inOrder = inOrder(writeAheadLog, accountOperations);
+        inOrder.verify(writeAheadLog).awaitApplied(List.of(ACCOUNT_ID));
+        inOrder.verify(accountOperations).execute(eq("withdraw"), eq(ACCOUNT_ID), any(Function.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void givenLockedAccounts(BankAccount... accounts) {
+        Map<Long, BankAccount> locked = Stream.of(accounts).collect(Collectors.toMap(BankAccount::getId, Function.identity()));
+
+        lenient().when(accountOperations.execute(anyString(), anyLong(), any(Function.class)))
+                .thenAnswer(invocation -> ((Function<BankAccount, ?>) invocation.getArgument(2)).apply(locked.get(invocation.<Long>getArgument(1))));
+        lenient().when(accountOperations.execute(anyString(), anyCollection(), any(Function.class)))
+                .thenAnswer(invocation -> {
+                    assertTrue(locked.keySet().containsAll(invocation.<Collection<Long>>getArgument(1)));
+                    return ((Function<Map<Long, BankAccount>, ?>) invocation.getArgument(2)).apply(locked);
+                });
+        lenient().when(accountOperations.executeAll(anyString(), anyCollection(), any(Function.class)))
+                .thenAnswer(invocation -> ((Function<Map<Long, BankAccount>, ?>) invocation.getArgument(2)).apply(locked));
+    }
+
+    @Test
+    void transferBatchShouldApplyValidItemsAndReportRejectedOnes() {
+        givenLockedAccounts(account, account2);
+        when(bankAccountService.findOwnedAccountIds(Set.of(ACCOUNT_ID, ACCOUNT_ID_2), principal)).thenReturn(Set.of(ACCOUNT_ID));
+        when(currencyRateService.rates()).thenReturn(CurrencyRates.of(List.of(
+                new CurrencyRate(1L, "USD", "EUR", new BigDecimal("0.9"), LocalDateTime.now()))));
+
+        BatchTransferRequest request = new BatchTransferRequest(List.of(
+                new FundsTransferDto(ACCOUNT_ID, ACCOUNT_ID_2, new BigDecimal("100"), "USD", "Payroll"),
+                new FundsTransferDto(ACCOUNT_ID_2, ACCOUNT_ID, new BigDecimal("50"), "EUR", "Not owned"),
+                new FundsTransferDto(ACCOUNT_ID, ACCOUNT_ID_2, new BigDecimal("5000"), "USD", "Too much")
+        ), false);
+
+        BatchTransferResponse response = transactionsService.transferBatch(request, principal);
+
+        assertTrue(response.isCommitted());
+        assertEquals(1, response.getApplied());
+        assertEquals(2, response.getRejected());
+        assertEquals(BatchTransferResult.Status.APPLIED, response.getResults().get(0).getStatus());
+        assertEquals(BatchTransferResult.Status.REJECTED, response.getResults().get(1).getStatus());
+        assertEquals("Insufficient funds", response.getResults().get(2).getError());
+        assertEquals(90000L, account.getAmountMinor());
+        assertEquals(59000L, account2.getAmountMinor());
+        verify(operationHistoryService).saveOperations(argThat(operations -> operations.size() == 2));
+        verify(operationHistoryService, never()).saveOperation(any(), any(), any(), anyLong(), any(), any());
+    }
+
+    @Test
+    void transferBatchAtomicShouldRollBackOnFirstFailure() {
+        givenLockedAccounts(account, account2);
+        when(bankAccountService.findOwnedAccountIds(Set.of(ACCOUNT_ID), principal)).thenReturn(Set.of(ACCOUNT_ID));
+        when(currencyRateService.rates()).thenReturn(CurrencyRates.of(List.of(
+                new CurrencyRate(1L, "USD", "EUR", new BigDecimal("0.9"), LocalDateTime.now()))));
+
+        BatchTransferRequest request = new BatchTransferRequest(List.of(
+                new FundsTransferDto(ACCOUNT_ID, ACCOUNT_ID_2, new BigDecimal("100"), "USD", "Payroll"),
+                new FundsTransferDto(ACCOUNT_ID, ACCOUNT_ID_2, new BigDecimal("5000"), "USD", "Too much")
+        ), true);
+
+        BatchTransferResponse response = transactionsService.transferBatch(request, principal);
+
+        assertFalse(response.isCommitted());
+        assertEquals(0, response.getApplied());
+        assertEquals(BatchTransferResult.Status.ROLLED_BACK, response.getResults().get(0).getStatus());
+        assertEquals(BatchTransferResult.Status.REJECTED, response.getResults().get(1).getStatus());
+        verify(operationHistoryService, never()).saveOperations(any());
+    }
+
+    @Test
+    void transferBatchShouldRejectOversizedBatch() {
+        ReflectionTestUtils.setField(transactionsService, "maxBatchSize", 1);
+        BatchTransferRequest request = new BatchTransferRequest(List.of(
+                new FundsTransferDto(ACCOUNT_ID, ACCOUNT_ID_2, BigDecimal.ONE, "USD", null),
+                new FundsTransferDto(ACCOUNT_ID, ACCOUNT_ID_2, BigDecimal.ONE, "USD", null)
+        ), false);
+
+        assertThrows(IllegalArgumentException.class, () -> transactionsService.transferBatch(request, principal));
+        verifyNoInteractions(accountOperations);
     }
 }
@@ -0,0 +1,111 @@
+package ua.yarynych.apiaccountmanagement.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+import ua.yarynych.apiaccountmanagement.repository.UserRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class UserEmailIndexTest {
+
+    @Mock
+    private UserRepository userRepository;
+
+    private SimpleMeterRegistry meterRegistry;
+    private UserEmailIndex emailIndex;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        emailIndex = new UserEmailIndex(userRepository, meterRegistry);
+        ReflectionTestUtils.setField(emailIndex, "expectedInsertions", 1000L);
+        emailIndex.init();
+    }
+
+    @Test
+    void testEverythingMightExistBeforeWarmUp() {
+        assertTrue(emailIndex.mightContain("anyone@example.com"));
+    }
+
+    @Test
+    void testWarmUpLoadsEmailsFromRepository() {
+        when(userRepository.findEmailsAfter(anyLong(), any(Pageable.class)))
+                .thenReturn(List.of(row(1L, "Test@Example.com"), row(2L, "other@example.com")));
+
+        emailIndex.warm();
+
+        assertTrue(emailIndex.mightContain("test@example.com"));
+        assertTrue(emailIndex.mightContain("OTHER@example.com"));
+        assertFalse(emailIndex.mightContain("missing@example.com"));
+        assertEquals(1.0, meterRegistry.get("users.email-index.lookups").tag("result", "absent").counter().count());
+    }
+
+    @Test
+    void testAddedEmailIsVisible() {
+        when(userRepository.findEmailsAfter(anyLong(), any(Pageable.class))).thenReturn(List.of());
+        emailIndex.warm();
+
+        emailIndex.add("new@example.com");
+
+        assertTrue(emailIndex.mightContain("new@example.com"));
+    }
+
+    @Test
+    void testFalsePositiveRateStaysNearConfigured() {
+        when(userRepository.findEmailsAfter(anyLong(), any(Pageable.class))).thenReturn(List.of());
+        emailIndex.warm();
+        for (int i = 0; i < 1000; i++) {
+            emailIndex.add("user" + i + "@example.com");
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (emailIndex.mightContain("stranger" + i + "@example.com")) {
+                falsePositives++;
+            }
+        }
+
+        assertTrue(falsePositives < 300, "false positives: " + falsePositives);
+    }
+
+    @Test
+    void testRebuildsAfterManyRemovals() {
+        List<UserRepository.EmailRow> rows = new ArrayList<>(List.of(row(1L, "gone@example.com")));
+        when(userRepository.findEmailsAfter(anyLong(), any(Pageable.class))).thenAnswer(invocation -> List.copyOf(rows));
+        emailIndex.warm();
+
+        rows.clear();
+        emailIndex.markRemoved();
+        emailIndex.markRemoved();
+        emailIndex.maintain();
+
+        assertFalse(emailIndex.mightContain("gone@example.com"));
+    }
+
+    private static UserRepository.EmailRow row(Long id, String email) {
+        return new UserRepository.EmailRow() {
+            @Override
+            public Long getId() {
+                return id;
+            }
+
+            @Override
+            public String getEmail() {
+                return email;
+            }
+        };
+    }
+}
@@ -5,16 +5,17 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
-import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import ua.yarynych.apiaccountmanagement.entity.User;
 import ua.yarynych.apiaccountmanagement.entity.auth.UserAuthDetails;
 import ua.yarynych.apiaccountmanagement.entity.dto.user.UserUpdateRequest;
 import ua.yarynych.apiaccountmanagement.entity.enums.Role;
 import ua.yarynych.apiaccountmanagement.entity.exceptions.DatabaseNotFoundException;
 import ua.yarynych.apiaccountmanagement.repository.UserRepository;
-import ua.yarynych.apiaccountmanagement.service.auth.JwtService;
+import ua.yarynych.apiaccountmanagement.service.auth.SessionRegistry;
 
 import java.util.List;
 import java.util.Optional;
@@ -29,62 +30,43 @@ class UserServiceTest {
     private UserRepository userRepository;
 
     @Mock
-    private JwtService tokenProvider;
+    private SessionRegistry sessionRegistry;
+
+    @Mock
+    private UserEmailIndex emailIndex;
 
-    @Spy
     @InjectMocks
     private UserService userService;
 
     private User user;
-    private String validToken;
+    private UserAuthDetails principal;
 
     @BeforeEach
     void setUp() {
         user = new User();
         user.setId(1L);
         user.setEmail("test@example.com");
-        user.setToken("validToken");
-
-        validToken = "Bearer validToken";
 
-        lenient().when(tokenProvider.read("validToken")).thenReturn(UserAuthDetails.build(user.getEmail(), Role.ROLE_INTERNAL_USER.name()));
+        principal = UserAuthDetails.build(user.getEmail(), Role.ROLE_INTERNAL_USER.name());
+        principal.setId(1L);
     }
 
     @Test
     void testGetAllUsersSuccess() {
         when(userRepository.findAll()).thenReturn(List.of(user));
-        when(userRepository.findByEmail("test@example.com")).thenReturn(Optional.of(user));
-        when(userService.validateUserAuthStatus("Bearer validToken")).thenReturn(true);
 
-        List<User> users = userService.getAllUsers("Bearer validToken");
+        List<User> users = userService.getAllUsers();
 
         assertFalse(users.isEmpty());
         assertEquals(1, users.size());
         assertEquals("test@example.com", users.get(0).getEmail());
     }
 
-
-
-    @Test
-    void testGetAllUsersInvalidToken() {
-        String invalidToken = "invalidToken";
-
-        doReturn(false).when(userService).validateUserAuthStatus(invalidToken);
-
-        assertThrows(BadCredentialsException.class, () -> userService.getAllUsers(invalidToken));
-
-        verify(userRepository, never()).findAll();
-    }
-
     @Test
     void testFindUserByEmailSuccess() {
-        User user = new User();
-        user.setEmail("test@example.com");
-
         when(userRepository.findByEmail("test@example.com")).thenReturn(Optional.of(user));
-        doReturn(true).when(userService).validateUserAuthStatus("validToken"); // Використовуємо doReturn
 
-        User foundUser = userService.findUserByEmail("test@example.com", "validToken");
+        User foundUser = userService.findUserByEmail("test@example.com");
 
         assertNotNull(foundUser);
         assertEquals("test@example.com", foundUser.getEmail());
@@ -92,34 +74,31 @@ class UserServiceTest {
 
     @Test
     void testFindUserByEmailNotFound() {
-        lenient().when(userRepository.findByEmail("notfound@example.com")).thenReturn(Optional.empty());
+        when(userRepository.findByEmail("notfound@example.com")).thenReturn(Optional.empty());
 
-        assertThrows(BadCredentialsException.class, () -> userService.findUserByEmail("notfound@example.com", validToken));
+        assertThrows(BadCredentialsException.class, () -> userService.findUserByEmail("notfound@example.com"));
     }
 
     @Test
     void testFindUserByIdSuccess() {
         when(userRepository.findById(1L)).thenReturn(Optional.of(user));
-        when(userRepository.findByEmail("test@example.com")).thenReturn(Optional.of(user));
-        when(userService.validateUserAuthStatus("Bearer validToken")).thenReturn(true);
 
-        User foundUser = userService.findUserById(1L, "Bearer validToken");
+        User foundUser = userService.findUserById(1L);
 
         assertNotNull(foundUser);
         assertEquals(1L, foundUser.getId());
     }
 
-
-
     @Test
     void testFindUserByIdNotFound() {
-        lenient().when(userRepository.findById(2L)).thenReturn(Optional.empty());
+        when(userRepository.findById(2L)).thenReturn(Optional.empty());
 
-        assertThrows(BadCredentialsException.class, () -> userService.findUserById(2L, validToken));
+        assertThrows(DatabaseNotFoundException.class, () -> userService.findUserById(2L));
     }
 
     @Test
     void testFindUserByEmailForAuthorizationSuccess() {
+        when(emailIndex.mightContain("test@example.com")).thenReturn(true);
         when(userRepository.findByEmail("test@example.com")).thenReturn(Optional.of(user));
 
         User foundUser = userService.findUserByEmailForAuthorization("test@example.com");
@@ -130,11 +109,23 @@ class UserServiceTest {
 
     @Test
     void testFindUserByEmailForAuthorizationNotFound() {
+        when(emailIndex.mightContain("notfound@example.com")).thenReturn(true);
         when(userRepository.findByEmail("notfound@example.com")).thenReturn(Optional.empty());
 
         User foundUser = userService.findUserByEmailForAuthorization("notfound@example.com");
 
         assertNull(foundUser);
+        verify(emailIndex, times(1)).recordMiss();
+    }
+
+    @Test
+    void testFindUserByEmailForAuthorizationSkipsQueryForUnknownEmail() {
+        when(emailIndex.mightContain("unknown@example.com")).thenReturn(false);
+
+        User foundUser = userService.findUserByEmailForAuthorization("unknown@example.com");
+
+        assertNull(foundUser);
+        verify(userRepository, never()).findByEmail(anyString());
     }
 
     @Test
@@ -142,30 +133,17 @@ class UserServiceTest {
         userService.saveUser(user);
 
         verify(userRepository, times(1)).save(user);
+        verify(emailIndex, times(1)).add("test@example.com");
     }
 
     @Test
     void testDeleteUserByIdSuccess() {
-        when(userRepository.findByEmail("test@example.com")).thenReturn(Optional.of(user));
-        when(userService.validateUserAuthStatus("Bearer validToken")).thenReturn(true);
-
-        String result = userService.deleteUserById(1L, "Bearer validToken");
+        String result = userService.deleteUserById(1L);
 
         assertEquals("User deleted successfully", result);
         verify(userRepository, times(1)).deleteById(1L);
-    }
-
-
-
-    @Test
-    void testDeleteUserByIdInvalidToken() {
-        String invalidToken = "invalidToken";
-
-        doReturn(false).when(userService).validateUserAuthStatus(anyString());
-
-        assertThrows(BadCredentialsException.class, () -> userService.deleteUserById(1L, invalidToken));
-
-        verify(userRepository, never()).deleteById(anyLong());
+        verify(sessionRegistry, times(1)).revokeUser(1L);
+        verify(emailIndex, times(1)).markRemoved();
     }
 
     @Test
@@ -174,22 +152,54 @@ class UserServiceTest {
         updateRequest.setFirstName("NewName");
         updateRequest.setEmail("new@example.com");
 
-        when(userRepository.findByEmail("test@example.com")).thenReturn(Optional.of(user));
-        when(userService.validateUserAuthStatus("validToken")).thenReturn(true);
+        when(userRepository.findById(1L)).thenReturn(Optional.of(user));
 
-        User updatedUser = userService.updateUser(updateRequest, validToken);
+        User updatedUser = userService.updateUser(updateRequest, principal);
 
         assertEquals("NewName", updatedUser.getFirstName());
         assertEquals("new@example.com", updatedUser.getEmail());
         verify(userRepository, times(1)).save(updatedUser);
+        verify(userRepository, never()).findByEmail(anyString());
+        verify(emailIndex, times(1)).add("new@example.com");
     }
 
     @Test
-    void testValidateUserAuthStatusValid() {
-        when(userRepository.findByEmail("test@example.com")).thenReturn(Optional.of(user));
+    void testUpdatedEmailIsIndexedOnlyAfterCommit() {
+        UserUpdateRequest updateRequest = new UserUpdateRequest();
+        updateRequest.setEmail("new@example.com");
+        when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            userService.updateUser(updateRequest, principal);
 
-        boolean isValid = userService.validateUserAuthStatus(validToken);
+            verifyNoInteractions(emailIndex);
 
-        assertTrue(isValid);
+            for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+                synchronization.afterCommit();
+            }
+            verify(emailIndex, times(1)).add("new@example.com");
+            verify(emailIndex, times(1)).markRemoved();
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void testSavedUserIsIndexedOnlyAfterCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            userService.saveUser(user);
+
+            verify(userRepository, times(1)).save(user);
+            verifyNoInteractions(emailIndex);
+
+            for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+                synchronization.afterCommit();
+            }
+            verify(emailIndex, times(1)).add("test@example.com");
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
     }
-}
\ No newline at end of file
+}
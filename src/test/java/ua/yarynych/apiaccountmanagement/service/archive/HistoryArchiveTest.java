@@ -0,0 +1,152 @@
+package ua.yarynych.apiaccountmanagement.service.archive;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+import ua.yarynych.apiaccountmanagement.entity.OperationHistory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class HistoryArchiveTest {
+
+    private static final LocalDateTime JANUARY = LocalDateTime.of(2024, 1, 10, 9, 30, 15, 123_000_000);
+    private static final LocalDateTime FEBRUARY = LocalDateTime.of(2024, 2, 3, 18, 0);
+
+    @TempDir
+    Path directory;
+
+    private HistoryArchive archive;
+
+    @BeforeEach
+    void setUp() {
+        archive = new HistoryArchive(mock(JdbcTemplate.class), new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(archive, "directory", directory.toString());
+    }
+
+    @AfterEach
+    void tearDown() {
+        archive.close();
+    }
+
+    @Test
+    void testSegmentsRoundTripEveryColumn() {
+        List<OperationHistory> january = List.of(
+                new OperationHistory(11L, 1L, 5L, "DEPOSIT", 100_000L, "USD", JANUARY, "Salary"),
+                new OperationHistory(12L, 1L, null, "WITHDRAW", 2_550L, "USD", JANUARY.plusHours(1), null),
+                new OperationHistory(10L, 2L, 6L, "DEPOSIT", 700L, "EUR", JANUARY, "Salary"));
+        write(YearMonth.of(2024, 1), january);
+        archive.init();
+
+        List<OperationHistory> read = new ArrayList<>();
+        archive.forEach(1L, LocalDateTime.of(2024, 2, 1, 0, 0), read::add);
+
+        assertEquals(2, read.size());
+        assertEquals(List.of(11L, 12L), read.stream().map(OperationHistory::getId).toList());
+        assertEquals(JANUARY, read.get(0).getOperationDate());
+        assertEquals(5L, read.get(0).getUserId());
+        assertNull(read.get(1).getUserId());
+        assertEquals("WITHDRAW", read.get(1).getOperationType());
+        assertEquals(2_550L, read.get(1).getAmountMinor());
+        assertEquals("USD", read.get(1).getCurrency());
+        assertEquals("Salary", read.get(0).getDescription());
+        assertNull(read.get(1).getDescription());
+        assertEquals(LocalDateTime.of(2024, 2, 1, 0, 0), archive.archivedUntil());
+        assertEquals(JANUARY, archive.firstOperationDate(2L));
+        assertNull(archive.firstOperationDate(3L));
+    }
+
+    @Test
+    void testReadWalksMonthsNewestFirstPastCursorWithFilter() {
+        write(YearMonth.of(2024, 1), List.of(
+                new OperationHistory(1L, 1L, 5L, "DEPOSIT", 100L, "USD", JANUARY, null),
+                new OperationHistory(2L, 1L, 5L, "WITHDRAW", 100L, "USD", JANUARY.plusDays(1), null)));
+        write(YearMonth.of(2024, 2), List.of(
+                new OperationHistory(3L, 1L, 5L, "DEPOSIT", 300L, "USD", FEBRUARY, null),
+                new OperationHistory(4L, 1L, 5L, "DEPOSIT", 400L, "USD", FEBRUARY, null),
+                new OperationHistory(5L, 1L, 5L, "DEPOSIT", 500L, "USD", FEBRUARY.plusDays(1), null)));
+        archive.init();
+
+        List<OperationHistory> page = archive.read(1L, LocalDateTime.of(2024, 1, 1, 0, 0), FEBRUARY, 4L,
+                new HistoryArchive.Filter("DEPOSIT", null, null), 10);
+
+        assertEquals(List.of(3L, 1L), page.stream().map(OperationHistory::getId).toList());
+        assertEquals(List.of(5L), archive.read(1L, LocalDateTime.of(2024, 1, 1, 0, 0), LocalDateTime.of(2024, 3, 1, 0, 0), null,
+                new HistoryArchive.Filter(null, 450L, null), 10).stream().map(OperationHistory::getId).toList());
+    }
+
+    @Test
+    void testArchiveWritesSegmentsThenDeletesRowsOnNextRun() throws Exception {
+        ReflectionTestUtils.setField(archive, "enabled", true);
+        ReflectionTestUtils.setField(archive, "deleteBatchSize", 2);
+        archive.init();
+
+        JdbcTemplate session = mock(JdbcTemplate.class);
+        LocalDate today = LocalDate.of(2025, 8, 20);
+        Timestamp cutoff = Timestamp.valueOf(LocalDateTime.of(2024, 2, 1, 0, 0));
+        when(session.queryForObject(startsWith("SELECT MIN(operation_date)"), eq(Timestamp.class), eq(cutoff)))
+                .thenReturn(Timestamp.valueOf(JANUARY));
+        ResultSet row = mock(ResultSet.class);
+        when(row.getLong(1)).thenReturn(1L);
+        when(row.getLong(2)).thenReturn(9L);
+        when(row.getObject(3, Long.class)).thenReturn(5L);
+        when(row.getString(4)).thenReturn("DEPOSIT");
+        when(row.getLong(5)).thenReturn(100L);
+        when(row.getString(6)).thenReturn("UAH");
+        when(row.getTimestamp(7)).thenReturn(Timestamp.valueOf(JANUARY));
+        doAnswer(invocation -> {
+            invocation.<RowCallbackHandler>getArgument(1).processRow(row);
+            return null;
+        }).when(session).query(any(PreparedStatementCreator.class), any(RowCallbackHandler.class));
+
+        archive.archive(session, today);
+
+        assertTrue(Files.exists(directory.resolve("202401" + ArchiveSegment.SUFFIX)));
+        assertEquals(LocalDateTime.of(2024, 2, 1, 0, 0), archive.archivedUntil());
+        assertEquals(9L, archive.read(9L, JANUARY.minusDays(1), JANUARY.plusDays(1), null, HistoryArchive.Filter.NONE, 10).get(0).getBankAccountId());
+        verify(session, never()).update(anyString(), any(Object[].class));
+
+        Timestamp start = Timestamp.valueOf(LocalDateTime.of(2024, 1, 1, 0, 0));
+        when(session.update(HistoryArchive.DELETE_SQL, start, cutoff, 2)).thenReturn(2, 1);
+
+        archive.archive(session, today);
+
+        verify(session, times(2)).update(HistoryArchive.DELETE_SQL, start, cutoff, 2);
+        verify(session, times(1)).query(any(PreparedStatementCreator.class), any(RowCallbackHandler.class));
+    }
+
+    @Test
+    void testUnfinishedSegmentLeavesNothingBehind() throws Exception {
+        try (ArchiveSegment.Writer writer = ArchiveSegment.writer(directory, YearMonth.of(2024, 1))) {
+            writer.add(new OperationHistory(1L, 1L, 5L, "DEPOSIT", 100L, "USD", JANUARY, null));
+        }
+
+        try (var files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    private void write(YearMonth month, List<OperationHistory> operations) {
+        try (ArchiveSegment.Writer writer = ArchiveSegment.writer(directory, month)) {
+            operations.forEach(writer::add);
+            writer.finish();
+        }
+    }
+}
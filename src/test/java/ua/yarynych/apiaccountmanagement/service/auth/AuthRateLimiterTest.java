@@ -0,0 +1,73 @@
+package ua.yarynych.apiaccountmanagement.service.auth;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import ua.yarynych.apiaccountmanagement.entity.exceptions.TooManyRequestsException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AuthRateLimiterTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private AuthRateLimiter rateLimiter;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        rateLimiter = new AuthRateLimiter(meterRegistry);
+        ReflectionTestUtils.setField(rateLimiter, "keyBurst", 3);
+        ReflectionTestUtils.setField(rateLimiter, "keyPerMinute", 1);
+        ReflectionTestUtils.setField(rateLimiter, "globalBurst", 100);
+        ReflectionTestUtils.setField(rateLimiter, "globalPerSecond", 1);
+        ReflectionTestUtils.setField(rateLimiter, "stripeCount", 4);
+        ReflectionTestUtils.setField(rateLimiter, "maxKeys", 8);
+        rateLimiter.init();
+    }
+
+    @Test
+    void testAddressIsLimitedAfterBurst() {
+        for (int i = 0; i < 3; i++) {
+            rateLimiter.acquire("10.0.0.1", "user" + i + "@example.com");
+        }
+
+        assertThrows(TooManyRequestsException.class, () -> rateLimiter.acquire("10.0.0.1", "other@example.com"));
+        assertDoesNotThrow(() -> rateLimiter.acquire("10.0.0.2", "other@example.com"));
+        assertEquals(1.0, meterRegistry.get("auth.rate-limit.rejected").tag("scope", "address").counter().count());
+    }
+
+    @Test
+    void testEmailIsLimitedAcrossAddresses() {
+        for (int i = 0; i < 3; i++) {
+            rateLimiter.acquire("10.0.0." + i, "Victim@example.com");
+        }
+
+        assertThrows(TooManyRequestsException.class, () -> rateLimiter.acquire("10.0.0.9", "victim@example.com"));
+        assertEquals(1.0, meterRegistry.get("auth.rate-limit.rejected").tag("scope", "email").counter().count());
+    }
+
+    @Test
+    void testGlobalLimitAppliesToEveryone() {
+        ReflectionTestUtils.setField(rateLimiter, "globalBurst", 2);
+        rateLimiter.init();
+
+        rateLimiter.acquire("10.0.0.1", "a@example.com");
+        rateLimiter.acquire("10.0.0.2", "b@example.com");
+
+        assertThrows(TooManyRequestsException.class, () -> rateLimiter.acquire("10.0.0.3", "c@example.com"));
+    }
+
+    @Test
+    void testKeyCountStaysBounded() {
+        for (int i = 0; i < 100; i++) {
+            try {
+                rateLimiter.acquire("10.0.1." + i, null);
+            } catch (TooManyRequestsException ignored) {
+                // keys beyond the stripe capacity share the overflow bucket
+            }
+        }
+
+        assertTrue(rateLimiter.size() <= 8);
+    }
+}
@@ -3,37 +3,52 @@ package ua.yarynych.apiaccountmanagement.service.auth;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.security.authentication.BadCredentialsException;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import ua.yarynych.apiaccountmanagement.entity.User;
 import ua.yarynych.apiaccountmanagement.entity.auth.Token;
 import ua.yarynych.apiaccountmanagement.entity.auth.UserAuthDetails;
+import ua.yarynych.apiaccountmanagement.entity.auth.VerifiedToken;
 import ua.yarynych.apiaccountmanagement.entity.dto.auth.AuthResponse;
 import ua.yarynych.apiaccountmanagement.entity.dto.auth.LoginRequest;
 import ua.yarynych.apiaccountmanagement.entity.dto.auth.RegistrationRequest;
 import ua.yarynych.apiaccountmanagement.entity.enums.Role;
 import ua.yarynych.apiaccountmanagement.entity.exceptions.BadTokenException;
+import ua.yarynych.apiaccountmanagement.entity.exceptions.TooManyRequestsException;
 import ua.yarynych.apiaccountmanagement.service.UserService;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 class AuthServiceTest {
 
+    private static final String CLIENT_ADDRESS = "127.0.0.1";
+
     @Mock
     private UserService userService;
     @Mock
     private JwtService tokenProvider;
     @Mock
-    private PasswordEncoder encoder;
-    @InjectMocks
+    private SessionRegistry sessionRegistry;
+    @Mock
+    private PasswordHashingService passwordHashing;
+    @Mock
+    private AuthRateLimiter rateLimiter;
     private AuthService authService;
 
     private User testUser;
@@ -41,15 +56,16 @@ class AuthServiceTest {
     private LoginRequest loginRequest;
     private RegistrationRequest registrationRequest;
     private AuthResponse authResponse;
-    private String validToken;
     private String refreshToken;
 
     @BeforeEach
     void setUp() {
+        authService = new AuthService(userService, tokenProvider, sessionRegistry, passwordHashing, rateLimiter, Runnable::run);
+
         testUser = new User();
+        testUser.setId(1L);
         testUser.setEmail("test@example.com");
         testUser.setPassword("encodedPassword");
-        testUser.setToken("existingToken");
 
         loginRequest = new LoginRequest();
         loginRequest.setEmail("test@example.com");
@@ -66,59 +82,87 @@ class AuthServiceTest {
         authResponse = new AuthResponse("test", "name");
         authResponse.setEmail("test@example.com");
         authResponse.setAccessToken(new Token("newAccessToken", 259200000));
+        authResponse.setRefreshToken(new Token("newRefreshToken", 345600000));
 
-        validToken = "Bearer newAccessToken";
         refreshToken = "Bearer refreshToken";
 
-        authUserDetails = UserAuthDetails.build(testUser.getEmail(), Role.ROLE_INTERNAL_USER.name());
+        authUserDetails = UserAuthDetails.build(new VerifiedToken(testUser.getEmail(),
+                Role.ROLE_INTERNAL_USER.name(), testUser.getId(), "access", "session-1", Long.MAX_VALUE));
     }
 
     @Test
     void testLoginSuccess() {
         when(userService.findUserByEmailForAuthorization(loginRequest.getEmail())).thenReturn(testUser);
-        when(encoder.matches(loginRequest.getPassword(), testUser.getPassword())).thenReturn(true);
-        when(tokenProvider.token(testUser)).thenReturn(authResponse);
+        when(passwordHashing.matches(loginRequest.getPassword(), testUser.getPassword())).thenReturn(CompletableFuture.completedFuture(true));
+        when(tokenProvider.token(eq(testUser), anyString())).thenReturn(authResponse);
 
-        AuthResponse response = authService.login(loginRequest);
+        AuthResponse response = authService.login(loginRequest, CLIENT_ADDRESS).join();
 
         assertNotNull(response);
         assertEquals(testUser.getEmail(), response.getEmail());
         assertEquals("newAccessToken", response.getAccessToken().getToken());
-        verify(userService).saveUser(testUser);
+        verify(sessionRegistry).open(anyString(), eq(testUser.getId()), eq(345600000L));
+        verify(userService, never()).saveUser(any(User.class));
+    }
+
+    @Test
+    void testLoginContinuesOffTheHashingPool() {
+        List<Runnable> handedOff = new ArrayList<>();
+        authService = new AuthService(userService, tokenProvider, sessionRegistry, passwordHashing, rateLimiter, handedOff::add);
+        when(userService.findUserByEmailForAuthorization(loginRequest.getEmail())).thenReturn(testUser);
+        when(passwordHashing.matches(loginRequest.getPassword(), testUser.getPassword())).thenReturn(CompletableFuture.completedFuture(true));
+        when(tokenProvider.token(eq(testUser), anyString())).thenReturn(authResponse);
+
+        CompletableFuture<AuthResponse> response = authService.login(loginRequest, CLIENT_ADDRESS);
+
+        assertFalse(response.isDone());
+        verifyNoInteractions(tokenProvider, sessionRegistry);
+        assertEquals(1, handedOff.size());
+
+        handedOff.get(0).run();
+
+        assertEquals("newAccessToken", response.join().getAccessToken().getToken());
     }
 
     @Test
     void testLoginUserNotFound() {
         when(userService.findUserByEmailForAuthorization(loginRequest.getEmail())).thenReturn(null);
 
-        assertThrows(BadCredentialsException.class, () -> authService.login(loginRequest));
+        assertThrows(BadCredentialsException.class, () -> authService.login(loginRequest, CLIENT_ADDRESS));
     }
 
     @Test
     void testLoginWrongPassword() {
         when(userService.findUserByEmailForAuthorization(loginRequest.getEmail())).thenReturn(testUser);
-        when(encoder.matches(loginRequest.getPassword(), testUser.getPassword())).thenReturn(false);
+        when(passwordHashing.matches(loginRequest.getPassword(), testUser.getPassword())).thenReturn(CompletableFuture.completedFuture(false));
+
+        CompletionException exception = assertThrows(CompletionException.class, () -> authService.login(loginRequest, CLIENT_ADDRESS).join());
+        assertInstanceOf(BadCredentialsException.class, exception.getCause());
+    }
 
-        assertThrows(BadCredentialsException.class, () -> authService.login(loginRequest));
+    @Test
+    void testThrottledLoginSkipsLookupAndHashing() {
+        doThrow(new TooManyRequestsException()).when(rateLimiter).acquire(CLIENT_ADDRESS, loginRequest.getEmail());
+
+        assertThrows(TooManyRequestsException.class, () -> authService.login(loginRequest, CLIENT_ADDRESS));
+        verifyNoInteractions(userService, passwordHashing);
     }
 
     @Test
     void testRegistrationUserAlreadyExists() {
         when(userService.findUserByEmailForAuthorization(registrationRequest.getEmail())).thenReturn(testUser);
 
-        assertThrows(BadCredentialsException.class, () -> authService.registration(registrationRequest));
+        assertThrows(BadCredentialsException.class, () -> authService.registration(registrationRequest, CLIENT_ADDRESS));
     }
 
     @Test
     void testLogoutSuccess() {
-        when(tokenProvider.read(anyString())).thenReturn(authUserDetails);
-        when(userService.findUserByEmail(anyString(), anyString())).thenReturn(testUser);
+        when(userService.findUserById(testUser.getId())).thenReturn(testUser);
 
-        AuthResponse response = authService.logout(validToken);
+        AuthResponse response = authService.logout(authUserDetails);
 
         assertNotNull(response);
-        assertNull(testUser.getToken());
-        verify(userService).saveUser(testUser);
+        verify(sessionRegistry).revoke("session-1", testUser.getId());
     }
 
     @Test
@@ -128,27 +172,49 @@ class AuthServiceTest {
 
     @Test
     void testRefreshTokenSuccess() {
-        when(tokenProvider.read(anyString())).thenReturn(authUserDetails);
-        when(userService.findUserByEmail(anyString(), anyString())).thenReturn(testUser);
-        when(tokenProvider.token(testUser)).thenReturn(authResponse);
+        VerifiedToken verified = new VerifiedToken(testUser.getEmail(),
+                Role.ROLE_INTERNAL_USER.name(), testUser.getId(), "refresh", "session-1", Long.MAX_VALUE);
+        when(tokenProvider.verify(anyString())).thenReturn(verified);
+        when(sessionRegistry.isActive(verified)).thenReturn(true);
+        when(userService.findUserById(testUser.getId())).thenReturn(testUser);
+        when(tokenProvider.token(eq(testUser), anyString())).thenReturn(authResponse);
 
         AuthResponse response = authService.refreshToken(refreshToken);
 
         assertNotNull(response);
         assertEquals(testUser.getEmail(), response.getEmail());
-        verify(userService).saveUser(testUser);
+        verify(sessionRegistry).revoke("session-1", testUser.getId());
     }
 
     @Test
     void testRegistrationSuccess() {
         when(userService.findUserByEmailForAuthorization(registrationRequest.getEmail())).thenReturn(null);
-        when(encoder.encode(registrationRequest.getPassword())).thenReturn("encodedPassword");
-        when(tokenProvider.token(any(User.class))).thenReturn(authResponse);
+        when(passwordHashing.encode(registrationRequest.getPassword())).thenReturn(CompletableFuture.completedFuture("encodedPassword"));
+        when(tokenProvider.token(any(User.class), anyString())).thenReturn(authResponse);
 
-        AuthResponse response = authService.registration(registrationRequest);
+        AuthResponse response = authService.registration(registrationRequest, CLIENT_ADDRESS).join();
 
         assertNotNull(response);
         assertEquals(testUser.getEmail(), response.getEmail());
-        verify(userService).saveUser(any(User.class));
+        verify(userService, times(1)).saveUser(any(User.class));
+    }
+
+    @Test
+    void testRefreshWithAccessTokenIsRejected() {
+        when(tokenProvider.verify(anyString())).thenReturn(new VerifiedToken(testUser.getEmail(),
+                Role.ROLE_INTERNAL_USER.name(), testUser.getId(), "access", "session-1", Long.MAX_VALUE));
+
+        assertThrows(BadTokenException.class, () -> authService.refreshToken(refreshToken));
+    }
+
+    @Test
+    void testRefreshWithRevokedSessionIsRejected() {
+        VerifiedToken verified = new VerifiedToken(testUser.getEmail(),
+                Role.ROLE_INTERNAL_USER.name(), testUser.getId(), "refresh", "session-1", Long.MAX_VALUE);
+        when(tokenProvider.verify(anyString())).thenReturn(verified);
+        when(sessionRegistry.isActive(verified)).thenReturn(false);
+
+        assertThrows(BadCredentialsException.class, () -> authService.refreshToken(refreshToken));
+        verify(userService, never()).findUserById(any());
     }
 }
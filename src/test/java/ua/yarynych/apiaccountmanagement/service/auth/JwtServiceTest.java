@@ -13,6 +13,7 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.test.util.ReflectionTestUtils;
 import ua.yarynych.apiaccountmanagement.entity.User;
 import ua.yarynych.apiaccountmanagement.entity.auth.UserAuthDetails;
+import ua.yarynych.apiaccountmanagement.entity.auth.VerifiedToken;
 import ua.yarynych.apiaccountmanagement.entity.dto.auth.AuthResponse;
 import ua.yarynych.apiaccountmanagement.entity.enums.Role;
 import ua.yarynych.apiaccountmanagement.entity.exceptions.BadTokenException;
@@ -45,6 +46,7 @@ class JwtServiceTest {
         ReflectionTestUtils.setField(jwtService, "jwtSecret", secret);
         ReflectionTestUtils.setField(jwtService, "accessValidity", 60000L);
         ReflectionTestUtils.setField(jwtService, "refreshValidity", 120000L);
+        jwtService.init();
     }
 
     @Test
@@ -123,4 +125,30 @@ class JwtServiceTest {
 
         assertThrows(BadTokenException.class, () -> jwtService.validateToken(expiredToken));
     }
+
+    @Test
+    void testVerifyReusesVerifiedClaims() {
+        User user = new User();
+        user.setId(7L);
+        user.setEmail("test@example.com");
+        user.setRole(Role.ROLE_ADMIN);
+
+        String token = jwtService.token(user).getAccessToken().getToken();
+
+        VerifiedToken first = jwtService.verify(token);
+        VerifiedToken second = jwtService.verify(token);
+
+        assertSame(first, second);
+        assertEquals(7L, first.getUserId());
+        assertEquals("access", first.getType());
+        assertEquals(Role.ROLE_ADMIN.name(), first.getRole());
+    }
+
+    @Test
+    void testVerifyInvalidSignatureIsNotCached() {
+        String tampered = validToken.substring(0, validToken.length() - 5) + "AAAAA";
+
+        assertThrows(BadTokenException.class, () -> jwtService.verify(tampered));
+        assertThrows(BadTokenException.class, () -> jwtService.verify(tampered));
+    }
 }
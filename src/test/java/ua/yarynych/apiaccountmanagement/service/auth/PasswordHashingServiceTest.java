@@ -0,0 +1,69 @@
+package ua.yarynych.apiaccountmanagement.service.auth;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.util.ReflectionTestUtils;
+import ua.yarynych.apiaccountmanagement.entity.exceptions.TooManyRequestsException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PasswordHashingServiceTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private PasswordHashingService passwordHashing;
+
+    private PasswordHashingService start(PasswordEncoder encoder, int poolSize, int queueCapacity) {
+        passwordHashing = new PasswordHashingService(encoder, meterRegistry);
+        ReflectionTestUtils.setField(passwordHashing, "poolSize", poolSize);
+        ReflectionTestUtils.setField(passwordHashing, "queueCapacity", queueCapacity);
+        passwordHashing.init();
+        return passwordHashing;
+    }
+
+    @AfterEach
+    void tearDown() {
+        passwordHashing.shutdown();
+    }
+
+    @Test
+    void testEncodeAndMatchOnHashingPool() {
+        start(new BCryptPasswordEncoder(4), 2, 4);
+
+        String encoded = passwordHashing.encode("password").join();
+
+        assertTrue(passwordHashing.matches("password", encoded).join());
+        assertFalse(passwordHashing.matches("wrong", encoded).join());
+        assertEquals(1, meterRegistry.get("auth.password.hash").tag("operation", "encode").timer().count());
+        assertEquals(2, meterRegistry.get("auth.password.hash").tag("operation", "match").timer().count());
+    }
+
+    @Test
+    void testRejectsWhenPoolAndQueueAreFull() {
+        CountDownLatch release = new CountDownLatch(1);
+        PasswordEncoder slowEncoder = mock(PasswordEncoder.class);
+        when(slowEncoder.encode(anyString())).thenAnswer(invocation -> {
+            release.await();
+            return "encoded";
+        });
+        start(slowEncoder, 1, 1);
+
+        CompletableFuture<String> running = passwordHashing.encode("first");
+        CompletableFuture<String> queued = passwordHashing.encode("second");
+
+        assertThrows(TooManyRequestsException.class, () -> passwordHashing.encode("third"));
+        assertEquals(1.0, meterRegistry.get("auth.password.rejected").counter().count());
+
+        release.countDown();
+        assertEquals("encoded", running.join());
+        assertEquals("encoded", queued.join());
+    }
+}
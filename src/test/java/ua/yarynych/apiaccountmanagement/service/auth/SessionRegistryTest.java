@@ -0,0 +1,120 @@
+package ua.yarynych.apiaccountmanagement.service.auth;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import ua.yarynych.apiaccountmanagement.entity.auth.RevokedSession;
+import ua.yarynych.apiaccountmanagement.entity.auth.RevokedUser;
+import ua.yarynych.apiaccountmanagement.entity.auth.VerifiedToken;
+import ua.yarynych.apiaccountmanagement.repository.RevokedSessionRepository;
+import ua.yarynych.apiaccountmanagement.repository.RevokedUserRepository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SessionRegistryTest {
+
+    @Mock
+    private RevokedSessionRepository revokedSessionRepository;
+
+    @Mock
+    private RevokedUserRepository revokedUserRepository;
+
+    @InjectMocks
+    private SessionRegistry sessionRegistry;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(sessionRegistry, "refreshValidity", 60000L);
+    }
+
+    private VerifiedToken token(String sessionId) {
+        return token(sessionId, 1L, 0);
+    }
+
+    private VerifiedToken token(String sessionId, Long userId, long issuedAt) {
+        return new VerifiedToken("test@example.com", "ROLE_INTERNAL_USER", userId, "access",
+                sessionId, System.currentTimeMillis() + 60000, issuedAt);
+    }
+
+    @Test
+    void testOpenedSessionIsActive() {
+        sessionRegistry.open("session-1", 1L, System.currentTimeMillis() + 60000);
+
+        assertTrue(sessionRegistry.isActive(token("session-1")));
+        verifyNoInteractions(revokedSessionRepository);
+    }
+
+    @Test
+    void testTokenWithoutSessionIsRejected() {
+        assertFalse(sessionRegistry.isActive(token(null)));
+    }
+
+    @Test
+    void testRevokedSessionIsRejectedAndPersisted() {
+        sessionRegistry.open("session-1", 1L, System.currentTimeMillis() + 60000);
+
+        sessionRegistry.revoke("session-1", 1L);
+
+        assertFalse(sessionRegistry.isActive(token("session-1")));
+        verify(revokedSessionRepository, times(1)).save(any(RevokedSession.class));
+    }
+
+    @Test
+    void testRevokeUserRevokesAllItsSessions() {
+        sessionRegistry.open("session-1", 1L, System.currentTimeMillis() + 60000);
+        sessionRegistry.open("session-2", 1L, System.currentTimeMillis() + 60000);
+        sessionRegistry.open("session-3", 2L, System.currentTimeMillis() + 60000);
+
+        sessionRegistry.revokeUser(1L);
+
+        assertFalse(sessionRegistry.isActive(token("session-1")));
+        assertFalse(sessionRegistry.isActive(token("session-2")));
+        assertTrue(sessionRegistry.isActive(token("session-3", 2L, 0)));
+        verify(revokedUserRepository).save(argThat(user -> user.getUserId().equals(1L)));
+    }
+
+    @Test
+    void testRevokedUserIsRejectedForSessionsThisNodeNeverSaw() {
+        long revokedAt = (System.currentTimeMillis() / 1000) * 1000;
+        RevokedUser revoked = new RevokedUser(1L, LocalDateTime.now(), LocalDateTime.now().plusHours(1));
+        when(revokedUserRepository.findByRevokedAtAfterAndExpiresAtAfter(any(LocalDateTime.class), any(LocalDateTime.class)))
+                .thenReturn(List.of(revoked));
+
+        sessionRegistry.sync();
+
+        assertFalse(sessionRegistry.isActive(token("other-node-session", 1L, revokedAt)));
+        assertTrue(sessionRegistry.isActive(token("other-user-session", 2L, revokedAt)));
+        assertTrue(sessionRegistry.isActive(token("later-session", 1L, revokedAt + 3_600_000)));
+    }
+
+    @Test
+    void testRebuildLoadsPersistedRevocations() {
+        RevokedSession revoked = new RevokedSession("session-1", 1L, LocalDateTime.now(), LocalDateTime.now().plusHours(1));
+        when(revokedSessionRepository.findByExpiresAtAfter(any(LocalDateTime.class))).thenReturn(List.of(revoked));
+
+        sessionRegistry.rebuild();
+
+        assertFalse(sessionRegistry.isActive(token("session-1")));
+    }
+
+    @Test
+    void testRebuildLoadsRevokedUsers() {
+        RevokedUser revoked = new RevokedUser(1L, LocalDateTime.now(), LocalDateTime.now().plusHours(1));
+        when(revokedUserRepository.findByExpiresAtAfter(any(LocalDateTime.class))).thenReturn(List.of(revoked));
+
+        sessionRegistry.rebuild();
+
+        assertFalse(sessionRegistry.isActive(token("session-1")));
+        assertTrue(sessionRegistry.isActive(token("session-2", 2L, 0)));
+    }
+}
@@ -0,0 +1,57 @@
+package ua.yarynych.apiaccountmanagement.service.ledger;
+
+import org.junit.jupiter.api.Test;
+import ua.yarynych.apiaccountmanagement.entity.enums.Currency;
+import ua.yarynych.apiaccountmanagement.entity.enums.Operations;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JournalEntryTest {
+
+    @Test
+    void testSameCurrencyDepositBalancesAgainstCash() {
+        JournalEntry entry = JournalEntry.of(Operations.DEPOSIT, 1L, "cash in")
+                .cash(Currency.USD, -500L)
+                .post(7L, Currency.USD, 500L);
+
+        assertEquals(List.of(
+                new JournalLeg(null, JournalLeg.CASH, Currency.USD, -500L),
+                new JournalLeg(7L, null, Currency.USD, 500L)), entry.balanced());
+    }
+
+    @Test
+    void testExchangeAddsOneFxLegPerCurrency() {
+        JournalEntry entry = JournalEntry.of(Operations.DEPOSIT, 1L, "cash in")
+                .cash(Currency.EUR, -1000L)
+                .post(7L, Currency.UAH, 45000L);
+
+        List<JournalLeg> legs = entry.balanced();
+
+        assertEquals(4, legs.size());
+        assertTrue(legs.contains(new JournalLeg(null, JournalLeg.FX, Currency.EUR, 1000L)));
+        assertTrue(legs.contains(new JournalLeg(null, JournalLeg.FX, Currency.UAH, -45000L)));
+        for (Currency currency : Currency.values()) {
+            assertEquals(0, legs.stream().filter(leg -> leg.currency() == currency).mapToLong(JournalLeg::amountMinor).sum());
+        }
+    }
+
+    @Test
+    void testUnbalancedSingleCurrencyEntryIsRejected() {
+        JournalEntry entry = JournalEntry.of(Operations.TRANSACTION, 1L, null)
+                .post(7L, Currency.USD, -500L)
+                .post(8L, Currency.USD, 400L);
+
+        assertThrows(IllegalStateException.class, entry::balanced);
+    }
+
+    @Test
+    void testEntryThatOnlyCreatesMoneyIsRejectedAcrossCurrencies() {
+        JournalEntry entry = JournalEntry.of(Operations.TRANSACTION, 1L, null)
+                .post(7L, Currency.USD, 500L)
+                .post(8L, Currency.EUR, 400L);
+
+        assertThrows(IllegalStateException.class, entry::balanced);
+    }
+}
@@ -0,0 +1,102 @@
+package ua.yarynych.apiaccountmanagement.service.ledger;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ua.yarynych.apiaccountmanagement.entity.enums.Currency;
+import ua.yarynych.apiaccountmanagement.entity.enums.Operations;
+import ua.yarynych.apiaccountmanagement.service.HistoryIdAllocator;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class LedgerJournalTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private EntityManager entityManager;
+    private LedgerSnapshots ledgerSnapshots;
+    private LedgerJournal journal;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        entityManager = mock(EntityManager.class);
+        ledgerSnapshots = mock(LedgerSnapshots.class);
+        HistoryIdAllocator idAllocator = mock(HistoryIdAllocator.class);
+
+        AtomicLong ids = new AtomicLong(1);
+        when(idAllocator.next(HistoryIdAllocator.JOURNAL_SEQUENCE)).thenAnswer(invocation -> ids.getAndIncrement());
+        journal = new LedgerJournal(jdbcTemplate, idAllocator, entityManager, ledgerSnapshots, new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testEntriesOutsideTransactionAreInsertedImmediately() {
+        journal.append(transfer());
+
+        verify(jdbcTemplate).batchUpdate(startsWith("INSERT INTO journal_entries"), argThat((Collection<?> rows) -> rows.size() == 1),
+                anyInt(), any(ParameterizedPreparedStatementSetter.class));
+        verify(jdbcTemplate).batchUpdate(startsWith("INSERT INTO journal_legs"), argThat((Collection<?> rows) -> rows.size() == 2),
+                anyInt(), any(ParameterizedPreparedStatementSetter.class));
+        verify(ledgerSnapshots).recordLeg(7L);
+        verify(ledgerSnapshots).recordLeg(8L);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testEntriesInTransactionAreInsertedBeforeCommitAfterAccountRows() {
+        TransactionSynchronizationManager.initSynchronization();
+
+        journal.append(List.of(transfer(), transfer()));
+        verifyNoInteractions(jdbcTemplate);
+
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        synchronizations.forEach(synchronization -> synchronization.beforeCommit(false));
+
+        InOrder order = inOrder(entityManager, jdbcTemplate);
+        order.verify(entityManager).flush();
+        order.verify(jdbcTemplate).batchUpdate(startsWith("INSERT INTO journal_entries"), argThat((Collection<?> rows) -> rows.size() == 2),
+                anyInt(), any(ParameterizedPreparedStatementSetter.class));
+        verifyNoInteractions(ledgerSnapshots);
+
+        synchronizations.forEach(TransactionSynchronization::afterCommit);
+        verify(ledgerSnapshots, times(2)).recordLeg(7L);
+
+        synchronizations.forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+        assertNull(TransactionSynchronizationManager.getResource(journal));
+    }
+
+    @Test
+    void testUnbalancedEntryIsRejectedBeforeAnythingIsWritten() {
+        JournalEntry entry = JournalEntry.of(Operations.WITHDRAW, 1L, null).post(7L, Currency.USD, -100L);
+
+        assertThrows(IllegalStateException.class, () -> journal.append(entry));
+
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    private static JournalEntry transfer() {
+        return JournalEntry.of(Operations.TRANSACTION, 1L, "rent")
+                .post(7L, Currency.USD, -100L)
+                .post(8L, Currency.USD, 100L);
+    }
+}
@@ -0,0 +1,73 @@
+package ua.yarynych.apiaccountmanagement.service.ledger;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class LedgerRebuilderTest {
+
+    private static final Timestamp AT = Timestamp.valueOf("2025-01-01 10:00:00");
+
+    @Test
+    void testFoldStartsFromOpeningBalanceAndSnapshotsEveryNLegs() {
+        LedgerRebuilder.Fold fold = new LedgerRebuilder.Fold(Map.of(7L, 1000L), 2);
+
+        fold.accept(1, 7, 100, AT);
+        fold.accept(4, 7, -50, AT);
+        fold.accept(9, 7, 25, AT);
+        fold.accept(2, 8, 300, AT);
+        fold.finish();
+
+        List<Object[]> snapshots = fold.snapshots();
+        assertEquals(3, snapshots.size());
+        assertArrayEquals(new Object[]{7L, 4L, 1050L, AT}, snapshots.get(0));
+        assertArrayEquals(new Object[]{7L, 9L, 1075L, AT}, snapshots.get(1));
+        assertArrayEquals(new Object[]{8L, 2L, 300L, AT}, snapshots.get(2));
+    }
+
+    @Test
+    void testFoldDoesNotRepeatSnapshotAtAccountEnd() {
+        LedgerRebuilder.Fold fold = new LedgerRebuilder.Fold(Map.of(), 2);
+
+        fold.accept(1, 7, 100, AT);
+        fold.accept(2, 7, 100, AT);
+        fold.finish();
+
+        assertEquals(1, fold.snapshots().size());
+    }
+
+    @Test
+    void testBoundaryIsReadWithAccountsAndStripesLocked() {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<Object>>getArgument(0).doInTransaction(mock(TransactionStatus.class)));
+        when(jdbcTemplate.queryForObject(LedgerRebuilder.BOUNDARY_SQL, Long.class, 1L, 100L)).thenReturn(42L);
+
+        assertEquals(42L, new LedgerRebuilder(jdbcTemplate, transactionTemplate).boundary(1L, 100L));
+
+        InOrder inOrder = inOrder(transactionTemplate, jdbcTemplate);
+        inOrder.verify(transactionTemplate).execute(any());
+        inOrder.verify(jdbcTemplate).queryForList(LedgerRebuilder.LOCK_ACCOUNTS_SQL, Long.class, 1L, 100L);
+        inOrder.verify(jdbcTemplate).queryForList(LedgerRebuilder.LOCK_STRIPES_SQL, Long.class, 1L, 100L);
+        inOrder.verify(jdbcTemplate).queryForObject(LedgerRebuilder.BOUNDARY_SQL, Long.class, 1L, 100L);
+    }
+
+    @Test
+    void testRebuildRejectsInvalidPartitionCount() {
+        LedgerRebuilder rebuilder = new LedgerRebuilder(mock(JdbcTemplate.class), mock(TransactionTemplate.class));
+
+        assertThrows(IllegalArgumentException.class, () -> rebuilder.rebuild(0));
+        assertThrows(IllegalArgumentException.class, () -> rebuilder.rebuild(65));
+    }
+}
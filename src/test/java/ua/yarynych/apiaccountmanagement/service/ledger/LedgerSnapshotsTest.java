@@ -0,0 +1,128 @@
+package ua.yarynych.apiaccountmanagement.service.ledger;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import ua.yarynych.apiaccountmanagement.entity.BankAccount;
+import ua.yarynych.apiaccountmanagement.repository.BankAccountRepository;
+import ua.yarynych.apiaccountmanagement.service.AccountStripes;
+
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class LedgerSnapshotsTest {
+
+    private static final LocalDateTime AT = LocalDateTime.of(2025, 1, 31, 23, 59);
+
+    private JdbcTemplate jdbcTemplate;
+    private BankAccountRepository bankAccountRepository;
+    private AccountStripes accountStripes;
+    private SimpleMeterRegistry meterRegistry;
+    private LedgerSnapshots snapshots;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        bankAccountRepository = mock(BankAccountRepository.class);
+        accountStripes = mock(AccountStripes.class);
+        meterRegistry = new SimpleMeterRegistry();
+
+        when(transactionTemplate.execute(any()))
+                .thenAnswer(invocation -> invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        snapshots = new LedgerSnapshots(jdbcTemplate, transactionTemplate, bankAccountRepository, accountStripes, meterRegistry);
+        ReflectionTestUtils.setField(snapshots, "everyLegs", 2);
+    }
+
+    @Test
+    void testBalanceAtReplaysLegsAfterLatestSnapshot() {
+        givenSnapshot(40L, 5000L);
+        when(jdbcTemplate.queryForObject(contains("created_at <= ?"), eq(Long.class), eq(7L), eq(40L), eq(Timestamp.valueOf(AT))))
+                .thenReturn(-1200L);
+
+        assertEquals(3800L, snapshots.balanceAt(7L, AT));
+    }
+
+    @Test
+    void testBalanceAtWithoutSnapshotReplaysWholeJournal() {
+        when(jdbcTemplate.queryForObject(contains("created_at <= ?"), eq(Long.class), eq(7L), eq(0L), eq(Timestamp.valueOf(AT))))
+                .thenReturn(700L);
+
+        assertEquals(700L, snapshots.balanceAt(7L, AT));
+    }
+
+    @Test
+    void testSnapshotComparesJournalWithStoredBalance() throws Exception {
+        when(bankAccountRepository.findByIdForUpdate(7L)).thenReturn(Optional.of(new BankAccount(7L, "USD", 3000L, 1L, 2)));
+        when(accountStripes.lockStripes(7L)).thenReturn(500L);
+        givenSnapshot(40L, 5000L);
+        givenTail(45L, -1500L);
+
+        assertTrue(snapshots.snapshot(7L));
+
+        verify(jdbcTemplate).update(startsWith("INSERT INTO account_snapshots"), eq(7L), eq(45L), eq(3500L), any());
+        assertEquals(0, meterRegistry.find("ledger.projection.mismatch").counters().size());
+    }
+
+    @Test
+    void testSnapshotCountsMismatch() throws Exception {
+        when(bankAccountRepository.findByIdForUpdate(7L)).thenReturn(Optional.of(new BankAccount(7L, "USD", 9999L, 1L, 0)));
+        givenSnapshot(40L, 5000L);
+        givenTail(45L, -1500L);
+
+        snapshots.snapshot(7L);
+
+        assertEquals(1.0, meterRegistry.get("ledger.projection.mismatch").counter().count());
+    }
+
+    @Test
+    void testAccountsAreSnapshottedOnceEnoughLegsWereSeen() throws Exception {
+        when(bankAccountRepository.findByIdForUpdate(7L)).thenReturn(Optional.of(new BankAccount(7L, "USD", 0L, 1L, 0)));
+        givenTail(0L, 0L);
+
+        snapshots.recordLeg(7L);
+        snapshots.recordLeg(8L);
+        snapshots.recordLeg(7L);
+        snapshots.snapshotDue();
+
+        verify(bankAccountRepository).findByIdForUpdate(7L);
+        verify(bankAccountRepository, never()).findByIdForUpdate(8L);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void givenSnapshot(long lastLegId, long balanceMinor) {
+        when(jdbcTemplate.query(startsWith("SELECT last_leg_id"), any(RowMapper.class), eq(7L)))
+                .thenAnswer(invocation -> List.of(map(invocation.getArgument(1), lastLegId, balanceMinor)));
+        when(jdbcTemplate.query(startsWith("SELECT last_leg_id"), any(RowMapper.class), eq(7L), any(Timestamp.class)))
+                .thenAnswer(invocation -> List.of(map(invocation.getArgument(1), lastLegId, balanceMinor)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void givenTail(long lastLegId, long sumMinor) throws Exception {
+        ResultSet row = mock(ResultSet.class);
+        when(row.getLong(1)).thenReturn(lastLegId);
+        when(row.getLong(2)).thenReturn(sumMinor);
+        when(row.getTimestamp(3)).thenReturn(Timestamp.valueOf(AT));
+        when(jdbcTemplate.queryForObject(startsWith("SELECT COALESCE(MAX(id)"), any(RowMapper.class), eq(7L), anyLong()))
+                .thenAnswer(invocation -> invocation.<RowMapper<?>>getArgument(1).mapRow(row, 0));
+    }
+
+    private static Object map(RowMapper<?> mapper, long first, long second) throws Exception {
+        ResultSet row = mock(ResultSet.class);
+        when(row.getLong(1)).thenReturn(first);
+        when(row.getLong(2)).thenReturn(second);
+        return mapper.mapRow(row, 0);
+    }
+}
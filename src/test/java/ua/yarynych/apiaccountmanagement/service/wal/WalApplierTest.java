@@ -0,0 +1,111 @@
+package ua.yarynych.apiaccountmanagement.service.wal;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.test.util.ReflectionTestUtils;
+import ua.yarynych.apiaccountmanagement.entity.enums.Currency;
+import ua.yarynych.apiaccountmanagement.entity.exceptions.ConcurrentUpdateException;
+import ua.yarynych.apiaccountmanagement.entity.exceptions.DatabaseNotFoundException;
+import ua.yarynych.apiaccountmanagement.service.TransactionsService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class WalApplierTest {
+
+    private static final WalRecord FIRST = new WalRecord(1L, 7L, 1L, 100L, Currency.USD, null, 0L);
+    private static final WalRecord SECOND = new WalRecord(2L, 7L, 1L, 200L, Currency.USD, null, 0L);
+    private static final WalRecord THIRD = new WalRecord(3L, 8L, 1L, 300L, Currency.USD, null, 0L);
+
+    private WriteAheadLog writeAheadLog;
+    private TransactionsService transactionsService;
+    private JdbcTemplate jdbcTemplate;
+    private SimpleMeterRegistry meterRegistry;
+    private WalApplier applier;
+    private final List<List<WalRecord>> applied = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        writeAheadLog = mock(WriteAheadLog.class);
+        transactionsService = mock(TransactionsService.class);
+        jdbcTemplate = mock(JdbcTemplate.class);
+        meterRegistry = new SimpleMeterRegistry();
+        applier = new WalApplier(writeAheadLog, transactionsService, jdbcTemplate, meterRegistry);
+
+        when(writeAheadLog.isEnabled()).thenReturn(true);
+        when(writeAheadLog.recovered()).thenReturn(List.of(FIRST, SECOND, THIRD));
+        doAnswer(invocation -> {
+            List<WalRecord> batch = invocation.getArgument(0);
+            if (batch.contains(SECOND)) {
+                throw new DatabaseNotFoundException("Account not found");
+            }
+            applied.add(batch);
+            invocation.<Runnable>getArgument(1).run();
+            return null;
+        }).when(transactionsService).applyLoggedDeposits(anyList(), any());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        applier.shutdown();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testReplayStartsAfterStoredSequence() {
+        when(jdbcTemplate.query(anyString(), any(ResultSetExtractor.class), eq("local"))).thenReturn(2L);
+
+        applier.start();
+
+        assertEquals(List.of(List.of(THIRD)), applied);
+        verify(jdbcTemplate).update(WalApplier.MARK_SQL, "local", 3L);
+        verify(writeAheadLog).applied(3L, Set.of(8L));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testDepositThatCannotBeAppliedIsSkipped() {
+        when(jdbcTemplate.query(anyString(), any(ResultSetExtractor.class), eq("local"))).thenReturn(0L);
+
+        applier.start();
+
+        assertEquals(List.of(List.of(FIRST), List.of(THIRD)), applied);
+        verify(jdbcTemplate).update(WalApplier.MARK_SQL, "local", 2L);
+        assertEquals(1.0, meterRegistry.get("wal.apply.skipped").counter().count());
+        assertEquals(2.0, meterRegistry.get("wal.apply.records").counter().count());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testBusyAccountIsRetriedNotSkipped() {
+        ReflectionTestUtils.setField(applier, "retryIntervalMs", 1L);
+        when(jdbcTemplate.query(anyString(), any(ResultSetExtractor.class), eq("local"))).thenReturn(0L);
+        AtomicInteger attempts = new AtomicInteger();
+        doAnswer(invocation -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new ConcurrentUpdateException("Account is busy, try again later");
+            }
+            applied.add(invocation.getArgument(0));
+            invocation.<Runnable>getArgument(1).run();
+            return null;
+        }).when(transactionsService).applyLoggedDeposits(anyList(), any());
+
+        applier.start();
+
+        assertEquals(List.of(List.of(FIRST, SECOND, THIRD)), applied);
+        verify(jdbcTemplate, times(1)).update(WalApplier.MARK_SQL, "local", 3L);
+        verify(jdbcTemplate, never()).update(eq(WalApplier.MARK_SQL), eq("local"), longThat(sequence -> sequence < 3L));
+        assertEquals(1.0, meterRegistry.get("wal.apply.retries").counter().count());
+        assertEquals(0.0, meterRegistry.get("wal.apply.skipped").counter().count());
+    }
+}
@@ -0,0 +1,129 @@
+package ua.yarynych.apiaccountmanagement.service.wal;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import ua.yarynych.apiaccountmanagement.entity.enums.Currency;
+import ua.yarynych.apiaccountmanagement.entity.exceptions.ConcurrentUpdateException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteAheadLogTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<WriteAheadLog> opened = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (WriteAheadLog log : opened) {
+            log.shutdown();
+        }
+    }
+
+    @Test
+    void testAcknowledgedRecordsAreRecoveredAfterRestart() throws Exception {
+        WriteAheadLog log = open(1024 * 1024);
+        WalRecord first = log.append(7L, 1L, 500L, Currency.USD, "first").get();
+        WalRecord second = log.append(8L, null, 250L, Currency.EUR, null).get();
+        log.shutdown();
+
+        WriteAheadLog reopened = open(1024 * 1024);
+
+        assertEquals(List.of(first, second), reopened.recovered());
+        assertEquals(3L, reopened.append(7L, 1L, 1L, Currency.USD, "third").get().sequence());
+    }
+
+    @Test
+    void testTornRecordIsNotRecovered() throws Exception {
+        WriteAheadLog log = open(1024 * 1024);
+        WalRecord first = log.append(7L, 1L, 500L, Currency.USD, null).get();
+        log.append(7L, 1L, 600L, Currency.USD, null).get();
+        log.shutdown();
+
+        try (FileChannel channel = FileChannel.open(directory.resolve(String.format("%020d.wal", 1)), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{42}), first.size() + WalRecord.HEADER_BYTES + 20);
+        }
+
+        assertEquals(List.of(first), open(1024 * 1024).recovered());
+    }
+
+    @Test
+    void testAppliedSegmentsAreDeleted() throws Exception {
+        WriteAheadLog log = open(256);
+        List<CompletableFuture<WalRecord>> appended = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            appended.add(log.append(7L, 1L, 100L, Currency.USD, "deposit"));
+        }
+        CompletableFuture.allOf(appended.toArray(CompletableFuture[]::new)).get();
+        assertTrue(WalSegment.list(directory).size() > 1);
+
+        log.applied(10L, Set.of(7L));
+
+        assertEquals(1, WalSegment.list(directory).size());
+        assertEquals(10, log.takeDurable(100, 10).size());
+    }
+
+    @Test
+    void testSequencesContinueAfterIdleRestartOnceEverythingIsApplied() throws Exception {
+        WriteAheadLog log = open(1024 * 1024);
+        log.append(7L, 1L, 500L, Currency.USD, null).get();
+        log.append(7L, 1L, 600L, Currency.USD, null).get();
+        log.shutdown();
+
+        // the applier marks both records applied, which deletes their segment and leaves an empty one
+        WriteAheadLog applied = open(1024 * 1024);
+        applied.applied(2L, Set.of(7L));
+        applied.shutdown();
+
+        WriteAheadLog idle = open(1024 * 1024);
+        assertTrue(idle.recovered().isEmpty());
+        idle.applied(2L, Set.of(7L));
+        ReflectionTestUtils.setField(idle, "applyWaitMs", 50L);
+        WalRecord deposit = idle.append(7L, 1L, 700L, Currency.USD, null).get();
+
+        assertEquals(3L, deposit.sequence());
+        assertThrows(ConcurrentUpdateException.class, () -> idle.awaitApplied(List.of(7L)));
+
+        // crash before the deposit is applied: the replay after the stored sequence 2 must still see it
+        idle.shutdown();
+        List<WalRecord> replay = open(1024 * 1024).recovered().stream().filter(record -> record.sequence() > 2L).toList();
+        assertEquals(List.of(deposit), replay);
+    }
+
+    @Test
+    void testDebitsWaitForLoggedDepositsToTheirAccounts() throws Exception {
+        WriteAheadLog log = open(1024 * 1024);
+        ReflectionTestUtils.setField(log, "applyWaitMs", 50L);
+        WalRecord record = log.append(7L, 1L, 500L, Currency.USD, null).get();
+
+        assertThrows(ConcurrentUpdateException.class, () -> log.awaitApplied(List.of(7L)));
+        assertDoesNotThrow(() -> log.awaitApplied(List.of(8L)));
+
+        log.applied(record.sequence(), Set.of(7L));
+
+        assertDoesNotThrow(() -> log.awaitApplied(List.of(7L)));
+    }
+
+    private WriteAheadLog open(int segmentBytes) throws Exception {
+        WriteAheadLog log = new WriteAheadLog(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(log, "enabled", true);
+        ReflectionTestUtils.setField(log, "directory", directory.toString());
+        ReflectionTestUtils.setField(log, "segmentBytes", segmentBytes);
+        log.init();
+        opened.add(log);
+        return log;
+    }
+}